@@ -452,7 +452,7 @@ public class SymbolTableImpl<K, L, E> implements SymbolTable<K, L, E>
      *
      * @author Rupert Smith
      */
-    private static class CompositeKey<K>
+    static class CompositeKey<K>
     {
         /** The unique sequence key of the parent composite symbol. */
         int parentSequenceKey;
@@ -466,7 +466,7 @@ public class SymbolTableImpl<K, L, E> implements SymbolTable<K, L, E>
          * @param parentSequenceKey The parent keys unique sequence number, or zero for the top-level table.
          * @param key               The symbol key.
          */
-        private CompositeKey(int parentSequenceKey, K key)
+        CompositeKey(int parentSequenceKey, K key)
         {
             this.parentSequenceKey = parentSequenceKey;
             this.key = key;
@@ -501,15 +501,17 @@ public class SymbolTableImpl<K, L, E> implements SymbolTable<K, L, E>
 
         /**
          * Computes a hash code for the composite key, based on combing the parent sequence key with the symbol keys
-         * hashcode.
+         * hashcode. The parent sequence key is spread over the whole range of an int first, as parent keys and symbol
+         * keys are mostly small numbers, and adding them as they are gives many keys the same hash code. The sequence
+         * function cannot place more than two keys with the same hash code.
          *
          * @return A hash code for the composite key.
          */
         public int hashCode()
         {
             int result;
-            result = parentSequenceKey;
-            result = (31 * result) + ((key != null) ? key.hashCode() : 0);
+            result = parentSequenceKey * 0x9e3779b9;
+            result = result + ((key != null) ? key.hashCode() : 0);
 
             return result;
         }
@@ -395,7 +395,7 @@ public class SequentialCuckooFunction<K> implements SequentialFunction<K>
         // Keep hold of the old table, until a new one is succesfully buily.
         Entry<K>[] oldTable = hashTable;
         hashTableSize = newSize;
-        length = hashTable.length;
+        length = newSize;
 
         // Keep rehashing the table until it is succesfully rebuilt.
         boolean rehashedOk;
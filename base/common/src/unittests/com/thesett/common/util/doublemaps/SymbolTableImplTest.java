@@ -15,12 +15,16 @@
  */
 package com.thesett.common.util.doublemaps;
 
+import java.util.HashSet;
+import java.util.Set;
+
 /**
  * SymbolTableImplTest test the {@link SymbolTableImpl} implementation.
  *
  * <pre><p/><table id="crc"><caption>CRC Card</caption>
  * <tr><th>Responsibilities<th>Collaborations
  * <tr><td>Check against all symbol table tests.
+ * <tr><td>Check that composite keys made of small parent and symbol keys do not share hash codes.
  * </table></pre>
  *
  * @author Rupert Smith
@@ -40,6 +44,23 @@ public class SymbolTableImplTest extends SymbolTableTestBase<Integer, Object, Ob
         super(name, new SymbolTableImpl<Integer, Object, Object>());
     }
 
+    /** Check that composite keys made of small parent and symbol keys do not share hash codes. */
+    public void testSmallCompositeKeysDoNotCollide() throws Exception
+    {
+        Set<Integer> hashCodes = new HashSet<Integer>();
+
+        for (int parent = 0; parent < 256; parent++)
+        {
+            for (int key = 0; key < 256; key++)
+            {
+                int hashCode = new SymbolTableImpl.CompositeKey<Integer>(parent, key).hashCode();
+
+                assertTrue("The composite key (" + parent + ", " + key + ") shares the hash code " + hashCode +
+                    " with another.", hashCodes.add(hashCode));
+            }
+        }
+    }
+
     /** {@inheritDoc} */
     protected Integer createTestKey()
     {
@@ -15,6 +15,9 @@
  */
 package com.thesett.common.util.maps;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * SequentialCuckooFunctionTest test the {@link SequentialCuckooFunction} over object keys.
  *
@@ -23,6 +26,7 @@ package com.thesett.common.util.maps;
  * <tr><td>Check that the function produces sequential values.
  * <tr><td>Check that the function does not forget values.
  * <tr><td>Check that input values can be removed from the function.
+ * <tr><td>Check that the function does not forget values as its table grows.
  * </table></pre>
  *
  * @author Rupert Smith
@@ -39,6 +43,34 @@ public class SequentialCuckooFunctionTest extends SequentialFunctionTestBase<Tes
         super(name, new SequentialCuckooFunction<TestObject>());
     }
 
+    /** Check that the function does not forget values as its table grows. */
+    public void testGrowingKeepsValues()
+    {
+        SequentialCuckooFunction<TestObject> function = (SequentialCuckooFunction<TestObject>) testFunction;
+        List<TestObject> values = new ArrayList<TestObject>();
+
+        // The table starts out with 16 entries and is grown many times over. After each time the number of values
+        // doubles, every value so far must still be found, under the sequence number it was first given.
+        for (int size = 1; size <= (TEST_SIZE * 16); size *= 2)
+        {
+            while (values.size() < size)
+            {
+                TestObject value = createTestValue();
+                assertEquals("Function is not sequential.", values.size(), (int) function.apply(value));
+                values.add(value);
+            }
+
+            for (int seq = 0; seq < size; seq++)
+            {
+                assertTrue("Function forgot " + seq + " after growing to " + size + " values.",
+                    function.containsKey(values.get(seq)));
+                assertEquals("Function is not reproducable.", seq, (int) function.apply(values.get(seq)));
+            }
+
+            assertFalse("Function knows a value it was never given.", function.containsKey(createTestValue()));
+        }
+    }
+
     /**
      * Creates new objects as test values to insert into the function.
      *
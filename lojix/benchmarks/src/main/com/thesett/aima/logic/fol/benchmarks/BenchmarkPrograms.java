@@ -0,0 +1,234 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+
+import com.thesett.aima.logic.fol.Clause;
+import com.thesett.aima.logic.fol.LogicCompiler;
+import com.thesett.aima.logic.fol.Parser;
+import com.thesett.aima.logic.fol.Variable;
+import com.thesett.aima.logic.fol.VariableAndFunctorInterner;
+import com.thesett.aima.logic.fol.VariableAndFunctorInternerImpl;
+import com.thesett.aima.logic.fol.interpreter.ResolutionEngine;
+import com.thesett.aima.logic.fol.isoprologparser.SentenceParser;
+import com.thesett.aima.logic.fol.isoprologparser.Token;
+import com.thesett.aima.logic.fol.isoprologparser.TokenSource;
+import com.thesett.aima.logic.fol.prolog.PrologCompiler;
+import com.thesett.aima.logic.fol.prolog.PrologEngine;
+import com.thesett.aima.logic.fol.prolog.PrologResolver;
+import com.thesett.aima.logic.fol.wam.compiler.WAMCompiledPredicate;
+import com.thesett.aima.logic.fol.wam.compiler.WAMCompiledQuery;
+import com.thesett.aima.logic.fol.wam.compiler.WAMCompiler;
+import com.thesett.aima.logic.fol.wam.machine.WAMEngine;
+import com.thesett.aima.logic.fol.wam.machine.WAMResolvingJavaMachine;
+import com.thesett.common.parsing.SourceCodeException;
+import com.thesett.common.util.doublemaps.SymbolTableImpl;
+
+/**
+ * BenchmarkPrograms holds the classic Prolog benchmark suite, and the engines that it is run on. Each program is a
+ * resource on the classpath, under 'benchmarks/', that defines a predicate bench/0 which runs the benchmark once, and
+ * succeeds once.
+ *
+ * <p/>The programs are written in the subset of Prolog that both engines understand, so some of them differ a little
+ * from their usual form; crypt solves SEND + MORE = MONEY, and poly orders its variables with a table of facts rather
+ * than with the standard order of terms.
+ *
+ * <p/>The number of logical inferences that a program makes is counted by running it once on the WAM, which counts a
+ * call to a predicate as an inference. The same count is used for both engines, so that their LIPS may be compared.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Create the engines to benchmark. <td> {@link WAMEngine}, {@link PrologEngine}.
+ * <tr><td> Read the benchmark programs.
+ * <tr><td> Load a benchmark program into an engine.
+ * <tr><td> Run a benchmark program once.
+ * <tr><td> Count the inferences made by a benchmark program. <td> {@link WAMResolvingJavaMachine}.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class BenchmarkPrograms
+{
+    /** The name of the engine that runs programs on the WAM. */
+    public static final String WAM = "wam";
+
+    /** The name of the engine that runs programs on the Prolog interpreter. */
+    public static final String PROLOG = "prolog";
+
+    /** The query that runs a benchmark program once. */
+    public static final String BENCH_QUERY = "?- bench.";
+
+    /** Holds the size of the buffer to read programs through. */
+    private static final int BUFFER_SIZE = 4096;
+
+    /** No instances of this class are created. */
+    private BenchmarkPrograms()
+    {
+    }
+
+    /**
+     * Creates an engine to run programs on.
+     *
+     * @param  engine The name of the engine, {@link #WAM} or {@link #PROLOG}.
+     *
+     * @return A new engine, not reset yet.
+     *
+     * @throws IllegalArgumentException If the engine name is not known.
+     */
+    public static ResolutionEngine<Clause, ?, ?> createEngine(String engine)
+    {
+        if (WAM.equals(engine))
+        {
+            return createWAMEngine();
+        }
+        else if (PROLOG.equals(engine))
+        {
+            VariableAndFunctorInterner interner =
+                new VariableAndFunctorInternerImpl("Prolog_Variable_Namespace", "Prolog_Functor_Namespace");
+
+            Parser<Clause, Token> parser = new SentenceParser(interner);
+            PrologCompiler compiler = new PrologCompiler(interner);
+            PrologResolver resolver = new PrologResolver(interner);
+
+            return new PrologEngine(parser, interner, compiler, resolver);
+        }
+        else
+        {
+            throw new IllegalArgumentException("Unknown engine: " + engine);
+        }
+    }
+
+    /**
+     * Reads the source text of a program.
+     *
+     * @param  program The name of the program.
+     *
+     * @return The source text of the program.
+     *
+     * @throws IllegalArgumentException If there is no such program.
+     * @throws IllegalStateException    If the program cannot be read.
+     */
+    public static byte[] read(String program)
+    {
+        InputStream in = BenchmarkPrograms.class.getClassLoader().getResourceAsStream("benchmarks/" + program + ".pl");
+
+        if (in == null)
+        {
+            throw new IllegalArgumentException("Unknown benchmark program: " + program);
+        }
+
+        try
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer))
+            {
+                out.write(buffer, 0, n);
+            }
+
+            in.close();
+
+            return out.toByteArray();
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Could not read the benchmark program: " + program, e);
+        }
+    }
+
+    /**
+     * Consults the source text of a program into an engine, and ends the scope so that it is ready to run.
+     *
+     * @param  engine The engine to load the program into.
+     * @param  source The source text of the program.
+     *
+     * @throws SourceCodeException If the program fails to parse, compile or link.
+     */
+    public static void consult(ResolutionEngine<Clause, ?, ?> engine, byte[] source) throws SourceCodeException
+    {
+        engine.consultInputStream(new ByteArrayInputStream(source));
+        engine.endScope();
+    }
+
+    /**
+     * Runs the program loaded into an engine once.
+     *
+     * @param  engine The engine to run on.
+     *
+     * @return The solution to the benchmark query.
+     *
+     * @throws SourceCodeException   If the query fails to parse or compile.
+     * @throws IllegalStateException If the program does not succeed.
+     */
+    public static Set<Variable> run(ResolutionEngine<Clause, ?, ?> engine) throws SourceCodeException
+    {
+        engine.setTokenSource(TokenSource.getTokenSourceForString(BENCH_QUERY));
+        engine.compile(engine.parse());
+
+        Set<Variable> solution = engine.resolve();
+
+        if (solution == null)
+        {
+            throw new IllegalStateException("The benchmark program failed.");
+        }
+
+        return solution;
+    }
+
+    /**
+     * Counts the logical inferences that a program makes when it is run once, by running it on the WAM.
+     *
+     * @param  program The name of the program.
+     *
+     * @return The number of inferences made by one run of the program.
+     *
+     * @throws SourceCodeException If the program fails to parse, compile or link.
+     */
+    public static long countInferences(String program) throws SourceCodeException
+    {
+        WAMEngine engine = createWAMEngine();
+        engine.reset();
+        consult(engine, read(program));
+        run(engine);
+
+        return ((WAMResolvingJavaMachine) engine.getResolver()).getInferences();
+    }
+
+    /**
+     * Creates an engine over a WAM machine. The programs call predicates that they define further on, some of them
+     * mutually recursive, so the machine links calls through its procedure table.
+     *
+     * @return A new engine over a WAM machine, not reset yet.
+     */
+    private static WAMEngine createWAMEngine()
+    {
+        SymbolTableImpl<Integer, String, Object> symbolTable = new SymbolTableImpl<Integer, String, Object>();
+
+        WAMResolvingJavaMachine machine = new WAMResolvingJavaMachine(symbolTable);
+        machine.setProcedureTable(true);
+
+        LogicCompiler<Clause, WAMCompiledPredicate, WAMCompiledQuery> compiler = new WAMCompiler(symbolTable, machine);
+        Parser<Clause, Token> parser = new SentenceParser(machine);
+
+        return new WAMEngine(parser, machine, compiler, machine);
+    }
+}
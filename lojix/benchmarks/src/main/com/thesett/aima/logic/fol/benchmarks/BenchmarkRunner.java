@@ -0,0 +1,174 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.benchmarks;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * BenchmarkRunner runs the benchmark suite with the GC profiler, and prints a summary of the results, with a line for
+ * each program on each engine, giving:
+ *
+ * <pre>
+ * LIPS        The number of logical inferences per second.
+ * B/LI        The number of bytes allocated per logical inference.
+ * Consult us  The time taken to consult the program, in microseconds.
+ * Compile us  The time taken to compile the parsed program, in microseconds.
+ * </pre>
+ *
+ * <p/>Any arguments are passed on to JMH, so that the benchmarks run may be picked out by a regular expression, or the
+ * number of iterations changed, in the usual way. For example, '-p program=nrev' benchmarks nrev alone, and
+ * 'CompiledTierBenchmark' compares the WAM with and without its compiled tier, which is not run by default.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Run the benchmarks, with the GC profiler. <td> {@link RunBenchmark}, {@link LoadBenchmark}.
+ * <tr><td> Label the results of the WAM in each of its tiers. <td> {@link CompiledTierBenchmark}.
+ * <tr><td> Summarize LIPS, allocation per inference, consult time and compile time.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class BenchmarkRunner
+{
+    /** The name of the secondary result holding the count of inferences. */
+    private static final String INFERENCES = "inferences";
+
+    /** The names that the GC profiler has given to the bytes allocated per operation, in different JMH versions. */
+    private static final String[] ALLOCATION = { "\u00b7gc.alloc.rate.norm", "gc.alloc.rate.norm" };
+
+    /**
+     * Runs the benchmarks, and prints a summary of the results.
+     *
+     * @param  args The command line arguments, passed on to JMH.
+     *
+     * @throws Exception If the arguments are not valid, or the benchmarks fail to run.
+     */
+    public static void main(String[] args) throws Exception
+    {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(commandLine);
+
+        if (commandLine.getIncludes().isEmpty())
+        {
+            builder.include(RunBenchmark.class.getSimpleName());
+            builder.include(LoadBenchmark.class.getSimpleName());
+        }
+
+        Options options = builder.addProfiler(GCProfiler.class).build();
+
+        Collection<RunResult> results = new Runner(options).run();
+
+        printSummary(results);
+    }
+
+    /**
+     * Prints a summary of the results of the benchmarks.
+     *
+     * @param results The results of the benchmarks.
+     */
+    private static void printSummary(Collection<RunResult> results)
+    {
+        // Gather the results by engine and program, in the order: LIPS, B/LI, consult, compile.
+        Map<String, double[]> rows = new TreeMap<String, double[]>();
+
+        for (RunResult result : results)
+        {
+            String benchmark = result.getParams().getBenchmark();
+            String engine = result.getParams().getParam("engine");
+
+            // The compiled tier benchmark runs on the WAM alone, in each of its tiers.
+            if (engine == null)
+            {
+                engine = BenchmarkPrograms.WAM + "-" + result.getParams().getParam("tier");
+            }
+
+            String key = engine + " " + result.getParams().getParam("program");
+
+            double[] row = rows.get(key);
+
+            if (row == null)
+            {
+                row = new double[] { Double.NaN, Double.NaN, Double.NaN, Double.NaN };
+                rows.put(key, row);
+            }
+
+            if (benchmark.endsWith(".run"))
+            {
+                Map<String, Result> secondary = result.getSecondaryResults();
+
+                double runs = result.getPrimaryResult().getScore();
+                double lips = secondary.containsKey(INFERENCES) ? secondary.get(INFERENCES).getScore() : Double.NaN;
+
+                row[0] = lips;
+                row[1] = allocation(secondary) / (lips / runs);
+            }
+            else if (benchmark.endsWith(".consult"))
+            {
+                row[2] = result.getPrimaryResult().getScore();
+            }
+            else if (benchmark.endsWith(".compile"))
+            {
+                row[3] = result.getPrimaryResult().getScore();
+            }
+        }
+
+        System.out.println();
+        System.out.println(String.format("%-20s %14s %10s %12s %12s", "Benchmark", "LIPS", "B/LI", "Consult us",
+                "Compile us"));
+
+        for (Map.Entry<String, double[]> entry : rows.entrySet())
+        {
+            double[] row = entry.getValue();
+
+            System.out.println(String.format("%-20s %14.0f %10.1f %12.1f %12.1f", entry.getKey(), row[0], row[1],
+                    row[2], row[3]));
+        }
+    }
+
+    /**
+     * Looks up the bytes allocated per operation, from the results of the GC profiler.
+     *
+     * @param  secondary The secondary results of a benchmark.
+     *
+     * @return The bytes allocated per operation, or <tt>NaN</tt> if the GC profiler did not report it.
+     */
+    private static double allocation(Map<String, Result> secondary)
+    {
+        for (String name : ALLOCATION)
+        {
+            Result result = secondary.get(name);
+
+            if (result != null)
+            {
+                return result.getScore();
+            }
+        }
+
+        return Double.NaN;
+    }
+}
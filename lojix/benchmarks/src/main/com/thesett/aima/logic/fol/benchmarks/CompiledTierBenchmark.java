@@ -0,0 +1,123 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.benchmarks;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.thesett.aima.logic.fol.Clause;
+import com.thesett.aima.logic.fol.Variable;
+import com.thesett.aima.logic.fol.interpreter.ResolutionEngine;
+import com.thesett.aima.logic.fol.wam.machine.WAMResolvingJavaMachine;
+import com.thesett.common.parsing.SourceCodeException;
+
+/**
+ * CompiledTierBenchmark measures what compiling hot predicates to Java byte code gains over interpreting them, by
+ * running each program of the benchmark suite on the WAM with the compiled tier turned off, and with it compiling every
+ * predicate on its first call. The score is the number of runs of the program per second, with the LIPS reported
+ * alongside it, as for {@link RunBenchmark}.
+ *
+ * <p/>The compiled tier turns straight runs of the instructions that move data and unify into calls onto the same
+ * operations that the interpreter runs, so what it saves is the decoding and dispatch of those instructions. Control
+ * instructions, and so the calls and backtracking that most of these programs spend their time on, are interpreted in
+ * both tiers.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Load a program into a WAM machine, with or without the compiled tier. <td> {@link BenchmarkPrograms}.
+ * <tr><td> Measure the rate at which the program runs, and the inferences it makes. <td> {@link Inferences}.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompiledTierBenchmark
+{
+    /** The name of the tier that interprets all of the code. */
+    public static final String INTERPRETED = "interpreted";
+
+    /** The name of the tier that compiles predicates to Java byte code. */
+    public static final String COMPILED = "compiled";
+
+    /** Holds the name of the tier to run on. */
+    @Param({ INTERPRETED, COMPILED })
+    public String tier;
+
+    /** Holds the name of the program to run. */
+    @Param({ "nrev", "queens", "crypt", "deriv", "tak", "zebra", "poly", "query", "serialise" })
+    public String program;
+
+    /** Holds the engine that the program is loaded into. */
+    private ResolutionEngine<Clause, ?, ?> resolutionEngine;
+
+    /** Holds the number of logical inferences made by one run of the program. */
+    private long inferencesPerRun;
+
+    /**
+     * Loads the program into a WAM engine, set to compile predicates on their first call or not at all, and counts the
+     * inferences made by one run of it.
+     *
+     * @throws SourceCodeException If the program fails to parse, compile or link.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws SourceCodeException
+    {
+        inferencesPerRun = BenchmarkPrograms.countInferences(program);
+
+        resolutionEngine = BenchmarkPrograms.createEngine(BenchmarkPrograms.WAM);
+        resolutionEngine.reset();
+
+        WAMResolvingJavaMachine machine = (WAMResolvingJavaMachine) resolutionEngine.getResolver();
+        machine.setCompilationThreshold(COMPILED.equals(tier) ? 1 : 0);
+
+        BenchmarkPrograms.consult(resolutionEngine, BenchmarkPrograms.read(program));
+    }
+
+    /**
+     * Runs the program once.
+     *
+     * @param  counter The count of inferences made, to add the inferences of this run to.
+     *
+     * @return The solution to the program, so that the run is not optimized away.
+     *
+     * @throws SourceCodeException If the benchmark query fails to parse or compile.
+     */
+    @Benchmark
+    public Set<Variable> run(Inferences counter) throws SourceCodeException
+    {
+        counter.inferences += inferencesPerRun;
+
+        return BenchmarkPrograms.run(resolutionEngine);
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Inferences counts the logical inferences made by a benchmark, alongside the number of times that it is run. JMH
+ * reports the count as a rate, which is the number of logical inferences per second (LIPS).
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities
+ * <tr><td> Count the logical inferences made in each iteration of a benchmark.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Inferences
+{
+    /** Holds the number of logical inferences made in the current iteration. */
+    public long inferences;
+
+    /** Clears the count at the start of each iteration. */
+    @Setup(Level.Iteration)
+    public void clear()
+    {
+        inferences = 0;
+    }
+}
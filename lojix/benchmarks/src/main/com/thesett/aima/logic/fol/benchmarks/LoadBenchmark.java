@@ -0,0 +1,161 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.thesett.aima.logic.fol.Clause;
+import com.thesett.aima.logic.fol.Sentence;
+import com.thesett.aima.logic.fol.interpreter.ResolutionEngine;
+import com.thesett.aima.logic.fol.isoprologparser.MappedTokenSource;
+import com.thesett.aima.logic.fol.isoprologparser.TokenSource;
+import com.thesett.common.parsing.SourceCodeException;
+
+/**
+ * LoadBenchmark measures how long each engine takes to load each program of the benchmark suite. Consulting a program
+ * reads it from its source text, so takes in parsing as well as compiling and linking it. Compiling a program starts
+ * from clauses already parsed, so takes in only compiling and linking it. The difference between the two is the time
+ * spent parsing. Consulting is measured both with the token manager generated from the grammar, and with the scanner
+ * that tokenizes straight from bytes.
+ *
+ * <p/>A new engine is created and reset before each load, outside of the time measured, so that each load starts from
+ * an engine holding only its built-in library. The same engine is not reset over again, as resetting a WAM engine
+ * loads its library into a new scope of its symbol table, which grows without bound over the many loads made.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Measure the time taken to consult a program. <td> {@link BenchmarkPrograms}.
+ * <tr><td> Measure the time taken to consult a program tokenized from bytes. <td> {@link MappedTokenSource}.
+ * <tr><td> Measure the time taken to compile a parsed program.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadBenchmark
+{
+    /** Holds the name of the engine to load into. */
+    @Param({ BenchmarkPrograms.WAM, BenchmarkPrograms.PROLOG })
+    public String engine;
+
+    /** Holds the name of the program to load. */
+    @Param({ "nrev", "queens", "crypt", "deriv", "tak", "zebra", "poly", "query", "serialise" })
+    public String program;
+
+    /** Holds the engine that the program is loaded into. */
+    private ResolutionEngine<Clause, ?, ?> resolutionEngine;
+
+    /** Holds the source text of the program. */
+    private byte[] source;
+
+    /** Holds the clauses of the program, parsed ready to compile. */
+    private List<Sentence<Clause>> sentences = new ArrayList<Sentence<Clause>>();
+
+    /** Reads the source text of the program. */
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        source = BenchmarkPrograms.read(program);
+    }
+
+    /**
+     * Creates and resets a new engine, and parses the program, ready for the next load.
+     *
+     * @throws SourceCodeException If the program fails to parse.
+     */
+    @Setup(Level.Invocation)
+    public void reset() throws SourceCodeException
+    {
+        resolutionEngine = BenchmarkPrograms.createEngine(engine);
+        resolutionEngine.reset();
+
+        resolutionEngine.setTokenSource(TokenSource.getTokenSourceForInputStream(new ByteArrayInputStream(source)));
+        sentences.clear();
+
+        for (Sentence<Clause> sentence = resolutionEngine.parse(); sentence != null;
+                sentence = resolutionEngine.parse())
+        {
+            sentences.add(sentence);
+        }
+    }
+
+    /**
+     * Consults the program from its source text.
+     *
+     * @throws SourceCodeException If the program fails to parse, compile or link.
+     */
+    @Benchmark
+    public void consult() throws SourceCodeException
+    {
+        BenchmarkPrograms.consult(resolutionEngine, source);
+    }
+
+    /**
+     * Consults the program from its source text, tokenized straight from its bytes.
+     *
+     * @throws SourceCodeException If the program fails to parse, compile or link.
+     */
+    @Benchmark
+    public void consultMapped() throws SourceCodeException
+    {
+        resolutionEngine.setTokenSource(MappedTokenSource.getTokenSourceForBytes(source));
+
+        for (Sentence<Clause> sentence = resolutionEngine.parse(); sentence != null;
+                sentence = resolutionEngine.parse())
+        {
+            resolutionEngine.compile(sentence);
+        }
+
+        resolutionEngine.endScope();
+    }
+
+    /**
+     * Compiles the parsed clauses of the program.
+     *
+     * @throws SourceCodeException If the program fails to compile or link.
+     */
+    @Benchmark
+    public void compile() throws SourceCodeException
+    {
+        for (Sentence<Clause> sentence : sentences)
+        {
+            resolutionEngine.compile(sentence);
+        }
+
+        resolutionEngine.endScope();
+    }
+}
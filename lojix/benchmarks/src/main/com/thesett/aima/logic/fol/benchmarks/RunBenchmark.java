@@ -0,0 +1,106 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.benchmarks;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.thesett.aima.logic.fol.Clause;
+import com.thesett.aima.logic.fol.Variable;
+import com.thesett.aima.logic.fol.interpreter.ResolutionEngine;
+import com.thesett.common.parsing.SourceCodeException;
+
+/**
+ * RunBenchmark measures how fast each engine runs each program of the benchmark suite, once the program has been
+ * loaded. The score is the number of runs of the program per second, and the number of logical inferences per second
+ * (LIPS) is reported alongside it. When run with the GC profiler, the allocation per run is reported too, which
+ * divided by the inferences per run gives the allocation per inference; {@link BenchmarkRunner} works this out.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Load a program into an engine, before it is measured. <td> {@link BenchmarkPrograms}.
+ * <tr><td> Measure the rate at which the program runs, and the inferences it makes. <td> {@link Inferences}.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RunBenchmark
+{
+    /** Holds the name of the engine to run on. */
+    @Param({ BenchmarkPrograms.WAM, BenchmarkPrograms.PROLOG })
+    public String engine;
+
+    /** Holds the name of the program to run. */
+    @Param({ "nrev", "queens", "crypt", "deriv", "tak", "zebra", "poly", "query", "serialise" })
+    public String program;
+
+    /** Holds the engine that the program is loaded into. */
+    private ResolutionEngine<Clause, ?, ?> resolutionEngine;
+
+    /** Holds the number of logical inferences made by one run of the program. */
+    private long inferencesPerRun;
+
+    /**
+     * Loads the program into the engine, and counts the inferences made by one run of it.
+     *
+     * @throws SourceCodeException If the program fails to parse, compile or link.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws SourceCodeException
+    {
+        inferencesPerRun = BenchmarkPrograms.countInferences(program);
+
+        resolutionEngine = BenchmarkPrograms.createEngine(engine);
+        resolutionEngine.reset();
+        BenchmarkPrograms.consult(resolutionEngine, BenchmarkPrograms.read(program));
+    }
+
+    /**
+     * Runs the program once.
+     *
+     * @param  counter The count of inferences made, to add the inferences of this run to.
+     *
+     * @return The solution to the program, so that the run is not optimized away.
+     *
+     * @throws SourceCodeException If the benchmark query fails to parse or compile.
+     */
+    @Benchmark
+    public Set<Variable> run(Inferences counter) throws SourceCodeException
+    {
+        counter.inferences += inferencesPerRun;
+
+        return BenchmarkPrograms.run(resolutionEngine);
+    }
+}
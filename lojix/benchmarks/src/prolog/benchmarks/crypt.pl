@@ -0,0 +1,27 @@
+/* Solves the cryptarithmetic puzzle SEND + MORE = MONEY, a column of the sum at a time. */
+bench :- crypt(_), fail.
+bench.
+
+crypt([S, E, N, D, M, O, R, Y]) :-
+    sel(D, [0, 1, 2, 3, 4, 5, 6, 7, 8, 9], R1),
+    sel(E, R1, R2),
+    column(D, E, 0, Y, C1),
+    sel(Y, R2, R3),
+    sel(N, R3, R4),
+    sel(R, R4, R5),
+    column(N, R, C1, E, C2),
+    sel(O, R5, R6),
+    column(E, O, C2, N, C3),
+    sel(S, R6, R7),
+    S > 0,
+    sel(M, R7, _),
+    M > 0,
+    column(S, M, C3, O, M).
+
+column(A, B, Carry, Digit, NextCarry) :- Sum is A + B + Carry, carry(Sum, Digit, NextCarry).
+
+carry(Sum, Sum, 0) :- Sum < 10.
+carry(Sum, Digit, 1) :- Sum > 9, Digit is Sum - 10.
+
+sel(X, [X|T], T).
+sel(X, [H|T], [H|R]) :- sel(X, T, R).
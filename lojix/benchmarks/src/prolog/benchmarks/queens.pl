@@ -0,0 +1,15 @@
+/* Finds all of the ways of placing eight queens on a chess board, so that none of them attack each other. */
+bench :- queens([1, 2, 3, 4, 5, 6, 7, 8], [], _), fail.
+bench.
+
+queens([], Qs, Qs).
+queens(Unplaced, Safe, Qs) :- sel(Q, Unplaced, Rest), safe(Q, 1, Safe), queens(Rest, [Q|Safe], Qs).
+
+safe(_, _, []).
+safe(Q, D, [Q1|Qs]) :- X is Q + D, ne(X, Q1), Y is Q - D, ne(Y, Q1), D1 is D + 1, safe(Q, D1, Qs).
+
+ne(X, Y) :- X < Y.
+ne(X, Y) :- X > Y.
+
+sel(X, [X|T], T).
+sel(X, [H|T], [H|R]) :- sel(X, T, R).
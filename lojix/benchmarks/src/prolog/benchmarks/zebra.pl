@@ -0,0 +1,32 @@
+/* The zebra puzzle; who owns the zebra and who drinks water, searched for by unification over partial lists. */
+bench :- zebra(_), fail.
+bench.
+
+houses([house(_, norwegian, _, _, _), _, house(_, _, _, milk, _), _, _]).
+
+zebra(Houses) :-
+    houses(Houses),
+    mbr(house(red, english, _, _, _), Houses),
+    mbr(house(_, spanish, dog, _, _), Houses),
+    mbr(house(green, _, _, coffee, _), Houses),
+    mbr(house(_, ukrainian, _, tea, _), Houses),
+    right_of(house(green, _, _, _, _), house(ivory, _, _, _, _), Houses),
+    mbr(house(_, _, snails, _, winstons), Houses),
+    mbr(house(yellow, _, _, _, kools), Houses),
+    next_to(house(_, _, _, _, chesterfields), house(_, _, fox, _, _), Houses),
+    next_to(house(_, _, _, _, kools), house(_, _, horse, _, _), Houses),
+    mbr(house(_, _, _, orange_juice, lucky_strikes), Houses),
+    mbr(house(_, japanese, _, _, parliaments), Houses),
+    next_to(house(_, norwegian, _, _, _), house(blue, _, _, _, _), Houses),
+    mbr(house(_, _, zebra, _, _), Houses),
+    mbr(house(_, _, _, water, _), Houses).
+
+right_of(A, B, [B, A|_]).
+right_of(A, B, [_|Y]) :- right_of(A, B, Y).
+
+next_to(A, B, [A, B|_]).
+next_to(A, B, [B, A|_]).
+next_to(A, B, [_|Y]) :- next_to(A, B, Y).
+
+mbr(X, [X|_]).
+mbr(X, [_|Y]) :- mbr(X, Y).
@@ -214,8 +214,9 @@ public class TermUtils
     /**
      * Converts a term into a clause. The term must be a functor. If it is a functor corresponding to the ':-' symbol it
      * is a clause with a head and a body. If it is a functor corresponding to the '?-' symbol it is a query clause with
-     * no head but must have a body. If it is neither but is a functor it is interpreted as a program clause ':-' with
-     * no body, that is, a fact.
+     * no head but must have a body. A directive, that is the ':-' symbol used as a prefix, is also a query clause, to
+     * be run as the program is loaded. If it is neither but is a functor it is interpreted as a program clause ':-'
+     * with no body, that is, a fact.
      *
      * @param  term     The term to convert to a top-level clause.
      * @param  interner The functor and variable name interner for the namespace the term to convert is in.
@@ -232,14 +233,14 @@ public class TermUtils
         {
             OpSymbol symbol = (OpSymbol) term;
 
-            if (":-".equals(symbol.getTextName()))
+            if (":-".equals(symbol.getTextName()) && (symbol.getArity() == 2))
             {
                 List<Functor> flattenedArgs = flattenTerm(symbol.getArgument(1), Functor.class, ",", interner);
 
                 return new Clause<Functor>((Functor) symbol.getArgument(0),
                     flattenedArgs.toArray(new Functor[flattenedArgs.size()]));
             }
-            else if ("?-".equals(symbol.getTextName()))
+            else if ("?-".equals(symbol.getTextName()) || ":-".equals(symbol.getTextName()))
             {
                 List<Functor> flattenedArgs = flattenTerm(symbol.getArgument(0), Functor.class, ",", interner);
 
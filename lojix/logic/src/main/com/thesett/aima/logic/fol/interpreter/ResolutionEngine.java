@@ -15,6 +15,8 @@
  */
 package com.thesett.aima.logic.fol.interpreter;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -35,6 +37,8 @@ import com.thesett.aima.logic.fol.Sentence;
 import com.thesett.aima.logic.fol.Term;
 import com.thesett.aima.logic.fol.Variable;
 import com.thesett.aima.logic.fol.VariableAndFunctorInterner;
+import com.thesett.aima.logic.fol.isoprologparser.MappedTokenSource;
+import com.thesett.aima.logic.fol.isoprologparser.PrologParserConstants;
 import com.thesett.aima.logic.fol.isoprologparser.Token;
 import com.thesett.aima.logic.fol.isoprologparser.TokenSource;
 import com.thesett.common.parsing.SourceCodeException;
@@ -159,12 +163,50 @@ public abstract class ResolutionEngine<S extends Clause, T, Q> implements Variab
     public void consultInputStream(InputStream stream) throws SourceCodeException
     {
         // Create a token source to read from the specified input stream.
-        Source<Token> tokenSource = TokenSource.getTokenSourceForInputStream(stream);
+        consult(TokenSource.getTokenSourceForInputStream(stream));
+    }
+
+    /**
+     * Consults a file, reading first order logic clauses from it, and inserting them into the resolvers knowledge base.
+     * The file is mapped into memory and tokenized straight from its bytes, which is faster than reading it as a stream
+     * on large files.
+     *
+     * @param  file The file to consult.
+     *
+     * @throws SourceCodeException If any code read from the file fails to parse, compile or link.
+     * @throws IOException         If the file cannot be mapped into memory.
+     */
+    public void consultFile(File file) throws SourceCodeException, IOException
+    {
+        consult(MappedTokenSource.getTokenSourceForFile(file));
+    }
+
+    /**
+     * Consults a source of tokens, parsing first order logic clauses from it, and inserting them into the resolvers
+     * knowledge base.
+     *
+     * <p/>The end of the source is checked for ahead of each sentence, as not all parsers return <tt>null</tt> at the
+     * end of their input; some expect another sentence, and fail to parse the end of the input as one. Parsers that
+     * read single clauses leave the full stop after each clause, so it is skipped over here.
+     *
+     * @param  tokenSource The source of tokens to consult.
+     *
+     * @throws SourceCodeException If any code read from the source fails to parse, compile or link.
+     */
+    private void consult(Source<Token> tokenSource) throws SourceCodeException
+    {
         getParser().setTokenSource(tokenSource);
 
         // Consult the type checking rules and add them to the knowledge base.
         while (true)
         {
+            Token next = tokenSource.peek();
+
+            if ((next == null) || (next.kind == PrologParserConstants.EOF))
+            {
+                break;
+            }
+
             Sentence<S> sentence = getParser().parse();
 
             if (sentence == null)
@@ -173,6 +215,13 @@ public abstract class ResolutionEngine<S extends Clause, T, Q> implements Variab
             }
 
             getCompiler().compile(sentence);
+
+            next = tokenSource.peek();
+
+            if ((next != null) && (next.kind == PrologParserConstants.PERIOD))
+            {
+                tokenSource.poll();
+            }
         }
     }
 
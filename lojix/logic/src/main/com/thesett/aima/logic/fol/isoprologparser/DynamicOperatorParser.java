@@ -608,7 +608,8 @@ public class DynamicOperatorParser implements OperatorTable
             // previously unresolved operator conflicting with the nextTerm, and alpha and beta are potentially
             // empty sequences of symbols. The following code works out what the previous operator is and whether
             // alpha and beta are empty. At the end of this lastCandidate cannot be null, as resolve is only called
-            // when a previous candidate symbol has been encountered.
+            // when a previous candidate symbol has been encountered. An operator still waiting for its argument
+            // before OpA, as in 'op OpA beta OpB', leaves alpha empty, as OpA begins that argument.
             boolean alpha = false;
             boolean beta = false;
             CandidateOpSymbol lastCandidate = null;
@@ -632,13 +633,13 @@ public class DynamicOperatorParser implements OperatorTable
                 }
                 else if ((pos == 1) && !beta)
                 {
-                    alpha = true;
+                    alpha = !isOpSymbol;
 
                     break;
                 }
                 else if (pos == 2)
                 {
-                    alpha = true;
+                    alpha = !isOpSymbol;
 
                     break;
                 }
@@ -0,0 +1,929 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.isoprologparser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import com.thesett.common.util.Source;
+
+/**
+ * MappedTokenSource is a {@link Source} of tokens that scans Prolog source text straight from a buffer of bytes,
+ * usually a file mapped into memory, as an alternative to {@link TokenSource} that is faster on large files. It
+ * produces the same tokens as the token manager generated from the grammar, taking the longest match at each point,
+ * and the rule defined first when two matches are the same length.
+ *
+ * <p/>The images of names, variables and numbers are looked up by their bytes, in a table of the images already seen,
+ * so that each distinct one is only made into a string once, and the parser goes on to intern the same string each
+ * time it sees it. The table grows up to a fixed size, and is emptied once it fills up beyond that, so that the memory
+ * it takes is bounded. Quoted literals are decoded as UTF-8 each time they are seen; everything else in the grammar
+ * is ASCII.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Take tokens from a buffer of source text.
+ * <tr><td> Allow the next token to be peeked at.
+ * <tr><td> Make each distinct image into a string only once.
+ * <tr><td> Track the line and column positions of tokens.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class MappedTokenSource implements Source<Token>, PrologParserConstants
+{
+    /** The character set of quoted literals. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** The initial size of the table of images, which must be a power of two. */
+    private static final int INITIAL_IMAGES = 1 << 10;
+
+    /** The largest size of the table of images, which is emptied rather than grown when it is half full. */
+    private static final int MAX_IMAGES = 1 << 17;
+
+    /** The width of a tab stop, in columns. */
+    private static final int TAB_SIZE = 8;
+
+    /** Flags the symbol characters that symbolic names are made of, by their codes. */
+    private static final boolean[] SYMBOL = new boolean[128];
+
+    /** Flags the characters that may continue a name or variable, by their codes. */
+    private static final boolean[] NAME_CHAR = new boolean[128];
+
+    static
+    {
+        for (char c : "!:->?;\\+=@<./*^".toCharArray())
+        {
+            SYMBOL[c] = true;
+        }
+
+        for (int c = 0; c < 128; c++)
+        {
+            NAME_CHAR[c] = isLower(c) || isUpper(c) || isDigit(c) || (c == '_');
+        }
+    }
+
+    /** Holds the source text. */
+    private final ByteBuffer buffer;
+
+    /** Holds the end of the source text. */
+    private final int limit;
+
+    /** Holds the position of the next byte to scan. */
+    private int pos;
+
+    /** Holds the position up to which the line and column have been counted. */
+    private int counted;
+
+    /** Holds the line of the last byte counted. */
+    private int line = 1;
+
+    /** Holds the column of the last byte counted, or zero at the start of a line. */
+    private int column;
+
+    /** Flags when the last byte counted was a carriage return, so that a following line feed starts no new line. */
+    private boolean afterCR;
+
+    /** Holds the next token, once it has been peeked at. */
+    private Token next;
+
+    /** Holds the hashes of the images in the table. */
+    private int[] imageHashes = new int[INITIAL_IMAGES];
+
+    /** Holds the positions in the buffer of the images in the table. */
+    private int[] imageStarts = new int[INITIAL_IMAGES];
+
+    /** Holds the lengths in bytes of the images in the table. */
+    private int[] imageLengths = new int[INITIAL_IMAGES];
+
+    /** Holds the images in the table, as strings. */
+    private String[] images = new String[INITIAL_IMAGES];
+
+    /** Holds the number of images in the table. */
+    private int numImages;
+
+    /** Holds the characters of an image being made into a string. */
+    private char[] chars = new char[64];
+
+    /**
+     * Creates a token source on a buffer of source text, from its position to its limit.
+     *
+     * @param buffer The source text.
+     */
+    public MappedTokenSource(ByteBuffer buffer)
+    {
+        this.buffer = buffer;
+        pos = buffer.position();
+        counted = pos;
+        limit = buffer.limit();
+    }
+
+    /**
+     * Creates a token source on a file, by mapping the file into memory. The mapping lasts for as long as the token
+     * source is in use, and the file does not need to be closed.
+     *
+     * @param  file The file to tokenize.
+     *
+     * @return A token source.
+     *
+     * @throws IOException If the file cannot be mapped into memory.
+     */
+    public static MappedTokenSource getTokenSourceForFile(File file) throws IOException
+    {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+
+        try
+        {
+            FileChannel channel = in.getChannel();
+
+            return new MappedTokenSource(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Creates a token source on an array of source text.
+     *
+     * @param  bytes The source text.
+     *
+     * @return A token source.
+     */
+    public static MappedTokenSource getTokenSourceForBytes(byte[] bytes)
+    {
+        return new MappedTokenSource(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Retrieves and removes the head token. At the end of the source text, an end of file token is returned, and
+     * will go on being returned.
+     *
+     * @return The head token.
+     *
+     * @throws TokenMgrError If the source text holds a character that no token can start with.
+     */
+    public Token poll()
+    {
+        Token result = (next != null) ? next : nextToken();
+        next = null;
+
+        return result;
+    }
+
+    /**
+     * Retrieves, but does not remove, the head token.
+     *
+     * @return The head token.
+     *
+     * @throws TokenMgrError If the source text holds a character that no token can start with.
+     */
+    public Token peek()
+    {
+        if (next == null)
+        {
+            next = nextToken();
+        }
+
+        return next;
+    }
+
+    /**
+     * Scans the next token from the source text.
+     *
+     * @return The next token.
+     */
+    private Token nextToken()
+    {
+        skipLayout();
+
+        if (pos >= limit)
+        {
+            return createToken(EOF, pos, pos, "");
+        }
+
+        int start = pos;
+        int c = at(pos);
+        int kind;
+        int end;
+
+        if (isDigit(c))
+        {
+            end = scanNumber(start);
+            kind = ((end - start) == integerLength(start)) ? INTEGER_LITERAL : FLOATING_POINT_LITERAL;
+        }
+        else if (isUpper(c) || (c == '_'))
+        {
+            kind = VAR;
+            end = scanName(start + 1);
+        }
+        else if (isLower(c) || isSymbol(c))
+        {
+            end = isLower(c) ? scanName(start + 1) : scanSymbols(start + 1);
+
+            if (at(end) == '(')
+            {
+                kind = FUNCTOR;
+                end++;
+            }
+            else if ((c == '.') && ((end - start) == 1))
+            {
+                kind = PERIOD;
+            }
+            else
+            {
+                kind = ATOM;
+            }
+        }
+        else
+        {
+            switch (c)
+            {
+            case '(':
+                kind = LPAREN;
+                end = start + 1;
+                break;
+
+            case ')':
+                kind = RPAREN;
+                end = start + 1;
+                break;
+
+            case '|':
+                kind = CONS;
+                end = start + 1;
+                break;
+
+            case ',':
+                kind = ATOM;
+                end = start + 1;
+                break;
+
+            case '[':
+                end = scanDirective(start);
+                kind = (end == (start + 1)) ? LSQPAREN : directiveKind(start);
+                break;
+
+            case ']':
+                kind = RSQPAREN;
+                end = start + 1;
+                break;
+
+            case '\'':
+                end = scanCharacterLiteral(start);
+                kind = (end < 0) ? QUOTE : CHARACTER_LITERAL;
+                end = (end < 0) ? (start + 1) : end;
+
+                return createToken(kind, start, end, (kind == QUOTE) ? "'" : decode(start, end));
+
+            case '"':
+                end = scanStringLiteral(start);
+                kind = (end < 0) ? DQUOTE : STRING_LITERAL;
+                end = (end < 0) ? (start + 1) : end;
+
+                return createToken(kind, start, end, (kind == DQUOTE) ? "\"" : decode(start, end));
+
+            default:
+                count(start);
+                throw new TokenMgrError("Lexical error at line " + line + ", column " + (column + 1) +
+                    ".  Encountered: \"" + (char) c + "\" (" + c + "), after : \"\"", TokenMgrError.LEXICAL_ERROR);
+            }
+        }
+
+        return createToken(kind, start, end, image(start, end));
+    }
+
+    /**
+     * Skips over white space and comments. A comment starts with the symbols '/*', unless they are followed by more
+     * symbols or an opening parenthesis, as the longer match of a symbolic name or functor takes precedence.
+     */
+    private void skipLayout()
+    {
+        while (pos < limit)
+        {
+            int c = at(pos);
+
+            if ((c == ' ') || (c == '\t') || (c == '\n') || (c == '\r') || (c == '\f'))
+            {
+                pos++;
+            }
+            else if ((c == '/') && (at(pos + 1) == '*') && !isSymbol(at(pos + 2)) && (at(pos + 2) != '('))
+            {
+                pos += 2;
+
+                while ((pos < limit) && !((at(pos) == '*') && (at(pos + 1) == '/')))
+                {
+                    pos++;
+                }
+
+                pos = Math.min(pos + 2, limit);
+            }
+            else
+            {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Scans the characters that may continue a name or variable.
+     *
+     * @param  from The position to scan from.
+     *
+     * @return The end of the name.
+     */
+    private int scanName(int from)
+    {
+        while ((from < limit) && isNameChar(at(from)))
+        {
+            from++;
+        }
+
+        return from;
+    }
+
+    /**
+     * Scans symbol characters.
+     *
+     * @param  from The position to scan from.
+     *
+     * @return The end of the symbols.
+     */
+    private int scanSymbols(int from)
+    {
+        while ((from < limit) && isSymbol(at(from)))
+        {
+            from++;
+        }
+
+        return from;
+    }
+
+    /**
+     * Scans digits.
+     *
+     * @param  from The position to scan from.
+     *
+     * @return The end of the digits.
+     */
+    private int scanDigits(int from)
+    {
+        while ((from < limit) && isDigit(at(from)))
+        {
+            from++;
+        }
+
+        return from;
+    }
+
+    /**
+     * Finds the length of the longest integer literal at a position; decimal, or hexadecimal.
+     *
+     * @param  start The start of the literal, which is a digit.
+     *
+     * @return The length of the literal.
+     */
+    private int integerLength(int start)
+    {
+        int end = scanDigits(start);
+
+        if ((at(start) == '0') && ((at(start + 1) == 'x') || (at(start + 1) == 'X')) && isHexDigit(at(start + 2)))
+        {
+            end = start + 2;
+
+            while ((end < limit) && isHexDigit(at(end)))
+            {
+                end++;
+            }
+        }
+
+        return end - start;
+    }
+
+    /**
+     * Scans the longest number at a position. An integer is taken over a float of the same length, such as one with
+     * no fraction or exponent.
+     *
+     * @param  start The start of the number, which is a digit.
+     *
+     * @return The end of the number.
+     */
+    private int scanNumber(int start)
+    {
+        int end = scanDigits(start);
+
+        // An optional fraction.
+        if ((at(end) == '.') && isDigit(at(end + 1)))
+        {
+            end = scanDigits(end + 1);
+        }
+
+        // An optional exponent.
+        int exponent = end + 1;
+
+        if ((at(exponent) == '+') || (at(exponent) == '-'))
+        {
+            exponent++;
+        }
+
+        if (((at(end) == 'e') || (at(end) == 'E')) && isDigit(at(exponent)))
+        {
+            end = scanDigits(exponent);
+        }
+
+        return Math.max(end, start + integerLength(start));
+    }
+
+    /**
+     * Scans a system directive; one of '[info]', '[trace]' or '[user]'.
+     *
+     * @param  start The start of the directive, which is an opening square bracket.
+     *
+     * @return The end of the directive, or the position after the bracket if there is none.
+     */
+    private int scanDirective(int start)
+    {
+        for (String directive : new String[] { "[info]", "[trace]", "[user]" })
+        {
+            if (matches(start, directive))
+            {
+                return start + directive.length();
+            }
+        }
+
+        return start + 1;
+    }
+
+    /**
+     * Provides the kind of a system directive.
+     *
+     * @param  start The start of the directive.
+     *
+     * @return The kind of the directive.
+     */
+    private int directiveKind(int start)
+    {
+        return (at(start + 1) == 'i') ? INFO : ((at(start + 1) == 't') ? TRACE : USER);
+    }
+
+    /**
+     * Scans a character literal; a single character or escape sequence between single quotes.
+     *
+     * @param  start The start of the literal, which is a single quote.
+     *
+     * @return The end of the literal, or -1 if there is no character literal at the position.
+     */
+    private int scanCharacterLiteral(int start)
+    {
+        int end = scanCharacter(start + 1, '\'');
+
+        return ((end > 0) && (at(end) == '\'')) ? (end + 1) : -1;
+    }
+
+    /**
+     * Scans a string literal; any number of characters or escape sequences between double quotes.
+     *
+     * @param  start The start of the literal, which is a double quote.
+     *
+     * @return The end of the literal, or -1 if there is no string literal at the position.
+     */
+    private int scanStringLiteral(int start)
+    {
+        int end = start + 1;
+
+        while (at(end) != '"')
+        {
+            end = scanCharacter(end, '"');
+
+            if (end < 0)
+            {
+                return -1;
+            }
+        }
+
+        return end + 1;
+    }
+
+    /**
+     * Scans a character or escape sequence within a quoted literal. A character that is not ASCII is taken along with
+     * the continuation bytes of its UTF-8 encoding.
+     *
+     * @param  from  The position to scan from.
+     * @param  quote The quote that the literal is closed by.
+     *
+     * @return The end of the character, or -1 if there is no character at the position.
+     */
+    private int scanCharacter(int from, int quote)
+    {
+        int c = at(from);
+
+        if ((from >= limit) || (c == quote) || (c == '\n') || (c == '\r'))
+        {
+            return -1;
+        }
+        else if (c != '\\')
+        {
+            from++;
+
+            while ((c >= 0x80) && (from < limit) && ((at(from) & 0xc0) == 0x80))
+            {
+                from++;
+            }
+
+            return from;
+        }
+
+        int e = at(from + 1);
+
+        if ("ntbrf\\'\"".indexOf(e) >= 0)
+        {
+            return from + 2;
+        }
+        else if (isOctalDigit(e))
+        {
+            // The longest of an octal escape of up to two digits, or three starting with one from 0 to 3.
+            if ((e <= '3') && isOctalDigit(at(from + 2)) && isOctalDigit(at(from + 3)))
+            {
+                return from + 4;
+            }
+
+            return isOctalDigit(at(from + 2)) ? (from + 3) : (from + 2);
+        }
+        else if ((e == 'u') && isHexDigit(at(from + 2)) && isHexDigit(at(from + 3)) && isHexDigit(at(from + 4)) &&
+                isHexDigit(at(from + 5)))
+        {
+            return from + 6;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Creates a token, and moves on past it.
+     *
+     * @param  kind  The kind of the token.
+     * @param  start The start of the token.
+     * @param  end   The end of the token.
+     * @param  image The image of the token.
+     *
+     * @return The token.
+     */
+    private Token createToken(int kind, int start, int end, String image)
+    {
+        Token result = new Token();
+        result.kind = kind;
+        result.image = image;
+
+        count(start);
+        result.beginLine = line;
+        result.beginColumn = column + 1;
+
+        count(end);
+        result.endLine = line;
+        result.endColumn = column;
+
+        pos = end;
+
+        return result;
+    }
+
+    /**
+     * Counts lines and columns up to a position, in the same way as the character stream of the generated token
+     * manager; a tab moves on to the next tab stop, and a carriage return, line feed, or the pair of them, starts a
+     * new line.
+     *
+     * @param to The position to count up to.
+     */
+    private void count(int to)
+    {
+        for (; counted < to; counted++)
+        {
+            int c = at(counted);
+
+            if (c == '\n')
+            {
+                if (!afterCR)
+                {
+                    line++;
+                }
+
+                column = 0;
+            }
+            else if (c == '\r')
+            {
+                line++;
+                column = 0;
+            }
+            else if (c == '\t')
+            {
+                column += TAB_SIZE - (column % TAB_SIZE);
+            }
+            else if ((c & 0xc0) != 0x80)
+            {
+                column++;
+            }
+
+            afterCR = c == '\r';
+        }
+    }
+
+    /**
+     * Provides the image of a name, variable or number, looking it up in the table of images already made into
+     * strings, or adding it there if it is not yet in it.
+     *
+     * @param  start The start of the image.
+     * @param  end   The end of the image.
+     *
+     * @return The image.
+     */
+    private String image(int start, int end)
+    {
+        int length = end - start;
+        int hash = 0;
+
+        for (int i = start; i < end; i++)
+        {
+            hash = (31 * hash) + at(i);
+        }
+
+        int slot = findImage(hash, start, length);
+
+        if (images[slot] != null)
+        {
+            return images[slot];
+        }
+
+        // Keep the table no more than half full, growing it up to its largest size, and emptying it after that.
+        if ((numImages << 1) >= images.length)
+        {
+            resizeImages((images.length < MAX_IMAGES) ? (images.length << 1) : images.length,
+                images.length < MAX_IMAGES);
+            slot = findImage(hash, start, length);
+        }
+
+        if (chars.length < length)
+        {
+            chars = new char[Math.max(length, chars.length << 1)];
+        }
+
+        for (int i = 0; i < length; i++)
+        {
+            chars[i] = (char) at(start + i);
+        }
+
+        String image = new String(chars, 0, length);
+
+        imageHashes[slot] = hash;
+        imageStarts[slot] = start;
+        imageLengths[slot] = length;
+        images[slot] = image;
+        numImages++;
+
+        return image;
+    }
+
+    /**
+     * Finds the slot in the table of images holding an image, or the empty slot to add it to.
+     *
+     * @param  hash   The hash of the image.
+     * @param  start  The start of the image.
+     * @param  length The length of the image.
+     *
+     * @return The slot holding the image, or the empty slot to add it to.
+     */
+    private int findImage(int hash, int start, int length)
+    {
+        int mask = images.length - 1;
+        int slot = hashSlot(hash);
+
+        while ((images[slot] != null) &&
+                ((imageHashes[slot] != hash) || (imageLengths[slot] != length) ||
+                    !sameBytes(imageStarts[slot], start, length)))
+        {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    /**
+     * Replaces the table of images with an empty one, moving the images into it if they are to be kept.
+     *
+     * @param size The size of the new table.
+     * @param keep <tt>true</tt> to move the images into the new table.
+     */
+    private void resizeImages(int size, boolean keep)
+    {
+        int[] oldHashes = imageHashes;
+        int[] oldStarts = imageStarts;
+        int[] oldLengths = imageLengths;
+        String[] oldImages = images;
+
+        imageHashes = new int[size];
+        imageStarts = new int[size];
+        imageLengths = new int[size];
+        images = new String[size];
+        numImages = 0;
+
+        for (int i = 0; keep && (i < oldImages.length); i++)
+        {
+            if (oldImages[i] != null)
+            {
+                int slot = findImage(oldHashes[i], oldStarts[i], oldLengths[i]);
+                imageHashes[slot] = oldHashes[i];
+                imageStarts[slot] = oldStarts[i];
+                imageLengths[slot] = oldLengths[i];
+                images[slot] = oldImages[i];
+                numImages++;
+            }
+        }
+    }
+
+    /**
+     * Hashes the hash of an image into a slot of the table of images.
+     *
+     * @param  hash The hash of the image.
+     *
+     * @return The slot to start looking for the image at.
+     */
+    private int hashSlot(int hash)
+    {
+        return (hash * 0x9e3779b9) >>> (32 - Integer.numberOfTrailingZeros(images.length));
+    }
+
+    /**
+     * Decodes a quoted literal as UTF-8.
+     *
+     * @param  start The start of the literal.
+     * @param  end   The end of the literal.
+     *
+     * @return The literal, including its quotes.
+     */
+    private String decode(int start, int end)
+    {
+        byte[] bytes = new byte[end - start];
+
+        for (int i = 0; i < bytes.length; i++)
+        {
+            bytes[i] = buffer.get(start + i);
+        }
+
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Checks if two ranges of the buffer hold the same bytes.
+     *
+     * @param  a      The start of the first range.
+     * @param  b      The start of the second range.
+     * @param  length The length of the ranges.
+     *
+     * @return <tt>true</tt> if the ranges hold the same bytes.
+     */
+    private boolean sameBytes(int a, int b, int length)
+    {
+        for (int i = 0; i < length; i++)
+        {
+            if (buffer.get(a + i) != buffer.get(b + i))
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Checks if some ASCII text is at a position.
+     *
+     * @param  start The position.
+     * @param  text  The text to look for.
+     *
+     * @return <tt>true</tt> if the text is at the position.
+     */
+    private boolean matches(int start, String text)
+    {
+        for (int i = 0; i < text.length(); i++)
+        {
+            if (at(start + i) != text.charAt(i))
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Provides the byte at a position, as an unsigned value, or -1 past the end of the source text.
+     *
+     * @param  i The position.
+     *
+     * @return The byte at the position.
+     */
+    private int at(int i)
+    {
+        return (i < limit) ? (buffer.get(i) & 0xff) : -1;
+    }
+
+    /**
+     * Checks if a byte is a lower case letter.
+     *
+     * @param  c The byte to check.
+     *
+     * @return <tt>true</tt> if the byte is a lower case letter.
+     */
+    private static boolean isLower(int c)
+    {
+        return (c >= 'a') && (c <= 'z');
+    }
+
+    /**
+     * Checks if a byte is an upper case letter.
+     *
+     * @param  c The byte to check.
+     *
+     * @return <tt>true</tt> if the byte is an upper case letter.
+     */
+    private static boolean isUpper(int c)
+    {
+        return (c >= 'A') && (c <= 'Z');
+    }
+
+    /**
+     * Checks if a byte is a decimal digit.
+     *
+     * @param  c The byte to check.
+     *
+     * @return <tt>true</tt> if the byte is a decimal digit.
+     */
+    private static boolean isDigit(int c)
+    {
+        return (c >= '0') && (c <= '9');
+    }
+
+    /**
+     * Checks if a byte is an octal digit.
+     *
+     * @param  c The byte to check.
+     *
+     * @return <tt>true</tt> if the byte is an octal digit.
+     */
+    private static boolean isOctalDigit(int c)
+    {
+        return (c >= '0') && (c <= '7');
+    }
+
+    /**
+     * Checks if a byte is a hexadecimal digit.
+     *
+     * @param  c The byte to check.
+     *
+     * @return <tt>true</tt> if the byte is a hexadecimal digit.
+     */
+    private static boolean isHexDigit(int c)
+    {
+        return isDigit(c) || ((c >= 'a') && (c <= 'f')) || ((c >= 'A') && (c <= 'F'));
+    }
+
+    /**
+     * Checks if a byte is a symbol character.
+     *
+     * @param  c The byte to check.
+     *
+     * @return <tt>true</tt> if the byte is a symbol character.
+     */
+    private static boolean isSymbol(int c)
+    {
+        return (c >= 0) && (c < 128) && SYMBOL[c];
+    }
+
+    /**
+     * Checks if a byte may continue a name or variable.
+     *
+     * @param  c The byte to check.
+     *
+     * @return <tt>true</tt> if the byte may continue a name or variable.
+     */
+    private static boolean isNameChar(int c)
+    {
+        return (c >= 0) && (c < 128) && NAME_CHAR[c];
+    }
+}
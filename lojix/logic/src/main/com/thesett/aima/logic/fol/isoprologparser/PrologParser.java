@@ -812,6 +812,8 @@ public class PrologParser implements PrologParserConstants
         internOperator("-->", 1200, XFX);
         internOperator("?-", 1200, FX);
 
+        internOperator("table", 1150, FX);
+
         internOperator(";", 1100, XFY);
         internOperator("->", 1050, XFY);
         internOperator(",", 1000, XFY);
@@ -34,6 +34,7 @@ import com.thesett.common.parsing.SourceCodeException;
  *          bindings for the variable.
  * <tr><td> Check that instantiating the same clause several times with different variable allows the variables to be
  *          bound independently.
+ * <tr><td> Check that backtracking into an earlier call keeps the variables that are live after it.
  * </table></pre>
  *
  * @author Rupert Smith
@@ -82,6 +83,92 @@ public class BacktrackingResolverUnitTestBase<S extends Clause, T, Q> extends Ba
             "[[X <-- x, Y <-- x], [X <-- x, Y <-- y], [X <-- y, Y <-- x], [X <-- y, Y <-- y]]]");
     }
 
+    /** Check that a bound first argument selects only the clauses with a matching constant, in order. */
+    public void testFirstArgumentConstantSelectsMatchingClausesInOrder() throws Exception
+    {
+        resolveAndAssertSolutions("[[f(a, x), f(b, y), f(a, z), f(c, w)], (?- f(a, X)), [[X <-- x], [X <-- z]]]");
+    }
+
+    /** Check that a bound first argument selects only the clauses with a matching functor, in order. */
+    public void testFirstArgumentFunctorSelectsMatchingClausesInOrder() throws Exception
+    {
+        resolveAndAssertSolutions("[[f(g(a), x), f(h(a), y), f([a], z), f(g(b), w), f(c, v)], (?- f(g(_), X)), " +
+            "[[X <-- x], [X <-- w]]]");
+    }
+
+    /** Check that clauses with a variable first argument are selected along with matching ones, in order. */
+    public void testFirstArgumentVariableClausesSelectedInOrder() throws Exception
+    {
+        resolveAndAssertSolutions("[[f(a, x), f(_, y), f(b, z), f(g(b), w)], (?- f(b, X)), [[X <-- y], [X <-- z]]]");
+    }
+
+    /** Check that a bound integer first argument selects only the clauses with a matching integer, in order. */
+    public void testFirstArgumentIntegerSelectsMatchingClausesInOrder() throws Exception
+    {
+        resolveAndAssertSolutions("[[f(1, x), f(2, y), f(1, z), f(a, w)], (?- f(1, X)), [[X <-- x], [X <-- z]]]");
+    }
+
+    /** Check that a bound float first argument selects only the clauses with a matching float, in order. */
+    public void testFirstArgumentFloatSelectsMatchingClausesInOrder() throws Exception
+    {
+        resolveAndAssertSolutions("[[f(1.5, x), f(g(a), y), f(2.5, z), f(1.5, w)], (?- f(1.5, X)), " +
+            "[[X <-- x], [X <-- w]]]");
+    }
+
+    /** Check that clauses with a variable first argument between runs of others are selected in order. */
+    public void testFirstArgumentVariableClausesBetweenOthersSelectedInOrder() throws Exception
+    {
+        resolveAndAssertSolutions("[[f(a, x), f(b, y), f(_, z), f(a, w), f(c, v)], (?- f(a, X)), " +
+            "[[X <-- x], [X <-- z], [X <-- w]]]");
+    }
+
+    /** Check that a bound first argument with no matching clauses fails. */
+    public void testFirstArgumentWithNoMatchingClausesFails() throws Exception
+    {
+        resolveAndAssertFailure(new String[] { "f(a, x)", "f(b, y)", "f(g(c), z)" }, "?- f(c, X)");
+    }
+
+    /**
+     * Check that a bound second argument with an unbound first argument, on a larger predicate, selects only the
+     * clauses with a matching second argument or a variable there, in order.
+     */
+    public void testSecondArgumentSelectsMatchingClausesInOrder() throws Exception
+    {
+        resolveAndAssertSolutions("[[f(n1, a), f(n2, b), f(n3, g(a)), f(n4, _), f(n5, a), f(n6, [a]), f(n7, c), " +
+            "f(n8, b)], (?- f(X, a)), [[X <-- n1], [X <-- n4], [X <-- n5]]]");
+    }
+
+    /**
+     * Check that a bound number second argument with an unbound first argument, on a larger predicate, selects only the
+     * clauses with a matching number of the same type or a variable there, in order.
+     */
+    public void testSecondArgumentNumberSelectsMatchingClausesInOrder() throws Exception
+    {
+        resolveAndAssertSolutions("[[f(n1, 1), f(n2, 2.5), f(n3, 1000000000), f(n4, _), f(n5, 1), f(n6, 1.0), " +
+            "f(n7, 2.5), f(n8, a), f(n9, 1000000000)], (?- f(X, 1)), [[X <-- n1], [X <-- n4], [X <-- n5]]]");
+        resolveAndAssertSolutions("[[f(n1, 1), f(n2, 2.5), f(n3, 1000000000), f(n4, _), f(n5, 1), f(n6, 1.0), " +
+            "f(n7, 2.5), f(n8, a), f(n9, 1000000000)], (?- f(X, 2.5)), [[X <-- n2], [X <-- n4], [X <-- n7]]]");
+        resolveAndAssertSolutions("[[f(n1, 1), f(n2, 2.5), f(n3, 1000000000), f(n4, _), f(n5, 1), f(n6, 1.0), " +
+            "f(n7, 2.5), f(n8, a), f(n9, 1000000000)], (?- f(X, 1000000000)), [[X <-- n3], [X <-- n4], [X <-- n9]]]");
+    }
+
+    /** Check that repeated calls on a bound second argument of a larger predicate select the same clauses. */
+    public void testSecondArgumentRepeatedCallsSelectMatchingClauses() throws Exception
+    {
+        resolveAndAssertSolutions("[[f(n1, a), f(n2, b), f(n3, g(a)), f(n4, d), f(n5, a), f(n6, [a]), f(n7, c), " +
+            "f(n8, b), (h(X, Y) :- f(X, b), f(Y, g(_)))], (?- h(X, Y)), [[X <-- n2, Y <-- n3], [X <-- n8, Y <-- n3]]]");
+    }
+
+    /**
+     * Check that backtracking into an earlier call of a clause, once later calls have trimmed its environment, keeps the
+     * variables of the clause that are still live after the earlier call.
+     */
+    public void testBacktrackingIntoEarlierCallKeepsLiveVariables() throws Exception
+    {
+        resolveAndAssertSolutions("[[k(b), chk(y), use(_), z, a(x), (a(y) :- z, z), " +
+            "(t(A, B) :- a(A), k(B), chk(A), use(B))], (?- t(A, B)), [[A <-- y, B <-- b]]]");
+    }
+
     /**
      * Helper method for resolutions that produce a known number of solutions, this method performs all possible
      * resolutions and asserts that the expected number are produced.
@@ -266,6 +266,12 @@ public class BasicResolverUnitTestBase<S extends Clause, T, Q> extends TestCase
             "(?- test(_PS), member(labels(L), _PS)), " + "[[L <-- [first]], [L <-- [second]]]]");
     }
 
+    /** Check that a unification that fails part way through leaves nothing behind to upset the next unification. */
+    public void testFailedUnificationLeavesNoBindingsOk() throws Exception
+    {
+        resolveAndAssertSolutions("[[], (?- member(f(r, e), [f(A, n), B]), A = z), [[A <-- z, B <-- f(r, e)]]]");
+    }
+
     /** Check that a variable argument can bind to a functor in a clause head. */
     public void testVariableBindsToFunctorInHead() throws Exception
     {
@@ -26,6 +26,7 @@ import com.thesett.aima.logic.fol.interpreter.ResolutionEngine;
  * <tr><th> Responsibilities <th> Collaborations
  * <tr><td> Check that a neck cut prevents back-tracking.
  * <tr><td> Check that a deep cut prevents back-tracking.
+ * <tr><td> Check that a cut may end a clause.
  * </table></pre>
  *
  * @author Rupert Smith
@@ -52,4 +53,16 @@ public class CutResolverUnitTestBase<S extends Clause, T, Q> extends BasicResolv
     {
         resolveAndAssertSolutions("[[g(x), (f(X) :- g(X), !, true), f(y)], (?- f(X)), [[X <-- x]]]");
     }
+
+    /** Check that a neck cut that is the whole body of a clause returns from it, and prevents back-tracking. */
+    public void testNeckCutEndingClauseOk() throws Exception
+    {
+        resolveAndAssertSolutions("[[(f(x) :- !), f(y)], (?- f(X)), [[X <-- x]]]");
+    }
+
+    /** Check that a deep cut that ends the body of a clause returns from it, and prevents back-tracking. */
+    public void testDeepCutEndingClauseOk() throws Exception
+    {
+        resolveAndAssertSolutions("[[g(x), (f(X) :- g(X), !), f(y)], (?- f(X)), [[X <-- x]]]");
+    }
 }
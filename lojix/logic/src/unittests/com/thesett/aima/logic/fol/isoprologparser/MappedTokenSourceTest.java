@@ -0,0 +1,141 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.isoprologparser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * MappedTokenSourceTest checks that source text tokenized straight from bytes gives the same tokens as the token
+ * manager generated from the grammar.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Check that the same tokens are produced as by the generated token manager. <td> {@link TokenSource}.
+ * <tr><td> Check that tokens are read from a file, with their line and column positions.
+ * <tr><td> Check that repeated names share the same image.
+ * <tr><td> Check that a character that cannot start a token is rejected.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class MappedTokenSourceTest extends TestCase
+{
+    /** Holds source text covering all of the kinds of token. */
+    private static final String SOURCE =
+        "/* A comment. */\n" + "[info].\n" + "app([], L, L).\n" + "app([H | T], L, [H | R]) :- app(T, L, R).\n" +
+        "num(X) :- X is 0x1F + 12 * 2.5e-3 - 3.0, X >= 7E2, Y = 'a', Z = '\\n', _W = \"a \\\"str\\\"\".\n" +
+        "op(P) :- P =.. [f, a], \\+ P == q, !.\n" + "last :- true, (a ; b) .\n";
+
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test.
+     */
+    public MappedTokenSourceTest(String name)
+    {
+        super(name);
+    }
+
+    /** Check that the tokens read from bytes are the same as those read by the generated token manager. */
+    public void testSameTokensAsTokenSource() throws Exception
+    {
+        TokenSource expected = TokenSource.getTokenSourceForString(SOURCE);
+        MappedTokenSource actual = MappedTokenSource.getTokenSourceForBytes(SOURCE.getBytes("UTF-8"));
+
+        for (int i = 0;; i++)
+        {
+            Token expectedToken = expected.poll();
+            assertEquals("Wrong peeked token " + i + ".", expectedToken.image, actual.peek().image);
+
+            Token actualToken = actual.poll();
+            assertEquals("Wrong kind of token " + i + ".", expectedToken.kind, actualToken.kind);
+            assertEquals("Wrong image for token " + i + ".", expectedToken.image, actualToken.image);
+
+            if (expectedToken.kind == PrologParserConstants.EOF)
+            {
+                break;
+            }
+        }
+
+        assertEquals("End of file should go on being returned.", PrologParserConstants.EOF, actual.poll().kind);
+    }
+
+    /** Check that tokens are read from a file, with their positions counted over tabs and line ends. */
+    public void testTokensFromFileOk() throws Exception
+    {
+        File file = File.createTempFile("tokens", ".pl");
+        file.deleteOnExit();
+
+        OutputStream out = new FileOutputStream(file);
+        out.write("a.\r\n\tbcd(X).\r\ne.".getBytes("UTF-8"));
+        out.close();
+
+        MappedTokenSource source = MappedTokenSource.getTokenSourceForFile(file);
+        source.poll();
+        source.poll();
+
+        Token functor = source.poll();
+        assertEquals("Wrong kind of token.", PrologParserConstants.FUNCTOR, functor.kind);
+        assertEquals("Wrong image.", "bcd(", functor.image);
+        assertEquals("Wrong begin line.", 2, functor.beginLine);
+        assertEquals("Wrong begin column.", 9, functor.beginColumn);
+        assertEquals("Wrong end column.", 12, functor.endColumn);
+
+        source.poll();
+        source.poll();
+        source.poll();
+
+        Token last = source.poll();
+        assertEquals("Wrong image.", "e", last.image);
+        assertEquals("Wrong line.", 3, last.beginLine);
+        assertEquals("Wrong column.", 1, last.beginColumn);
+    }
+
+    /** Check that a name seen twice is given the same image, rather than a copy of it. */
+    public void testRepeatedNamesShareImage() throws Exception
+    {
+        MappedTokenSource source = MappedTokenSource.getTokenSourceForBytes("foo(Bar) :- foo(Bar).".getBytes("UTF-8"));
+
+        Token foo = source.poll();
+        Token bar = source.poll();
+        source.poll();
+        source.poll();
+
+        assertSame("Functor image should be shared.", foo.image, source.poll().image);
+        assertSame("Variable image should be shared.", bar.image, source.poll().image);
+    }
+
+    /** Check that a character that no token can start with is rejected. */
+    public void testUnknownCharacterFails() throws Exception
+    {
+        MappedTokenSource source = MappedTokenSource.getTokenSourceForBytes("a % b".getBytes("UTF-8"));
+        source.poll();
+
+        try
+        {
+            source.poll();
+            fail("A '%' should not start a token.");
+        }
+        catch (TokenMgrError e)
+        {
+            // Expected.
+        }
+    }
+}
@@ -16,13 +16,12 @@
 package com.thesett.aima.attribute.impl;
 
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.thesett.aima.state.BaseType;
 import com.thesett.aima.state.InfiniteValuesException;
@@ -50,6 +49,12 @@ import com.thesett.common.error.NotImplementedException;
  * the receiving end (provided the lookup table on the receiving end is up-to-date, of course). Again, the savings will
  * be best where the same set of objects are used repeatedly.
  *
+ * <p/>Attribute classes may be shared between threads. Values are looked up without locking, from tables that are
+ * published safely as they grow, so that threads looking up values do not contend with each other. Only interning a
+ * new value, changing an id, or finalizing a class takes a lock on the class. The tables are concurrent maps, which
+ * cannot hold <tt>null</tt>, so a <tt>null</tt> value, or class name, is held in them under a key that stands in for
+ * it, and may be interned and looked up as any other.
+ *
  * <pre><p/><table id="crc"><caption>CRC Card</caption>
  * <tr><th> Responsibilities <th> Collaborations
  * <tr><td> Represent a single object from a set of objects.
@@ -64,8 +69,12 @@ import com.thesett.common.error.NotImplementedException;
  */
 public class IdAttribute<T> implements OrdinalAttribute, ReferencableAttribute, Serializable
 {
-    /** Used to hold all the different named attribute classes. */
-    private static final Map<String, IdClassImpl> attributeClasses = new HashMap<String, IdClassImpl>();
+    /** Used to hold all the different named attribute classes, by {@link #keyOf} their names. */
+    private static final ConcurrentMap<Object, IdClassImpl> attributeClasses =
+        new ConcurrentHashMap<Object, IdClassImpl>();
+
+    /** Stands in for <tt>null</tt> as a key in the tables, as concurrent maps cannot hold it. */
+    private static final Object NULL_KEY = new Object();
 
     /** Used to hold the byte offset into the object array. */
     int value;
@@ -132,19 +141,7 @@ public class IdAttribute<T> implements OrdinalAttribute, ReferencableAttribute,
      */
     public long getId()
     {
-        // Check if the attribute class has been finalized yet.
-        if (attributeClass.finalized)
-        {
-            // Fetch the object value from the attribute class array of finalized values.
-            return attributeClass.lookupValue[value].id;
-        }
-
-        // The attribute class has not been finalized yet.
-        else
-        {
-            // Fetch the object value from the attribute class list of unfinalized values.
-            return attributeClass.lookupValueList.get(value).id;
-        }
+        return attributeClass.lookupValue[value].id;
     }
 
     /**
@@ -161,59 +158,48 @@ public class IdAttribute<T> implements OrdinalAttribute, ReferencableAttribute,
      */
     public void setId(long id)
     {
-        // Find the enumeration node for this enumeration value.
-        EnumerationNode<T> node = null;
-
-        // Check if the attribute class has been finalized yet.
-        if (attributeClass.finalized)
+        synchronized (attributeClass)
         {
-            // Fetch the object value from the attribute class array of finalized values.
-            node = attributeClass.lookupValue[value];
-        }
+            // Find the enumeration node for this enumeration value.
+            EnumerationNode<T> node = attributeClass.lookupValue[value];
 
-        // The attribute class has not been finalized yet.
-        else
-        {
-            // Fetch the object value from the attribute class list of unfinalized values.
-            node = attributeClass.lookupValueList.get(value);
-        }
+            // Extract the id from it.
+            long existingId = node.id;
 
-        // Extract the id from it.
-        long existingId = node.id;
+            // Do nothing if the new id matches the existing one.
+            if (id == existingId)
+            {
+                return;
+            }
 
-        // Do nothing if the new id matches the existing one.
-        if (id == existingId)
-        {
-            return;
-        }
+            // Check if the type is finalized.
+            if (attributeClass.finalized)
+            {
+                // Raise an illegal argument exception if the id is not known.
+                IdAttribute newValue = attributeClass.getAttributeFromId(id);
 
-        // Check if the type is finalized.
-        if (attributeClass.finalized)
-        {
-            // Raise an illegal argument exception if the id is not known.
-            IdAttribute newValue = attributeClass.getAttributeFromId(id);
+                // Otherwise, change the value of this attribute to that of the new id.
+                this.value = newValue.value;
+            }
 
-            // Otherwise, change the value of this attribute to that of the new id.
-            this.value = newValue.value;
-        }
+            // The type is unfinalized.
+            else
+            {
+                // Check if another instance of the type already has the id and raise an exception if so.
+                EnumerationNode existingNode = attributeClass.idMap.get(id);
 
-        // The type is unfinalized.
-        else
-        {
-            // Check if another instance of the type already has the id and raise an exception if so.
-            EnumerationNode existingNode = attributeClass.idMap.get(id);
+                if (existingNode != null)
+                {
+                    throw new IllegalArgumentException("The id value, " + id +
+                        ", cannot be set because another instance of this type with that " + "id already exists.");
+                }
 
-            if (existingNode != null)
-            {
-                throw new IllegalArgumentException("The id value, " + id +
-                    ", cannot be set because another instance of this type with that " + "id already exists.");
+                // Assign it to this instance if the type is unfinalized. Also replacing the old id mapping in the id
+                // map with the new one, adding the new one first so that the node can always be found by one of them.
+                node.id = id;
+                attributeClass.idMap.put(id, node);
+                attributeClass.idMap.remove(existingId);
             }
-
-            // Assign it to this instance if the type is unfinalized. Also removing the old id mapping from the id
-            // map and replacing it with the new one.
-            node.id = id;
-            attributeClass.idMap.remove(existingId);
-            attributeClass.idMap.put(id, node);
         }
     }
 
@@ -224,16 +210,7 @@ public class IdAttribute<T> implements OrdinalAttribute, ReferencableAttribute,
      */
     public T getValue()
     {
-        // Check if the attribute class has been finalized yet.
-        if (attributeClass.finalized)
-        {
-            // Fetch the object value from the attribute class.
-            return attributeClass.lookupValue[value].label;
-        }
-        else
-        {
-            return attributeClass.lookupValueList.get(value).label;
-        }
+        return attributeClass.lookupValue[value].label;
     }
 
     /**
@@ -247,7 +224,7 @@ public class IdAttribute<T> implements OrdinalAttribute, ReferencableAttribute,
      */
     public void setValue(T value) throws IllegalArgumentException
     {
-        Integer b = attributeClass.lookupInt.get(value);
+        Integer b = attributeClass.lookupInt.get(keyOf(value));
 
         // Check if the value is not already a memeber of the attribute class.
         if (b == null)
@@ -305,6 +282,19 @@ public class IdAttribute<T> implements OrdinalAttribute, ReferencableAttribute,
         return getValue().toString();
     }
 
+    /**
+     * Provides the key that a value, or class name, is held under in the tables. This is the value itself, or a stand-in
+     * for <tt>null</tt>, which concurrent maps cannot hold.
+     *
+     * @param  value The value to get the key for, may be <tt>null</tt>.
+     *
+     * @return The key that the value is held under.
+     */
+    private static Object keyOf(Object value)
+    {
+        return (value == null) ? NULL_KEY : value;
+    }
+
     /**
      * Defines the type interface for object attributes.
      */
@@ -356,27 +346,37 @@ public class IdAttribute<T> implements OrdinalAttribute, ReferencableAttribute,
      */
     private static class IdClassImpl<T> extends BaseType<IdAttribute> implements IdClass<T>
     {
+        /** The initial size of the lookup array. */
+        private static final int INITIAL_SIZE = 16;
+
         /** The number of possible values this attribute can take on. Defaults to infinity. */
-        int numValues = -1;
+        volatile int numValues = -1;
 
-        /** The Object lookup array for converting ints back into Strings for this class. */
-        EnumerationNode<T>[] lookupValue;
+        /**
+         * The Object lookup array for converting ints back into Strings for this class. It is replaced by a larger copy
+         * when full, and each new value is written to it before the count of values is raised to include it, so that a
+         * value within the count can always be read from it without locking.
+         */
+        volatile EnumerationNode<T>[] lookupValue = new EnumerationNode[INITIAL_SIZE];
 
-        /** A map from Strings to ints for use when creating new attributes with strings that already exist. */
-        Map<T, Integer> lookupInt = new HashMap<T, Integer>();
+        /** The number of values in the lookup array. */
+        volatile int count;
 
-        /** Used to hold a collection of values for this attribute until the attribute is finalized. */
-        List<EnumerationNode<T>> lookupValueList = new ArrayList<EnumerationNode<T>>();
+        /**
+         * A map from Strings to ints for use when creating new attributes with strings that already exist, by
+         * {@link IdAttribute#keyOf} the strings.
+         */
+        Map<Object, Integer> lookupInt = new ConcurrentHashMap<Object, Integer>();
 
         /**
          * Holds a map from referencable ids to enumeration nodes. This is used to resolve ids into instances of the
          * attribute type. It is a map rather than an array because the ids do not have to be sequentially assigned from
          * 0 but could be a scattered range of values.
          */
-        Map<Long, EnumerationNode> idMap = new HashMap<Long, EnumerationNode>();
+        Map<Long, EnumerationNode> idMap = new ConcurrentHashMap<Long, EnumerationNode>();
 
         /** Used to indicate whether the class has been finalized yet. */
-        boolean finalized;
+        volatile boolean finalized;
 
         /** Used to hold the name of the attribute class that this is a factory for. */
         String attributeClassName;
@@ -405,13 +405,18 @@ public class IdAttribute<T> implements OrdinalAttribute, ReferencableAttribute,
         public static <T> IdAttributeFactory<T> getInstance(String name)
         {
             // Try to get the attribute class from the map of those that have already been created.
-            IdClassImpl<T> attributeClass = attributeClasses.get(name);
+            IdClassImpl<T> attributeClass = attributeClasses.get(keyOf(name));
 
-            // Check if this is a new class and create it if so.
+            // Check if this is a new class and create it if so, keeping any created by another thread in the meantime.
             if (attributeClass == null)
             {
-                attributeClass = new IdClassImpl<T>(name);
-                attributeClasses.put(name, attributeClass);
+                IdClassImpl<T> newClass = new IdClassImpl<T>(name);
+                attributeClass = attributeClasses.putIfAbsent(keyOf(name), newClass);
+
+                if (attributeClass == null)
+                {
+                    attributeClass = newClass;
+                }
             }
 
             return attributeClass;
@@ -440,7 +445,29 @@ public class IdAttribute<T> implements OrdinalAttribute, ReferencableAttribute,
         public IdAttribute<T> createIdAttribute(T value) throws IllegalArgumentException
         {
             // Check if the value is already in the attribute class.
-            Integer i = lookupInt.get(value);
+            Integer i = lookupInt.get(keyOf(value));
+
+            if (i != null)
+            {
+                return new IdAttribute<T>(i, this);
+            }
+
+            return internValue(value);
+        }
+
+        /**
+         * Adds a new value to the attribute class, unless another thread has added it first.
+         *
+         * @param  value The object value to add.
+         *
+         * @return A new object attribute with the specified value.
+         *
+         * @throws IllegalArgumentException If the type has been finalized.
+         */
+        private synchronized IdAttribute<T> internValue(T value) throws IllegalArgumentException
+        {
+            // Check again if the value is already in the attribute class, now that the class is locked.
+            Integer i = lookupInt.get(keyOf(value));
 
             if (i != null)
             {
@@ -460,24 +487,35 @@ public class IdAttribute<T> implements OrdinalAttribute, ReferencableAttribute,
             // The attribute class is not finalized yet so work with the list.
             else
             {
-                // Work out what position in the list the new value will be at.
-                int position = lookupValueList.size();
+                // Work out what position in the array the new value will be at.
+                int position = count;
 
                 // Create a new enumeration node to insert.
-                EnumerationNode node = new EnumerationNode();
+                EnumerationNode<T> node = new EnumerationNode<T>();
                 node.label = value;
                 node.value = position;
                 node.id = node.value;
 
-                // Add the new value at the end of the list.
-                lookupValueList.add(node);
+                // Add the new value at the end of the array, growing it first if it is full.
+                EnumerationNode<T>[] values = lookupValue;
+
+                if (position == values.length)
+                {
+                    EnumerationNode<T>[] larger = new EnumerationNode[position << 1];
+                    System.arraycopy(values, 0, larger, 0, position);
+                    values = larger;
+                }
 
-                // Also add the new value to the map of values.
-                lookupInt.put(value, position);
+                values[position] = node;
+                lookupValue = values;
 
                 // Also add the new value to the id map.
                 idMap.put(node.id, node);
 
+                // Only now count the new value, and add it to the map of values, so that it can be looked up.
+                count = position + 1;
+                lookupInt.put(keyOf(value), position);
+
                 // Create a new object attribute from a int representation of the position.
                 return new IdAttribute<T>(position, this);
             }
@@ -493,15 +531,9 @@ public class IdAttribute<T> implements OrdinalAttribute, ReferencableAttribute,
          */
         public IdAttribute<T> getAttributeFromInt(int b)
         {
-            // Check if the attribute class has already been finalized in which case the int is only valid if it is
-            // less than num possible values.
-            if (finalized && (b >= numValues))
-            {
-                return null;
-            }
-
-            // If the attribute is not finalized the int is only valid if it is less than the attibute list size.
-            else if (b >= lookupValueList.size())
+            // The int is only valid if it is less than the number of values, which is fixed once the class is
+            // finalized.
+            if (b >= count)
             {
                 return null;
             }
@@ -533,7 +565,7 @@ public class IdAttribute<T> implements OrdinalAttribute, ReferencableAttribute,
         }
 
         /** Finalizes an attribute class. This prevents any new attribute value from being added to the class. */
-        public void finalizeAttribute()
+        public synchronized void finalizeAttribute()
         {
             // Check if the attribute class has already been finalized.
             if (finalized)
@@ -543,14 +575,8 @@ public class IdAttribute<T> implements OrdinalAttribute, ReferencableAttribute,
             }
 
             // Count how many values there are and set this as the possible value count.
-            int count = lookupValueList.size();
-
             numValues = count;
 
-            // Convert the List of values into an array and set the List reference to null.
-            lookupValue = lookupValueList.toArray(new EnumerationNode[count]);
-            lookupValueList = null;
-
             // Set the finalized flag.
             finalized = true;
         }
@@ -558,7 +584,7 @@ public class IdAttribute<T> implements OrdinalAttribute, ReferencableAttribute,
         /** Drops an attribute class. The attribute class is explicitly deleted. */
         public void dropAttributeClass()
         {
-            attributeClasses.remove(attributeClassName);
+            attributeClasses.remove(keyOf(attributeClassName));
         }
 
         /**
@@ -625,7 +651,7 @@ public class IdAttribute<T> implements OrdinalAttribute, ReferencableAttribute,
 
                 for (int i = 0; i < numValues; i++)
                 {
-                    result.add(createIdAttribute(lookupValue[i].label));
+                    result.add(new IdAttribute<T>(i, this));
                 }
 
                 return result;
@@ -660,8 +686,8 @@ public class IdAttribute<T> implements OrdinalAttribute, ReferencableAttribute,
         /** The compact int value of the node. */
         public int value;
 
-        /** The referencable id of the value. */
-        public long id;
+        /** The referencable id of the value, which may be changed whilst other threads are reading it. */
+        public volatile long id;
 
         /**
          * Outputs all values as a string for debugging.
@@ -122,6 +122,8 @@ public class PrologResolverTest extends TestCase
                 "testMultipleVariablesAreBoundOk", engine));
         suite.addTest(new BasicResolverUnitTestBase<Clause, PrologCompiledClause, PrologCompiledClause>(
                 "testVariablesUnboundOnBacktrackingMemberOk", engine));
+        suite.addTest(new BasicResolverUnitTestBase<Clause, PrologCompiledClause, PrologCompiledClause>(
+                "testFailedUnificationLeavesNoBindingsOk", engine));
 
         // Add all tests defined in the ConjunctionResolverUnitTestBase class.
         suite.addTest(new ConjunctionResolverUnitTestBase<Clause, PrologCompiledClause, PrologCompiledClause>(
@@ -174,6 +176,8 @@ public class PrologResolverTest extends TestCase
                 "testInstantiatingClausesSeveralTimesWithSameVariableDoesNotConflictVariableBindings", engine));
         suite.addTest(new BacktrackingResolverUnitTestBase<Clause, PrologCompiledClause, PrologCompiledClause>(
                 "testInstantiatingClausesSeveralTimesWithDifferentVariableAllowsIndependentBindings", engine));
+        suite.addTest(new BacktrackingResolverUnitTestBase<Clause, PrologCompiledClause, PrologCompiledClause>(
+                "testBacktrackingIntoEarlierCallKeepsLiveVariables", engine));
 
         // Add all tests defined in the ListResolverUnitTestBase class.
         suite.addTest(new ListResolverUnitTestBase<Clause, PrologCompiledClause, PrologCompiledClause>(
@@ -0,0 +1,92 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.builtins;
+
+import com.thesett.aima.logic.fol.Functor;
+import com.thesett.aima.logic.fol.FunctorName;
+import com.thesett.aima.logic.fol.wam.compiler.DefaultBuiltIn;
+import com.thesett.aima.logic.fol.wam.compiler.WAMInstruction;
+import com.thesett.common.util.SizeableLinkedList;
+
+/**
+ * AllSolutions implements the internal predicates that findall/3, bagof/3 and setof/3 are built from. These are
+ * '$fa_begin'/1, that starts collecting the solutions to a goal, '$fa_add'/2, that copies a solution into the
+ * collection, '$fa_end'/2, that copies the collected solutions back onto the heap as a list, '$bag_witness'/4, that
+ * finds the free variables of the goal of a bagof/3, '$bag_groups'/2, that groups its solutions by the bindings of
+ * those variables, and '$sort'/2, that sorts a list into the standard order of terms. Each is passed its arguments in
+ * the argument registers, to an internal function of the machine of the same name.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Call the internal functions that collect the solutions to goals.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class AllSolutions extends BaseBuiltIn
+{
+    /**
+     * Creates an all solutions built-in to implement the specified functor.
+     *
+     * @param functor        The functor to implement as a built-in.
+     * @param defaultBuiltIn The default built in, for standard compilation and interners and symbol tables.
+     */
+    public AllSolutions(Functor functor, DefaultBuiltIn defaultBuiltIn)
+    {
+        super(functor, defaultBuiltIn);
+    }
+
+    /** {@inheritDoc} */
+    public SizeableLinkedList<WAMInstruction> compileBodyArguments(Functor expression, boolean isFirstBody,
+        FunctorName clauseName, int bodyNumber)
+    {
+        return defaultBuiltIn.compileBodyArguments(expression, isFirstBody, clauseName, bodyNumber);
+    }
+
+    /** {@inheritDoc} */
+    public SizeableLinkedList<WAMInstruction> compileBodyCall(Functor expression, boolean isFirstBody,
+        boolean isLastBody, boolean chainRule, int permVarsRemaining)
+    {
+        SizeableLinkedList<WAMInstruction> instructions = new SizeableLinkedList<WAMInstruction>();
+
+        FunctorName name = defaultBuiltIn.getInterner().getFunctorFunctorName(expression);
+
+        instructions.add(new WAMInstruction(WAMInstruction.WAMInstructionSet.CallInternal,
+                (byte) (permVarsRemaining & 0xff), name));
+
+        if (isLastBody)
+        {
+            if (!chainRule)
+            {
+                instructions.add(new WAMInstruction(WAMInstruction.WAMInstructionSet.Deallocate));
+            }
+
+            instructions.add(new WAMInstruction(WAMInstruction.WAMInstructionSet.Proceed));
+        }
+
+        return instructions;
+    }
+
+    /**
+     * Creates a string representation of this functor, mostly used for debugging purposes.
+     *
+     * @return A string representation of this functor.
+     */
+    public String toString()
+    {
+        return "AllSolutions: [ arguments = " + toStringArguments() + " ]";
+    }
+}
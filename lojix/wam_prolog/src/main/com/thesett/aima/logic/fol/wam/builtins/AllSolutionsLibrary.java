@@ -0,0 +1,199 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.builtins;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.thesett.aima.logic.fol.Clause;
+import com.thesett.aima.logic.fol.Cons;
+import com.thesett.aima.logic.fol.Functor;
+import com.thesett.aima.logic.fol.Nil;
+import com.thesett.aima.logic.fol.Term;
+import com.thesett.aima.logic.fol.Variable;
+import com.thesett.aima.logic.fol.VariableAndFunctorInterner;
+
+/**
+ * AllSolutionsLibrary creates the clauses of findall/3, bagof/3 and setof/3. These are built on the internal
+ * predicates implemented by {@link AllSolutions}, whose names cannot be written in the source of the built-in library,
+ * so the clauses are created here instead, as if they had been written as:
+ *
+ * <pre>
+ * '$findall'(H, T, G, _) :- call(G), '$fa_add'(H, T), fail.
+ * '$findall'(H, _, _, L) :- '$fa_end'(H, L).
+ * findall(T, G, L) :- '$fa_begin'(H), '$findall'(H, T, G, L).
+ * '$bag_unzip'([], _, []).
+ * '$bag_unzip'([W-T|Ps], W, [T|Ts]) :- '$bag_unzip'(Ps, W, Ts).
+ * bagof(T, G, L) :- '$bag_witness'(T, G, W, G1), findall(W-T, G1, Ps), '$bag_groups'(Ps, Gs), member(P, Gs),
+ *     '$bag_unzip'(P, W, L).
+ * setof(T, G, S) :- bagof(T, G, L), '$sort'(L, S).
+ * </pre>
+ *
+ * <p/>The solutions found by findall/3 are copied into a collection held apart from the heap, and copied back as a list
+ * once the goal has no more solutions. bagof/3 finds all solutions paired with the bindings of the free variables of
+ * its goal, groups them by those bindings, and backtracks over the groups. The clauses are listed so that every
+ * predicate is defined before it is called, and must be compiled after member/2.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities
+ * <tr><td> Create the clauses of the all solutions predicates.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class AllSolutionsLibrary
+{
+    /** Holds the interner to intern the names of the clauses with. */
+    private final VariableAndFunctorInterner interner;
+
+    /**
+     * Creates the all solutions library, over an interner.
+     *
+     * @param interner The interner to intern the names of the clauses with.
+     */
+    public AllSolutionsLibrary(VariableAndFunctorInterner interner)
+    {
+        this.interner = interner;
+    }
+
+    /**
+     * Creates the clauses of the all solutions predicates, in the order that they are to be compiled.
+     *
+     * @return The clauses of the all solutions predicates.
+     */
+    public List<Clause> getClauses()
+    {
+        List<Clause> clauses = new ArrayList<Clause>();
+
+        // '$findall'(H, T, G, _) :- call(G), '$fa_add'(H, T), fail.
+        Variable h = newVariable("H");
+        Variable t = newVariable("T");
+        Variable g = newVariable("G");
+
+        clauses.add(new Clause<Functor>(newFunctor("$findall", h, t, g, newVariable("_")),
+                new Functor[] { newFunctor("call", g), newFunctor("$fa_add", h, t), newFunctor("fail") }));
+
+        // '$findall'(H, _, _, L) :- '$fa_end'(H, L).
+        h = newVariable("H");
+
+        Variable l = newVariable("L");
+
+        clauses.add(new Clause<Functor>(newFunctor("$findall", h, newVariable("_"), newVariable("_"), l),
+                new Functor[] { newFunctor("$fa_end", h, l) }));
+
+        // findall(T, G, L) :- '$fa_begin'(H), '$findall'(H, T, G, L).
+        h = newVariable("H");
+        t = newVariable("T");
+        g = newVariable("G");
+        l = newVariable("L");
+
+        clauses.add(new Clause<Functor>(newFunctor("findall", t, g, l),
+                new Functor[] { newFunctor("$fa_begin", h), newFunctor("$findall", h, t, g, l) }));
+
+        // '$bag_unzip'([], _, []).
+        clauses.add(new Clause<Functor>(newFunctor("$bag_unzip", newNil(), newVariable("_"), newNil()), null));
+
+        // '$bag_unzip'([W-T|Ps], W, [T|Ts]) :- '$bag_unzip'(Ps, W, Ts).
+        Variable w = newVariable("W");
+        Variable ps = newVariable("Ps");
+        Variable ts = newVariable("Ts");
+        t = newVariable("T");
+
+        clauses.add(new Clause<Functor>(
+                newFunctor("$bag_unzip", newCons(newFunctor("-", w, t), ps), w, newCons(t, ts)),
+                new Functor[] { newFunctor("$bag_unzip", ps, w, ts) }));
+
+        // bagof(T, G, L) :- '$bag_witness'(T, G, W, G1), findall(W-T, G1, Ps), '$bag_groups'(Ps, Gs), member(P, Gs),
+        //     '$bag_unzip'(P, W, L).
+        t = newVariable("T");
+        g = newVariable("G");
+        l = newVariable("L");
+        w = newVariable("W");
+        ps = newVariable("Ps");
+
+        Variable g1 = newVariable("G1");
+        Variable gs = newVariable("Gs");
+        Variable p = newVariable("P");
+
+        clauses.add(new Clause<Functor>(newFunctor("bagof", t, g, l),
+                new Functor[]
+                {
+                    newFunctor("$bag_witness", t, g, w, g1), newFunctor("findall", newFunctor("-", w, t), g1, ps),
+                    newFunctor("$bag_groups", ps, gs), newFunctor("member", p, gs), newFunctor("$bag_unzip", p, w, l)
+                }));
+
+        // setof(T, G, S) :- bagof(T, G, L), '$sort'(L, S).
+        t = newVariable("T");
+        g = newVariable("G");
+        l = newVariable("L");
+
+        Variable s = newVariable("S");
+
+        clauses.add(new Clause<Functor>(newFunctor("setof", t, g, s),
+                new Functor[] { newFunctor("bagof", t, g, l), newFunctor("$sort", l, s) }));
+
+        return clauses;
+    }
+
+    /**
+     * Creates a fresh variable.
+     *
+     * @param  name The name of the variable.
+     *
+     * @return The variable.
+     */
+    private Variable newVariable(String name)
+    {
+        return new Variable(interner.internVariableName(name), null, "_".equals(name));
+    }
+
+    /**
+     * Creates a functor, with the given name and arguments.
+     *
+     * @param  name      The name of the functor.
+     * @param  arguments The arguments of the functor.
+     *
+     * @return The functor.
+     */
+    private Functor newFunctor(String name, Term... arguments)
+    {
+        return new Functor(interner.internFunctorName(name, arguments.length),
+                (arguments.length == 0) ? null : arguments);
+    }
+
+    /**
+     * Creates a list cell.
+     *
+     * @param  head The head of the list.
+     * @param  tail The tail of the list.
+     *
+     * @return The list cell.
+     */
+    private Cons newCons(Term head, Term tail)
+    {
+        return new Cons(interner.internFunctorName("cons", 2), new Term[] { head, tail });
+    }
+
+    /**
+     * Creates the empty list.
+     *
+     * @return The empty list.
+     */
+    private Nil newNil()
+    {
+        return new Nil(interner.internFunctorName("nil", 0), null);
+    }
+}
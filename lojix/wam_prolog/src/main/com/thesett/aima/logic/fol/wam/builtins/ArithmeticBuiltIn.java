@@ -0,0 +1,173 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.builtins;
+
+import com.thesett.aima.logic.fol.Functor;
+import com.thesett.aima.logic.fol.FunctorName;
+import com.thesett.aima.logic.fol.NumericType;
+import com.thesett.aima.logic.fol.Term;
+import com.thesett.aima.logic.fol.wam.compiler.DefaultBuiltIn;
+import com.thesett.aima.logic.fol.wam.compiler.WAMInstruction;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.WAMInstructionSet.ArithFloat;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.WAMInstructionSet.ArithInt;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.WAMInstructionSet.ArithLoad;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.WAMInstructionSet.ArithOp;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.WAMInstructionSet.Deallocate;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.WAMInstructionSet.Execute;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.WAMInstructionSet.Proceed;
+import com.thesett.common.util.SizeableLinkedList;
+
+/**
+ * ArithmeticBuiltIn is a base class for the built-ins that evaluate arithmetic expressions. Expressions are compiled
+ * inline, into instructions that evaluate them on the arithmetic stack of the machine, rather than being built on the
+ * heap and passed to a predicate to evaluate. Only the variables in an expression are evaluated at run-time, and then
+ * only if they are bound to a compound expression rather than a number.
+ *
+ * <p/>An expression that can be seen to have no value when it is compiled, because it contains a variable that cannot
+ * have been bound yet, a term that is not an arithmetic operator, or an integer too large to be held, is compiled into
+ * an operator that raises the error when the expression is evaluated, just as it would be raised were the expression
+ * only known at run-time.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Compile arithmetic expressions onto the arithmetic stack. <td> {@link DefaultBuiltIn}.
+ * <tr><td> Continue the clause after the built-in, as it makes no call.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public abstract class ArithmeticBuiltIn extends BaseBuiltIn
+{
+    /**
+     * Creates an arithmetic built-in to implement the specified functor.
+     *
+     * @param functor        The functor to implement as a built-in.
+     * @param defaultBuiltIn The default built in, for standard compilation and interners and symbol tables.
+     */
+    protected ArithmeticBuiltIn(Functor functor, DefaultBuiltIn defaultBuiltIn)
+    {
+        super(functor, defaultBuiltIn);
+    }
+
+    /** {@inheritDoc} */
+    public SizeableLinkedList<WAMInstruction> compileBodyCall(Functor expression, boolean isFirstBody,
+        boolean isLastBody, boolean chainRule, int permVarsRemaining)
+    {
+        SizeableLinkedList<WAMInstruction> instructions = new SizeableLinkedList<WAMInstruction>();
+
+        if (isLastBody)
+        {
+            if (!chainRule)
+            {
+                instructions.add(new WAMInstruction(Deallocate));
+            }
+
+            instructions.add(new WAMInstruction(Proceed));
+        }
+
+        return instructions;
+    }
+
+    /**
+     * Compiles an arithmetic expression, into instructions that leave its value on top of the arithmetic stack, or
+     * raise an error if it has none.
+     *
+     * @param expression   The expression to compile.
+     * @param instructions The instructions to add to.
+     */
+    protected void compileExpression(Term expression, SizeableLinkedList<WAMInstruction> instructions)
+    {
+        if (expression.isNumber())
+        {
+            instructions.add(compileLiteral((NumericType) expression));
+        }
+        else if (expression.isVar())
+        {
+            int allocation = defaultBuiltIn.getAllocation(expression);
+
+            // A variable that has not been given a value yet, cannot be bound to anything.
+            if (!defaultBuiltIn.isSeen(allocation))
+            {
+                instructions.add(new WAMInstruction(ArithOp, WAMInstruction.OP_INSTANTIATION_ERROR));
+
+                return;
+            }
+
+            instructions.add(new WAMInstruction(ArithLoad, (byte) ((allocation & 0xff00) >> 8),
+                    (byte) (allocation & 0xff)));
+        }
+        else if (expression.isFunctor())
+        {
+            Functor functor = (Functor) expression;
+            FunctorName name = defaultBuiltIn.getInterner().getFunctorFunctorName(functor);
+            byte op = WAMInstruction.getArithmeticOperator(name);
+
+            if (op == 0)
+            {
+                instructions.add(new WAMInstruction(ArithOp, WAMInstruction.OP_TYPE_ERROR));
+
+                return;
+            }
+
+            for (int i = 0; i < functor.getArity(); i++)
+            {
+                compileExpression(functor.getArgument(i), instructions);
+            }
+
+            instructions.add(new WAMInstruction(ArithOp, op));
+        }
+        else
+        {
+            instructions.add(new WAMInstruction(ArithOp, WAMInstruction.OP_TYPE_ERROR));
+        }
+    }
+
+    /**
+     * Compiles a number, into an instruction that pushes it onto the arithmetic stack. Integers are held in 32 bits,
+     * so one that is larger is compiled into an operator that raises an overflow error.
+     *
+     * @param  number The number to compile.
+     *
+     * @return The instruction to push the number.
+     */
+    protected WAMInstruction compileLiteral(NumericType number)
+    {
+        if (!number.isInteger())
+        {
+            return new WAMInstruction(ArithFloat, number);
+        }
+        else if (number.longValue() != number.intValue())
+        {
+            return new WAMInstruction(ArithOp, WAMInstruction.OP_INT_OVERFLOW);
+        }
+
+        return new WAMInstruction(ArithInt, number);
+    }
+
+    /**
+     * Compiles a failure, for a built-in that can be seen to fail when it is compiled. This calls a predicate that is
+     * never defined.
+     *
+     * @return The instructions to fail.
+     */
+    protected SizeableLinkedList<WAMInstruction> compileFailure()
+    {
+        SizeableLinkedList<WAMInstruction> instructions = new SizeableLinkedList<WAMInstruction>();
+        instructions.add(new WAMInstruction(Execute, new FunctorName("__fail__", 0)));
+
+        return instructions;
+    }
+}
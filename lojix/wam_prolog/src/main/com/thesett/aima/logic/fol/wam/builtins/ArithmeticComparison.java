@@ -0,0 +1,75 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.builtins;
+
+import com.thesett.aima.logic.fol.Functor;
+import com.thesett.aima.logic.fol.FunctorName;
+import com.thesett.aima.logic.fol.wam.compiler.DefaultBuiltIn;
+import com.thesett.aima.logic.fol.wam.compiler.WAMInstruction;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.WAMInstructionSet.ArithCmp;
+import com.thesett.common.util.SizeableLinkedList;
+
+/**
+ * ArithmeticComparison implements the ISO Prolog arithmetic comparison operators, '=:='/2, '=\='/2, '<'/2, '=<'/2,
+ * '>'/2 and '>='/2. Both arguments are evaluated, and the comparison succeeds iff their values compare as the operator
+ * requires. Integers and floats are compared by value, an integer being converted to a float to compare with a float.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Evaluate and compare two arithmetic expressions.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class ArithmeticComparison extends ArithmeticBuiltIn
+{
+    /**
+     * Creates an arithmetic comparison built-in to implement the specified functor.
+     *
+     * @param functor        The functor to implement as a built-in.
+     * @param defaultBuiltIn The default built in, for standard compilation and interners and symbol tables.
+     */
+    public ArithmeticComparison(Functor functor, DefaultBuiltIn defaultBuiltIn)
+    {
+        super(functor, defaultBuiltIn);
+    }
+
+    /** {@inheritDoc} */
+    public SizeableLinkedList<WAMInstruction> compileBodyArguments(Functor expression, boolean isFirstBody,
+        FunctorName clauseName, int bodyNumber)
+    {
+        SizeableLinkedList<WAMInstruction> instructions = new SizeableLinkedList<WAMInstruction>();
+
+        FunctorName name = defaultBuiltIn.getInterner().getFunctorFunctorName(expression);
+        byte comparison = WAMInstruction.getArithmeticComparison(name);
+
+        compileExpression(expression.getArgument(0), instructions);
+        compileExpression(expression.getArgument(1), instructions);
+        instructions.add(new WAMInstruction(ArithCmp, comparison));
+
+        return instructions;
+    }
+
+    /**
+     * Creates a string representation of this functor, mostly used for debugging purposes.
+     *
+     * @return A string representation of this functor.
+     */
+    public String toString()
+    {
+        return "ArithmeticComparison: [ arguments = " + toStringArguments() + " ]";
+    }
+}
@@ -65,13 +65,30 @@ public class BuiltInTransform implements Function<Functor, Functor>
         builtIns.put(new FunctorName(";", 2), Disjunction.class);
         builtIns.put(new FunctorName(",", 2), Conjunction.class);
         builtIns.put(new FunctorName("call", 1), Call.class);
-        /*builtIns.put(new FunctorName("is", 2), Is.class);
-        builtIns.put(new FunctorName(">", 2), GreaterThan.class);
-        builtIns.put(new FunctorName(">=", 2), GreaterThanOrEqual.class);
-        builtIns.put(new FunctorName("<", 2), LessThan.class);
-        builtIns.put(new FunctorName("=<", 2), LessThanOrEqual.class);
-        builtIns.put(new FunctorName("integer", 1), IntegerCheck.class);
-        builtIns.put(new FunctorName("float", 1), FloatCheck.class);*/
+        builtIns.put(new FunctorName("is", 2), Is.class);
+        builtIns.put(new FunctorName("=:=", 2), ArithmeticComparison.class);
+        builtIns.put(new FunctorName("=\\=", 2), ArithmeticComparison.class);
+        builtIns.put(new FunctorName(">", 2), ArithmeticComparison.class);
+        builtIns.put(new FunctorName(">=", 2), ArithmeticComparison.class);
+        builtIns.put(new FunctorName("<", 2), ArithmeticComparison.class);
+        builtIns.put(new FunctorName("=<", 2), ArithmeticComparison.class);
+        builtIns.put(new FunctorName("integer", 1), TypeCheck.class);
+        builtIns.put(new FunctorName("float", 1), TypeCheck.class);
+        builtIns.put(new FunctorName("number", 1), TypeCheck.class);
+        builtIns.put(new FunctorName("$par_start", 3), AndParallel.class);
+        builtIns.put(new FunctorName("$par_join", 2), AndParallel.class);
+        builtIns.put(new FunctorName("$par_goal", 1), AndParallel.class);
+        builtIns.put(new FunctorName("$par_solution", 1), AndParallel.class);
+        builtIns.put(new FunctorName("$tbl_call", 2), Tabling.class);
+        builtIns.put(new FunctorName("$tbl_more", 1), Tabling.class);
+        builtIns.put(new FunctorName("$tbl_add", 2), Tabling.class);
+        builtIns.put(new FunctorName("$tbl_answers", 2), Tabling.class);
+        builtIns.put(new FunctorName("$fa_begin", 1), AllSolutions.class);
+        builtIns.put(new FunctorName("$fa_add", 2), AllSolutions.class);
+        builtIns.put(new FunctorName("$fa_end", 2), AllSolutions.class);
+        builtIns.put(new FunctorName("$bag_witness", 4), AllSolutions.class);
+        builtIns.put(new FunctorName("$bag_groups", 2), AllSolutions.class);
+        builtIns.put(new FunctorName("$sort", 2), AllSolutions.class);
     }
 
     /**
@@ -23,7 +23,9 @@ import com.thesett.aima.logic.fol.wam.compiler.DefaultBuiltIn;
 import com.thesett.aima.logic.fol.wam.compiler.SymbolTableKeys;
 import com.thesett.aima.logic.fol.wam.compiler.WAMInstruction;
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.WAMInstructionSet.Cut;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.WAMInstructionSet.Deallocate;
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.WAMInstructionSet.NeckCut;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.WAMInstructionSet.Proceed;
 import com.thesett.common.util.SizeableLinkedList;
 
 /**
@@ -79,6 +81,17 @@ public class Cut extends BaseBuiltIn
             instructions.add(new WAMInstruction(Cut, (byte) (cutLevelVarAllocation & 0xff)));
         }
 
+        // A cut that ends a clause must return from it, as there is no following call to do so.
+        if (isLastBody)
+        {
+            if (!chainRule)
+            {
+                instructions.add(new WAMInstruction(Deallocate));
+            }
+
+            instructions.add(new WAMInstruction(Proceed));
+        }
+
         return instructions;
     }
 
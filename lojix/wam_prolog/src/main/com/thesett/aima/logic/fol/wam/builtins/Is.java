@@ -0,0 +1,112 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.builtins;
+
+import com.thesett.aima.logic.fol.Functor;
+import com.thesett.aima.logic.fol.FunctorName;
+import com.thesett.aima.logic.fol.NumericType;
+import com.thesett.aima.logic.fol.Term;
+import com.thesett.aima.logic.fol.Variable;
+import com.thesett.aima.logic.fol.wam.compiler.DefaultBuiltIn;
+import com.thesett.aima.logic.fol.wam.compiler.WAMInstruction;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.WAMInstructionSet.ArithCmp;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.WAMInstructionSet.ArithGet;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.WAMInstructionSet.ArithPut;
+import com.thesett.common.util.SizeableLinkedList;
+
+/**
+ * Is implements the ISO Prolog arithmetic evaluation operator 'is'/2. The expression on its right is evaluated, and the
+ * result unified with its left argument.
+ *
+ * <p/>When the left argument is a variable that is first seen in the is/2 goal, the result is simply placed in the
+ * register or stack slot of the variable, without any need to unify. When it is a number, the result is compared with
+ * it, so that no heap cells are needed at all.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Evaluate an arithmetic expression and unify the result with a term.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class Is extends ArithmeticBuiltIn
+{
+    /**
+     * Creates an is built-in to implement the specified functor.
+     *
+     * @param functor        The functor to implement as a built-in.
+     * @param defaultBuiltIn The default built in, for standard compilation and interners and symbol tables.
+     */
+    public Is(Functor functor, DefaultBuiltIn defaultBuiltIn)
+    {
+        super(functor, defaultBuiltIn);
+    }
+
+    /** {@inheritDoc} */
+    public SizeableLinkedList<WAMInstruction> compileBodyArguments(Functor expression, boolean isFirstBody,
+        FunctorName clauseName, int bodyNumber)
+    {
+        SizeableLinkedList<WAMInstruction> instructions = new SizeableLinkedList<WAMInstruction>();
+
+        Term result = expression.getArgument(0);
+        Term value = expression.getArgument(1);
+
+        if (result.isNumber())
+        {
+            instructions.add(compileLiteral((NumericType) result));
+            compileExpression(value, instructions);
+
+            instructions.add(new WAMInstruction(ArithCmp, WAMInstruction.CMP_SAME));
+        }
+        else if (result.isVar())
+        {
+            compileExpression(value, instructions);
+
+            int allocation = defaultBuiltIn.getAllocation(result);
+            byte addrMode = (byte) ((allocation & 0xff00) >> 8);
+            byte address = (byte) (allocation & 0xff);
+
+            if (!defaultBuiltIn.isSeen(allocation))
+            {
+                instructions.add(new WAMInstruction(ArithPut, addrMode, address));
+                defaultBuiltIn.introduceVariable((Variable) result, allocation);
+            }
+            else
+            {
+                instructions.add(new WAMInstruction(ArithGet, addrMode, address));
+            }
+        }
+        else
+        {
+            // A number never unifies with a compound term or an atom, but the expression is still evaluated first, in
+            // case it raises an error.
+            compileExpression(value, instructions);
+            instructions.addAll(compileFailure());
+        }
+
+        return instructions;
+    }
+
+    /**
+     * Creates a string representation of this functor, mostly used for debugging purposes.
+     *
+     * @return A string representation of this functor.
+     */
+    public String toString()
+    {
+        return "Is: [ arguments = " + toStringArguments() + " ]";
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.builtins;
+
+import com.thesett.aima.logic.fol.Functor;
+import com.thesett.aima.logic.fol.FunctorName;
+import com.thesett.aima.logic.fol.wam.compiler.DefaultBuiltIn;
+import com.thesett.aima.logic.fol.wam.compiler.WAMInstruction;
+import com.thesett.common.util.SizeableLinkedList;
+
+/**
+ * Tabling implements the internal predicates that calls to tabled predicates are evaluated through. These are
+ * '$tbl_call'/2, that looks up the table of a call, '$tbl_more'/1, that decides whether the clauses of a call are to
+ * be run again to find more answers, '$tbl_add'/2, that adds an answer to a table, and '$tbl_answers'/2, that
+ * lists the answers in the table of a call. Each is passed its arguments in the argument registers, to an internal
+ * function of the machine of the same name.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Call the internal functions that evaluate tabled calls.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class Tabling extends BaseBuiltIn
+{
+    /**
+     * Creates a tabling built-in to implement the specified functor.
+     *
+     * @param functor        The functor to implement as a built-in.
+     * @param defaultBuiltIn The default built in, for standard compilation and interners and symbol tables.
+     */
+    public Tabling(Functor functor, DefaultBuiltIn defaultBuiltIn)
+    {
+        super(functor, defaultBuiltIn);
+    }
+
+    /** {@inheritDoc} */
+    public SizeableLinkedList<WAMInstruction> compileBodyArguments(Functor expression, boolean isFirstBody,
+        FunctorName clauseName, int bodyNumber)
+    {
+        return defaultBuiltIn.compileBodyArguments(expression, isFirstBody, clauseName, bodyNumber);
+    }
+
+    /** {@inheritDoc} */
+    public SizeableLinkedList<WAMInstruction> compileBodyCall(Functor expression, boolean isFirstBody,
+        boolean isLastBody, boolean chainRule, int permVarsRemaining)
+    {
+        SizeableLinkedList<WAMInstruction> instructions = new SizeableLinkedList<WAMInstruction>();
+
+        FunctorName name = defaultBuiltIn.getInterner().getFunctorFunctorName(expression);
+
+        instructions.add(new WAMInstruction(WAMInstruction.WAMInstructionSet.CallInternal,
+                (byte) (permVarsRemaining & 0xff), name));
+
+        if (isLastBody)
+        {
+            if (!chainRule)
+            {
+                instructions.add(new WAMInstruction(WAMInstruction.WAMInstructionSet.Deallocate));
+            }
+
+            instructions.add(new WAMInstruction(WAMInstruction.WAMInstructionSet.Proceed));
+        }
+
+        return instructions;
+    }
+
+    /**
+     * Creates a string representation of this functor, mostly used for debugging purposes.
+     *
+     * @return A string representation of this functor.
+     */
+    public String toString()
+    {
+        return "Tabling: [ arguments = " + toStringArguments() + " ]";
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.compiler;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.thesett.aima.logic.fol.Clause;
+import com.thesett.aima.logic.fol.Functor;
+import com.thesett.aima.logic.fol.Term;
+import com.thesett.aima.logic.fol.TermUtils;
+import com.thesett.aima.logic.fol.Variable;
+import com.thesett.aima.logic.fol.VariableAndFunctorInterner;
+import com.thesett.aima.logic.fol.wam.builtins.BuiltInFunctor;
+import com.thesett.aima.logic.fol.wam.builtins.BuiltInTransform;
+import com.thesett.common.util.Function;
+
+/**
+ * AndParallelTransform finds goals in the bodies of clauses that may be run independently of each other, and rewrites
+ * them to be run in parallel. Consecutive calls to predicates, that share no variables with each other, are gathered
+ * into groups. Built-ins, such as cuts, are never part of a group, so a group always lies between them. Within a group
+ * of goals, the first is run as usual, and the others are each started on an engine of their own beforehand, and
+ * their solutions joined afterwards, in order. That is:
+ *
+ * <pre>
+ * p(X), q(Y), r(Z)
+ * </pre>
+ *
+ * becomes:
+ *
+ * <pre>
+ * '$par_start'(q(Y), '$vars'(X), H1), '$par_start'(r(Z), '$vars'(X, Y), H2),
+ * p(X), '$par_join'(H1, q(Y)), '$par_join'(H2, r(Z))
+ * </pre>
+ *
+ * <p/>Sharing no variables in the source does not make goals independent, as variables may be bound to terms that
+ * share variables by the time the goals are run. So each goal started is passed the variables of the goals before it
+ * in the group, and is only run in parallel if it shares no unbound variables with them once it is started. Otherwise,
+ * or if there is no engine free to run it, it is joined by calling it as usual.
+ *
+ * <p/>Joining a goal that has been run in parallel, unifies it with each of its solutions in turn, on backtracking.
+ * As the goals of a group are independent, the solutions to each are the same whatever solution the goals before it
+ * are on, and this gives the same solutions, in the same order, as running the goals one after the other.
+ *
+ * <p/>Goals started in parallel are run speculatively. A goal may be run when the goals before it fail, so that the
+ * clause would never have got to it, and a goal with too many solutions to hand over is run again by the machine that
+ * started it. So only clauses whose goals are free of side effects may be run in parallel; the transform cannot check
+ * this, as the predicates called may not be compiled yet. An error raised by a goal is raised once, by the machine
+ * that started it, when it gets to the goal.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Find groups of consecutive goals that share no variables.
+ * <tr><td> Rewrite groups of goals to be run in parallel. <td> {@link BuiltInTransform}.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class AndParallelTransform implements Function<Clause, Clause>
+{
+    /** The largest number of variables that a group of goals may have, as they must fit in the arguments of a term. */
+    private static final int MAX_GROUP_VARS = 255;
+
+    /** Holds the interner to look up the internal functor names with. */
+    private final VariableAndFunctorInterner interner;
+
+    /** Holds the built in transformation, to turn the internal functors into their built-ins. */
+    private final BuiltInTransform builtInTransform;
+
+    /** Holds the number of handle variables created, to give each a name of its own. */
+    private int handles;
+
+    /**
+     * Creates the AND-parallel transformation.
+     *
+     * @param interner         The interner for functor and variable names.
+     * @param builtInTransform The built in transformation.
+     */
+    public AndParallelTransform(VariableAndFunctorInterner interner, BuiltInTransform builtInTransform)
+    {
+        this.interner = interner;
+        this.builtInTransform = builtInTransform;
+    }
+
+    /**
+     * Rewrites the groups of independent goals in the body of a clause to run in parallel. Built-ins must already have
+     * been substituted in the clause, so that they can be told apart from calls to predicates. Queries are not
+     * transformed.
+     *
+     * @param  clause The clause to transform.
+     *
+     * @return The transformed clause, or the clause unmodified if there are no goals to run in parallel.
+     */
+    public Clause apply(Clause clause)
+    {
+        Functor[] body = clause.getBody();
+
+        if (clause.isQuery() || (body == null) || (body.length < 2))
+        {
+            return clause;
+        }
+
+        List<Functor> transformed = new ArrayList<Functor>();
+        List<Functor> group = new ArrayList<Functor>();
+        List<Map<Integer, Variable>> groupVars = new ArrayList<Map<Integer, Variable>>();
+        int numGroupVars = 0;
+        boolean changed = false;
+
+        for (Functor goal : body)
+        {
+            Map<Integer, Variable> vars = (goal instanceof BuiltInFunctor) ? null : variablesOf(goal);
+
+            // Add the goal to the group if it is independent of all of the goals already in it.
+            if ((vars != null) && ((numGroupVars + vars.size()) <= MAX_GROUP_VARS) && isIndependent(vars, groupVars))
+            {
+                group.add(goal);
+                groupVars.add(vars);
+                numGroupVars += vars.size();
+
+                continue;
+            }
+
+            changed |= close(group, groupVars, transformed);
+            group.clear();
+            groupVars.clear();
+            numGroupVars = 0;
+
+            if (vars != null)
+            {
+                group.add(goal);
+                groupVars.add(vars);
+                numGroupVars = vars.size();
+            }
+            else
+            {
+                transformed.add(goal);
+            }
+        }
+
+        changed |= close(group, groupVars, transformed);
+
+        if (!changed)
+        {
+            return clause;
+        }
+
+        return new Clause<Functor>(clause.getHead(), transformed.toArray(new Functor[transformed.size()]));
+    }
+
+    /**
+     * Outputs the goals of a group, rewritten to be run in parallel if there is more than one of them.
+     *
+     * @param  group       The goals of the group.
+     * @param  groupVars   The variables of each goal of the group.
+     * @param  transformed The transformed body to output the goals to.
+     *
+     * @return <tt>true</tt> if the group was rewritten.
+     */
+    private boolean close(List<Functor> group, List<Map<Integer, Variable>> groupVars, List<Functor> transformed)
+    {
+        if (group.size() < 2)
+        {
+            transformed.addAll(group);
+
+            return false;
+        }
+
+        Variable[] handleVars = new Variable[group.size()];
+        List<Variable> before = new ArrayList<Variable>(groupVars.get(0).values());
+
+        for (int i = 1; i < group.size(); i++)
+        {
+            handleVars[i] = new Variable(interner.internVariableName("$H" + (handles++)), null, false);
+
+            Functor vars = newFunctor("$vars", before.toArray(new Term[before.size()]));
+            transformed.add(builtInTransform.apply(newFunctor("$par_start", copy(group.get(i)), vars, handleVars[i])));
+
+            before.addAll(groupVars.get(i).values());
+        }
+
+        transformed.add(group.get(0));
+
+        for (int i = 1; i < group.size(); i++)
+        {
+            transformed.add(builtInTransform.apply(newFunctor("$par_join", handleVars[i], group.get(i))));
+        }
+
+        return true;
+    }
+
+    /**
+     * Lists the variables in a goal, by their ids. Anonymous variables are left out, as they cannot be shared.
+     *
+     * @param  goal The goal.
+     *
+     * @return The variables of the goal, by id.
+     */
+    private Map<Integer, Variable> variablesOf(Functor goal)
+    {
+        Map<Integer, Variable> vars = new LinkedHashMap<Integer, Variable>();
+
+        for (Variable var : TermUtils.findFreeNonAnonymousVariables(goal))
+        {
+            vars.put(var.getId(), var);
+        }
+
+        return vars;
+    }
+
+    /**
+     * Checks that the variables of a goal are not shared by any of the goals of a group.
+     *
+     * @param  vars      The variables of the goal.
+     * @param  groupVars The variables of the goals of the group.
+     *
+     * @return <tt>true</tt> if none of the variables are shared.
+     */
+    private boolean isIndependent(Map<Integer, Variable> vars, List<Map<Integer, Variable>> groupVars)
+    {
+        for (Map<Integer, Variable> other : groupVars)
+        {
+            for (Integer id : vars.keySet())
+            {
+                if (other.containsKey(id))
+                {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Copies the functors of a term, so that it may appear at more than one position in a clause. The variables of the
+     * term are not copied, as the copy is to share them.
+     *
+     * @param  term The term to copy.
+     *
+     * @return A copy of the term.
+     */
+    private Term copy(Term term)
+    {
+        if (term.isVar())
+        {
+            return term;
+        }
+
+        Term copy = term.queryConversion();
+
+        if (term instanceof Functor)
+        {
+            Functor functor = (Functor) term;
+
+            for (int i = 0; i < functor.getArity(); i++)
+            {
+                ((Functor) copy).setArgument(i, copy(functor.getArgument(i)));
+            }
+        }
+
+        return copy;
+    }
+
+    /**
+     * Creates a functor, with the given name and arguments.
+     *
+     * @param  name      The name of the functor.
+     * @param  arguments The arguments of the functor.
+     *
+     * @return The functor.
+     */
+    private Functor newFunctor(String name, Term... arguments)
+    {
+        return new Functor(interner.internFunctorName(name, arguments.length),
+                (arguments.length == 0) ? null : arguments);
+    }
+}
@@ -23,12 +23,17 @@ import java.util.TreeSet;
 import com.thesett.aima.logic.fol.Functor;
 import com.thesett.aima.logic.fol.FunctorName;
 import com.thesett.aima.logic.fol.FunctorTermPredicate;
+import com.thesett.aima.logic.fol.NumericType;
 import com.thesett.aima.logic.fol.Term;
 import com.thesett.aima.logic.fol.Variable;
 import com.thesett.aima.logic.fol.VariableAndFunctorInterner;
 import com.thesett.aima.logic.fol.bytecode.BaseMachine;
 import com.thesett.aima.logic.fol.wam.builtins.BuiltIn;
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.REG_ADDR;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.WAMInstructionSet.GetFloat;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.WAMInstructionSet.GetInt;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.WAMInstructionSet.PutFloat;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.WAMInstructionSet.PutInt;
 import com.thesett.aima.search.QueueBasedSearchMethod;
 import com.thesett.aima.search.SearchMethod;
 import com.thesett.aima.search.util.Searches;
@@ -197,6 +202,13 @@ public class DefaultBuiltIn extends BaseMachine implements BuiltIn
                 }
             }
 
+            // When a number is encountered, place it directly in the argument register.
+            else if (nextOutermostArg.isNumber())
+            {
+                instructions.add(compileNumber(VarIntroduction.Put, addrMode, address,
+                        (NumericType) nextOutermostArg));
+            }
+
             // When a functor is encountered, output a put_struc.
             else if (nextOutermostArg.isFunctor())
             {
@@ -222,6 +234,22 @@ public class DefaultBuiltIn extends BaseMachine implements BuiltIn
                     addrMode = (byte) ((allocation & 0xff00) >> 8);
                     address = (byte) (allocation & 0xff);
 
+                    // Numbers are placed in their registers first, to be copied into the structure from there.
+                    int numArgs = nextFunctor.getArity();
+
+                    for (int i = 0; i < numArgs; i++)
+                    {
+                        Term nextArg = nextFunctor.getArgument(i);
+
+                        if (nextArg.isNumber())
+                        {
+                            int argAllocation =
+                                (Integer) symbolTable.get(nextArg.getSymbolKey(), SymbolTableKeys.SYMKEY_ALLOCATION);
+                            instructions.add(compileNumber(VarIntroduction.Put, (byte) ((argAllocation & 0xff00) >> 8),
+                                    (byte) (argAllocation & 0xff), (NumericType) nextArg));
+                        }
+                    }
+
                     // Ouput a put_struc instuction, except on the outermost functor.
                     /*log.fine("PUT_STRUC " + interner.getFunctorName(nextFunctor) + "/" + nextFunctor.getArity() +
                         ((addrMode == REG_ADDR) ? ", X" : ", Y") + address);*/
@@ -232,8 +260,6 @@ public class DefaultBuiltIn extends BaseMachine implements BuiltIn
                     instructions.add(instruction);
 
                     // For each argument of the functor.
-                    int numArgs = nextFunctor.getArity();
-
                     for (int i = 0; i < numArgs; i++)
                     {
                         Term nextArg = nextFunctor.getArgument(i);
@@ -319,7 +345,7 @@ public class DefaultBuiltIn extends BaseMachine implements BuiltIn
         {
             Term term = expression.getArgument(reg);
 
-            if (term instanceof Functor)
+            if ((term instanceof Functor) || term.isNumber())
             {
                 /*log.fine("X" + lastAllocatedTempReg + " = " + interner.getFunctorFunctorName((Functor) term));*/
 
@@ -363,6 +389,80 @@ public class DefaultBuiltIn extends BaseMachine implements BuiltIn
         }
     }
 
+    /**
+     * Compiles an instruction to match or place a number in a register, choosing between the integer and float forms of
+     * the instruction by the type of the number.
+     *
+     * @param  introduction {@link VarIntroduction#Get} to match the number, {@link VarIntroduction#Put} to place it.
+     * @param  addrMode     The addressing mode of the register.
+     * @param  address      The register.
+     * @param  number       The number.
+     *
+     * @return The instruction.
+     */
+    protected WAMInstruction compileNumber(VarIntroduction introduction, byte addrMode, byte address,
+        NumericType number)
+    {
+        WAMInstruction.WAMInstructionSet mnemonic;
+
+        if (introduction == VarIntroduction.Get)
+        {
+            mnemonic = number.isInteger() ? GetInt : GetFloat;
+        }
+        else
+        {
+            mnemonic = number.isInteger() ? PutInt : PutFloat;
+        }
+
+        return new WAMInstruction(mnemonic, addrMode, address, number);
+    }
+
+    /**
+     * Provides the register or stack slot that a term is held in, allocating a temporary register to it if it has not
+     * been allocated one yet. Built-ins that compile their arguments inline use this to address them.
+     *
+     * @param  term The term to find the register or stack slot of.
+     *
+     * @return The allocation of the term, with the addressing mode in the high byte and the address in the low byte.
+     */
+    public int getAllocation(Term term)
+    {
+        Integer allocation = (Integer) symbolTable.get(term.getSymbolKey(), SymbolTableKeys.SYMKEY_ALLOCATION);
+
+        if (allocation == null)
+        {
+            allocation = (lastAllocatedTempReg++ & 0xff) | (REG_ADDR << 8);
+            symbolTable.put(term.getSymbolKey(), SymbolTableKeys.SYMKEY_ALLOCATION, allocation);
+        }
+
+        return allocation;
+    }
+
+    /**
+     * Checks if a register or stack slot has been given a value yet, in the clause being compiled.
+     *
+     * @param  allocation The register or stack slot.
+     *
+     * @return <tt>true</tt> iff the register or stack slot has been given a value.
+     */
+    public boolean isSeen(int allocation)
+    {
+        return seenRegisters.contains(allocation);
+    }
+
+    /**
+     * Records that a variable has been given a value in its register or stack slot, by a built-in that compiles its
+     * arguments inline. The value is never a reference to a variable on the stack, so the variable is not local.
+     *
+     * @param variable   The variable.
+     * @param allocation The register or stack slot of the variable.
+     */
+    public void introduceVariable(Variable variable, int allocation)
+    {
+        seenRegisters.add(allocation);
+        symbolTable.put(variable.getSymbolKey(), SymbolTableKeys.SYMKEY_VARIABLE_INTRO, null);
+    }
+
     /**
      * Determines whether a variable is local, that is, it may only exist on the stack. When variables are introduced
      * into clauses, the way in which they are introduced is recorded using the {@link VarIntroduction} enum. When a
@@ -22,6 +22,7 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -29,12 +30,15 @@ import java.util.Queue;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import com.thesett.aima.logic.fol.AllTermsVisitor;
 import com.thesett.aima.logic.fol.Clause;
 import com.thesett.aima.logic.fol.DelegatingAllTermsVisitor;
 import com.thesett.aima.logic.fol.Functor;
 import com.thesett.aima.logic.fol.FunctorName;
+import com.thesett.aima.logic.fol.NumericType;
 import com.thesett.aima.logic.fol.LogicCompiler;
 import com.thesett.aima.logic.fol.LogicCompilerObserver;
 import com.thesett.aima.logic.fol.PositionalTermVisitor;
@@ -63,6 +67,7 @@ import com.thesett.aima.search.util.Searches;
 import com.thesett.aima.search.util.backtracking.DepthFirstBacktrackingSearch;
 import com.thesett.aima.search.util.uninformed.BreadthFirstSearch;
 import com.thesett.common.parsing.SourceCodeException;
+import com.thesett.common.util.Pair;
 import com.thesett.common.util.SizeableLinkedList;
 import com.thesett.common.util.SizeableList;
 import com.thesett.common.util.doublemaps.SymbolKey;
@@ -176,7 +181,17 @@ public class InstructionCompiler extends DefaultBuiltIn
     implements LogicCompiler<Clause, WAMCompiledPredicate, WAMCompiledQuery>
 {
     /** Used for debugging. */
-    /* private static final Logger log = Logger.getLogger(InstructionCompiler.class.getName()); */
+    private static final Logger log = Logger.getLogger(InstructionCompiler.class.getName());
+
+    /** The minimum number of clauses in a predicate, for it to be indexed on demand on its non-first arguments. */
+    static final int JIT_INDEX_MIN_CLAUSES = 8;
+
+    /**
+     * The key of the symbol table scope that the compilation scopes are nested within. Predicates are keyed by their
+     * names at the top level of the table, which are never negative, so a negative key keeps the compilation scopes
+     * apart from them.
+     */
+    private static final int COMPILATION_SCOPES = -1;
 
     /** Holds a list of all predicates encountered in the current scope. */
     protected Queue<SymbolKey> predicatesInScope = new LinkedList<SymbolKey>();
@@ -193,6 +208,9 @@ public class InstructionCompiler extends DefaultBuiltIn
      */
     protected int cutLevelVarSlot = -1;
 
+    /** Holds the next free local label id, used to label the indexing code within a predicate. */
+    protected int nextIndexLabel;
+
     /** Keeps count of the current compiler scope, to keep symbols in each scope fresh. */
     protected int scope;
 
@@ -237,6 +255,9 @@ public class InstructionCompiler extends DefaultBuiltIn
             // Used to build up the compiled predicate in.
             WAMCompiledPredicate result = null;
 
+            // Holds the labels of the entry points into the clauses from the indexing code, if there is any.
+            WAMLabel[] indexedLabels = null;
+
             for (Iterator<Clause> iterator = clauseList.iterator(); iterator.hasNext(); iterator.remove())
             {
                 Clause clause = iterator.next();
@@ -244,17 +265,25 @@ public class InstructionCompiler extends DefaultBuiltIn
                 if (result == null)
                 {
                     result = new WAMCompiledPredicate(clause.getHead().getName());
+
+                    // Generate the indexing code, to come before all of the clauses.
+                    indexedLabels = compileIndex(clauseList, result);
                 }
 
                 // Compile the single clause, adding it to the parent compiled predicate.
-                compileClause(clause, result, current == 0, current >= (size - 1), multipleClauses, current);
+                compileClause(clause, result, current == 0, current >= (size - 1), multipleClauses, current,
+                    (indexedLabels != null) ? indexedLabels[current] : null);
                 current++;
             }
 
             // Run the optimizer on the output.
             result = optimizer.apply(result);
 
-            displayCompiledPredicate(result);
+            if (log.isLoggable(Level.FINE))
+            {
+                displayCompiledPredicate(result);
+            }
+
             observer.onCompilation(result);
 
             // Move up the low water mark on the predicates table.
@@ -293,7 +322,7 @@ public class InstructionCompiler extends DefaultBuiltIn
             // Initialise a nested symbol table for the current compilation scope, if it has not already been.
             if (scopeTable == null)
             {
-                scopeTable = symbolTable.enterScope(scope);
+                scopeTable = symbolTable.enterScope(COMPILATION_SCOPES).enterScope(scope);
             }
 
             // Check in the symbol table, if a compiled predicate with name matching the program clause exists, and if
@@ -322,11 +351,13 @@ public class InstructionCompiler extends DefaultBuiltIn
      * @param  isLast            <tt>true</tt> iff the clause is the last in the predicate.
      * @param  multipleClauses   <tt>true</tt> iff the predicate contains >1 clause.
      * @param  clauseNumber      The position of the clause within the predicate.
+     * @param  indexedLabel      The label that the indexing code enters the clause by, or <tt>null</tt> if the
+     *                           predicate is not indexed.
      *
      * @throws SourceCodeException If there is an error in the source code preventing its compilation.
      */
     private void compileClause(Clause clause, WAMCompiledPredicate compiledPredicate, boolean isFirst, boolean isLast,
-        boolean multipleClauses, int clauseNumber) throws SourceCodeException
+        boolean multipleClauses, int clauseNumber, WAMLabel indexedLabel) throws SourceCodeException
     {
         // Used to build up the compiled clause in.
         WAMCompiledClause result = new WAMCompiledClause(compiledPredicate);
@@ -401,6 +432,13 @@ public class InstructionCompiler extends DefaultBuiltIn
             preFixInstructions.add(new WAMInstruction(entryLabel, WAMInstruction.WAMInstructionSet.TrustMe));
         }
 
+        // The indexing code jumps into the clause past its choice point instruction, as it creates its own choice
+        // points only over the clauses that may match.
+        if (indexedLabel != null)
+        {
+            preFixInstructions.add(new WAMInstruction(indexedLabel, WAMInstruction.WAMInstructionSet.NoOp));
+        }
+
         // Generate the prefix code for the clause.
         // Rules may chain multiple, so require stack frames to preserve registers across calls.
         // Facts are always leafs so can use the global continuation point register to return from calls.
@@ -478,6 +516,337 @@ public class InstructionCompiler extends DefaultBuiltIn
         result.addInstructions(postFixInstructions);
     }
 
+    /**
+     * Compiles the indexing code for a predicate, and adds it to the compiled predicate ahead of all of its clauses.
+     *
+     * <p/>For first argument indexing, a switch_on_term instruction dispatches on the type of the first argument to the
+     * clauses that may match it. When the first argument is unbound, the usual try_me_else chain over all of the
+     * clauses is used.
+     *
+     * <p/>The clauses are split into blocks; runs of clauses with a variable as their first argument, which may match
+     * anything, and runs of clauses without. Within a block without variables, the clauses are grouped by the type of
+     * their first argument, and constants and structures are further dispatched through hash tables by switch_on_const
+     * and switch_on_struc instructions. The tables are keyed on the cell that the first argument holds, so small
+     * integers are keyed with atoms, and boxed numbers with structures, by their functor cells. For each type of first
+     * argument, the blocks are then tried in order, by a try, retry, trust chain over the clauses of the variable
+     * blocks and the tables of the others. This keeps the order of the clauses, whilst still hashing on large runs of
+     * facts that a few clauses with variable first arguments are mixed in with.
+     *
+     * <p/>Larger predicates with more than one argument also get a jit_index instruction placed ahead of the
+     * try_me_else chain, on which the machine builds indexes on the other arguments on demand.
+     *
+     * <p/>The labels of the indexing code are only referred to from within the predicate, so they are numbered within
+     * the predicate and placed as it is written out, rather than being interned.
+     *
+     * @param  clauses           The clauses of the predicate to index.
+     * @param  compiledPredicate The predicate to add the indexing instructions to.
+     *
+     * @return The labels to enter each clause by, past its choice point instruction, or <tt>null</tt> if the predicate
+     *         is not first argument indexed.
+     */
+    private WAMLabel[] compileIndex(List<Clause> clauses, WAMCompiledPredicate compiledPredicate)
+    {
+        int size = clauses.size();
+        Functor firstHead = clauses.get(0).getHead();
+
+        // There is nothing to choose between for single clause predicates, or predicates with no arguments.
+        if ((size < 2) || (firstHead.getArity() == 0))
+        {
+            return null;
+        }
+
+        FunctorName fn = interner.getFunctorFunctorName(firstHead);
+        nextIndexLabel = 0;
+
+        // Check if the predicate is large enough to be worth indexing on demand, on its other arguments.
+        WAMInstruction jitIndex = null;
+
+        if ((size >= JIT_INDEX_MIN_CLAUSES) && (firstHead.getArity() > 1))
+        {
+            jitIndex =
+                new WAMInstruction(new WAMLocalLabel(fn, nextIndexLabel++), WAMInstruction.WAMInstructionSet.JitIndex,
+                    fn);
+        }
+
+        // Label the entry points to the clauses, past their choice point instructions.
+        List<WAMLabel> indexedLabels = new ArrayList<WAMLabel>(size);
+
+        for (int i = 0; i < size; i++)
+        {
+            indexedLabels.add(new WAMLocalLabel(fn, nextIndexLabel++));
+        }
+
+        SizeableList<WAMInstruction> switches = new SizeableLinkedList<WAMInstruction>();
+        SizeableList<WAMInstruction> chains = new SizeableLinkedList<WAMInstruction>();
+
+        // Work out the alternatives to try for each type of first argument, block by block.
+        List<WAMLabel> constAlternatives = new ArrayList<WAMLabel>();
+        List<WAMLabel> listAlternatives = new ArrayList<WAMLabel>();
+        List<WAMLabel> strucAlternatives = new ArrayList<WAMLabel>();
+
+        for (int blockStart = 0; blockStart < size;)
+        {
+            boolean varBlock = !isIndexable(clauses.get(blockStart));
+            int blockEnd = blockStart + 1;
+
+            while ((blockEnd < size) && (isIndexable(clauses.get(blockEnd)) != varBlock))
+            {
+                blockEnd++;
+            }
+
+            if (varBlock)
+            {
+                List<WAMLabel> block = indexedLabels.subList(blockStart, blockEnd);
+                constAlternatives.addAll(block);
+                listAlternatives.addAll(block);
+                strucAlternatives.addAll(block);
+            }
+            else
+            {
+                compileIndexedBlock(fn, clauses, blockStart, blockEnd, indexedLabels, constAlternatives,
+                    listAlternatives, strucAlternatives, switches, chains);
+            }
+
+            blockStart = blockEnd;
+        }
+
+        SizeableList<WAMInstruction> instructions = new SizeableLinkedList<WAMInstruction>();
+
+        // There is no point in first argument indexing if every clause may match any first argument.
+        if (constAlternatives.equals(indexedLabels) && listAlternatives.equals(indexedLabels) &&
+                strucAlternatives.equals(indexedLabels))
+        {
+            if (jitIndex != null)
+            {
+                instructions.add(jitIndex);
+                compiledPredicate.addInstructions(instructions);
+            }
+
+            return null;
+        }
+
+        // An unbound first argument goes to the try_me_else chain, through the on demand indexing if there is any.
+        WAMLabel varLabel = (jitIndex != null) ? jitIndex.getLabel() : new WAMLabel(fn, 0);
+        WAMLabel constLabel = compileIndexChain(fn, constAlternatives, indexedLabels, chains);
+        WAMLabel listLabel = compileIndexChain(fn, listAlternatives, indexedLabels, chains);
+        WAMLabel strucLabel = compileIndexChain(fn, strucAlternatives, indexedLabels, chains);
+
+        instructions.add(new WAMInstruction(WAMInstruction.WAMInstructionSet.SwitchOnTerm, varLabel, constLabel,
+                listLabel, strucLabel));
+        instructions.addAll(switches);
+        instructions.addAll(chains);
+
+        if (jitIndex != null)
+        {
+            instructions.add(jitIndex);
+        }
+
+        compiledPredicate.addInstructions(instructions);
+
+        return indexedLabels.toArray(new WAMLabel[size]);
+    }
+
+    /**
+     * Compiles the indexing code for a block of clauses that all have a non-variable first argument. The clauses are
+     * grouped by the type of their first arguments, and the constant and structure groups are hashed on their keys
+     * where there is more than one key to choose between. The alternatives that the block adds for each type of first
+     * argument are either the clauses themselves, or the hash table to dispatch through.
+     *
+     * @param fn                The name of the predicate being indexed.
+     * @param clauses           The clauses of the predicate.
+     * @param blockStart        The position of the first clause of the block.
+     * @param blockEnd          The position one past the last clause of the block.
+     * @param indexedLabels     The labels to enter each clause by.
+     * @param constAlternatives The alternatives to try for a constant first argument, to add to.
+     * @param listAlternatives  The alternatives to try for a list first argument, to add to.
+     * @param strucAlternatives The alternatives to try for a structure first argument, to add to.
+     * @param switches          The list to add switch instructions to.
+     * @param chains            The list to add try, retry, trust chains to.
+     */
+    private void compileIndexedBlock(FunctorName fn, List<Clause> clauses, int blockStart, int blockEnd,
+        List<WAMLabel> indexedLabels, List<WAMLabel> constAlternatives, List<WAMLabel> listAlternatives,
+        List<WAMLabel> strucAlternatives, SizeableList<WAMInstruction> switches, SizeableList<WAMInstruction> chains)
+    {
+        List<WAMLabel> constClauses = new ArrayList<WAMLabel>();
+        List<WAMLabel> strucClauses = new ArrayList<WAMLabel>();
+        Map<Integer, List<WAMLabel>> constKeys = new LinkedHashMap<Integer, List<WAMLabel>>();
+        Map<Integer, List<WAMLabel>> strucKeys = new LinkedHashMap<Integer, List<WAMLabel>>();
+
+        for (int i = blockStart; i < blockEnd; i++)
+        {
+            Term arg = clauses.get(i).getHead().getArgument(0);
+            WAMLabel label = indexedLabels.get(i);
+
+            if (arg.isNumber())
+            {
+                NumericType number = (NumericType) arg;
+                int n = number.intValue();
+
+                // Small integers are held in constant cells. Larger integers and floats are boxed, and can only be
+                // told apart from others of their kind by the clauses themselves.
+                if (number.isInteger() && (((n << 3) >> 3) == n))
+                {
+                    constClauses.add(label);
+                    addToIndexKey(constKeys, (WAMInstruction.CON << 30) | WAMInstruction.SMALL_INT |
+                        (n & WAMInstruction.SMALL_INT_MASK), label);
+                }
+                else
+                {
+                    strucClauses.add(label);
+                    addToIndexKey(strucKeys, number.isInteger() ? WAMInstruction.BOXED_INT : WAMInstruction.BOXED_FLOAT,
+                        label);
+                }
+            }
+            else
+            {
+                Functor functor = (Functor) arg;
+                FunctorName name = interner.getFunctorFunctorName(functor);
+
+                if (functor.getArity() == 0)
+                {
+                    constClauses.add(label);
+                    addToIndexKey(constKeys, (WAMInstruction.CON << 30) | (functor.getName() & 0x00ffffff), label);
+                }
+                else if ("cons".equals(name.getName()) && (name.getArity() == 2))
+                {
+                    listAlternatives.add(label);
+                }
+                else
+                {
+                    strucClauses.add(label);
+                    addToIndexKey(strucKeys, (functor.getArity() << 24) | (functor.getName() & 0x00ffffff), label);
+                }
+            }
+        }
+
+        compileIndexedGroup(fn, constClauses, constKeys, WAMInstruction.WAMInstructionSet.SwitchOnConst,
+            indexedLabels, constAlternatives, switches, chains);
+        compileIndexedGroup(fn, strucClauses, strucKeys, WAMInstruction.WAMInstructionSet.SwitchOnStruc,
+            indexedLabels, strucAlternatives, switches, chains);
+    }
+
+    /**
+     * Compiles the indexing code for a group of clauses within a block, with the same type of first argument. If there
+     * is more than one key to choose between, a hash table switch instruction is used to choose between them, and is
+     * added as the alternative for the group. Otherwise the clauses themselves are added as the alternatives.
+     *
+     * @param fn            The name of the predicate being indexed.
+     * @param group         The labels of the clauses in the group, in order.
+     * @param keys          The labels of the clauses by the cell that their first argument holds.
+     * @param mnemonic      The hash table switch instruction to use.
+     * @param indexedLabels The labels to enter each clause by.
+     * @param alternatives  The alternatives to try for the type of first argument, to add to.
+     * @param switches      The list to add switch instructions to.
+     * @param chains        The list to add try, retry, trust chains to.
+     */
+    private void compileIndexedGroup(FunctorName fn, List<WAMLabel> group, Map<Integer, List<WAMLabel>> keys,
+        WAMInstruction.WAMInstructionSet mnemonic, List<WAMLabel> indexedLabels, List<WAMLabel> alternatives,
+        SizeableList<WAMInstruction> switches, SizeableList<WAMInstruction> chains)
+    {
+        if (keys.size() < 2)
+        {
+            alternatives.addAll(group);
+
+            return;
+        }
+
+        List<Pair<Integer, WAMLabel>> indexTable = new ArrayList<Pair<Integer, WAMLabel>>(keys.size());
+
+        for (Map.Entry<Integer, List<WAMLabel>> entry : keys.entrySet())
+        {
+            indexTable.add(new Pair<Integer, WAMLabel>(entry.getKey(),
+                    compileIndexChain(fn, entry.getValue(), indexedLabels, chains)));
+        }
+
+        WAMLabel switchLabel = new WAMLocalLabel(fn, nextIndexLabel++);
+        switches.add(new WAMInstruction(switchLabel, mnemonic, indexTable));
+        alternatives.add(switchLabel);
+    }
+
+    /**
+     * Compiles a try, retry, trust chain over some alternatives. No chain is needed if there is just one alternative,
+     * which is jumped to directly, and the try_me_else chain is used if all of the clauses are to be tried.
+     *
+     * @param  fn            The name of the predicate being indexed.
+     * @param  alternatives  The labels of the clauses or hash tables to try, in order.
+     * @param  indexedLabels The labels to enter each clause by.
+     * @param  chains        The list to add the chain to.
+     *
+     * @return The label to jump to for the chain, or <tt>null</tt> if there is nothing to try.
+     */
+    private WAMLabel compileIndexChain(FunctorName fn, List<WAMLabel> alternatives, List<WAMLabel> indexedLabels,
+        SizeableList<WAMInstruction> chains)
+    {
+        if (alternatives.isEmpty())
+        {
+            return null;
+        }
+        else if (alternatives.size() == 1)
+        {
+            return alternatives.get(0);
+        }
+        else if (alternatives.equals(indexedLabels))
+        {
+            return new WAMLabel(fn, 0);
+        }
+
+        WAMLabel chainLabel = new WAMLocalLabel(fn, nextIndexLabel++);
+
+        for (int i = 0; i < alternatives.size(); i++)
+        {
+            WAMLabel target = alternatives.get(i);
+
+            if (i == 0)
+            {
+                chains.add(new WAMInstruction(chainLabel, WAMInstruction.WAMInstructionSet.Try, target));
+            }
+            else if (i < (alternatives.size() - 1))
+            {
+                chains.add(new WAMInstruction(null, WAMInstruction.WAMInstructionSet.Retry, target));
+            }
+            else
+            {
+                chains.add(new WAMInstruction(null, WAMInstruction.WAMInstructionSet.Trust, target));
+            }
+        }
+
+        return chainLabel;
+    }
+
+    /**
+     * Checks if a clause can be indexed on its first argument, that is, if its first argument is not a variable.
+     *
+     * @param  clause The clause to check.
+     *
+     * @return <tt>true</tt> if the clause can be indexed on its first argument.
+     */
+    private boolean isIndexable(Clause clause)
+    {
+        Term arg = clause.getHead().getArgument(0);
+
+        return arg.isNumber() || arg.isFunctor();
+    }
+
+    /**
+     * Adds the label of a clause to the list of clauses for a key.
+     *
+     * @param keys  The lists of clause labels by key.
+     * @param key   The key to add to.
+     * @param label The label of the clause.
+     */
+    private void addToIndexKey(Map<Integer, List<WAMLabel>> keys, int key, WAMLabel label)
+    {
+        List<WAMLabel> labels = keys.get(key);
+
+        if (labels == null)
+        {
+            labels = new ArrayList<WAMLabel>();
+            keys.put(key, labels);
+        }
+
+        labels.add(label);
+    }
+
     /**
      * Compiles a clause as a query. The clause should have no head, only a body.
      *
@@ -592,7 +961,10 @@ public class InstructionCompiler extends DefaultBuiltIn
         // Run the optimizer on the output.
         result = optimizer.apply(result);
 
-        displayCompiledQuery(result);
+        if (log.isLoggable(Level.FINE))
+        {
+            displayCompiledQuery(result);
+        }
 
         observer.onQueryCompilation(result);
     }
@@ -748,6 +1120,16 @@ public class InstructionCompiler extends DefaultBuiltIn
                     instructions.add(instruction);
                 }
             }
+            // For each number encountered: get_int or get_float. Numbers nested in structures have been matched into
+            // their registers by unify_var, the same as variables.
+            else if (nextTerm.isNumber())
+            {
+                int allocation = (Integer) symbolTable.get(nextTerm.getSymbolKey(), SymbolTableKeys.SYMKEY_ALLOCATION);
+                byte addrMode = (byte) ((allocation & 0xff00) >> 8);
+                byte address = (byte) (allocation & 0xff);
+
+                instructions.add(compileNumber(VarIntroduction.Get, addrMode, address, (NumericType) nextTerm));
+            }
             else if (j < numOutermostArgs)
             {
                 Term nextVar = (Variable) nextTerm;
@@ -984,7 +1366,7 @@ public class InstructionCompiler extends DefaultBuiltIn
 
         TermWalkers.positionalWalker(displayVisitor).walk(predicate);
 
-        /*log.fine(result.toString());*/
+        log.fine(result.toString());
     }
 
     /**
@@ -1002,7 +1384,7 @@ public class InstructionCompiler extends DefaultBuiltIn
 
         TermWalkers.positionalWalker(displayVisitor).walk(query);
 
-        /*log.fine(result.toString());*/
+        log.fine(result.toString());
     }
 
     /**
@@ -19,6 +19,7 @@ import com.thesett.aima.logic.fol.Clause;
 import com.thesett.aima.logic.fol.LogicCompiler;
 import com.thesett.aima.logic.fol.LogicCompilerObserver;
 import com.thesett.aima.logic.fol.Sentence;
+import com.thesett.aima.logic.fol.SentenceImpl;
 import com.thesett.aima.logic.fol.Term;
 import com.thesett.aima.logic.fol.VariableAndFunctorInterner;
 import com.thesett.aima.logic.fol.bytecode.BaseMachine;
@@ -32,11 +33,15 @@ import com.thesett.common.util.doublemaps.SymbolTable;
 
 /**
  * PreCompiler transforms clauses for compilation, substituting built-ins for any built-ins in the source expressions to
- * compile.
+ * compile. Optionally, independent goals in the bodies of clauses are rewritten to be run in parallel. Table
+ * directives are taken in here too, rather than being run as queries, and the predicates they declare are rewritten to
+ * be evaluated through tables.
  *
  * <pre><p/><table id="crc"><caption>CRC Card</caption>
  * <tr><th> Responsibilities <th> Collaborations
  * <tr><td> Perform the built-ins transformation.
+ * <tr><td> Perform the AND-parallel transformation. <td> {@link AndParallelTransform}.
+ * <tr><td> Perform the tabling transformation. <td> {@link TablingTransform}.
  * </table></pre>
  *
  * @author Rupert Smith
@@ -55,6 +60,15 @@ public class PreCompiler extends BaseMachine implements LogicCompiler<Clause, Cl
     /** Holds the built in transformation. */
     private final BuiltInTransform builtInTransform;
 
+    /** Holds the AND-parallel transformation. */
+    private final AndParallelTransform andParallelTransform;
+
+    /** Flags when independent goals are to be run in parallel. */
+    private boolean andParallel;
+
+    /** Holds the tabling transformation. */
+    private final TablingTransform tablingTransform;
+
     /**
      * Creates a new PreCompiler.
      *
@@ -69,6 +83,8 @@ public class PreCompiler extends BaseMachine implements LogicCompiler<Clause, Cl
 
         this.defaultBuiltIn = defaultBuiltIn;
         builtInTransform = new BuiltInTransform(defaultBuiltIn);
+        andParallelTransform = new AndParallelTransform(interner, builtInTransform);
+        tablingTransform = new TablingTransform(interner);
     }
 
     /** {@inheritDoc} */
@@ -76,21 +92,18 @@ public class PreCompiler extends BaseMachine implements LogicCompiler<Clause, Cl
     {
         Clause clause = sentence.getT();
 
-        substituteBuiltIns(clause);
-        initialiseSymbolTable(clause);
-        topLevelCheck(clause);
-
-        if (observer != null)
+        if (tablingTransform.isDirective(clause))
         {
-            if (clause.isQuery())
+            for (Clause tabledDefinition : tablingTransform.declare(clause))
             {
-                observer.onQueryCompilation(sentence);
-            }
-            else
-            {
-                observer.onCompilation(sentence);
+                transform(new SentenceImpl<Clause>(tabledDefinition));
             }
+
+            return;
         }
+
+        Clause renamed = tablingTransform.apply(clause);
+        transform((renamed != clause) ? new SentenceImpl<Clause>(renamed) : sentence);
     }
 
     /** {@inheritDoc} */
@@ -99,9 +112,61 @@ public class PreCompiler extends BaseMachine implements LogicCompiler<Clause, Cl
         this.observer = observer;
     }
 
+    /**
+     * Sets whether the independent goals in the bodies of the clauses compiled from now on, are to be run in
+     * parallel. This is off by default.
+     *
+     * @param andParallel <tt>true</tt> to run independent goals in parallel.
+     */
+    public void setAndParallel(boolean andParallel)
+    {
+        this.andParallel = andParallel;
+    }
+
     /** {@inheritDoc} */
     public void endScope() throws SourceCodeException
     {
+        tablingTransform.endScope();
+    }
+
+    /**
+     * Transforms a clause for compilation, and passes it on to the observer.
+     *
+     * @param  sentence The clause to transform.
+     *
+     * @throws SourceCodeException If the observer fails to compile the clause.
+     */
+    private void transform(Sentence<Clause> sentence) throws SourceCodeException
+    {
+        Clause clause = sentence.getT();
+
+        substituteBuiltIns(clause);
+
+        if (andParallel && !clause.isQuery())
+        {
+            Clause transformed = andParallelTransform.apply(clause);
+
+            if (transformed != clause)
+            {
+                clause = transformed;
+                sentence = new SentenceImpl<Clause>(clause);
+            }
+        }
+
+        initialiseSymbolTable(clause);
+        topLevelCheck(clause);
+
+        if (observer != null)
+        {
+            if (clause.isQuery())
+            {
+                observer.onQueryCompilation(sentence);
+            }
+            else
+            {
+                observer.onCompilation(sentence);
+            }
+        }
     }
 
     /**
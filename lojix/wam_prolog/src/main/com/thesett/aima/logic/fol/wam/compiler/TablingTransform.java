@@ -0,0 +1,305 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.compiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.thesett.aima.logic.fol.Clause;
+import com.thesett.aima.logic.fol.Functor;
+import com.thesett.aima.logic.fol.FunctorName;
+import com.thesett.aima.logic.fol.NumericType;
+import com.thesett.aima.logic.fol.Term;
+import com.thesett.aima.logic.fol.TermUtils;
+import com.thesett.aima.logic.fol.Variable;
+import com.thesett.aima.logic.fol.VariableAndFunctorInterner;
+import com.thesett.common.parsing.SourceCodeException;
+import com.thesett.common.util.Function;
+
+/**
+ * TablingTransform declares predicates to be tabled, from table directives, and rewrites them to be evaluated through
+ * tables of their answers. For each predicate declared tabled, for example by <tt>:- table p/1.</tt>, clauses are
+ * output to call it through its table:
+ *
+ * <pre>
+ * '$tabling_p/1'(T).
+ * '$tabling_p/1'(T) :- '$tbl_more'(T), '$tabling_p/1'(T).
+ * p(X) :- '$tbl_call'(p(X), T), '$tabling_p/1'(T), call('$tabled_p'(X)), '$tbl_add'(T, p(X)), fail.
+ * p(X) :- '$tbl_answers'(p(X), L), member(p(X), L).
+ * </pre>
+ *
+ * and the clauses of the predicate that follow are renamed to '$tabled_p'/1. The first clause of p/1 runs the
+ * clauses of a call over and over, adding their answers to its table, until no more are found, and then fails through
+ * to the second, which returns the answers in the table. When the table of a call already holds all of its answers, or
+ * its answers are already being found, the first clause fails straight away, and the answers in the table so far are
+ * returned.
+ *
+ * <p/>Table directives must come before the clauses of the predicates they declare, and only apply to the clauses
+ * compiled in the same scope. Clauses of a predicate compiled in a later scope replace it, without tabling it, unless
+ * it is declared tabled again.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities
+ * <tr><td> Recognize table directives.
+ * <tr><td> Output the clauses that call tabled predicates through their tables.
+ * <tr><td> Rename the clauses of tabled predicates.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class TablingTransform implements Function<Clause, Clause>
+{
+    /** Holds the interner to look up and create functor and variable names with. */
+    private final VariableAndFunctorInterner interner;
+
+    /** Holds the interned names of the tabled predicates, mapped to the names that their clauses are renamed to. */
+    private final Map<Integer, Integer> tabled = new HashMap<Integer, Integer>();
+
+    /** Holds the interned name of member/2, from the built-in library. */
+    private final int member;
+
+    /**
+     * Creates the tabling transformation.
+     *
+     * @param interner The interner for functor and variable names.
+     */
+    public TablingTransform(VariableAndFunctorInterner interner)
+    {
+        this.interner = interner;
+        member = interner.internFunctorName("member", 2);
+    }
+
+    /**
+     * Checks if a clause is a table directive. Directives are read as queries, so a table directive is a query made up
+     * of a single call to table/1.
+     *
+     * @param  clause The clause to check.
+     *
+     * @return <tt>true</tt> if the clause is a table directive.
+     */
+    public boolean isDirective(Clause clause)
+    {
+        Functor[] body = clause.getBody();
+
+        if (!clause.isQuery() || (body == null) || (body.length != 1))
+        {
+            return false;
+        }
+
+        FunctorName name = interner.getFunctorFunctorName(body[0]);
+
+        return "table".equals(name.getName()) && (name.getArity() == 1);
+    }
+
+    /**
+     * Declares the predicates named in a table directive to be tabled, and outputs the clauses that call them through
+     * their tables. Predicates already declared tabled in the current scope are skipped.
+     *
+     * @param  directive The table directive.
+     *
+     * @return The clauses that call the newly tabled predicates through their tables.
+     *
+     * @throws SourceCodeException If the directive does not consist of predicate indicators, of the form name/arity.
+     */
+    public List<Clause> declare(Clause directive) throws SourceCodeException
+    {
+        List<Clause> clauses = new ArrayList<Clause>();
+        Term specs = directive.getBody()[0].getArgument(0);
+
+        if (!(specs instanceof Functor))
+        {
+            throw invalidSpec(specs);
+        }
+
+        for (Functor spec : TermUtils.flattenTerm(specs, Functor.class, ",", interner))
+        {
+            FunctorName indicator = interner.getFunctorFunctorName(spec);
+
+            boolean isIndicator =
+                "/".equals(indicator.getName()) && (indicator.getArity() == 2) &&
+                (spec.getArgument(0) instanceof Functor) && (((Functor) spec.getArgument(0)).getArity() == 0) &&
+                (spec.getArgument(1) instanceof NumericType) && ((NumericType) spec.getArgument(1)).isInteger();
+
+            if (!isIndicator)
+            {
+                throw invalidSpec(spec);
+            }
+
+            String name = interner.getFunctorName((Functor) spec.getArgument(0));
+            int arity = ((NumericType) spec.getArgument(1)).intValue();
+            int predicate = interner.internFunctorName(name, arity);
+
+            if (!tabled.containsKey(predicate))
+            {
+                int implementation = interner.internFunctorName("$tabled_" + name, arity);
+                tabled.put(predicate, implementation);
+
+                addTabledDefinition(clauses, predicate, implementation, name + "/" + arity, arity);
+            }
+        }
+
+        return clauses;
+    }
+
+    /**
+     * Renames the clauses of tabled predicates, so that calls to the predicates go through their tables.
+     *
+     * @param  clause The clause to transform.
+     *
+     * @return The renamed clause, or the clause unmodified if it is not of a tabled predicate.
+     */
+    public Clause apply(Clause clause)
+    {
+        Integer implementation = clause.isQuery() ? null : tabled.get(clause.getHead().getName());
+
+        if (implementation == null)
+        {
+            return clause;
+        }
+
+        Functor head = clause.getHead();
+
+        return new Clause<Functor>(new Functor(implementation, head.getArguments()), clause.getBody());
+    }
+
+    /** Forgets the predicates declared tabled in the current scope, at its end. */
+    public void endScope()
+    {
+        tabled.clear();
+    }
+
+    /**
+     * Outputs the clauses that call a tabled predicate through its table.
+     *
+     * @param clauses        The clauses to add to.
+     * @param predicate      The interned name of the tabled predicate.
+     * @param implementation The interned name that the clauses of the predicate are renamed to.
+     * @param indicator      The name and arity of the predicate, as name/arity.
+     * @param arity          The arity of the predicate.
+     */
+    private void addTabledDefinition(List<Clause> clauses, int predicate, int implementation, String indicator,
+        int arity)
+    {
+        int iterate = interner.internFunctorName("$tabling_" + indicator, 1);
+
+        // Succeed once for each time the clauses are to be run.
+        Variable handle = newVariable("T");
+        clauses.add(new Clause<Functor>(new Functor(iterate, new Term[] { handle }), null));
+
+        handle = newVariable("T");
+        clauses.add(new Clause<Functor>(new Functor(iterate, new Term[] { handle }),
+                new Functor[] { newFunctor("$tbl_more", handle), new Functor(iterate, new Term[] { handle }) }));
+
+        // Run the clauses to find all answers, over and over until there are no more, then fail. The renamed clauses
+        // are not compiled yet, so they are called by name.
+        Term[] args = newVariables(arity);
+        handle = newVariable("T");
+
+        clauses.add(new Clause<Functor>(new Functor(predicate, arguments(args)),
+                new Functor[]
+                {
+                    newFunctor("$tbl_call", new Functor(predicate, arguments(args)), handle),
+                    new Functor(iterate, new Term[] { handle }),
+                    newFunctor("call", new Functor(implementation, arguments(args))),
+                    newFunctor("$tbl_add", handle, new Functor(predicate, arguments(args))), newFunctor("fail")
+                }));
+
+        // Return the answers in the table.
+        args = newVariables(arity);
+
+        Variable answers = newVariable("L");
+
+        clauses.add(new Clause<Functor>(new Functor(predicate, arguments(args)),
+                new Functor[]
+                {
+                    newFunctor("$tbl_answers", new Functor(predicate, arguments(args)), answers),
+                    new Functor(member, new Term[] { new Functor(predicate, arguments(args)), answers })
+                }));
+    }
+
+    /**
+     * Creates fresh variables, for the arguments of a predicate.
+     *
+     * @param  arity The arity of the predicate.
+     *
+     * @return The variables.
+     */
+    private Term[] newVariables(int arity)
+    {
+        Term[] vars = new Term[arity];
+
+        for (int i = 0; i < arity; i++)
+        {
+            vars[i] = newVariable("X" + (i + 1));
+        }
+
+        return vars;
+    }
+
+    /**
+     * Creates a fresh variable.
+     *
+     * @param  name The name of the variable.
+     *
+     * @return The variable.
+     */
+    private Variable newVariable(String name)
+    {
+        return new Variable(interner.internVariableName(name), null, "_".equals(name));
+    }
+
+    /**
+     * Copies the arguments of a functor, so that each functor has arguments of its own to hold, or <tt>null</tt> if
+     * there are none, as a functor with no arguments expects.
+     *
+     * @param  args The arguments.
+     *
+     * @return A copy of the arguments, or <tt>null</tt> if there are none.
+     */
+    private Term[] arguments(Term[] args)
+    {
+        return (args.length == 0) ? null : args.clone();
+    }
+
+    /**
+     * Creates a functor, with the given name and arguments.
+     *
+     * @param  name      The name of the functor.
+     * @param  arguments The arguments of the functor.
+     *
+     * @return The functor.
+     */
+    private Functor newFunctor(String name, Term... arguments)
+    {
+        return new Functor(interner.internFunctorName(name, arguments.length),
+                (arguments.length == 0) ? null : arguments);
+    }
+
+    /**
+     * Creates the error raised by a table directive that does not consist of predicate indicators.
+     *
+     * @param  spec The invalid part of the directive.
+     *
+     * @return The error.
+     */
+    private SourceCodeException invalidSpec(Term spec)
+    {
+        return new SourceCodeException("Table directives take predicate indicators of the form name/arity, not " +
+                spec + ".", null, null, null, spec.getSourceCodePosition());
+    }
+}
@@ -15,6 +15,7 @@
  */
 package com.thesett.aima.logic.fol.wam.compiler;
 
+import com.thesett.aima.logic.fol.wam.indexing.ArgumentIndex;
 import com.thesett.aima.logic.fol.wam.machine.WAMMachine;
 
 /**
@@ -40,6 +41,15 @@ public class WAMCallPoint
     /** The predicates interned name. */
     public int name;
 
+    /**
+     * Holds the demand built indexes on the predicates non-first arguments, if any have been built. These are dropped
+     * along with the call point, when the predicate is redefined.
+     */
+    public ArgumentIndex argumentIndex;
+
+    /** Counts the calls made to the predicate, so that frequently called predicates can be found. */
+    public int callCount;
+
     /**
      * Creates a call table entry for the code with the specified entry address and length.
      *
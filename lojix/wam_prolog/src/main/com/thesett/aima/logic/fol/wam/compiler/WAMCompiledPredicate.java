@@ -230,6 +230,19 @@ public class WAMCompiledPredicate extends Predicate<Clause> implements Sentence<
             throw new IllegalStateException("The instruction listing size exceeds Integer.MAX_VALUE.");
         }
 
+        // Place the labels local to the predicate first, so that references to them can be written straight out.
+        int ip = buffer.position();
+
+        for (WAMInstruction instruction : instructions)
+        {
+            if (instruction.getLabel() instanceof WAMLocalLabel)
+            {
+                ((WAMLocalLabel) instruction.getLabel()).setAddress(ip);
+            }
+
+            ip += instruction.sizeof();
+        }
+
         // Used to keep track of the size of the emmitted code, in bytes, as it is written.
         int length = 0;
 
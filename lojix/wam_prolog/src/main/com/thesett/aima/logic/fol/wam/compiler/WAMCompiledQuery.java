@@ -22,6 +22,8 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import com.thesett.aima.attribute.impl.IdAttribute;
 import com.thesett.aima.logic.fol.Clause;
@@ -119,6 +121,59 @@ public class WAMCompiledQuery extends Clause<Functor> implements Sentence<WAMCom
         this.nonAnonymousFreeVariables = freeVarNames;
     }
 
+    /**
+     * Creates a copy of this query with its variables renamed, for running a query that differs from this one only in
+     * the naming of its variables. The copy shares the code of this query, including any code already emitted into a
+     * machine.
+     *
+     * @param  renaming A mapping from the interned names of the variables of this query, to their new names.
+     *
+     * @return A copy of this query, with its variables renamed.
+     */
+    public WAMCompiledQuery renameVariables(Map<Integer, Integer> renaming)
+    {
+        Map<Byte, Integer> newVarNames = new TreeMap<Byte, Integer>();
+
+        for (Map.Entry<Byte, Integer> entry : varNames.entrySet())
+        {
+            newVarNames.put(entry.getKey(), rename(renaming, entry.getValue()));
+        }
+
+        Set<Integer> newFreeVarNames = new TreeSet<Integer>();
+
+        for (Integer name : nonAnonymousFreeVariables)
+        {
+            newFreeVarNames.add(rename(renaming, name));
+        }
+
+        WAMCompiledQuery copy = new WAMCompiledQuery(newVarNames, newFreeVarNames);
+        copy.head = head;
+        copy.body = body;
+        copy.instructions = instructions;
+        copy.unoptimizedInstructions = unoptimizedInstructions;
+        copy.status = status;
+        copy.callPoint = callPoint;
+        copy.machine = machine;
+        copy.functorInterner = functorInterner;
+
+        return copy;
+    }
+
+    /**
+     * Renames a variable, leaving it as it is if the renaming does not cover it.
+     *
+     * @param  renaming A mapping from the interned names of variables, to their new names.
+     * @param  name     The interned name of the variable.
+     *
+     * @return The new name of the variable.
+     */
+    private static Integer rename(Map<Integer, Integer> renaming, Integer name)
+    {
+        Integer newName = renaming.get(name);
+
+        return (newName == null) ? name : newName;
+    }
+
     /**
      * Sets a compiled head functor to this clause.
      *
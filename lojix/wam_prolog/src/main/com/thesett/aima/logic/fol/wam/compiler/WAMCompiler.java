@@ -28,9 +28,13 @@ import com.thesett.common.util.doublemaps.SymbolTable;
  * WAMCompiler implements the {@link LogicCompiler} interface for the complete WAM compilation chain. It is a
  * supervising compiler, that chains together the work of the compiler pipe-line stages.
  *
+ * <p/>Compiled queries are cached, and a query that only differs from a recently compiled one in the naming of its
+ * variables is not compiled again, but is given the compiled code of the earlier one.
+ *
  * <pre><p/><table id="crc"><caption>CRC Card</caption>
  * <tr><th> Responsibilities <th> Collaborations
  * <tr><td> Chain together the compiler pipe-line stages.
+ * <tr><td> Reuse the compiled code of recent queries of the same shape. <td> {@link WAMQueryCache}.
  * </table></pre>
  *
  * @author Rupert Smith
@@ -43,6 +47,18 @@ public class WAMCompiler extends BaseMachine implements LogicCompiler<Clause, WA
     /** Holds the instruction generating compiler. */
     InstructionCompiler instructionCompiler;
 
+    /** Holds the number of recently compiled queries that are cached. */
+    private static final int QUERY_CACHE_SIZE = 256;
+
+    /** Holds the recently compiled queries. */
+    private final WAMQueryCache queryCache = new WAMQueryCache(QUERY_CACHE_SIZE);
+
+    /** Holds the shape of the query being compiled, to cache it under once compiled. */
+    private WAMQueryCache.QueryShape queryShape;
+
+    /** Holds the observer for compiler outputs. */
+    private LogicCompilerObserver<WAMCompiledPredicate, WAMCompiledQuery> observer;
+
     /**
      * Creates a new WAMCompiler.
      *
@@ -57,18 +73,59 @@ public class WAMCompiler extends BaseMachine implements LogicCompiler<Clause, WA
         preCompiler = new PreCompiler(symbolTable, interner, instructionCompiler);
 
         preCompiler.setCompilerObserver(new ClauseChainObserver());
+        instructionCompiler.setCompilerObserver(new QueryCachingObserver());
     }
 
     /** {@inheritDoc} */
     public void compile(Sentence<Clause> sentence) throws SourceCodeException
     {
+        Clause clause = sentence.getT();
+
+        // Look for a compiled query of the same shape, before the query is transformed by compiling it.
+        queryShape = clause.isQuery() ? queryCache.shapeOf(clause) : null;
+
+        WAMCompiledQuery query = (queryShape != null) ? queryCache.get(queryShape) : null;
+
+        if (query != null)
+        {
+            queryShape = null;
+            observer.onQueryCompilation(query);
+
+            return;
+        }
+
         preCompiler.compile(sentence);
     }
 
     /** {@inheritDoc} */
     public void setCompilerObserver(LogicCompilerObserver<WAMCompiledPredicate, WAMCompiledQuery> observer)
     {
-        instructionCompiler.setCompilerObserver(observer);
+        this.observer = observer;
+    }
+
+    /**
+     * Sets whether the independent goals in the bodies of the clauses compiled from now on, are to be run in
+     * parallel. Goals run in parallel are run on the free engines of the pool that the machine running them is a
+     * worker of; outside of a pool they are run as usual. This is off by default.
+     *
+     * <p/>Goals run in parallel may be run even when the clause would not have got to them, or run more than once, so
+     * this must only be turned on for clauses whose goals are free of side effects.
+     *
+     * @param andParallel <tt>true</tt> to run independent goals in parallel.
+     */
+    public void setAndParallel(boolean andParallel)
+    {
+        preCompiler.setAndParallel(andParallel);
+    }
+
+    /**
+     * Resets the compiler, dropping the queries it has cached. This is to be called when the machine being compiled
+     * for is reset, as the cached queries were compiled against the program that was in it.
+     */
+    public void reset()
+    {
+        queryCache.clear();
+        queryShape = null;
     }
 
     /** {@inheritDoc} */
@@ -78,6 +135,30 @@ public class WAMCompiler extends BaseMachine implements LogicCompiler<Clause, WA
         instructionCompiler.endScope();
     }
 
+    /**
+     * Caches compiled queries, and passes on all compiler outputs to the observer.
+     */
+    class QueryCachingObserver implements LogicCompilerObserver<WAMCompiledPredicate, WAMCompiledQuery>
+    {
+        /** {@inheritDoc} */
+        public void onCompilation(Sentence<WAMCompiledPredicate> sentence) throws SourceCodeException
+        {
+            observer.onCompilation(sentence);
+        }
+
+        /** {@inheritDoc} */
+        public void onQueryCompilation(Sentence<WAMCompiledQuery> sentence) throws SourceCodeException
+        {
+            if (queryShape != null)
+            {
+                queryCache.put(queryShape, sentence.getT());
+                queryShape = null;
+            }
+
+            observer.onQueryCompilation(sentence);
+        }
+    }
+
     /**
      * Chains compilation completion events onto the instruction compiler.
      */
@@ -0,0 +1,402 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.compiler;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.thesett.aima.logic.fol.LinkageException;
+import com.thesett.aima.logic.fol.wam.machine.WAMMachine;
+
+/**
+ * WAMFactLoader loads large numbers of ground facts into a machine, without parsing or compiling them. Each fact is
+ * a row of atoms and numbers, given as Java values, or read from a stream of comma or tab separated values. The facts
+ * are gathered up by predicate, and the code for each predicate, along with its first argument index, is written
+ * straight into the code area of the machine once all of its facts are known.
+ *
+ * <p/>The facts are added as if they had all been consulted together in one scope; when the load ends, each predicate
+ * loaded is defined by the facts loaded for it, replacing any previous definition of it in the machine. The code
+ * produced is the same as for the same facts consulted from source.
+ *
+ * <p/>In separated values, a field that reads as an integer or a decimal number is loaded as that number, and any other
+ * field as an atom. A field may be quoted with double quotes, to load it as an atom regardless, and to include the
+ * separator in it; a quote within a quoted field is written as two quotes. Quoted fields may not span lines, and
+ * blank lines are skipped.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Gather up facts by predicate. <td> {@link WAMFactPredicate}.
+ * <tr><td> Read facts from separated values.
+ * <tr><td> Write the code for the predicates into a machine. <td> {@link WAMMachine}.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMFactLoader
+{
+    /** The separator of comma separated values. */
+    public static final char CSV = ',';
+
+    /** The separator of tab separated values. */
+    public static final char TSV = '\t';
+
+    /** The quote character for fields of separated values. */
+    private static final char QUOTE = '"';
+
+    /** The machine to load facts into. */
+    private final WAMMachine machine;
+
+    /** Holds the predicates being loaded, by interned name. */
+    private final Map<Integer, WAMFactPredicate> predicates = new LinkedHashMap<Integer, WAMFactPredicate>();
+
+    /** Holds the name of the predicate a fact was last added to, to save looking it up for every fact. */
+    private String lastName;
+
+    /** Holds the predicate a fact was last added to. */
+    private WAMFactPredicate lastPredicate;
+
+    /**
+     * Creates a fact loader for a machine.
+     *
+     * @param machine The machine to load facts into.
+     */
+    public WAMFactLoader(WAMMachine machine)
+    {
+        this.machine = machine;
+    }
+
+    /**
+     * Adds a fact. Atoms are given as strings, and numbers as integers or floating point numbers.
+     *
+     * @param  name      The name of the predicate to add the fact to.
+     * @param  arguments The arguments of the fact, which also give the arity of the predicate.
+     *
+     * @throws IllegalArgumentException If an argument is not a string or a number that fits in the machine.
+     */
+    public void addFact(String name, Object... arguments)
+    {
+        WAMFactPredicate predicate = getPredicate(name, arguments.length);
+        int position = predicate.addFact();
+
+        for (Object argument : arguments)
+        {
+            if (argument instanceof String)
+            {
+                predicate.setAtom(position, machine.internFunctorName((String) argument, 0));
+            }
+            else if ((argument instanceof Integer) || (argument instanceof Short) || (argument instanceof Byte))
+            {
+                predicate.setInt(position, ((Number) argument).intValue());
+            }
+            else if ((argument instanceof Long) && (((Long) argument).intValue() == (Long) argument))
+            {
+                predicate.setInt(position, ((Long) argument).intValue());
+            }
+            else if ((argument instanceof Double) || (argument instanceof Float))
+            {
+                predicate.setFloat(position, ((Number) argument).doubleValue());
+            }
+            else
+            {
+                throw new IllegalArgumentException("The argument " + argument + " of a " + name +
+                    " fact is not an atom, or a number that fits in the machine.");
+            }
+
+            position++;
+        }
+    }
+
+    /**
+     * Adds a fact for every line of separated values read from a stream. The number of fields on a line gives the
+     * arity of the predicate that the fact is added to.
+     *
+     * @param  name      The name of the predicate to add the facts to.
+     * @param  reader    The stream to read from, which is read to its end but not closed.
+     * @param  separator The separator between fields, {@link #CSV} or {@link #TSV} for example.
+     *
+     * @return The number of facts added.
+     *
+     * @throws IOException              If the stream cannot be read.
+     * @throws IllegalArgumentException If a line has an unterminated quoted field, or an integer that does not fit in
+     *                                  the machine.
+     */
+    public int addFacts(String name, Reader reader, char separator) throws IOException
+    {
+        BufferedReader in = (reader instanceof BufferedReader) ? (BufferedReader) reader : new BufferedReader(reader);
+        List<String> fields = new ArrayList<String>();
+        List<Boolean> quoted = new ArrayList<Boolean>();
+        int count = 0;
+        int lineNumber = 0;
+
+        for (String line = in.readLine(); line != null; line = in.readLine())
+        {
+            lineNumber++;
+
+            if (line.length() == 0)
+            {
+                continue;
+            }
+
+            splitLine(line, lineNumber, separator, fields, quoted);
+
+            WAMFactPredicate predicate = getPredicate(name, fields.size());
+            int position = predicate.addFact();
+
+            for (int i = 0; i < fields.size(); i++)
+            {
+                setField(predicate, position + i, fields.get(i), quoted.get(i), lineNumber);
+            }
+
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Ends the load, writing the code for every predicate loaded into the machine.
+     *
+     * @throws LinkageException If the code cannot be linked into the machine.
+     */
+    public void endLoad() throws LinkageException
+    {
+        try
+        {
+            for (WAMFactPredicate predicate : predicates.values())
+            {
+                machine.emmitCode(predicate);
+            }
+        }
+        finally
+        {
+            predicates.clear();
+            lastName = null;
+            lastPredicate = null;
+        }
+    }
+
+    /**
+     * Finds the predicate being loaded with a name and arity, starting a new one if there is none yet.
+     *
+     * @param  name  The name of the predicate.
+     * @param  arity The arity of the predicate.
+     *
+     * @return The predicate.
+     */
+    private WAMFactPredicate getPredicate(String name, int arity)
+    {
+        if ((lastPredicate != null) && (lastPredicate.getArity() == arity) && name.equals(lastName))
+        {
+            return lastPredicate;
+        }
+
+        int functorName = machine.internFunctorName(name, arity);
+        WAMFactPredicate predicate = predicates.get(functorName);
+
+        if (predicate == null)
+        {
+            predicate = new WAMFactPredicate(functorName, arity);
+            predicates.put(functorName, predicate);
+        }
+
+        lastName = name;
+        lastPredicate = predicate;
+
+        return predicate;
+    }
+
+    /**
+     * Splits a line of separated values into its fields.
+     *
+     * @param line       The line to split.
+     * @param lineNumber The number of the line, to report errors against.
+     * @param separator  The separator between fields.
+     * @param fields     The list to place the fields in.
+     * @param quoted     The list to place flags in, for which fields were quoted.
+     */
+    private void splitLine(String line, int lineNumber, char separator, List<String> fields, List<Boolean> quoted)
+    {
+        fields.clear();
+        quoted.clear();
+
+        int i = 0;
+        int length = line.length();
+
+        while (true)
+        {
+            if ((i < length) && (line.charAt(i) == QUOTE))
+            {
+                StringBuilder field = new StringBuilder();
+                i++;
+
+                while (true)
+                {
+                    if (i >= length)
+                    {
+                        throw new IllegalArgumentException("Unterminated quoted field on line " + lineNumber + ".");
+                    }
+                    else if (line.charAt(i) != QUOTE)
+                    {
+                        field.append(line.charAt(i++));
+                    }
+                    else if (((i + 1) < length) && (line.charAt(i + 1) == QUOTE))
+                    {
+                        field.append(QUOTE);
+                        i += 2;
+                    }
+                    else
+                    {
+                        i++;
+
+                        break;
+                    }
+                }
+
+                fields.add(field.toString());
+                quoted.add(true);
+
+                // Skip anything between the closing quote and the next separator.
+                while ((i < length) && (line.charAt(i) != separator))
+                {
+                    i++;
+                }
+            }
+            else
+            {
+                int end = line.indexOf(separator, i);
+                end = (end < 0) ? length : end;
+
+                fields.add(line.substring(i, end));
+                quoted.add(false);
+                i = end;
+            }
+
+            if (i >= length)
+            {
+                break;
+            }
+
+            // Step over the separator.
+            i++;
+        }
+    }
+
+    /**
+     * Sets an argument of a fact from a field of separated values.
+     *
+     * @param predicate  The predicate the fact is in.
+     * @param position   The position of the argument.
+     * @param field      The field.
+     * @param quoted     <tt>true</tt> if the field was quoted, and so is an atom.
+     * @param lineNumber The number of the line, to report errors against.
+     */
+    private void setField(WAMFactPredicate predicate, int position, String field, boolean quoted, int lineNumber)
+    {
+        if (!quoted && isInteger(field))
+        {
+            try
+            {
+                predicate.setInt(position, Integer.parseInt(field));
+            }
+            catch (NumberFormatException e)
+            {
+                throw new IllegalArgumentException("The integer " + field + " on line " + lineNumber +
+                    " does not fit in the machine.");
+            }
+        }
+        else if (!quoted && isDecimal(field))
+        {
+            predicate.setFloat(position, Double.parseDouble(field));
+        }
+        else
+        {
+            predicate.setAtom(position, machine.internFunctorName(field, 0));
+        }
+    }
+
+    /**
+     * Checks if a field is an integer; some digits, with an optional leading minus sign.
+     *
+     * @param  field The field to check.
+     *
+     * @return <tt>true</tt> if the field is an integer.
+     */
+    private static boolean isInteger(String field)
+    {
+        int start = field.startsWith("-") ? 1 : 0;
+
+        if (start == field.length())
+        {
+            return false;
+        }
+
+        for (int i = start; i < field.length(); i++)
+        {
+            if (!isDigit(field.charAt(i)))
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Checks if a field is a decimal number; one that starts with a digit after an optional leading minus sign, ends
+     * with a digit, and reads as a floating point number.
+     *
+     * @param  field The field to check.
+     *
+     * @return <tt>true</tt> if the field is a decimal number.
+     */
+    private static boolean isDecimal(String field)
+    {
+        int start = field.startsWith("-") ? 1 : 0;
+
+        if ((start == field.length()) || !isDigit(field.charAt(start)) || !isDigit(field.charAt(field.length() - 1)))
+        {
+            return false;
+        }
+
+        try
+        {
+            Double.parseDouble(field);
+
+            return true;
+        }
+        catch (NumberFormatException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Checks if a character is a decimal digit.
+     *
+     * @param  c The character to check.
+     *
+     * @return <tt>true</tt> if the character is a decimal digit.
+     */
+    private static boolean isDigit(char c)
+    {
+        return (c >= '0') && (c <= '9');
+    }
+}
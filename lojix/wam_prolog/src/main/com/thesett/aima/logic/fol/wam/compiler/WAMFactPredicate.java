@@ -0,0 +1,752 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.compiler;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.thesett.aima.logic.fol.LinkageException;
+import com.thesett.aima.logic.fol.wam.indexing.CodeBufferTable;
+import com.thesett.aima.logic.fol.wam.indexing.IntIntOpenLinearTable;
+import com.thesett.aima.logic.fol.wam.machine.WAMMachine;
+
+/**
+ * WAMFactPredicate is a predicate made up only of ground facts, whose arguments are atoms and numbers. The facts are
+ * held in flat arrays, rather than as clauses and instruction listings, and the byte code for them is written straight
+ * into the code area of a machine when the predicate is emitted.
+ *
+ * <p/>The code written is the same as the {@link InstructionCompiler} produces for the same facts; a first argument
+ * index ahead of the clauses, a try_me_else chain through them, and a get instruction for each argument of each
+ * clause. As there are no labels, the addresses that the indexing code jumps to are worked out from the sizes of the
+ * clauses, before any code is written. None of the addresses within the predicate are named in the machine, so the
+ * code disassembles without labels.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Accumulate ground facts compactly.
+ * <tr><td> Lay out the code for the facts and their first argument index.
+ * <tr><td> Write the code for the facts into a machine. <td> {@link WAMMachine}, {@link IntIntOpenLinearTable}.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+class WAMFactPredicate extends WAMCompiledPredicate
+{
+    /** Marks an argument that is an atom, held as its interned name. */
+    static final byte ATOM = 0;
+
+    /** Marks an argument that is an integer, held as its value. */
+    static final byte INT = 1;
+
+    /** Marks an argument that is a float, held as its position amongst the floats. */
+    static final byte FLOAT = 2;
+
+    /** The initial number of facts to make room for. */
+    private static final int INITIAL_SIZE = 16;
+
+    /** The size of the switch_on_term instruction. */
+    private static final int SWITCH_ON_TERM_SIZE = 17;
+
+    /** The size of a switch_on_const or switch_on_struc instruction, excluding its table. */
+    private static final int SWITCH_ON_CONST_SIZE = 9;
+
+    /** The size of the try, retry, trust, try_me_else and retry_me_else instructions. */
+    private static final int JUMP_SIZE = 5;
+
+    /** The size of the jit_index instruction. */
+    private static final int JIT_INDEX_SIZE = 5;
+
+    /** The arity of the predicate. */
+    private final int arity;
+
+    /** The number of facts in the predicate. */
+    private int size;
+
+    /** Holds the types of the arguments of the facts, fact by fact. */
+    private byte[] types;
+
+    /** Holds the arguments of the facts, fact by fact. */
+    private int[] cells;
+
+    /** Holds the values of the float arguments. */
+    private double[] floats = new double[0];
+
+    /** The number of float arguments. */
+    private int numFloats;
+
+    /** The offsets of the clauses from the entry point, with the end of the predicate last. */
+    private int[] clauseStart;
+
+    /** Flags when the clauses are entered from a first argument index, past their choice point instructions. */
+    private boolean indexed;
+
+    /** Flags when the predicate is indexed on demand on its other arguments. */
+    private boolean jitIndexed;
+
+    /** The clauses whose first arguments are held in constant cells, grouped by those cells. */
+    private KeyGroups constGroups;
+
+    /** The clauses whose first arguments are boxed numbers, grouped by their functor cells. */
+    private KeyGroups strucGroups;
+
+    /**
+     * Creates an empty fact predicate.
+     *
+     * @param name  The interned name of the predicate.
+     * @param arity The arity of the predicate.
+     */
+    WAMFactPredicate(int name, int arity)
+    {
+        super(name);
+        this.arity = arity;
+
+        int capacity = INITIAL_SIZE * Math.max(arity, 1);
+        types = new byte[capacity];
+        cells = new int[capacity];
+    }
+
+    /**
+     * Provides the arity of the predicate.
+     *
+     * @return The arity of the predicate.
+     */
+    int getArity()
+    {
+        return arity;
+    }
+
+    /**
+     * Provides the number of facts in the predicate.
+     *
+     * @return The number of facts in the predicate.
+     */
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * Starts a new fact, after all of the arguments of the previous one have been set.
+     *
+     * @return The position of the first argument of the fact.
+     */
+    int addFact()
+    {
+        int position = size * arity;
+
+        if ((position + arity) > cells.length)
+        {
+            int capacity = Math.max(cells.length * 2, position + arity);
+            types = Arrays.copyOf(types, capacity);
+            cells = Arrays.copyOf(cells, capacity);
+        }
+
+        size++;
+        clauseStart = null;
+
+        return position;
+    }
+
+    /**
+     * Sets an argument to an atom.
+     *
+     * @param position The position of the argument.
+     * @param name     The interned name of the atom.
+     */
+    void setAtom(int position, int name)
+    {
+        types[position] = ATOM;
+        cells[position] = name;
+    }
+
+    /**
+     * Sets an argument to an integer.
+     *
+     * @param position The position of the argument.
+     * @param value    The integer.
+     */
+    void setInt(int position, int value)
+    {
+        types[position] = INT;
+        cells[position] = value;
+    }
+
+    /**
+     * Sets an argument to a float.
+     *
+     * @param position The position of the argument.
+     * @param value    The float.
+     */
+    void setFloat(int position, double value)
+    {
+        if (numFloats == floats.length)
+        {
+            floats = Arrays.copyOf(floats, Math.max(INITIAL_SIZE, numFloats * 2));
+        }
+
+        types[position] = FLOAT;
+        cells[position] = numFloats;
+        floats[numFloats++] = value;
+    }
+
+    /** {@inheritDoc} */
+    public long sizeof()
+    {
+        if (clauseStart == null)
+        {
+            layout();
+        }
+
+        return clauseStart[size];
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p/>The code is written in a single pass, with the addresses in the indexing code worked out from the layout of
+     * the predicate.
+     */
+    public void emmitCode(ByteBuffer buffer, WAMMachine machine, WAMCallPoint callPoint) throws LinkageException
+    {
+        if (sizeof() > Integer.MAX_VALUE)
+        {
+            throw new IllegalStateException("The instruction listing size exceeds Integer.MAX_VALUE.");
+        }
+
+        int entry = buffer.position();
+
+        if (indexed)
+        {
+            emmitIndex(buffer, entry);
+        }
+        else if (jitIndexed)
+        {
+            emmitJitIndex(buffer);
+        }
+
+        for (int i = 0; i < size; i++)
+        {
+            emmitClause(buffer, entry, i);
+        }
+
+        this.machine = machine;
+        this.callPoint = callPoint;
+        this.status = LinkStatus.Linked;
+    }
+
+    /**
+     * Works out where each clause goes, and which clauses the first argument index chooses between, in the same way as
+     * the instruction compiler does for facts. As every first argument is an atom or a number, the facts make up a
+     * single block for the compiler to index, with no clauses that may match any first argument.
+     */
+    private void layout()
+    {
+        indexed = false;
+        jitIndexed = false;
+        constGroups = null;
+        strucGroups = null;
+
+        int header = 0;
+
+        // There is nothing to choose between for single clause predicates, or predicates with no arguments.
+        if ((size >= 2) && (arity > 0))
+        {
+            jitIndexed = (size >= InstructionCompiler.JIT_INDEX_MIN_CLAUSES) && (arity > 1);
+            indexed = true;
+
+            constGroups = groupByKey(false);
+            strucGroups = groupByKey(true);
+
+            header = SWITCH_ON_TERM_SIZE + indexSize(constGroups) + indexSize(strucGroups);
+            header += jitIndexed ? JIT_INDEX_SIZE : 0;
+        }
+
+        clauseStart = new int[size + 1];
+        clauseStart[0] = header;
+
+        for (int i = 0; i < size; i++)
+        {
+            int length = choicePointSize(i) + (indexed ? 1 : 0) + 1;
+
+            for (int position = i * arity; position < ((i + 1) * arity); position++)
+            {
+                length += (types[position] == FLOAT) ? 11 : 7;
+            }
+
+            clauseStart[i + 1] = clauseStart[i] + length;
+        }
+    }
+
+    /**
+     * Works out the size of the indexing code for a group of clauses with the same type of first argument; a hash
+     * table with chains for the keys that more than one clause has, or a single chain over the group.
+     *
+     * @param  groups The clauses, grouped by key.
+     *
+     * @return The size of the indexing code for the group.
+     */
+    private int indexSize(KeyGroups groups)
+    {
+        int count = groups.clauses.length;
+
+        if (groups.keys.length < 2)
+        {
+            return ((count > 1) && (count < size)) ? (count * JUMP_SIZE) : 0;
+        }
+
+        int length = SWITCH_ON_CONST_SIZE + IntIntOpenLinearTable.sizeInBytes(groups.keys.length);
+
+        for (int g = 0; g < groups.keys.length; g++)
+        {
+            int keyCount = groups.start[g + 1] - groups.start[g];
+            length += (keyCount > 1) ? (keyCount * JUMP_SIZE) : 0;
+        }
+
+        return length;
+    }
+
+    /**
+     * Provides the cell that the first argument of a clause is keyed on in the hash tables. Atoms and small integers
+     * are keyed on their constant cells, and boxed numbers on their functor cells.
+     *
+     * @param  i The position of the clause.
+     *
+     * @return The key of the first argument of the clause.
+     */
+    private int firstArgumentKey(int i)
+    {
+        int value = cells[i * arity];
+
+        switch (types[i * arity])
+        {
+        case ATOM:
+            return (WAMInstruction.CON << 30) | (value & 0x00ffffff);
+
+        case INT:
+            return isSmallInt(value)
+                ? ((WAMInstruction.CON << 30) | WAMInstruction.SMALL_INT | (value & WAMInstruction.SMALL_INT_MASK))
+                : WAMInstruction.BOXED_INT;
+
+        default:
+            return WAMInstruction.BOXED_FLOAT;
+        }
+    }
+
+    /**
+     * Checks if the first argument of a clause is a boxed number, and so is dispatched on as a structure.
+     *
+     * @param  i The position of the clause.
+     *
+     * @return <tt>true</tt> if the first argument of the clause is a boxed number.
+     */
+    private boolean isBoxedFirstArgument(int i)
+    {
+        byte type = types[i * arity];
+
+        return (type == FLOAT) || ((type == INT) && !isSmallInt(cells[i * arity]));
+    }
+
+    /**
+     * Checks if an integer fits in a constant cell.
+     *
+     * @param  value The integer.
+     *
+     * @return <tt>true</tt> if the integer fits in a constant cell.
+     */
+    private static boolean isSmallInt(int value)
+    {
+        return ((value << 3) >> 3) == value;
+    }
+
+    /**
+     * Groups the clauses with constant, or with boxed, first arguments by the keys of their first arguments. The groups
+     * are in order of the first appearance of their keys, and the clauses within each group are in order, as the
+     * instruction compiler builds its hash tables and chains in the same order.
+     *
+     * @param  boxed <tt>true</tt> to group the clauses with boxed first arguments, <tt>false</tt> for the rest.
+     *
+     * @return The clauses, grouped by key.
+     */
+    private KeyGroups groupByKey(boolean boxed)
+    {
+        int capacity = Integer.highestOneBit(Math.max(size, 2) * 3);
+        int mask = capacity - 1;
+        int[] slotKeys = new int[capacity];
+        int[] slotGroups = new int[capacity];
+        int[] groupOf = new int[size];
+        int[] keys = new int[size];
+        int[] counts = new int[size + 1];
+        int numGroups = 0;
+        int numClauses = 0;
+
+        for (int i = 0; i < size; i++)
+        {
+            if (isBoxedFirstArgument(i) != boxed)
+            {
+                groupOf[i] = -1;
+
+                continue;
+            }
+
+            int key = firstArgumentKey(i);
+            int slot = (key * 0x9e3779b9) & mask;
+
+            // Slots hold one more than their group, so that zero marks an empty slot.
+            while ((slotGroups[slot] != 0) && (slotKeys[slot] != key))
+            {
+                slot = (slot + 1) & mask;
+            }
+
+            if (slotGroups[slot] == 0)
+            {
+                slotKeys[slot] = key;
+                slotGroups[slot] = ++numGroups;
+                keys[numGroups - 1] = key;
+            }
+
+            groupOf[i] = slotGroups[slot] - 1;
+            counts[groupOf[i] + 1]++;
+            numClauses++;
+        }
+
+        KeyGroups groups = new KeyGroups();
+        groups.keys = Arrays.copyOf(keys, numGroups);
+        groups.start = new int[numGroups + 1];
+
+        for (int g = 0; g < numGroups; g++)
+        {
+            groups.start[g + 1] = groups.start[g] + counts[g + 1];
+        }
+
+        int[] next = Arrays.copyOf(groups.start, numGroups);
+        groups.clauses = new int[numClauses];
+
+        for (int i = 0; i < size; i++)
+        {
+            if (groupOf[i] >= 0)
+            {
+                groups.clauses[next[groupOf[i]]++] = i;
+            }
+        }
+
+        return groups;
+    }
+
+    /**
+     * Writes out the first argument index, which goes ahead of the clauses. The hash tables go first, then the chains
+     * that they jump to, then the chains for the types of first argument, and the on demand indexing last.
+     *
+     * @param buffer The code buffer to write to.
+     * @param entry  The entry point of the predicate.
+     */
+    private void emmitIndex(ByteBuffer buffer, int entry)
+    {
+        int switchOnTerm = buffer.position();
+        buffer.position(switchOnTerm + SWITCH_ON_TERM_SIZE);
+
+        // The chains go after the switch tables, and are jumped to from them.
+        int chain = buffer.position() + switchSize(constGroups) + switchSize(strucGroups);
+        int constSwitch = buffer.position();
+        chain = emmitSwitch(buffer, WAMInstruction.SWITCH_ON_CONST, constGroups, entry, chain);
+
+        int strucSwitch = buffer.position();
+        emmitSwitch(buffer, WAMInstruction.SWITCH_ON_STRUC, strucGroups, entry, chain);
+
+        emmitKeyChains(buffer, entry, constGroups);
+        emmitKeyChains(buffer, entry, strucGroups);
+
+        int constTarget =
+            (constGroups.keys.length < 2) ? emmitChain(buffer, entry, constGroups.clauses, 0, constGroups.clauses.length)
+                                          : constSwitch;
+        int strucTarget =
+            (strucGroups.keys.length < 2) ? emmitChain(buffer, entry, strucGroups.clauses, 0, strucGroups.clauses.length)
+                                          : strucSwitch;
+        int varTarget = entry + clauseStart[0];
+
+        if (jitIndexed)
+        {
+            varTarget = buffer.position();
+            emmitJitIndex(buffer);
+        }
+
+        buffer.put(switchOnTerm, WAMInstruction.SWITCH_ON_TERM);
+        buffer.putInt(switchOnTerm + 1, varTarget);
+        buffer.putInt(switchOnTerm + 5, constTarget);
+        buffer.putInt(switchOnTerm + 9, 0);
+        buffer.putInt(switchOnTerm + 13, strucTarget);
+    }
+
+    /**
+     * Provides the size of the hash table switch instruction for a group of clauses, which is only used when there is
+     * more than one key to choose between.
+     *
+     * @param  groups The clauses, grouped by key.
+     *
+     * @return The size of the switch instruction, or zero if there is none.
+     */
+    private int switchSize(KeyGroups groups)
+    {
+        return (groups.keys.length < 2)
+            ? 0 : (SWITCH_ON_CONST_SIZE + IntIntOpenLinearTable.sizeInBytes(groups.keys.length));
+    }
+
+    /**
+     * Writes out a hash table switch instruction for a group of clauses, if there is more than one key to choose
+     * between. Keys that more than one clause has jump to chains, which are written out later, at the addresses
+     * given.
+     *
+     * @param  buffer The code buffer to write to.
+     * @param  code   The switch instruction to write.
+     * @param  groups The clauses, grouped by key.
+     * @param  entry  The entry point of the predicate.
+     * @param  chain  The address that the next chain goes at.
+     *
+     * @return The address that the next chain goes at, after the chains jumped to from this table.
+     */
+    private int emmitSwitch(ByteBuffer buffer, byte code, KeyGroups groups, int entry, int chain)
+    {
+        if (groups.keys.length < 2)
+        {
+            return chain;
+        }
+
+        int t = buffer.position() + SWITCH_ON_CONST_SIZE;
+        int n = IntIntOpenLinearTable.sizeInBytes(groups.keys.length);
+
+        buffer.put(code);
+        buffer.putInt(t);
+        buffer.putInt(n);
+
+        // Clear out the table area, as empty entries are marked with a zero key.
+        for (int i = 0; i < n; i++)
+        {
+            buffer.put((byte) 0);
+        }
+
+        CodeBufferTable table = new IntIntOpenLinearTable();
+        table.setup(buffer, t, n);
+
+        for (int g = 0; g < groups.keys.length; g++)
+        {
+            int count = groups.start[g + 1] - groups.start[g];
+
+            if (count == 1)
+            {
+                table.put(groups.keys[g], indexedEntry(entry, groups.clauses[groups.start[g]]));
+            }
+            else
+            {
+                table.put(groups.keys[g], chain);
+                chain += count * JUMP_SIZE;
+            }
+        }
+
+        return chain;
+    }
+
+    /**
+     * Writes out the chains jumped to from the hash table for a group of clauses, for the keys that more than one
+     * clause has.
+     *
+     * @param buffer The code buffer to write to.
+     * @param entry  The entry point of the predicate.
+     * @param groups The clauses, grouped by key.
+     */
+    private void emmitKeyChains(ByteBuffer buffer, int entry, KeyGroups groups)
+    {
+        if (groups.keys.length < 2)
+        {
+            return;
+        }
+
+        for (int g = 0; g < groups.keys.length; g++)
+        {
+            if ((groups.start[g + 1] - groups.start[g]) > 1)
+            {
+                emmitChain(buffer, entry, groups.clauses, groups.start[g], groups.start[g + 1]);
+            }
+        }
+    }
+
+    /**
+     * Writes out a try, retry, trust chain over some clauses, unless there are less than two of them to try, or they
+     * are all of the clauses, for which the try_me_else chain is used.
+     *
+     * @param  buffer  The code buffer to write to.
+     * @param  entry   The entry point of the predicate.
+     * @param  clauses The positions of the clauses.
+     * @param  from    The start of the clauses to try.
+     * @param  to      The end of the clauses to try.
+     *
+     * @return The address to jump to for the clauses, or zero if there are none.
+     */
+    private int emmitChain(ByteBuffer buffer, int entry, int[] clauses, int from, int to)
+    {
+        if (from == to)
+        {
+            return 0;
+        }
+        else if ((to - from) == 1)
+        {
+            return indexedEntry(entry, clauses[from]);
+        }
+        else if ((to - from) == size)
+        {
+            return entry + clauseStart[0];
+        }
+
+        int chain = buffer.position();
+
+        for (int i = from; i < to; i++)
+        {
+            if (i == from)
+            {
+                buffer.put(WAMInstruction.TRY);
+            }
+            else if (i < (to - 1))
+            {
+                buffer.put(WAMInstruction.RETRY);
+            }
+            else
+            {
+                buffer.put(WAMInstruction.TRUST);
+            }
+
+            buffer.putInt(indexedEntry(entry, clauses[i]));
+        }
+
+        return chain;
+    }
+
+    /**
+     * Writes out the instruction to index the predicate on demand.
+     *
+     * @param buffer The code buffer to write to.
+     */
+    private void emmitJitIndex(ByteBuffer buffer)
+    {
+        buffer.put(WAMInstruction.JIT_INDEX);
+        buffer.putInt((arity << 24) | (getName() & 0x00ffffff));
+    }
+
+    /**
+     * Writes out a clause.
+     *
+     * @param buffer The code buffer to write to.
+     * @param entry  The entry point of the predicate.
+     * @param i      The position of the clause.
+     */
+    private void emmitClause(ByteBuffer buffer, int entry, int i)
+    {
+        if (size > 1)
+        {
+            if (i == 0)
+            {
+                buffer.put(WAMInstruction.TRY_ME_ELSE);
+                buffer.putInt(entry + clauseStart[1]);
+            }
+            else if (i < (size - 1))
+            {
+                buffer.put(WAMInstruction.RETRY_ME_ELSE);
+                buffer.putInt(entry + clauseStart[i + 1]);
+            }
+            else
+            {
+                buffer.put(WAMInstruction.TRUST_ME);
+            }
+        }
+
+        if (indexed)
+        {
+            buffer.put(WAMInstruction.NO_OP);
+        }
+
+        for (int reg = 0; reg < arity; reg++)
+        {
+            int position = (i * arity) + reg;
+
+            switch (types[position])
+            {
+            case ATOM:
+                buffer.put(WAMInstruction.GET_CONST);
+                buffer.put(WAMInstruction.REG_ADDR);
+                buffer.put((byte) reg);
+                buffer.putInt(cells[position] & 0x00ffffff);
+                break;
+
+            case INT:
+                buffer.put(WAMInstruction.GET_INT);
+                buffer.put(WAMInstruction.REG_ADDR);
+                buffer.put((byte) reg);
+                buffer.putInt(cells[position]);
+                break;
+
+            default:
+                buffer.put(WAMInstruction.GET_FLOAT);
+                buffer.put(WAMInstruction.REG_ADDR);
+                buffer.put((byte) reg);
+                buffer.putDouble(floats[cells[position]]);
+            }
+        }
+
+        buffer.put(WAMInstruction.PROCEED);
+    }
+
+    /**
+     * Provides the size of the choice point instruction of a clause.
+     *
+     * @param  i The position of the clause.
+     *
+     * @return The size of its choice point instruction.
+     */
+    private int choicePointSize(int i)
+    {
+        if (size == 1)
+        {
+            return 0;
+        }
+
+        return (i < (size - 1)) ? JUMP_SIZE : 1;
+    }
+
+    /**
+     * Provides the address to enter a clause by from the first argument index, past its choice point instruction.
+     *
+     * @param  entry The entry point of the predicate.
+     * @param  i     The position of the clause.
+     *
+     * @return The address to enter the clause by.
+     */
+    private int indexedEntry(int entry, int i)
+    {
+        return entry + clauseStart[i] + choicePointSize(i);
+    }
+
+    /**
+     * KeyGroups holds the clauses with one type of first argument, grouped by the keys of their first arguments.
+     */
+    private static class KeyGroups
+    {
+        /** The keys, in order of first appearance. */
+        int[] keys;
+
+        /** The start of the clauses for each key, with the end of the clauses last. */
+        int[] start;
+
+        /** The positions of the clauses, grouped by key. */
+        int[] clauses;
+    }
+}
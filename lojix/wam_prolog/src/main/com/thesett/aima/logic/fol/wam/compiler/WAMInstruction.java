@@ -16,16 +16,24 @@
 package com.thesett.aima.logic.fol.wam.compiler;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import com.thesett.aima.logic.fol.DoubleLiteral;
 import com.thesett.aima.logic.fol.Functor;
 import com.thesett.aima.logic.fol.FunctorName;
+import com.thesett.aima.logic.fol.IntLiteral;
 import com.thesett.aima.logic.fol.LinkageException;
+import com.thesett.aima.logic.fol.NumericType;
 import com.thesett.aima.logic.fol.Term;
 import com.thesett.aima.logic.fol.VariableAndFunctorInterner;
+import com.thesett.aima.logic.fol.wam.indexing.CodeBufferTable;
+import com.thesett.aima.logic.fol.wam.indexing.IntIntOpenLinearTable;
 import com.thesett.aima.logic.fol.wam.machine.WAMCodeView;
 import com.thesett.aima.logic.fol.wam.machine.WAMMachine;
 import com.thesett.common.util.Pair;
@@ -177,6 +185,42 @@ public class WAMInstruction implements Sizeable
     /** The internal call instruction for intrinsics. */
     public static final byte CALL_INTERNAL = 0x2a;
 
+    /** The demand driven indexing instruction, for non-first arguments. */
+    public static final byte JIT_INDEX = 0x2b;
+
+    /** The instruction to compare or bind a register to an integer. */
+    public static final byte GET_INT = 0x2c;
+
+    /** The instruction to place an integer in a register. */
+    public static final byte PUT_INT = 0x2d;
+
+    /** The instruction to compare or bind a register to a float. */
+    public static final byte GET_FLOAT = 0x2e;
+
+    /** The instruction to place a float in a register. */
+    public static final byte PUT_FLOAT = 0x2f;
+
+    /** The instruction to evaluate the arithmetic expression in a register onto the arithmetic stack. */
+    public static final byte ARITH_LOAD = 0x30;
+
+    /** The instruction to push an integer onto the arithmetic stack. */
+    public static final byte ARITH_INT = 0x31;
+
+    /** The instruction to push a float onto the arithmetic stack. */
+    public static final byte ARITH_FLOAT = 0x32;
+
+    /** The instruction to apply an arithmetic operator to the top of the arithmetic stack. */
+    public static final byte ARITH_OP = 0x33;
+
+    /** The instruction to compare the top two numbers on the arithmetic stack. */
+    public static final byte ARITH_CMP = 0x34;
+
+    /** The instruction to place the number on top of the arithmetic stack in a fresh variable. */
+    public static final byte ARITH_PUT = 0x35;
+
+    /** The instruction to unify a register with the number on top of the arithmetic stack. */
+    public static final byte ARITH_GET = 0x36;
+
     /** The suspend operation. */
     public static final byte SUSPEND = 0x7f;
 
@@ -202,6 +246,155 @@ public class WAMInstruction implements Sizeable
     /** Indicates a list data type. */
     public static final byte LIS = 0x03;
 
+    // === Defines the number representations.
+
+    /**
+     * Flags a constant cell as holding a small integer, rather than an atom. The integer is held in the bits below the
+     * flag, as a 29 bit twos complement number. Interned names never reach this bit, so it cannot clash with an atom.
+     */
+    public static final int SMALL_INT = 0x20000000;
+
+    /** The mask to extract a small integer from a constant cell. */
+    public static final int SMALL_INT_MASK = 0x1FFFFFFF;
+
+    /**
+     * The functor cell of a boxed integer, that is too large to be held in a constant cell. The integer is held in the
+     * one cell after the functor cell. The name part is reserved, and is never handed out by the interner.
+     */
+    public static final int BOXED_INT = (1 << 24) | 0xFFFFFF;
+
+    /**
+     * The functor cell of a boxed float. Its bits are held in the two cells after the functor cell, the high order
+     * word first.
+     */
+    public static final int BOXED_FLOAT = (2 << 24) | 0xFFFFFF;
+
+    // === Defines the arithmetic operators, applied by arith_op.
+
+    /** Adds two numbers. */
+    public static final byte OP_ADD = 0x01;
+
+    /** Subtracts one number from another. */
+    public static final byte OP_SUB = 0x02;
+
+    /** Multiplies two numbers. */
+    public static final byte OP_MUL = 0x03;
+
+    /** Divides one number by another, truncating if both are integers. */
+    public static final byte OP_DIV = 0x04;
+
+    /** Divides one integer by another, truncating. */
+    public static final byte OP_INT_DIV = 0x05;
+
+    /** Takes the modulus of two integers, with the sign of the divisor. */
+    public static final byte OP_MOD = 0x06;
+
+    /** Takes the remainder of two integers, with the sign of the dividend. */
+    public static final byte OP_REM = 0x07;
+
+    /** Takes the smaller of two numbers. */
+    public static final byte OP_MIN = 0x08;
+
+    /** Takes the larger of two numbers. */
+    public static final byte OP_MAX = 0x09;
+
+    /** Raises one number to the power of another. */
+    public static final byte OP_POW = 0x0a;
+
+    /** Shifts an integer left. */
+    public static final byte OP_SHIFT_LEFT = 0x0b;
+
+    /** Shifts an integer right. */
+    public static final byte OP_SHIFT_RIGHT = 0x0c;
+
+    /** Takes the bitwise and of two integers. */
+    public static final byte OP_AND = 0x0d;
+
+    /** Takes the bitwise or of two integers. */
+    public static final byte OP_OR = 0x0e;
+
+    /** Negates a number. */
+    public static final byte OP_NEG = 0x0f;
+
+    /** Takes the absolute value of a number. */
+    public static final byte OP_ABS = 0x10;
+
+    /** Raises an instantiation error, for an expression that contains a variable that cannot have been bound. */
+    public static final byte OP_INSTANTIATION_ERROR = 0x11;
+
+    /** Raises a type error, for an expression that contains a term that is not a number or arithmetic operator. */
+    public static final byte OP_TYPE_ERROR = 0x12;
+
+    /** Raises an overflow error, for an expression that contains an integer too large to be held. */
+    public static final byte OP_INT_OVERFLOW = 0x13;
+
+    // === Defines the arithmetic comparisons, made by arith_cmp.
+
+    /** Compares two numbers for equality. */
+    public static final byte CMP_EQ = 0x01;
+
+    /** Compares two numbers for inequality. */
+    public static final byte CMP_NE = 0x02;
+
+    /** Checks that one number is less than another. */
+    public static final byte CMP_LT = 0x03;
+
+    /** Checks that one number is less than or equal to another. */
+    public static final byte CMP_LE = 0x04;
+
+    /** Checks that one number is greater than another. */
+    public static final byte CMP_GT = 0x05;
+
+    /** Checks that one number is greater than or equal to another. */
+    public static final byte CMP_GE = 0x06;
+
+    /** Checks that two numbers are of the same type and value, as when they unify. */
+    public static final byte CMP_SAME = 0x07;
+
+    /** Holds the arithmetic operators by their functor names. */
+    private static final Map<FunctorName, Byte> arithmeticOperators = new LinkedHashMap<FunctorName, Byte>();
+
+    /** Holds the arithmetic comparisons by their functor names. */
+    private static final Map<FunctorName, Byte> arithmeticComparisons = new LinkedHashMap<FunctorName, Byte>();
+
+    /** Holds the names of the arithmetic operators by op-code, for printing. */
+    private static final Map<Byte, String> operatorNames = new HashMap<Byte, String>();
+
+    /** Holds the names of the arithmetic comparisons by op-code, for printing. */
+    private static final Map<Byte, String> comparisonNames = new HashMap<Byte, String>();
+
+    static
+    {
+        addArithmetic(arithmeticOperators, operatorNames, "+", 2, OP_ADD);
+        addArithmetic(arithmeticOperators, operatorNames, "-", 2, OP_SUB);
+        addArithmetic(arithmeticOperators, operatorNames, "*", 2, OP_MUL);
+        addArithmetic(arithmeticOperators, operatorNames, "/", 2, OP_DIV);
+        addArithmetic(arithmeticOperators, operatorNames, "//", 2, OP_INT_DIV);
+        addArithmetic(arithmeticOperators, operatorNames, "mod", 2, OP_MOD);
+        addArithmetic(arithmeticOperators, operatorNames, "rem", 2, OP_REM);
+        addArithmetic(arithmeticOperators, operatorNames, "min", 2, OP_MIN);
+        addArithmetic(arithmeticOperators, operatorNames, "max", 2, OP_MAX);
+        addArithmetic(arithmeticOperators, operatorNames, "**", 2, OP_POW);
+        addArithmetic(arithmeticOperators, operatorNames, "^", 2, OP_POW);
+        addArithmetic(arithmeticOperators, operatorNames, "<<", 2, OP_SHIFT_LEFT);
+        addArithmetic(arithmeticOperators, operatorNames, ">>", 2, OP_SHIFT_RIGHT);
+        addArithmetic(arithmeticOperators, operatorNames, "/\\", 2, OP_AND);
+        addArithmetic(arithmeticOperators, operatorNames, "\\/", 2, OP_OR);
+        addArithmetic(arithmeticOperators, operatorNames, "-", 1, OP_NEG);
+        addArithmetic(arithmeticOperators, operatorNames, "abs", 1, OP_ABS);
+        operatorNames.put(OP_INSTANTIATION_ERROR, "instantiation_error");
+        operatorNames.put(OP_TYPE_ERROR, "type_error");
+        operatorNames.put(OP_INT_OVERFLOW, "int_overflow");
+
+        addArithmetic(arithmeticComparisons, comparisonNames, "=:=", 2, CMP_EQ);
+        addArithmetic(arithmeticComparisons, comparisonNames, "=\\=", 2, CMP_NE);
+        addArithmetic(arithmeticComparisons, comparisonNames, "<", 2, CMP_LT);
+        addArithmetic(arithmeticComparisons, comparisonNames, "=<", 2, CMP_LE);
+        addArithmetic(arithmeticComparisons, comparisonNames, ">", 2, CMP_GT);
+        addArithmetic(arithmeticComparisons, comparisonNames, ">=", 2, CMP_GE);
+        comparisonNames.put(CMP_SAME, "==");
+    }
+
     /** Defines the L0 virtual machine instruction set as constants. */
     public enum WAMInstructionSet
     {
@@ -555,7 +748,7 @@ public class WAMInstruction implements Sizeable
                         ".");
                 }
 
-                int entryPoint = callPointToCall.entryPoint;
+                int entryPoint = machine.linkCall(callPointToCall);
 
                 codeBuf.put(code);
                 codeBuf.putInt(entryPoint);
@@ -599,7 +792,7 @@ public class WAMInstruction implements Sizeable
                         ".");
                 }
 
-                int entryPoint = callPointToCall.entryPoint;
+                int entryPoint = machine.linkCall(callPointToCall);
 
                 codeBuf.put(code);
                 codeBuf.putInt(entryPoint);
@@ -722,6 +915,14 @@ public class WAMInstruction implements Sizeable
             {
                 int ip = codeBuf.position();
 
+                // Resolve any forward reference to the label for this instruction. The first clause is branched to
+                // from the indexing instructions, when the first argument is unbound.
+                if (instruction.label != null)
+                {
+                    int label = machine.internFunctorName(instruction.label);
+                    machine.resolveLabelPoint(label, ip);
+                }
+
                 // Intern the alternative forward label, and write it out as zero initially, for later completion.
                 int toCall = machine.internFunctorName(instruction.target1);
                 machine.reserveReferenceToLabel(toCall, ip + 1);
@@ -822,18 +1023,13 @@ public class WAMInstruction implements Sizeable
                 int ip = codeBuf.position();
 
                 // Resolve any forward reference to the label for this instruction.
-                if (instruction.label != null)
-                {
-                    int label = machine.internFunctorName(instruction.label);
-                    machine.resolveLabelPoint(label, ip);
-                }
+                resolveLabel(machine, instruction.label, ip);
 
-                // Intern the forward label, and write it out as zero initially, for later completion.
-                int toCall = machine.internFunctorName(instruction.target1);
-                machine.reserveReferenceToLabel(toCall, ip + 1);
+                // Write out the address of the label to try, or zero for later completion if it is not placed yet.
+                int toCall = referenceToLabel(machine, instruction.target1, ip + 1);
 
                 codeBuf.put(code);
-                codeBuf.putInt(0);
+                codeBuf.putInt(toCall);
             }
 
             /** {@inheritDoc} */
@@ -862,18 +1058,13 @@ public class WAMInstruction implements Sizeable
                 int ip = codeBuf.position();
 
                 // Resolve any forward reference to the label for this instruction.
-                if (instruction.label != null)
-                {
-                    int label = machine.internFunctorName(instruction.label);
-                    machine.resolveLabelPoint(label, ip);
-                }
+                resolveLabel(machine, instruction.label, ip);
 
-                // Intern the forward label, and write it out as zero initially, for later completion.
-                int toCall = machine.internFunctorName(instruction.target1);
-                machine.reserveReferenceToLabel(toCall, ip + 1);
+                // Write out the address of the label to try, or zero for later completion if it is not placed yet.
+                int toCall = referenceToLabel(machine, instruction.target1, ip + 1);
 
                 codeBuf.put(code);
-                codeBuf.putInt(0);
+                codeBuf.putInt(toCall);
             }
 
             /** {@inheritDoc} */
@@ -901,18 +1092,13 @@ public class WAMInstruction implements Sizeable
                 int ip = codeBuf.position();
 
                 // Resolve any forward reference to the label for this instruction.
-                if (instruction.label != null)
-                {
-                    int label = machine.internFunctorName(instruction.label);
-                    machine.resolveLabelPoint(label, ip);
-                }
+                resolveLabel(machine, instruction.label, ip);
 
-                // Intern the forward label, and write it out as zero initially, for later completion.
-                int toCall = machine.internFunctorName(instruction.target1);
-                machine.reserveReferenceToLabel(toCall, ip + 1);
+                // Write out the address of the label to try, or zero for later completion if it is not placed yet.
+                int toCall = referenceToLabel(machine, instruction.target1, ip + 1);
 
                 codeBuf.put(code);
-                codeBuf.putInt(0);
+                codeBuf.putInt(toCall);
             }
 
             /** {@inheritDoc} */
@@ -925,6 +1111,13 @@ public class WAMInstruction implements Sizeable
         /** The second level indexing instruction. */
         SwitchOnTerm(SWITCH_ON_TERM, "switch_on_term", 17, 0x0)
         {
+            /** {@inheritDoc} */
+            protected void disassembleArguments(WAMInstruction instruction, int ip, ByteBuffer codeBuf,
+                VariableAndFunctorInterner interner)
+            {
+                // Do nothing as the jump addresses are not restored to labels.
+            }
+
             /** {@inheritDoc} */
             public void emmitCode(WAMInstruction instruction, ByteBuffer codeBuf, WAMMachine machine)
                 throws LinkageException
@@ -932,24 +1125,20 @@ public class WAMInstruction implements Sizeable
                 int ip = codeBuf.position();
 
                 // Resolve any forward reference to the label for this instruction.
-                int label = machine.internFunctorName(instruction.label);
-                machine.resolveLabelPoint(label, ip);
-
-                // Intern the alternative forward labels, and write them out as zero initially, for later completion.
-                int jump = machine.internFunctorName(instruction.target1);
-                machine.reserveReferenceToLabel(jump, ip + 1);
+                resolveLabel(machine, instruction.label, ip);
 
-                jump = machine.internFunctorName(instruction.target2);
-                machine.reserveReferenceToLabel(jump, ip + 5);
-
-                jump = machine.internFunctorName(instruction.target3);
-                machine.reserveReferenceToLabel(jump, ip + 9);
-
-                jump = machine.internFunctorName(instruction.target4);
-                machine.reserveReferenceToLabel(jump, ip + 13);
+                // Write out the addresses of the alternative labels, or zero for later completion if they are not
+                // placed yet. A missing label is left as zero, which the machine treats as failure.
+                int v = referenceToLabel(machine, instruction.target1, ip + 1);
+                int c = referenceToLabel(machine, instruction.target2, ip + 5);
+                int l = referenceToLabel(machine, instruction.target3, ip + 9);
+                int st = referenceToLabel(machine, instruction.target4, ip + 13);
 
                 codeBuf.put(code);
-                codeBuf.putInt(0);
+                codeBuf.putInt(v);
+                codeBuf.putInt(c);
+                codeBuf.putInt(l);
+                codeBuf.putInt(st);
             }
 
             /** {@inheritDoc} */
@@ -963,62 +1152,48 @@ public class WAMInstruction implements Sizeable
         /** The third level indexing instruction for constants. */
         SwitchOnConst(SWITCH_ON_CONST, "switch_on_const", 9, 0x0)
         {
+            /** {@inheritDoc} */
+            protected void disassembleArguments(WAMInstruction instruction, int ip, ByteBuffer codeBuf,
+                VariableAndFunctorInterner interner)
+            {
+                disassembleIndexTable(codeBuf, ip, instruction);
+            }
+
             /** {@inheritDoc} */
             public void emmitCode(WAMInstruction instruction, ByteBuffer codeBuf, WAMMachine machine)
                 throws LinkageException
             {
-                int ip = codeBuf.position();
-
-                // Resolve any forward reference to the label for this instruction.
-                int label = machine.internFunctorName(instruction.label);
-                machine.resolveLabelPoint(label, ip);
-
-                // Intern the alternative forward labels, and write them out as zero initially, for later completion.
-                int jump = machine.internFunctorName(instruction.target1);
-                machine.reserveReferenceToLabel(jump, ip + 1);
-
-                jump = machine.internFunctorName(instruction.target2);
-                machine.reserveReferenceToLabel(jump, ip + 5);
-
-                codeBuf.put(code);
-                codeBuf.putInt(0);
+                emmitCodeIndexTable(codeBuf, code, instruction, machine);
             }
 
             /** {@inheritDoc} */
             public String toString(WAMInstruction instruction)
             {
-                return pretty + " " + labelToString(instruction.target1) + " / " + labelToString(instruction.target2);
+                return pretty + " " + indexTableToString(instruction);
             }
         },
 
         /** The third level indexing instruction for structures. */
         SwitchOnStruc(SWITCH_ON_STRUC, "switch_on_struc", 9, 0x0)
         {
+            /** {@inheritDoc} */
+            protected void disassembleArguments(WAMInstruction instruction, int ip, ByteBuffer codeBuf,
+                VariableAndFunctorInterner interner)
+            {
+                disassembleIndexTable(codeBuf, ip, instruction);
+            }
+
             /** {@inheritDoc} */
             public void emmitCode(WAMInstruction instruction, ByteBuffer codeBuf, WAMMachine machine)
                 throws LinkageException
             {
-                int ip = codeBuf.position();
-
-                // Resolve any forward reference to the label for this instruction.
-                int label = machine.internFunctorName(instruction.label);
-                machine.resolveLabelPoint(label, ip);
-
-                // Intern the alternative forward labels, and write them out as zero initially, for later completion.
-                int jump = machine.internFunctorName(instruction.target1);
-                machine.reserveReferenceToLabel(jump, ip + 1);
-
-                jump = machine.internFunctorName(instruction.target2);
-                machine.reserveReferenceToLabel(jump, ip + 5);
-
-                codeBuf.put(code);
-                codeBuf.putInt(0);
+                emmitCodeIndexTable(codeBuf, code, instruction, machine);
             }
 
             /** {@inheritDoc} */
             public String toString(WAMInstruction instruction)
             {
-                return pretty + " " + labelToString(instruction.target1) + " / " + labelToString(instruction.target2);
+                return pretty + " " + indexTableToString(instruction);
             }
         },
 
@@ -1141,8 +1316,7 @@ public class WAMInstruction implements Sizeable
                 int ip = codeBuf.position();
 
                 // Resolve any forward reference to the label for this instruction.
-                int label = machine.internFunctorName(instruction.label);
-                machine.resolveLabelPoint(label, ip);
+                resolveLabel(machine, instruction.label, ip);
 
                 codeBuf.put(code);
             }
@@ -1199,6 +1373,237 @@ public class WAMInstruction implements Sizeable
             }
         },
 
+        /** The demand driven indexing instruction, that selects clauses on bound non-first arguments. */
+        JitIndex(JIT_INDEX, "jit_index", 5, 0x8)
+        {
+            /** {@inheritDoc} */
+            protected void disassembleArguments(WAMInstruction instruction, int ip, ByteBuffer codeBuf,
+                VariableAndFunctorInterner interner)
+            {
+                disassembleFn(codeBuf, ip, instruction, interner);
+            }
+
+            /** {@inheritDoc} */
+            public void emmitCode(WAMInstruction instruction, ByteBuffer codeBuf, WAMMachine machine)
+            {
+                int ip = codeBuf.position();
+
+                // Resolve any forward reference to the label for this instruction.
+                resolveLabel(machine, instruction.label, ip);
+
+                emmitCodeFn(codeBuf, code, instruction, machine);
+            }
+
+            /** {@inheritDoc} */
+            public String toString(WAMInstruction instruction)
+            {
+                return toStringFn(pretty, instruction);
+            }
+        },
+
+        /** The instruction to compare or bind a register to an integer. */
+        GetInt(GET_INT, "get_int", 7, 0x23)
+        {
+            /** {@inheritDoc} */
+            protected void disassembleArguments(WAMInstruction instruction, int ip, ByteBuffer codeBuf,
+                VariableAndFunctorInterner interner)
+            {
+                disassembleReg1(codeBuf, ip, instruction);
+                instruction.literal = new IntLiteral(codeBuf.getInt(ip + 3));
+            }
+
+            /** {@inheritDoc} */
+            public void emmitCode(WAMInstruction instruction, ByteBuffer codeBuf, WAMMachine machine)
+            {
+                emmitCodeReg1(codeBuf, code, instruction);
+                codeBuf.putInt(instruction.literal.intValue());
+            }
+
+            /** {@inheritDoc} */
+            public String toString(WAMInstruction instruction)
+            {
+                return toStringReg1Literal(pretty, instruction);
+            }
+        },
+
+        /** The instruction to place an integer in a register. */
+        PutInt(PUT_INT, "put_int", 7, 0x23)
+        {
+            /** {@inheritDoc} */
+            protected void disassembleArguments(WAMInstruction instruction, int ip, ByteBuffer codeBuf,
+                VariableAndFunctorInterner interner)
+            {
+                disassembleReg1(codeBuf, ip, instruction);
+                instruction.literal = new IntLiteral(codeBuf.getInt(ip + 3));
+            }
+
+            /** {@inheritDoc} */
+            public void emmitCode(WAMInstruction instruction, ByteBuffer codeBuf, WAMMachine machine)
+            {
+                emmitCodeReg1(codeBuf, code, instruction);
+                codeBuf.putInt(instruction.literal.intValue());
+            }
+
+            /** {@inheritDoc} */
+            public String toString(WAMInstruction instruction)
+            {
+                return toStringReg1Literal(pretty, instruction);
+            }
+        },
+
+        /** The instruction to compare or bind a register to a float. */
+        GetFloat(GET_FLOAT, "get_float", 11, 0x23)
+        {
+            /** {@inheritDoc} */
+            protected void disassembleArguments(WAMInstruction instruction, int ip, ByteBuffer codeBuf,
+                VariableAndFunctorInterner interner)
+            {
+                disassembleReg1(codeBuf, ip, instruction);
+                instruction.literal = new DoubleLiteral(codeBuf.getDouble(ip + 3));
+            }
+
+            /** {@inheritDoc} */
+            public void emmitCode(WAMInstruction instruction, ByteBuffer codeBuf, WAMMachine machine)
+            {
+                emmitCodeReg1(codeBuf, code, instruction);
+                codeBuf.putDouble(instruction.literal.doubleValue());
+            }
+
+            /** {@inheritDoc} */
+            public String toString(WAMInstruction instruction)
+            {
+                return toStringReg1Literal(pretty, instruction);
+            }
+        },
+
+        /** The instruction to place a float in a register. */
+        PutFloat(PUT_FLOAT, "put_float", 11, 0x23)
+        {
+            /** {@inheritDoc} */
+            protected void disassembleArguments(WAMInstruction instruction, int ip, ByteBuffer codeBuf,
+                VariableAndFunctorInterner interner)
+            {
+                disassembleReg1(codeBuf, ip, instruction);
+                instruction.literal = new DoubleLiteral(codeBuf.getDouble(ip + 3));
+            }
+
+            /** {@inheritDoc} */
+            public void emmitCode(WAMInstruction instruction, ByteBuffer codeBuf, WAMMachine machine)
+            {
+                emmitCodeReg1(codeBuf, code, instruction);
+                codeBuf.putDouble(instruction.literal.doubleValue());
+            }
+
+            /** {@inheritDoc} */
+            public String toString(WAMInstruction instruction)
+            {
+                return toStringReg1Literal(pretty, instruction);
+            }
+        },
+
+        /** The instruction to evaluate the arithmetic expression in a register onto the arithmetic stack. */
+        ArithLoad(ARITH_LOAD, "arith_load", 3, 0x3),
+
+        /** The instruction to push an integer onto the arithmetic stack. */
+        ArithInt(ARITH_INT, "arith_int", 5, 0x20)
+        {
+            /** {@inheritDoc} */
+            protected void disassembleArguments(WAMInstruction instruction, int ip, ByteBuffer codeBuf,
+                VariableAndFunctorInterner interner)
+            {
+                instruction.literal = new IntLiteral(codeBuf.getInt(ip + 1));
+            }
+
+            /** {@inheritDoc} */
+            public void emmitCode(WAMInstruction instruction, ByteBuffer codeBuf, WAMMachine machine)
+            {
+                codeBuf.put(code);
+                codeBuf.putInt(instruction.literal.intValue());
+            }
+
+            /** {@inheritDoc} */
+            public String toString(WAMInstruction instruction)
+            {
+                return pretty + " " + literalToString(instruction.literal);
+            }
+        },
+
+        /** The instruction to push a float onto the arithmetic stack. */
+        ArithFloat(ARITH_FLOAT, "arith_float", 9, 0x20)
+        {
+            /** {@inheritDoc} */
+            protected void disassembleArguments(WAMInstruction instruction, int ip, ByteBuffer codeBuf,
+                VariableAndFunctorInterner interner)
+            {
+                instruction.literal = new DoubleLiteral(codeBuf.getDouble(ip + 1));
+            }
+
+            /** {@inheritDoc} */
+            public void emmitCode(WAMInstruction instruction, ByteBuffer codeBuf, WAMMachine machine)
+            {
+                codeBuf.put(code);
+                codeBuf.putDouble(instruction.literal.doubleValue());
+            }
+
+            /** {@inheritDoc} */
+            public String toString(WAMInstruction instruction)
+            {
+                return pretty + " " + literalToString(instruction.literal);
+            }
+        },
+
+        /** The instruction to apply an arithmetic operator to the top of the arithmetic stack. */
+        ArithOp(ARITH_OP, "arith_op", 2, 0x2)
+        {
+            /** {@inheritDoc} */
+            protected void disassembleArguments(WAMInstruction instruction, int ip, ByteBuffer codeBuf,
+                VariableAndFunctorInterner interner)
+            {
+                disassembleReg1NoMode(codeBuf, ip, instruction);
+            }
+
+            /** {@inheritDoc} */
+            public void emmitCode(WAMInstruction instruction, ByteBuffer codeBuf, WAMMachine machine)
+            {
+                emmitCodeReg1NoMode(codeBuf, code, instruction);
+            }
+
+            /** {@inheritDoc} */
+            public String toString(WAMInstruction instruction)
+            {
+                return pretty + " " + operatorNames.get(instruction.reg1);
+            }
+        },
+
+        /** The instruction to compare the top two numbers on the arithmetic stack. */
+        ArithCmp(ARITH_CMP, "arith_cmp", 2, 0x2)
+        {
+            /** {@inheritDoc} */
+            protected void disassembleArguments(WAMInstruction instruction, int ip, ByteBuffer codeBuf,
+                VariableAndFunctorInterner interner)
+            {
+                disassembleReg1NoMode(codeBuf, ip, instruction);
+            }
+
+            /** {@inheritDoc} */
+            public void emmitCode(WAMInstruction instruction, ByteBuffer codeBuf, WAMMachine machine)
+            {
+                emmitCodeReg1NoMode(codeBuf, code, instruction);
+            }
+
+            /** {@inheritDoc} */
+            public String toString(WAMInstruction instruction)
+            {
+                return pretty + " " + comparisonNames.get(instruction.reg1);
+            }
+        },
+
+        /** The instruction to place the number on top of the arithmetic stack in a fresh variable. */
+        ArithPut(ARITH_PUT, "arith_put", 3, 0x3),
+
+        /** The instruction to unify a register with the number on top of the arithmetic stack. */
+        ArithGet(ARITH_GET, "arith_get", 3, 0x3),
+
         /** The suspend on success instruction. */
         Suspend(SUSPEND, "suspend", 1, 0x0)
         {
@@ -1253,6 +1658,7 @@ public class WAMInstruction implements Sizeable
          * <tr><td>  2  <td> {@link WAMInstruction#reg2}
          * <tr><td>  3  <td> {@link WAMInstruction#fn}
          * <tr><td>  4  <td> {@link WAMInstruction#target1}
+         * <tr><td>  5  <td> {@link WAMInstruction#literal}
          * </table></pre>
          */
         protected int fieldMask;
@@ -1463,6 +1869,144 @@ public class WAMInstruction implements Sizeable
             codeBuf.putInt(arity | name);
         }
 
+        /**
+         * Writes out an indexing instruction followed by its hash table, in the byte code format. The instruction
+         * holds the address and size in bytes of the table, which follows on immediately after it. The table is keyed
+         * on the cell that a dereferenced first argument holds; a tagged constant cell for constants and small
+         * integers, or the functor cell of a structure or boxed number. The keys are computed by the compiler. The
+         * table values are the addresses to jump to, and are completed as the labels that they refer to are resolved.
+         *
+         * @param codeBuf     The code buffer to write to.
+         * @param code        The instruction mnemonic.
+         * @param instruction The instruction, including its arguments.
+         * @param machine     The binary machine to write the code into.
+         */
+        private static void emmitCodeIndexTable(ByteBuffer codeBuf, byte code, WAMInstruction instruction,
+            WAMMachine machine)
+        {
+            int ip = codeBuf.position();
+
+            // Resolve any forward reference to the label for this instruction.
+            resolveLabel(machine, instruction.label, ip);
+
+            int t = ip + 9;
+            int n = IntIntOpenLinearTable.sizeInBytes(instruction.indexTable.size());
+
+            codeBuf.put(code);
+            codeBuf.putInt(t);
+            codeBuf.putInt(n);
+
+            // Clear out the table area, as empty entries are marked with a zero key.
+            for (int i = 0; i < n; i++)
+            {
+                codeBuf.put((byte) 0);
+            }
+
+            // Insert the keys, recording against each one the position in the index of the label it jumps to.
+            CodeBufferTable table = new IntIntOpenLinearTable();
+            table.setup(codeBuf, t, n);
+
+            List<Pair<Integer, WAMLabel>> indexTable = instruction.indexTable;
+
+            for (int i = 0; i < indexTable.size(); i++)
+            {
+                table.put(indexTable.get(i).getFirst(), i + 1);
+            }
+
+            // Replace the positions in the table with the addresses of their labels, or forward references to them.
+            for (int addr = t; addr < (t + n); addr += 8)
+            {
+                if (codeBuf.getInt(addr) != 0)
+                {
+                    int i = codeBuf.getInt(addr + 4) - 1;
+
+                    codeBuf.putInt(addr + 4, referenceToLabel(machine, indexTable.get(i).getSecond(), addr + 4));
+                }
+            }
+        }
+
+        /**
+         * Disassembles the hash table of an indexing instruction. Only the keys are restored, as the jump addresses are
+         * not mapped back onto labels.
+         *
+         * @param codeBuf     The code buffer to disassemble from.
+         * @param ip          The instruction pointer within the code buffer.
+         * @param instruction The instruction to store the disassembles arguments in.
+         */
+        private static void disassembleIndexTable(ByteBuffer codeBuf, int ip, WAMInstruction instruction)
+        {
+            int t = codeBuf.getInt(ip + 1);
+            int n = codeBuf.getInt(ip + 5);
+
+            instruction.indexTable = new ArrayList<Pair<Integer, WAMLabel>>();
+
+            for (int addr = t; addr < (t + n); addr += 8)
+            {
+                int key = codeBuf.getInt(addr);
+
+                if (key != 0)
+                {
+                    instruction.indexTable.add(new Pair<Integer, WAMLabel>(key, null));
+                }
+            }
+        }
+
+        /**
+         * Resolves the label of an instruction to its address. Nothing is done for a missing label, or for a label
+         * local to its predicate, which is placed before its predicate is written out.
+         *
+         * @param machine The binary machine to write the code into.
+         * @param label   The label to resolve, may be <tt>null</tt>.
+         * @param ip      The address of the instruction.
+         */
+        private static void resolveLabel(WAMMachine machine, WAMLabel label, int ip)
+        {
+            if ((label != null) && !(label instanceof WAMLocalLabel))
+            {
+                machine.resolveLabelPoint(machine.internFunctorName(label), ip);
+            }
+        }
+
+        /**
+         * Provides the address to write out for a reference to a label. The address of a label local to its predicate
+         * is already known. Other labels are interned, and a forward reference to them is reserved, to be completed
+         * once their address is known. Nothing is reserved for a missing label.
+         *
+         * @param  machine The binary machine to write the code into.
+         * @param  label   The label to reference, may be <tt>null</tt>.
+         * @param  offset  The offset within the code buffer to complete with the labels address.
+         *
+         * @return The address of the label if it is local, or zero to be completed later.
+         */
+        private static int referenceToLabel(WAMMachine machine, WAMLabel label, int offset)
+        {
+            if (label instanceof WAMLocalLabel)
+            {
+                return ((WAMLocalLabel) label).getAddress();
+            }
+            else if (label != null)
+            {
+                machine.reserveReferenceToLabel(machine.internFunctorName(label), offset);
+            }
+
+            return 0;
+        }
+
+        /**
+         * Helper print function that prints a summary of an indexing table. The entries are not listed, as a table has
+         * one for every clause or constant that it indexes, which for a large predicate would be too many to print.
+         *
+         * @param  instruction The instruction data.
+         *
+         * @return A summary of the indexing table.
+         */
+        private static String indexTableToString(WAMInstruction instruction)
+        {
+            int size = (instruction.indexTable == null) ? 0 : instruction.indexTable.size();
+
+            return "[" + size + ((size == 1) ? " entry]" : " entries]");
+        }
+
         /**
          * Helper print function that prints an instruction with one register argument.
          *
@@ -1504,6 +2048,37 @@ public class WAMInstruction implements Sizeable
                 instruction.reg1;
         }
 
+        /**
+         * Helper print function that prints an instruction with one register argument and a number.
+         *
+         * @param  pretty      The pretty printed instruction mnenomic.
+         * @param  instruction The instruction data.
+         *
+         * @return A pretty printed instruction.
+         */
+        private static String toStringReg1Literal(String pretty, WAMInstruction instruction)
+        {
+            return pretty + " " + literalToString(instruction.literal) + ", " + reg1Name(instruction) +
+                instruction.reg1;
+        }
+
+        /**
+         * Helper print function that prints a number.
+         *
+         * @param  literal The number to print, may be <tt>null</tt>.
+         *
+         * @return The number as a string.
+         */
+        private static String literalToString(NumericType literal)
+        {
+            if (literal == null)
+            {
+                return "";
+            }
+
+            return literal.isInteger() ? Integer.toString(literal.intValue()) : Double.toString(literal.doubleValue());
+        }
+
         /**
          * Helper print function that prints an instruction with one functor reference.
          *
@@ -1632,6 +2207,9 @@ public class WAMInstruction implements Sizeable
     /** An optional list of entries for an indexing table. */
     protected List<Pair<Integer, WAMLabel>> indexTable;
 
+    /** Holds the number argument to the instruction. */
+    protected NumericType literal;
+
     /**
      * Creates an instruction for the specified mnemonic.
      *
@@ -1753,6 +2331,34 @@ public class WAMInstruction implements Sizeable
         this.reg1 = reg1;
     }
 
+    /**
+     * Creates an instruction for the specified mnemonic that takes one register and one number argument.
+     *
+     * @param mnemonic The instruction mnemonic.
+     * @param mode1    The addressing mode to use with the register argument.
+     * @param reg1     The register argument.
+     * @param literal  The number argument.
+     */
+    public WAMInstruction(WAMInstructionSet mnemonic, byte mode1, byte reg1, NumericType literal)
+    {
+        this.mnemonic = mnemonic;
+        this.mode1 = mode1;
+        this.reg1 = reg1;
+        this.literal = literal;
+    }
+
+    /**
+     * Creates an instruction for the specified mnemonic that takes a single number argument.
+     *
+     * @param mnemonic The instruction mnemonic.
+     * @param literal  The number argument.
+     */
+    public WAMInstruction(WAMInstructionSet mnemonic, NumericType literal)
+    {
+        this.mnemonic = mnemonic;
+        this.literal = literal;
+    }
+
     /**
      * Creates an instruction for the specified mnemonic that takes a single functor argument.
      *
@@ -1793,6 +2399,20 @@ public class WAMInstruction implements Sizeable
         this.target1 = fn;
     }
 
+    /**
+     * Creates a labelled instruction for the specified mnemonic that takes a single functor argument.
+     *
+     * @param label    The instructions address label.
+     * @param mnemonic The instruction mnemonic.
+     * @param fn       The functor argument.
+     */
+    public WAMInstruction(WAMLabel label, WAMInstructionSet mnemonic, FunctorName fn)
+    {
+        this.label = label;
+        this.mnemonic = mnemonic;
+        this.fn = fn;
+    }
+
     /**
      * Creates a labelled instruction for the specified mnemonic.
      *
@@ -1805,6 +2425,40 @@ public class WAMInstruction implements Sizeable
         this.mnemonic = mnemonic;
     }
 
+    /**
+     * Creates an instruction for the specified mnemonic that takes four target labels.
+     *
+     * @param mnemonic The instruction mnemonic.
+     * @param target1  The first target label.
+     * @param target2  The second target label.
+     * @param target3  The third target label.
+     * @param target4  The fourth target label.
+     */
+    public WAMInstruction(WAMInstructionSet mnemonic, WAMLabel target1, WAMLabel target2, WAMLabel target3,
+        WAMLabel target4)
+    {
+        this.mnemonic = mnemonic;
+        this.target1 = target1;
+        this.target2 = target2;
+        this.target3 = target3;
+        this.target4 = target4;
+    }
+
+    /**
+     * Creates a labelled instruction for the specified mnemonic that takes an indexing table, mapping the cells that a
+     * first argument may hold onto target labels.
+     *
+     * @param label      The instructions address label.
+     * @param mnemonic   The instruction mnemonic.
+     * @param indexTable The indexing table.
+     */
+    public WAMInstruction(WAMLabel label, WAMInstructionSet mnemonic, List<Pair<Integer, WAMLabel>> indexTable)
+    {
+        this.label = label;
+        this.mnemonic = mnemonic;
+        this.indexTable = indexTable;
+    }
+
     /**
      * Disassembles the instructions from the specified byte buffer, starting at a given location (ip). An interner for
      * the functor names encountered in the instruction buffer must also be supplied, in order to look up the functor
@@ -1847,7 +2501,7 @@ public class WAMInstruction implements Sizeable
 
             result.add(instruction);
 
-            ip += instruction.mnemonic.length();
+            ip += instruction.sizeof();
         }
 
         return result;
@@ -1943,6 +2597,16 @@ public class WAMInstruction implements Sizeable
         return fn;
     }
 
+    /**
+     * Gets the number argument, if any, to which the instruction applies.
+     *
+     * @return The number argument to which the instruction applies, or <tt>null <tt>if there is none.
+     */
+    public NumericType getLiteral()
+    {
+        return literal;
+    }
+
     /**
      * Provides the target label argument, if any, to which the instruction applies.
      *
@@ -1993,7 +2657,7 @@ public class WAMInstruction implements Sizeable
      */
     public long sizeof()
     {
-        return mnemonic.length();
+        return mnemonic.length() + ((indexTable != null) ? IntIntOpenLinearTable.sizeInBytes(indexTable.size()) : 0);
     }
 
     /**
@@ -2006,6 +2670,65 @@ public class WAMInstruction implements Sizeable
         return mnemonic.toString(this);
     }
 
+    /**
+     * Looks up the op-code of an arithmetic operator, to apply with arith_op.
+     *
+     * @param  name The name and arity of the operator.
+     *
+     * @return The op-code of the operator, or <tt>0</tt> if the name is not an arithmetic operator.
+     */
+    public static byte getArithmeticOperator(FunctorName name)
+    {
+        Byte op = arithmeticOperators.get(name);
+
+        return (op == null) ? 0 : op;
+    }
+
+    /**
+     * Looks up the op-code of an arithmetic comparison, to make with arith_cmp.
+     *
+     * @param  name The name and arity of the comparison.
+     *
+     * @return The op-code of the comparison, or <tt>0</tt> if the name is not an arithmetic comparison.
+     */
+    public static byte getArithmeticComparison(FunctorName name)
+    {
+        Byte op = arithmeticComparisons.get(name);
+
+        return (op == null) ? 0 : op;
+    }
+
+    /**
+     * Provides all of the arithmetic operators by name, so that machines can evaluate expressions built at run-time.
+     *
+     * @return The op-codes of the arithmetic operators, by name.
+     */
+    public static Map<FunctorName, Byte> getArithmeticOperators()
+    {
+        return Collections.unmodifiableMap(arithmeticOperators);
+    }
+
+    /**
+     * Adds an arithmetic operator or comparison to a table of them by name. The first name added for an op-code is the
+     * one that it is printed by.
+     *
+     * @param table The table of op-codes by name to add to.
+     * @param names The table of names by op-code to add to.
+     * @param name  The name of the operator.
+     * @param arity The arity of the operator.
+     * @param op    The op-code of the operator.
+     */
+    private static void addArithmetic(Map<FunctorName, Byte> table, Map<Byte, String> names, String name, int arity,
+        byte op)
+    {
+        table.put(new FunctorName(name, arity), op);
+
+        if (!names.containsKey(op))
+        {
+            names.put(op, name);
+        }
+    }
+
     /**
      * Pretty prints a label as a string.
      *
@@ -0,0 +1,77 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.compiler;
+
+import com.thesett.aima.logic.fol.FunctorName;
+
+/**
+ * WAMLocalLabel is a code label that is only referred to from within its own predicate, such as the labels of the
+ * indexing code. Local labels are numbered within their predicate, and are not interned or held in the machine's
+ * symbol table. The compiled predicate places them when it writes out its code, so that the references to them can be
+ * written straight out.
+ *
+ * <p/>A local label is referred to by the same label object wherever it is used, as its address is held on it.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Represent a code label local to a predicate.
+ * <tr><td> Hold the address of the label, once its code is placed. <td> {@link WAMCompiledPredicate}.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMLocalLabel extends WAMLabel
+{
+    /** Holds the address of the label, once the code it labels has been placed. */
+    private int address;
+
+    /**
+     * Creates a local label within a parent predicate.
+     *
+     * @param parent The name of the parent predicate.
+     * @param id     The id of the label, unique within the predicate.
+     */
+    public WAMLocalLabel(FunctorName parent, int id)
+    {
+        super(parent, id);
+    }
+
+    /**
+     * Provides the address of the label.
+     *
+     * @return The address of the label.
+     */
+    public int getAddress()
+    {
+        return address;
+    }
+
+    /**
+     * Sets the address of the label, as the code it labels is placed.
+     *
+     * @param address The address of the label.
+     */
+    public void setAddress(int address)
+    {
+        this.address = address;
+    }
+
+    /** {@inheritDoc} */
+    public String toPrettyString()
+    {
+        return (getName() + "/" + getArity() + "_i" + getId());
+    }
+}
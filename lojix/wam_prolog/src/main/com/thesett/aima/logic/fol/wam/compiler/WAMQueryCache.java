@@ -0,0 +1,258 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.compiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.thesett.aima.logic.fol.Clause;
+import com.thesett.aima.logic.fol.Functor;
+import com.thesett.aima.logic.fol.NumericType;
+import com.thesett.aima.logic.fol.RecursiveList;
+import com.thesett.aima.logic.fol.StringLiteral;
+import com.thesett.aima.logic.fol.Term;
+import com.thesett.aima.logic.fol.Variable;
+
+/**
+ * WAMQueryCache holds recently compiled queries, so that a query that is the same as one of them up to the naming of
+ * its variables does not need to be compiled again. The compiled query is shared, and only the mapping from its
+ * registers to the names of the variables to report in its results is renamed.
+ *
+ * <p/>Queries are looked up by their shape, which describes their structure with the variables numbered in order of
+ * first appearance. The least recently used queries are dropped, once the cache is full.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Work out the shape of a query, up to the naming of its variables.
+ * <tr><td> Find a compiled query by its shape, renamed to the variables of a new query. <td> {@link WAMCompiledQuery}.
+ * <tr><td> Drop the least recently used queries when full.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMQueryCache
+{
+    /** Holds the cached queries by the keys of their shapes, in order of use. */
+    private final Map<String, CachedQuery> cache;
+
+    /**
+     * Creates a query cache.
+     *
+     * @param capacity The maximum number of queries to hold.
+     */
+    public WAMQueryCache(final int capacity)
+    {
+        cache =
+            new LinkedHashMap<String, CachedQuery>(16, 0.75f, true)
+            {
+                protected boolean removeEldestEntry(Map.Entry<String, CachedQuery> eldest)
+                {
+                    return size() > capacity;
+                }
+            };
+    }
+
+    /**
+     * Works out the shape of a query.
+     *
+     * @param  query The query.
+     *
+     * @return The shape of the query, or <tt>null</tt> if it contains terms that its shape cannot describe, in which
+     *         case it is not cached.
+     */
+    public QueryShape shapeOf(Clause query)
+    {
+        QueryShape shape = new QueryShape();
+        StringBuilder key = new StringBuilder();
+        Map<Integer, Integer> seen = new HashMap<Integer, Integer>();
+
+        for (Functor goal : query.getBody())
+        {
+            if (!appendShape(goal, key, seen, shape.variables))
+            {
+                return null;
+            }
+
+            key.append(';');
+        }
+
+        shape.key = key.toString();
+
+        return shape;
+    }
+
+    /**
+     * Looks up a compiled query by its shape.
+     *
+     * @param  shape The shape of the new query.
+     *
+     * @return The compiled query, with its variables renamed to those of the new query, or <tt>null</tt> if no query
+     *         of the same shape is held.
+     */
+    public WAMCompiledQuery get(QueryShape shape)
+    {
+        CachedQuery cached = cache.get(shape.key);
+
+        if (cached == null)
+        {
+            return null;
+        }
+        else if (cached.variables.equals(shape.variables))
+        {
+            return cached.query;
+        }
+
+        Map<Integer, Integer> renaming = new HashMap<Integer, Integer>();
+
+        for (int i = 0; i < shape.variables.size(); i++)
+        {
+            renaming.put(cached.variables.get(i), shape.variables.get(i));
+        }
+
+        return cached.query.renameVariables(renaming);
+    }
+
+    /**
+     * Adds a compiled query to the cache.
+     *
+     * @param shape The shape of the query, worked out before it was compiled.
+     * @param query The compiled query.
+     */
+    public void put(QueryShape shape, WAMCompiledQuery query)
+    {
+        cache.put(shape.key, new CachedQuery(query, shape.variables));
+    }
+
+    /** Drops all of the cached queries. */
+    public void clear()
+    {
+        cache.clear();
+    }
+
+    /**
+     * Appends the shape of a term to the key of a query shape.
+     *
+     * @param  term      The term.
+     * @param  key       The key to append to.
+     * @param  seen      The variables seen so far, by name, with their numbers in order of appearance.
+     * @param  variables The names of the variables seen so far, in order of appearance.
+     *
+     * @return <tt>true</tt> if the shape of the term could be described.
+     */
+    private boolean appendShape(Term term, StringBuilder key, Map<Integer, Integer> seen, List<Integer> variables)
+    {
+        if (term instanceof Variable)
+        {
+            Variable var = (Variable) term;
+
+            if (var.isBound())
+            {
+                return false;
+            }
+
+            Integer number = seen.get(var.getName());
+
+            if (number == null)
+            {
+                number = variables.size();
+                seen.put(var.getName(), number);
+                variables.add(var.getName());
+            }
+
+            key.append(var.isAnonymous() ? '_' : 'V').append(number);
+        }
+        else if (term instanceof NumericType)
+        {
+            NumericType number = (NumericType) term;
+
+            if (number.isInteger())
+            {
+                key.append('i').append(number.longValue());
+            }
+            else
+            {
+                key.append('d').append(number.doubleValue());
+            }
+        }
+        else if (term instanceof StringLiteral)
+        {
+            String value = ((StringLiteral) term).stringValue();
+            key.append('s').append(value.length()).append(':').append(value);
+        }
+        else if (term instanceof Functor)
+        {
+            Functor functor = (Functor) term;
+            key.append((functor instanceof RecursiveList) ? 'L' : 'f').append(functor.getName()).append('(');
+
+            for (int i = 0; i < functor.getArity(); i++)
+            {
+                if (!appendShape(functor.getArgument(i), key, seen, variables))
+                {
+                    return false;
+                }
+
+                key.append(',');
+            }
+
+            key.append(')');
+        }
+        else
+        {
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * QueryShape describes the structure of a query, up to the naming of its variables.
+     */
+    public static class QueryShape
+    {
+        /** Holds the structure of the query, with its variables numbered in order of first appearance. */
+        private String key;
+
+        /** Holds the names of the variables of the query, in order of first appearance. */
+        private final List<Integer> variables = new ArrayList<Integer>();
+    }
+
+    /**
+     * CachedQuery holds a compiled query, together with the names of its variables in order of first appearance.
+     */
+    private static class CachedQuery
+    {
+        /** Holds the compiled query. */
+        final WAMCompiledQuery query;
+
+        /** Holds the names of the variables of the query, in order of first appearance. */
+        final List<Integer> variables;
+
+        /**
+         * Creates a cached query.
+         *
+         * @param query     The compiled query.
+         * @param variables The names of the variables of the query, in order of first appearance.
+         */
+        CachedQuery(WAMCompiledQuery query, List<Integer> variables)
+        {
+            this.query = query;
+            this.variables = variables;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.indexing;
+
+/**
+ * ArgumentIndex holds the indexes on the arguments of a predicate, other than the first, that are built on demand by a
+ * machine at run time. An index is built for an argument position the first time a call is made to the predicate with
+ * that argument bound and the first argument unbound. Each index maps the cell that the bound argument dereferences to,
+ * onto the address of the code to try the matching clauses, and holds a default address for keys that no clause
+ * matches on specifically.
+ *
+ * <p/>Argument positions that are not worth indexing on, because no clause has anything other than a variable there,
+ * are recorded as built but with no table, so that no further attempt is made to index on them.
+ *
+ * <p/>The code of the clause chains that an index jumps to is placed in the code area apart from the code of the
+ * predicate, so its position is recorded here too, in order that it can be freed along with the predicate.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Record which argument positions have been indexed.
+ * <tr><td> Look up the code address to jump to for a key in an argument position. <td> {@link CodeBufferTable}
+ * <tr><td> Record the code area segments holding the clause chains of the indexes.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class ArgumentIndex
+{
+    /** Holds the index tables by argument position. */
+    private final CodeBufferTable[] tables;
+
+    /** Holds the addresses to jump to on a key that is not in the table, by argument position. */
+    private final int[] defaults;
+
+    /** Records which argument positions an index has been built for. */
+    private final boolean[] built;
+
+    /** Holds the start addresses of the clause chain code of the indexes, by argument position. */
+    private final int[] codeStarts;
+
+    /** Holds the lengths of the clause chain code of the indexes, by argument position. */
+    private final int[] codeLengths;
+
+    /**
+     * Creates an empty set of indexes for a predicate.
+     *
+     * @param arity The arity of the predicate.
+     */
+    public ArgumentIndex(int arity)
+    {
+        tables = new CodeBufferTable[arity];
+        defaults = new int[arity];
+        built = new boolean[arity];
+        codeStarts = new int[arity];
+        codeLengths = new int[arity];
+    }
+
+    /**
+     * Provides the number of argument positions that may be indexed.
+     *
+     * @return The arity of the predicate.
+     */
+    public int getArity()
+    {
+        return built.length;
+    }
+
+    /**
+     * Checks if an index has been built for an argument position yet.
+     *
+     * @param  arg The argument position.
+     *
+     * @return <tt>true</tt> iff an index has been built, or the argument position was found not to be worth indexing.
+     */
+    public boolean isBuilt(int arg)
+    {
+        return built[arg];
+    }
+
+    /**
+     * Checks if an argument position is indexed.
+     *
+     * @param  arg The argument position.
+     *
+     * @return <tt>true</tt> iff the argument position is indexed.
+     */
+    public boolean isIndexed(int arg)
+    {
+        return tables[arg] != null;
+    }
+
+    /**
+     * Records the index for an argument position.
+     *
+     * @param arg          The argument position.
+     * @param table        The index table, or <tt>null</tt> if the argument position is not worth indexing on.
+     * @param defaultEntry The address to jump to when a key is not in the table, <tt>0</tt> meaning fail.
+     */
+    public void setIndex(int arg, CodeBufferTable table, int defaultEntry)
+    {
+        tables[arg] = table;
+        defaults[arg] = defaultEntry;
+        built[arg] = true;
+    }
+
+    /**
+     * Records the segment of the code area holding the clause chains of the index on an argument position.
+     *
+     * @param arg    The argument position.
+     * @param start  The start address of the clause chain code.
+     * @param length The length of the clause chain code.
+     */
+    public void setCode(int arg, int start, int length)
+    {
+        codeStarts[arg] = start;
+        codeLengths[arg] = length;
+    }
+
+    /**
+     * Provides the start address of the clause chain code of the index on an argument position.
+     *
+     * @param  arg The argument position.
+     *
+     * @return The start address of the clause chain code.
+     */
+    public int getCodeStart(int arg)
+    {
+        return codeStarts[arg];
+    }
+
+    /**
+     * Provides the length of the clause chain code of the index on an argument position.
+     *
+     * @param  arg The argument position.
+     *
+     * @return The length of the clause chain code, <tt>0</tt> if there is none.
+     */
+    public int getCodeLength(int arg)
+    {
+        return codeLengths[arg];
+    }
+
+    /**
+     * Looks up the address of the code to try the clauses that may match a key, in an indexed argument position.
+     *
+     * @param  arg The argument position.
+     * @param  key The key to look up.
+     *
+     * @return The address of the code to try the matching clauses, or <tt>0</tt> if no clauses can match.
+     */
+    public int get(int arg, int key)
+    {
+        int entry = tables[arg].get(key);
+
+        return (entry != 0) ? entry : defaults[arg];
+    }
+}
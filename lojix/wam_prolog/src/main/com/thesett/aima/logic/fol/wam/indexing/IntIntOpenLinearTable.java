@@ -41,6 +41,19 @@ public class IntIntOpenLinearTable implements CodeBufferTable
     /** The size of the table in number of entries (not bytes or integers). */
     private int size;
 
+    /**
+     * Calculates the size in bytes of a table to hold a given number of keys. The table is kept no more than two thirds
+     * full, so that probe sequences stay short.
+     *
+     * @param  keys The number of keys to be held in the table.
+     *
+     * @return The size in bytes of the table.
+     */
+    public static int sizeInBytes(int keys)
+    {
+        return (keys + (keys >> 1) + 1) << 3;
+    }
+
     /** {@inheritDoc} */
     public void setup(ByteBuffer buffer, int t, int n)
     {
@@ -52,10 +65,12 @@ public class IntIntOpenLinearTable implements CodeBufferTable
     /** {@inheritDoc} */
     public int get(int key)
     {
-        int addr = addr(hash(key));
+        int entry = hash(key) % size;
 
-        while (true)
+        // Probe at most once around the table, so that a lookup against a full table terminates.
+        for (int i = 0; i < size; i++)
         {
+            int addr = addr(entry + i);
             int tableKey = buffer.getInt(addr);
 
             if (key == tableKey)
@@ -67,35 +82,31 @@ public class IntIntOpenLinearTable implements CodeBufferTable
             {
                 return 0;
             }
-
-            addr += 8;
         }
+
+        return 0;
     }
 
     /** {@inheritDoc} */
     public void put(int key, int val)
     {
-        int addr = addr(hash(key));
+        int entry = hash(key) % size;
 
-        while (true)
+        for (int i = 0; i < size; i++)
         {
+            int addr = addr(entry + i);
             int tableKey = buffer.getInt(addr);
 
-            if (key == tableKey)
+            if ((key == tableKey) || (tableKey == 0))
             {
-                break;
-            }
+                buffer.putInt(addr, key);
+                buffer.putInt(addr + 4, val);
 
-            if (tableKey == 0)
-            {
-                break;
+                return;
             }
-
-            addr += 8;
         }
 
-        buffer.putInt(addr, key);
-        buffer.putInt(addr + 4, val);
+        throw new IllegalStateException("The table is full, no space to add the key " + key + ".");
     }
 
     /**
@@ -120,6 +131,7 @@ public class IntIntOpenLinearTable implements CodeBufferTable
      */
     private int hash(int key)
     {
-        return key;
+        // Keys may be tagged heap cells with the sign bit set, so mask them positive to keep the modulo in range.
+        return key & 0x7fffffff;
     }
 }
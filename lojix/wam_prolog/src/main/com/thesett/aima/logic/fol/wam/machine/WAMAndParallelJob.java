@@ -0,0 +1,240 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.thesett.aima.logic.fol.Clause;
+import com.thesett.aima.logic.fol.Functor;
+import com.thesett.aima.logic.fol.SentenceImpl;
+import com.thesett.aima.logic.fol.Term;
+import com.thesett.aima.logic.fol.Variable;
+import com.thesett.common.parsing.SourceCodeException;
+
+/**
+ * WAMAndParallelJob runs a goal of a conjunction, that is independent of the goals before it, on an engine taken from
+ * a pool, whilst the machine that started it goes on to run those goals. All of the solutions to the goal are found,
+ * and copied off the heap of the engine, so that the machine that started it can join them onto its own heap once it
+ * gets to the goal, and backtrack over them there. The engine is given back to the pool once the goal has no more
+ * solutions.
+ *
+ * <p/>A goal with a great many solutions is given up on, as is one that the machine that started it no longer wants.
+ * The machine that started it runs it itself, if it gets to it. A goal that raises an error is not run again; the error
+ * is handed over in place of the solutions, and raised by the machine that started it, if it gets to the goal.
+ *
+ * <p/>The goal is run within the limits of the query of the machine that started it, which stops once the goal goes
+ * over any of them, as the goal does once that machine does.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Find all of the solutions to a goal, on an engine of a pool. <td> {@link WAMEnginePool}.
+ * <tr><td> Hand the solutions over to the machine waiting for them. <td> {@link WAMTermCopy}.
+ * <tr><td> Hand any error raised by the goal over to the machine waiting for it.
+ * <tr><td> Give up on a goal.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+class WAMAndParallelJob implements Runnable
+{
+    /** The largest number of solutions that a goal may have, before it is given up on. */
+    static final int MAX_SOLUTIONS = 1024;
+
+    /** Holds the handle that the machine that started the job knows it by. */
+    final int handle;
+
+    /**
+     * Holds the top of the heap of the machine that started the job, when it was started. This is moved along with
+     * the heap when the machine collects garbage.
+     */
+    int heapMark;
+
+    /** Holds the goal to run. */
+    final WAMTermCopy goal;
+
+    /** Holds the budget of the query of the machine that started the job, or <tt>null</tt> if it has no limits. */
+    final WAMQueryBudget budget;
+
+    /** Flags when the job has been given up on, and so the engine running it should stop. */
+    volatile boolean cancelled;
+
+    /** Holds the pool that the engine was taken from. */
+    private final WAMEnginePool pool;
+
+    /** Holds the engine to run the goal on. */
+    private final WAMEngine engine;
+
+    /** Holds the solutions found so far. */
+    private final List<WAMTermCopy> solutions = new ArrayList<WAMTermCopy>();
+
+    /** Flags when the job has finished running. */
+    private boolean finished;
+
+    /** Flags when all of the solutions to the goal were found. */
+    private boolean complete;
+
+    /** Holds any error raised whilst running the goal. */
+    private RuntimeException error;
+
+    /**
+     * Creates a job to run a goal.
+     *
+     * @param handle   The handle that the machine starting the job knows it by.
+     * @param heapMark The top of the heap of the machine starting the job.
+     * @param goal     The goal to run.
+     * @param pool     The pool that the engine was taken from.
+     * @param engine   The engine to run the goal on.
+     * @param budget   The budget of the query of the machine starting the job, or <tt>null</tt> if it has no limits.
+     */
+    WAMAndParallelJob(int handle, int heapMark, WAMTermCopy goal, WAMEnginePool pool, WAMEngine engine,
+        WAMQueryBudget budget)
+    {
+        this.handle = handle;
+        this.heapMark = heapMark;
+        this.goal = goal;
+        this.budget = budget;
+        this.pool = pool;
+        this.engine = engine;
+    }
+
+    /** Finds all of the solutions to the goal, and gives the engine back to the pool. */
+    public void run()
+    {
+        WAMResolvingJavaMachine machine = (WAMResolvingJavaMachine) engine.getResolver();
+        boolean ok = false;
+
+        try
+        {
+            engine.compile(new SentenceImpl<Clause>(query(machine)));
+
+            machine.job = this;
+            machine.resolve();
+
+            ok = !cancelled && (solutions.size() <= MAX_SOLUTIONS);
+        }
+        catch (SourceCodeException e)
+        {
+            throw new IllegalStateException("The query to run goals in parallel did not compile.", e);
+        }
+        catch (RuntimeException e)
+        {
+            // Running the goal again would only raise the error again, so it is handed over instead.
+            error = e;
+        }
+        finally
+        {
+            machine.job = null;
+            pool.give(engine);
+            finish(ok);
+        }
+    }
+
+    /**
+     * Builds the query that engines run goals with, that takes the goal, and hands back each solution to it in turn:
+     *
+     * <pre>
+     * ?- '$par_goal'(G), call(G), '$par_solution'(G), fail.
+     * </pre>
+     *
+     * The query is built, rather than parsed, as the names of the internal predicates cannot be parsed. The compiler
+     * caches it, so it is only compiled once per engine.
+     *
+     * @param  machine The machine to intern the names of the query with.
+     *
+     * @return The query.
+     */
+    private Clause<Functor> query(WAMResolvingJavaMachine machine)
+    {
+        Variable g = new Variable(machine.internVariableName("G"), null, false);
+        Term[] args = new Term[] { g };
+
+        Functor[] body =
+            new Functor[]
+            {
+                new Functor(machine.internFunctorName("$par_goal", 1), args),
+                new Functor(machine.internFunctorName("call", 1), args.clone()),
+                new Functor(machine.internFunctorName("$par_solution", 1), args.clone()),
+                new Functor(machine.internFunctorName("fail", 0), null)
+            };
+
+        return new Clause<Functor>(null, body);
+    }
+
+    /**
+     * Adds a solution, found by the engine running the goal.
+     *
+     * @param  solution The goal, as instantiated by the solution.
+     *
+     * @return <tt>true</tt> to look for more solutions, <tt>false</tt> if there are too many to go on.
+     */
+    boolean add(WAMTermCopy solution)
+    {
+        solutions.add(solution);
+
+        return solutions.size() <= MAX_SOLUTIONS;
+    }
+
+    /**
+     * Waits for the job to finish running. Should the waiting thread be interrupted, the job is given up on.
+     *
+     * @return All of the solutions to the goal, or <tt>null</tt> if they were not all found.
+     *
+     * @throws RuntimeException The error raised by the goal, if it raised one.
+     */
+    synchronized List<WAMTermCopy> await()
+    {
+        while (!finished)
+        {
+            try
+            {
+                wait();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                cancelled = true;
+
+                return null;
+            }
+        }
+
+        if (error != null)
+        {
+            throw error;
+        }
+
+        return complete ? solutions : null;
+    }
+
+    /** Gives up on the job, so that the engine running it stops at its next call. */
+    void cancel()
+    {
+        cancelled = true;
+    }
+
+    /**
+     * Records that the job has finished running, and wakes up any thread waiting for it.
+     *
+     * @param ok <tt>true</tt> if all of the solutions to the goal were found.
+     */
+    private synchronized void finish(boolean ok)
+    {
+        complete = ok;
+        finished = true;
+        notifyAll();
+    }
+}
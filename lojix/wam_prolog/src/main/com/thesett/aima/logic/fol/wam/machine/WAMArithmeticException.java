@@ -0,0 +1,86 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import com.thesett.common.error.BaseRuntimeException;
+
+/**
+ * WAMArithmeticException is raised when an arithmetic expression evaluated on a WAM machine has no value, rather than
+ * failing or giving a wrong number. This is the case when a variable in the expression is unbound, when a term in it is
+ * not a number or an arithmetic operator, when an operator is given a number of the wrong type, and when the result
+ * cannot be held. Integers are held in 32 bits, so a result outside of that range is an overflow. The query is
+ * abandoned before this is raised, and the machine may be used to run other queries straight away. The error is named
+ * by one of the constants on this class, after the errors of ISO Prolog.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Represent the stopping of a query, due to an arithmetic expression having no value.
+ * <tr><td> Identify the error.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMArithmeticException extends BaseRuntimeException
+{
+    /** The serialization version of this class. */
+    private static final long serialVersionUID = 1L;
+
+    /** Names the error of evaluating an unbound variable. */
+    public static final String INSTANTIATION = "instantiation_error";
+
+    /** Names the error of evaluating a term that is not a number or an arithmetic operator. */
+    public static final String NOT_EVALUABLE = "type_error(evaluable)";
+
+    /** Names the error of giving a float to an operator that is defined on integers only. */
+    public static final String NOT_INTEGER = "type_error(integer)";
+
+    /** Names the error of dividing by zero. */
+    public static final String ZERO_DIVISOR = "evaluation_error(zero_divisor)";
+
+    /** Names the error of an integer result that is too large to be held. */
+    public static final String INT_OVERFLOW = "evaluation_error(int_overflow)";
+
+    /** Names the error of a float result that is too large to be held. */
+    public static final String FLOAT_OVERFLOW = "evaluation_error(float_overflow)";
+
+    /** Names the error of a float result that is not a number. */
+    public static final String UNDEFINED = "evaluation_error(undefined)";
+
+    /** Holds the name of the error. */
+    private final String error;
+
+    /**
+     * Creates an arithmetic exception for the named error.
+     *
+     * @param error The name of the error.
+     */
+    public WAMArithmeticException(String error)
+    {
+        super("Arithmetic error: " + error + ".", null);
+
+        this.error = error;
+    }
+
+    /**
+     * Provides the name of the error.
+     *
+     * @return The name of the error.
+     */
+    public String getError()
+    {
+        return error;
+    }
+}
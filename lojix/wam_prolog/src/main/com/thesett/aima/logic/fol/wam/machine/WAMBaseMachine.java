@@ -15,8 +15,8 @@
  */
 package com.thesett.aima.logic.fol.wam.machine;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import com.thesett.aima.logic.fol.LinkageException;
 import com.thesett.aima.logic.fol.VariableAndFunctorInternerImpl;
@@ -50,8 +50,8 @@ public abstract class WAMBaseMachine extends VariableAndFunctorInternerImpl impl
     /** Holds the symbol table. */
     protected SymbolTable<Integer, String, Object> symbolTable;
 
-    /** Holds the reverse symbol table to look up names by addresses. */
-    protected Map<Integer, Integer> reverseTable = new HashMap<Integer, Integer>();
+    /** Holds the reverse symbol table to look up names by addresses, in address order. */
+    protected SortedMap<Integer, Integer> reverseTable = new TreeMap<Integer, Integer>();
 
     /**
      * Creates the base machine, providing variable and functor symbol tables.
@@ -104,6 +104,16 @@ public abstract class WAMBaseMachine extends VariableAndFunctorInternerImpl impl
         return result;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p/>Calls are linked directly to the entry address of the code by default.
+     */
+    public int linkCall(WAMCallPoint callPoint)
+    {
+        return callPoint.entryPoint;
+    }
+
     /** {@inheritDoc} */
     public void reserveReferenceToLabel(int labelName, int offset)
     {
@@ -135,11 +145,15 @@ public abstract class WAMBaseMachine extends VariableAndFunctorInternerImpl impl
         label.entryPoint = address;
 
         // Fill in all references to the label with the correct value. This does nothing if the label was just created.
+        // The references are then forgotten, so that should the label be resolved again when its predicate is
+        // redefined, the code of the old definition is not patched, as that code may since have been freed.
         for (Integer offset : label.referenceList)
         {
             emmitCode(offset, label.entryPoint);
         }
 
+        label.referenceList.clear();
+
         // Keep a reverse lookup from address to label name.
         reverseTable.put(address, labelName);
     }
@@ -161,6 +175,17 @@ public abstract class WAMBaseMachine extends VariableAndFunctorInternerImpl impl
         reverseTable.clear();
     }
 
+    /**
+     * Forgets the names of any addresses within a range of the code area, once the code there has been freed.
+     *
+     * @param start The start of the range.
+     * @param end   The end of the range, one past its last address.
+     */
+    protected void forgetAddresses(int start, int end)
+    {
+        reverseTable.subMap(start, end).clear();
+    }
+
     /**
      * Records the offset of the start of the code for the named functor.
      *
@@ -0,0 +1,53 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+/**
+ * WAMBatchSink receives the results of a batch of calls run by {@link WAMResolvingMachine#runBatch}, as they are
+ * found. Each call of the batch is numbered by its position in the batch, from zero. The solutions to a call are passed
+ * on one at a time, on a cursor that is positioned on the solution, and the sink decides whether to look for more
+ * solutions to the same call, or to go on to the next one. A call with no solutions at all is passed on as a failure.
+ *
+ * <p/>The cursor is only positioned on a solution for as long as the sink is being told about it. Anything that is to
+ * be kept from it must be read or decoded off it before returning, and the cursor must not be moved on by the sink.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Accept the solutions to each call of a batch. <td> {@link WAMSolutionCursor}.
+ * <tr><td> Accept the calls of a batch that fail.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public interface WAMBatchSink
+{
+    /**
+     * Accepts a solution to a call of a batch.
+     *
+     * @param  item   The position of the call in the batch.
+     * @param  cursor A cursor positioned on the solution.
+     *
+     * @return <tt>true</tt> to look for more solutions to the same call, <tt>false</tt> to go on to the next call.
+     */
+    boolean solution(int item, WAMSolutionCursor cursor);
+
+    /**
+     * Accepts a call of a batch that has no solutions.
+     *
+     * @param item The position of the call in the batch.
+     */
+    void failed(int item);
+}
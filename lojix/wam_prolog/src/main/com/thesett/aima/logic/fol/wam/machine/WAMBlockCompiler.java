@@ -0,0 +1,666 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.GET_CONST;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.GET_LIST;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.GET_STRUC;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.GET_VAL;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.GET_VAR;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.PUT_CONST;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.PUT_LIST;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.PUT_STRUC;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.PUT_UNSAFE_VAL;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.PUT_VAL;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.PUT_VAR;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.SET_CONST;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.SET_LOCAL_VAL;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.SET_VAL;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.SET_VAR;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.SET_VOID;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.UNIFY_CONST;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.UNIFY_LOCAL_VAL;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.UNIFY_VAL;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.UNIFY_VAR;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.UNIFY_VOID;
+
+/**
+ * WAMBlockCompiler translates straight runs of decoded WAM instructions into Java classes, extending
+ * {@link WAMCompiledBlock}. Each instruction becomes a call onto the matching operation of the compiled block, with its
+ * arguments pushed as constants, followed by a test of the result for the instructions that can fail.
+ *
+ * <p/>The class files are written out directly, at version 49, which needs no stack map frames. This keeps the
+ * compiler free of any dependency on a byte code library, and the generated classes loadable on any JVM that the rest
+ * of the code runs on. The classes are defined in their own class loader, one per compiler, so that they can be
+ * unloaded along with the machine that they were compiled for.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Decide which instructions can be compiled.
+ * <tr><td> Compile a run of instructions into a Java class. <td> {@link WAMCompiledBlock}.
+ * <tr><td> Load compiled classes.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+final class WAMBlockCompiler
+{
+    /** The most instructions to put in one block. This keeps the branches within the generated method short. */
+    public static final int MAX_BLOCK_INSTRUCTIONS = 256;
+
+    /** The internal name of the base class of the compiled blocks. */
+    private static final String BLOCK_CLASS = "com/thesett/aima/logic/fol/wam/machine/WAMCompiledBlock";
+
+    /** The internal name prefix of the compiled block classes. */
+    private static final String CLASS_PREFIX = "com/thesett/aima/logic/fol/wam/machine/generated/Block";
+
+    /** The class file version to write. */
+    private static final int CLASS_VERSION = 49;
+
+    /** Access flags for the compiled classes; public, final and super. */
+    private static final int ACC_CLASS = 0x0031;
+
+    /** Access flags for the methods of the compiled classes; public. */
+    private static final int ACC_PUBLIC = 0x0001;
+
+    /** The iconst_0 op-code. */
+    private static final int ICONST_0 = 0x03;
+
+    /** The iconst_1 op-code. */
+    private static final int ICONST_1 = 0x04;
+
+    /** The bipush op-code. */
+    private static final int BIPUSH = 0x10;
+
+    /** The sipush op-code. */
+    private static final int SIPUSH = 0x11;
+
+    /** The ldc_w op-code. */
+    private static final int LDC_W = 0x13;
+
+    /** The aload_0 op-code. */
+    private static final int ALOAD_0 = 0x2a;
+
+    /** The ifeq op-code. */
+    private static final int IFEQ = 0x99;
+
+    /** The ireturn op-code. */
+    private static final int IRETURN = 0xac;
+
+    /** The return op-code. */
+    private static final int RETURN = 0xb1;
+
+    /** The invokevirtual op-code. */
+    private static final int INVOKEVIRTUAL = 0xb6;
+
+    /** The invokespecial op-code. */
+    private static final int INVOKESPECIAL = 0xb7;
+
+    /** The constant pool tag for UTF8 strings. */
+    private static final int CONSTANT_UTF8 = 1;
+
+    /** The constant pool tag for integers. */
+    private static final int CONSTANT_INTEGER = 3;
+
+    /** The constant pool tag for classes. */
+    private static final int CONSTANT_CLASS = 7;
+
+    /** The constant pool tag for method references. */
+    private static final int CONSTANT_METHODREF = 10;
+
+    /** The constant pool tag for names and types. */
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    /** Holds the class loader for the compiled classes. */
+    private final BlockClassLoader loader = new BlockClassLoader();
+
+    /** Holds the number of classes compiled so far, used to name them. */
+    private int classCount;
+
+    /** Holds the constant pool of the class being compiled. */
+    private ByteArrayOutputStream pool;
+
+    /** Holds the number of entries in the constant pool, plus one. */
+    private int poolCount;
+
+    /** Holds the indexes of the entries already in the constant pool. */
+    private Map<String, Integer> poolEntries;
+
+    /**
+     * Checks if an instruction can be compiled.
+     *
+     * @param  instruction The instruction op-code.
+     *
+     * @return <tt>true</tt> if the instruction can be compiled.
+     */
+    public static boolean isCompilable(int instruction)
+    {
+        switch (instruction)
+        {
+        case PUT_STRUC:
+        case SET_VAR:
+        case SET_VAL:
+        case SET_LOCAL_VAL:
+        case SET_CONST:
+        case SET_VOID:
+        case PUT_LIST:
+        case PUT_VAR:
+        case PUT_VAL:
+        case PUT_UNSAFE_VAL:
+        case PUT_CONST:
+        case GET_VAR:
+        case GET_VAL:
+        case GET_CONST:
+        case GET_STRUC:
+        case GET_LIST:
+        case UNIFY_VAR:
+        case UNIFY_VAL:
+        case UNIFY_LOCAL_VAL:
+        case UNIFY_CONST:
+        case UNIFY_VOID:
+            return true;
+
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Works out the most heap cells that a compilable instruction may create.
+     *
+     * @param  code The decoded code.
+     * @param  addr The address of the instruction.
+     *
+     * @return The most heap cells that the instruction may create.
+     */
+    public static int heapCells(int[] code, int addr)
+    {
+        int instruction = code[addr];
+
+        return ((instruction == SET_VOID) || (instruction == UNIFY_VOID)) ? code[addr + 1] : 2;
+    }
+
+    /**
+     * Compiles a run of decoded instructions into a compiled block.
+     *
+     * @param  code         The decoded code.
+     * @param  instructions The addresses of the instructions to compile, in order.
+     *
+     * @return A new instance of the compiled block.
+     */
+    public WAMCompiledBlock compile(int[] code, List<Integer> instructions)
+    {
+        String className = CLASS_PREFIX + (classCount++);
+
+        pool = new ByteArrayOutputStream();
+        poolCount = 1;
+        poolEntries = new HashMap<String, Integer>();
+
+        int thisClass = classEntry(className);
+        int superClass = classEntry(BLOCK_CLASS);
+        int codeName = utf8Entry("Code");
+
+        // Write the constructor, which just calls the super class constructor.
+        ByteArrayOutputStream init = new ByteArrayOutputStream();
+        init.write(ALOAD_0);
+        init.write(INVOKESPECIAL);
+        writeU2(init, methodEntry(BLOCK_CLASS, "<init>", "()V"));
+        init.write(RETURN);
+
+        // Write the execute method, calling the operation for each instruction in turn, and branching to return false
+        // as soon as one fails.
+        ByteArrayOutputStream execute = new ByteArrayOutputStream();
+        List<Integer> failBranches = new ArrayList<Integer>();
+
+        for (int addr : instructions)
+        {
+            if (compileInstruction(execute, code, addr))
+            {
+                failBranches.add(execute.size());
+                execute.write(IFEQ);
+                writeU2(execute, 0);
+            }
+        }
+
+        execute.write(ICONST_1);
+        execute.write(IRETURN);
+
+        int fail = execute.size();
+        execute.write(ICONST_0);
+        execute.write(IRETURN);
+
+        byte[] executeCode = execute.toByteArray();
+
+        for (int branch : failBranches)
+        {
+            int offset = fail - branch;
+            executeCode[branch + 1] = (byte) (offset >> 8);
+            executeCode[branch + 2] = (byte) offset;
+        }
+
+        int initName = utf8Entry("<init>");
+        int initType = utf8Entry("()V");
+        int executeName = utf8Entry("execute");
+        int executeType = utf8Entry("()Z");
+
+        // Put the class file together.
+        ByteArrayOutputStream classFile = new ByteArrayOutputStream();
+        writeU4(classFile, 0xCAFEBABE);
+        writeU2(classFile, 0);
+        writeU2(classFile, CLASS_VERSION);
+        writeU2(classFile, poolCount);
+        writeBytes(classFile, pool.toByteArray());
+        writeU2(classFile, ACC_CLASS);
+        writeU2(classFile, thisClass);
+        writeU2(classFile, superClass);
+        writeU2(classFile, 0);
+        writeU2(classFile, 0);
+        writeU2(classFile, 2);
+        writeMethod(classFile, initName, initType, codeName, 1, init.toByteArray());
+        writeMethod(classFile, executeName, executeType, codeName, 4, executeCode);
+        writeU2(classFile, 0);
+
+        pool = null;
+        poolEntries = null;
+
+        Class<?> blockClass = loader.define(className.replace('/', '.'), classFile.toByteArray());
+
+        // The block is created through its constructor, so that anything thrown by it is wrapped, rather than thrown
+        // on undeclared.
+        try
+        {
+            return (WAMCompiledBlock) blockClass.getDeclaredConstructor().newInstance();
+        }
+        catch (NoSuchMethodException e)
+        {
+            throw new IllegalStateException("The compiled block could not be created.", e);
+        }
+        catch (InstantiationException e)
+        {
+            throw new IllegalStateException("The compiled block could not be created.", e);
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new IllegalStateException("The compiled block could not be created.", e);
+        }
+        catch (InvocationTargetException e)
+        {
+            throw new IllegalStateException("The compiled block could not be created.", e.getCause());
+        }
+    }
+
+    /**
+     * Writes the code to run a single instruction.
+     *
+     * @param  out  The method code to write to.
+     * @param  code The decoded code.
+     * @param  addr The address of the instruction.
+     *
+     * @return <tt>true</tt> if the instruction can fail, in which case its result is left on the stack.
+     */
+    private boolean compileInstruction(ByteArrayOutputStream out, int[] code, int addr)
+    {
+        switch (code[addr])
+        {
+        case PUT_STRUC:
+            return invoke(out, "putStructure", "(III)V", code[addr + 1], code[addr + 2], code[addr + 3]);
+
+        case SET_VAR:
+            return invoke(out, "setVariable", "(II)V", code[addr + 1], code[addr + 2]);
+
+        case SET_VAL:
+            return invoke(out, "setValue", "(II)V", code[addr + 1], code[addr + 2]);
+
+        case SET_LOCAL_VAL:
+            return invoke(out, "setLocalValue", "(II)V", code[addr + 1], code[addr + 2]);
+
+        case SET_CONST:
+            return invoke(out, "setConstant", "(I)V", code[addr + 1]);
+
+        case SET_VOID:
+            return invoke(out, "setVoid", "(I)V", code[addr + 1]);
+
+        case PUT_LIST:
+            return invoke(out, "putList", "(II)V", code[addr + 1], code[addr + 2]);
+
+        case PUT_VAR:
+            return invoke(out, "putVariable", "(III)V", code[addr + 1], code[addr + 2], code[addr + 3]);
+
+        case PUT_VAL:
+            return invoke(out, "putValue", "(III)V", code[addr + 1], code[addr + 2], code[addr + 3]);
+
+        case PUT_UNSAFE_VAL:
+            return invoke(out, "putUnsafeValue", "(II)V", code[addr + 2], code[addr + 3]);
+
+        case PUT_CONST:
+            return invoke(out, "putConstant", "(III)V", code[addr + 1], code[addr + 2], code[addr + 3]);
+
+        case GET_VAR:
+            return invoke(out, "getVariable", "(III)V", code[addr + 1], code[addr + 2], code[addr + 3]);
+
+        case GET_VAL:
+            return invoke(out, "getValue", "(III)Z", code[addr + 1], code[addr + 2], code[addr + 3]);
+
+        case GET_CONST:
+            return invoke(out, "getConstant", "(III)Z", code[addr + 1], code[addr + 2], code[addr + 3]);
+
+        case GET_STRUC:
+            return invoke(out, "getStructure", "(III)Z", code[addr + 1], code[addr + 2], code[addr + 3]);
+
+        case GET_LIST:
+            return invoke(out, "getList", "(II)Z", code[addr + 1], code[addr + 2]);
+
+        case UNIFY_VAR:
+            return invoke(out, "unifyVariable", "(II)V", code[addr + 1], code[addr + 2]);
+
+        case UNIFY_VAL:
+            return invoke(out, "unifyValue", "(II)Z", code[addr + 1], code[addr + 2]);
+
+        case UNIFY_LOCAL_VAL:
+            return invoke(out, "unifyLocalValue", "(II)Z", code[addr + 1], code[addr + 2]);
+
+        case UNIFY_CONST:
+            return invoke(out, "unifyConstant", "(I)Z", code[addr + 1]);
+
+        case UNIFY_VOID:
+            return invoke(out, "unifyVoid", "(I)V", code[addr + 1]);
+
+        default:
+            throw new IllegalArgumentException("The instruction " + code[addr] + " cannot be compiled.");
+        }
+    }
+
+    /**
+     * Writes a call onto an operation of the compiled block, with constant arguments.
+     *
+     * @param  out        The method code to write to.
+     * @param  name       The name of the operation.
+     * @param  descriptor The type descriptor of the operation.
+     * @param  args       The arguments to the operation.
+     *
+     * @return <tt>true</tt> if the operation returns a result.
+     */
+    private boolean invoke(ByteArrayOutputStream out, String name, String descriptor, int... args)
+    {
+        out.write(ALOAD_0);
+
+        for (int arg : args)
+        {
+            pushInt(out, arg);
+        }
+
+        out.write(INVOKEVIRTUAL);
+        writeU2(out, methodEntry(BLOCK_CLASS, name, descriptor));
+
+        return descriptor.endsWith("Z");
+    }
+
+    /**
+     * Writes the shortest instruction to push an int constant.
+     *
+     * @param out   The method code to write to.
+     * @param value The constant.
+     */
+    private void pushInt(ByteArrayOutputStream out, int value)
+    {
+        if ((value >= -1) && (value <= 5))
+        {
+            out.write(ICONST_0 + value);
+        }
+        else if ((value >= Byte.MIN_VALUE) && (value <= Byte.MAX_VALUE))
+        {
+            out.write(BIPUSH);
+            out.write(value);
+        }
+        else if ((value >= Short.MIN_VALUE) && (value <= Short.MAX_VALUE))
+        {
+            out.write(SIPUSH);
+            writeU2(out, value);
+        }
+        else
+        {
+            out.write(LDC_W);
+            writeU2(out, integerEntry(value));
+        }
+    }
+
+    /**
+     * Writes a method with a code attribute.
+     *
+     * @param out        The class file to write to.
+     * @param name       The constant pool index of the method name.
+     * @param descriptor The constant pool index of the method type descriptor.
+     * @param codeName   The constant pool index of the name of the code attribute.
+     * @param maxStack   The maximum operand stack depth of the code.
+     * @param code       The method code.
+     */
+    private void writeMethod(ByteArrayOutputStream out, int name, int descriptor, int codeName, int maxStack,
+        byte[] code)
+    {
+        writeU2(out, ACC_PUBLIC);
+        writeU2(out, name);
+        writeU2(out, descriptor);
+        writeU2(out, 1);
+
+        writeU2(out, codeName);
+        writeU4(out, 12 + code.length);
+        writeU2(out, maxStack);
+        writeU2(out, 1);
+        writeU4(out, code.length);
+        writeBytes(out, code);
+        writeU2(out, 0);
+        writeU2(out, 0);
+    }
+
+    /**
+     * Finds or adds a UTF8 constant pool entry.
+     *
+     * @param  value The string.
+     *
+     * @return The constant pool index of the entry.
+     */
+    private int utf8Entry(String value)
+    {
+        Integer index = poolEntries.get("U" + value);
+
+        if (index == null)
+        {
+            byte[] bytes;
+
+            try
+            {
+                bytes = value.getBytes("UTF-8");
+            }
+            catch (UnsupportedEncodingException e)
+            {
+                throw new IllegalStateException("UTF-8 is always supported.", e);
+            }
+
+            pool.write(CONSTANT_UTF8);
+            writeU2(pool, bytes.length);
+            writeBytes(pool, bytes);
+
+            index = addEntry("U" + value);
+        }
+
+        return index;
+    }
+
+    /**
+     * Finds or adds an integer constant pool entry.
+     *
+     * @param  value The integer.
+     *
+     * @return The constant pool index of the entry.
+     */
+    private int integerEntry(int value)
+    {
+        Integer index = poolEntries.get("I" + value);
+
+        if (index == null)
+        {
+            pool.write(CONSTANT_INTEGER);
+            writeU4(pool, value);
+
+            index = addEntry("I" + value);
+        }
+
+        return index;
+    }
+
+    /**
+     * Finds or adds a class constant pool entry.
+     *
+     * @param  internalName The internal name of the class.
+     *
+     * @return The constant pool index of the entry.
+     */
+    private int classEntry(String internalName)
+    {
+        Integer index = poolEntries.get("C" + internalName);
+
+        if (index == null)
+        {
+            int name = utf8Entry(internalName);
+
+            pool.write(CONSTANT_CLASS);
+            writeU2(pool, name);
+
+            index = addEntry("C" + internalName);
+        }
+
+        return index;
+    }
+
+    /**
+     * Finds or adds a method reference constant pool entry.
+     *
+     * @param  owner      The internal name of the class declaring the method.
+     * @param  name       The name of the method.
+     * @param  descriptor The type descriptor of the method.
+     *
+     * @return The constant pool index of the entry.
+     */
+    private int methodEntry(String owner, String name, String descriptor)
+    {
+        String key = "M" + owner + "." + name + descriptor;
+        Integer index = poolEntries.get(key);
+
+        if (index == null)
+        {
+            int ownerClass = classEntry(owner);
+            int nameIndex = utf8Entry(name);
+            int descriptorIndex = utf8Entry(descriptor);
+
+            pool.write(CONSTANT_NAME_AND_TYPE);
+            writeU2(pool, nameIndex);
+            writeU2(pool, descriptorIndex);
+
+            int nameAndType = addEntry("N" + name + descriptor);
+
+            pool.write(CONSTANT_METHODREF);
+            writeU2(pool, ownerClass);
+            writeU2(pool, nameAndType);
+
+            index = addEntry(key);
+        }
+
+        return index;
+    }
+
+    /**
+     * Records the entry just written to the constant pool.
+     *
+     * @param  key The key to find the entry by.
+     *
+     * @return The constant pool index of the entry.
+     */
+    private int addEntry(String key)
+    {
+        int index = poolCount++;
+        poolEntries.put(key, index);
+
+        return index;
+    }
+
+    /**
+     * Writes an unsigned 16 bit value, big endian.
+     *
+     * @param out   The stream to write to.
+     * @param value The value.
+     */
+    private static void writeU2(ByteArrayOutputStream out, int value)
+    {
+        out.write(value >> 8);
+        out.write(value);
+    }
+
+    /**
+     * Writes a 32 bit value, big endian.
+     *
+     * @param out   The stream to write to.
+     * @param value The value.
+     */
+    private static void writeU4(ByteArrayOutputStream out, int value)
+    {
+        writeU2(out, value >>> 16);
+        writeU2(out, value);
+    }
+
+    /**
+     * Writes an array of bytes.
+     *
+     * @param out   The stream to write to.
+     * @param bytes The bytes.
+     */
+    private static void writeBytes(ByteArrayOutputStream out, byte[] bytes)
+    {
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * BlockClassLoader defines the compiled block classes, delegating all other classes to the loader of the machine.
+     */
+    private static class BlockClassLoader extends ClassLoader
+    {
+        /** Creates the class loader for compiled blocks. */
+        BlockClassLoader()
+        {
+            super(WAMCompiledBlock.class.getClassLoader());
+        }
+
+        /**
+         * Defines a compiled class.
+         *
+         * @param  name  The binary name of the class.
+         * @param  bytes The class file.
+         *
+         * @return The class.
+         */
+        Class<?> define(String name, byte[] bytes)
+        {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+/**
+ * WAMBranch holds a copy of the part of a machines heap and stack that a choice point needs, so that another machine
+ * running the same program can take over the remaining alternatives of the choice point. The copy is made with the
+ * bindings made since the choice point already undone, and with the choice point cut off from the ones before it, so
+ * the machine that takes it over only has to backtrack into it.
+ *
+ * <p/>Addresses in the copy are the same as in the machine it was taken from, so it can only be put back into a data
+ * area laid out in the same way, with memory areas of the same sizes.
+ *
+ * <p/>The branch carries the budget of the query it is part of, so that the machine taking it over is held to the
+ * limits of the query.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities
+ * <tr><td> Hold a branch of a search, split off from one machine, to be run on another.
+ * <tr><td> Record the layout of the data area that the branch was split off from.
+ * <tr><td> Carry the limits of the query that the branch is part of. <td> {@link WAMQueryBudget}.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+class WAMBranch
+{
+    /** Holds the heap size of the data area that the branch was split off from. */
+    final int heapSize;
+
+    /** Holds the stack size of the data area that the branch was split off from. */
+    final int stackSize;
+
+    /** Holds the trail size of the data area that the branch was split off from. */
+    final int trailSize;
+
+    /** Holds the unification stack size of the data area that the branch was split off from. */
+    final int pdlSize;
+
+    /** Holds the heap, from its base up to the heap pointer saved in the choice point. */
+    final int[] heap;
+
+    /** Holds the stack, from its base up to the end of the choice point. */
+    final int[] stack;
+
+    /** Holds the address of the choice point. */
+    final int choicePoint;
+
+    /** Holds the budget of the query that the branch is part of, or <tt>null</tt> if it has no limits. */
+    final WAMQueryBudget budget;
+
+    /**
+     * Creates a branch.
+     *
+     * @param heapSize    The heap size of the data area that the branch was split off from.
+     * @param stackSize   The stack size of the data area that the branch was split off from.
+     * @param trailSize   The trail size of the data area that the branch was split off from.
+     * @param pdlSize     The unification stack size of the data area that the branch was split off from.
+     * @param heap        The heap, up to the heap pointer saved in the choice point.
+     * @param stack       The stack, up to the end of the choice point.
+     * @param choicePoint The address of the choice point.
+     * @param budget      The budget of the query that the branch is part of, or <tt>null</tt> if it has no limits.
+     */
+    WAMBranch(int heapSize, int stackSize, int trailSize, int pdlSize, int[] heap, int[] stack, int choicePoint,
+        WAMQueryBudget budget)
+    {
+        this.heapSize = heapSize;
+        this.stackSize = stackSize;
+        this.trailSize = trailSize;
+        this.pdlSize = pdlSize;
+        this.heap = heap;
+        this.stack = stack;
+        this.choicePoint = choicePoint;
+        this.budget = budget;
+    }
+}
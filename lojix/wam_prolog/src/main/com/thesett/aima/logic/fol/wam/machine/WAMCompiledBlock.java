@@ -0,0 +1,324 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import com.thesett.aima.logic.fol.wam.compiler.WAMInstruction;
+
+/**
+ * WAMCompiledBlock is the base class of the Java classes that straight runs of WAM instructions in frequently called
+ * predicates are compiled into, by {@link WAMBlockCompiler}. A compiled block runs all of its instructions in one go,
+ * as a sequence of calls onto the operations defined here, with their arguments as constants. This lets the JVM compile
+ * the block as straight line code, specialized to its registers and functors.
+ *
+ * <p/>Compiled blocks are loaded by their own class loader, so are not in the same run-time package as the machine,
+ * and can only call the protected operations defined here. Only instructions that neither transfer control nor
+ * allocate stack frames are compiled; the machine goes on interpreting the rest.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Run a straight run of compiled WAM instructions. <td> {@link WAMResolvingJavaMachine}.
+ * <tr><td> Provide the data movement and unification instructions to compiled code.
+ * <tr><td> Record the position of the compiled instructions in the code area.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public abstract class WAMCompiledBlock
+{
+    /** Holds the address of the first instruction of the block. */
+    int start;
+
+    /** Holds the address of the instruction following the block. */
+    int end;
+
+    /** Holds the machine that the block runs on. */
+    private WAMResolvingJavaMachine machine;
+
+    /** Creates a compiled block. */
+    protected WAMCompiledBlock()
+    {
+    }
+
+    /**
+     * Runs all the instructions in the block.
+     *
+     * @return <tt>true</tt> if all the instructions ran, <tt>false</tt> if one of them failed.
+     */
+    public abstract boolean execute();
+
+    /**
+     * Sets up the block to run on a machine, at the place in its code that the block was compiled from.
+     *
+     * @param machine The machine to run on.
+     * @param start   The address of the first instruction of the block.
+     * @param end     The address of the instruction following the block.
+     */
+    void init(WAMResolvingJavaMachine machine, int start, int end)
+    {
+        this.machine = machine;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * put_struc Xi, f/n.
+     *
+     * @param mode The addressing mode of Xi.
+     * @param reg  The register or stack slot number of Xi.
+     * @param fn   The functor.
+     */
+    protected final void putStructure(int mode, int reg, int fn)
+    {
+        machine.putStructure(machine.slot(mode, reg), fn);
+    }
+
+    /**
+     * set_var Xi.
+     *
+     * @param mode The addressing mode of Xi.
+     * @param reg  The register or stack slot number of Xi.
+     */
+    protected final void setVariable(int mode, int reg)
+    {
+        machine.setVariable(machine.slot(mode, reg));
+    }
+
+    /**
+     * set_val Xi.
+     *
+     * @param mode The addressing mode of Xi.
+     * @param reg  The register or stack slot number of Xi.
+     */
+    protected final void setValue(int mode, int reg)
+    {
+        machine.setValue(machine.slot(mode, reg));
+    }
+
+    /**
+     * set_local_val Xi.
+     *
+     * @param mode The addressing mode of Xi.
+     * @param reg  The register or stack slot number of Xi.
+     */
+    protected final void setLocalValue(int mode, int reg)
+    {
+        machine.setLocalValue(machine.slot(mode, reg));
+    }
+
+    /**
+     * set_const c.
+     *
+     * @param fn The constant.
+     */
+    protected final void setConstant(int fn)
+    {
+        machine.setConstant(fn);
+    }
+
+    /**
+     * set_void n.
+     *
+     * @param n The number of variables.
+     */
+    protected final void setVoid(int n)
+    {
+        machine.setVoid(n);
+    }
+
+    /**
+     * put_list Xi.
+     *
+     * @param mode The addressing mode of Xi.
+     * @param reg  The register or stack slot number of Xi.
+     */
+    protected final void putList(int mode, int reg)
+    {
+        machine.putList(machine.slot(mode, reg));
+    }
+
+    /**
+     * put_var Xn, Ai.
+     *
+     * @param mode The addressing mode of Xn.
+     * @param reg  The register or stack slot number of Xn.
+     * @param ai   The argument register.
+     */
+    protected final void putVariable(int mode, int reg, int ai)
+    {
+        machine.putVariable(mode, machine.slot(mode, reg), ai);
+    }
+
+    /**
+     * put_val Xn, Ai.
+     *
+     * @param mode The addressing mode of Xn.
+     * @param reg  The register or stack slot number of Xn.
+     * @param ai   The argument register.
+     */
+    protected final void putValue(int mode, int reg, int ai)
+    {
+        machine.putValue(machine.slot(mode, reg), ai);
+    }
+
+    /**
+     * put_unsafe_val Yn, Ai.
+     *
+     * @param reg The stack slot number of Yn.
+     * @param ai  The argument register.
+     */
+    protected final void putUnsafeValue(int reg, int ai)
+    {
+        machine.putUnsafeValue(machine.slot(WAMInstruction.STACK_ADDR, reg), ai);
+    }
+
+    /**
+     * put_const Xi, c.
+     *
+     * @param mode The addressing mode of Xi.
+     * @param reg  The register or stack slot number of Xi.
+     * @param fn   The constant.
+     */
+    protected final void putConstant(int mode, int reg, int fn)
+    {
+        machine.putConstant(machine.slot(mode, reg), fn);
+    }
+
+    /**
+     * get_var Xn, Ai.
+     *
+     * @param mode The addressing mode of Xn.
+     * @param reg  The register or stack slot number of Xn.
+     * @param ai   The argument register.
+     */
+    protected final void getVariable(int mode, int reg, int ai)
+    {
+        machine.getVariable(machine.slot(mode, reg), ai);
+    }
+
+    /**
+     * get_val Xn, Ai.
+     *
+     * @param  mode The addressing mode of Xn.
+     * @param  reg  The register or stack slot number of Xn.
+     * @param  ai   The argument register.
+     *
+     * @return <tt>true</tt> if the instruction succeeds.
+     */
+    protected final boolean getValue(int mode, int reg, int ai)
+    {
+        return machine.getValue(machine.slot(mode, reg), ai);
+    }
+
+    /**
+     * get_const Xi, c.
+     *
+     * @param  mode The addressing mode of Xi.
+     * @param  reg  The register or stack slot number of Xi.
+     * @param  fn   The constant.
+     *
+     * @return <tt>true</tt> if the instruction succeeds.
+     */
+    protected final boolean getConstant(int mode, int reg, int fn)
+    {
+        return machine.getConstant(machine.slot(mode, reg), fn);
+    }
+
+    /**
+     * get_struc Xi, f/n.
+     *
+     * @param  mode The addressing mode of Xi.
+     * @param  reg  The register or stack slot number of Xi.
+     * @param  fn   The functor.
+     *
+     * @return <tt>true</tt> if the instruction succeeds.
+     */
+    protected final boolean getStructure(int mode, int reg, int fn)
+    {
+        return machine.getStructure(machine.slot(mode, reg), fn);
+    }
+
+    /**
+     * get_list Xi.
+     *
+     * @param  mode The addressing mode of Xi.
+     * @param  reg  The register or stack slot number of Xi.
+     *
+     * @return <tt>true</tt> if the instruction succeeds.
+     */
+    protected final boolean getList(int mode, int reg)
+    {
+        return machine.getList(machine.slot(mode, reg));
+    }
+
+    /**
+     * unify_var Xi.
+     *
+     * @param mode The addressing mode of Xi.
+     * @param reg  The register or stack slot number of Xi.
+     */
+    protected final void unifyVariable(int mode, int reg)
+    {
+        machine.unifyVariable(machine.slot(mode, reg));
+    }
+
+    /**
+     * unify_val Xi.
+     *
+     * @param  mode The addressing mode of Xi.
+     * @param  reg  The register or stack slot number of Xi.
+     *
+     * @return <tt>true</tt> if the instruction succeeds.
+     */
+    protected final boolean unifyValue(int mode, int reg)
+    {
+        return machine.unifyValue(machine.slot(mode, reg));
+    }
+
+    /**
+     * unify_local_val Xi.
+     *
+     * @param  mode The addressing mode of Xi.
+     * @param  reg  The register or stack slot number of Xi.
+     *
+     * @return <tt>true</tt> if the instruction succeeds.
+     */
+    protected final boolean unifyLocalValue(int mode, int reg)
+    {
+        return machine.unifyLocalValue(machine.slot(mode, reg));
+    }
+
+    /**
+     * unify_const c.
+     *
+     * @param  fn The constant.
+     *
+     * @return <tt>true</tt> if the instruction succeeds.
+     */
+    protected final boolean unifyConstant(int fn)
+    {
+        return machine.unifyConstant(fn);
+    }
+
+    /**
+     * unify_void n.
+     *
+     * @param n The number of variables.
+     */
+    protected final void unifyVoid(int n)
+    {
+        machine.unifyVoid(n);
+    }
+}
@@ -20,13 +20,16 @@ import com.thesett.aima.logic.fol.LogicCompiler;
 import com.thesett.aima.logic.fol.Parser;
 import com.thesett.aima.logic.fol.Resolver;
 import com.thesett.aima.logic.fol.Sentence;
+import com.thesett.aima.logic.fol.SentenceImpl;
 import com.thesett.aima.logic.fol.VariableAndFunctorInterner;
 import com.thesett.aima.logic.fol.interpreter.ResolutionEngine;
 import com.thesett.aima.logic.fol.isoprologparser.SentenceParser;
 import com.thesett.aima.logic.fol.isoprologparser.Token;
 import com.thesett.aima.logic.fol.isoprologparser.TokenSource;
+import com.thesett.aima.logic.fol.wam.builtins.AllSolutionsLibrary;
 import com.thesett.aima.logic.fol.wam.compiler.WAMCompiledPredicate;
 import com.thesett.aima.logic.fol.wam.compiler.WAMCompiledQuery;
+import com.thesett.aima.logic.fol.wam.compiler.WAMCompiler;
 import com.thesett.common.parsing.SourceCodeException;
 import com.thesett.common.util.Source;
 
@@ -37,6 +40,7 @@ import com.thesett.common.util.Source;
  * <pre><p/><table id="crc"><caption>CRC Card</caption>
  * <tr><th> Responsibilities <th> Collaborations
  * <tr><td> Load the Prolog built-in library from a resource on the classpath when the engine is reset.
+ * <tr><td> Load the all solutions predicates, when the engine is reset. <td> {@link AllSolutionsLibrary}.
  * </table></pre>
  *
  * @author Rupert Smith
@@ -64,13 +68,20 @@ public class WAMEngine extends ResolutionEngine<Clause, WAMCompiledPredicate, WA
     /**
      * {@inheritDoc}
      *
-     * <p/>Loads the built-in library resource specified by {@link #BUILT_IN_LIB}.
+     * <p/>Loads the built-in library resource specified by {@link #BUILT_IN_LIB}, followed by the all solutions
+     * predicates.
      */
     public void reset()
     {
         // Reset the resolver to completely clear out its domain.
         resolver.reset();
 
+        // Forget any queries compiled against the domain just cleared out.
+        if (compiler instanceof WAMCompiler)
+        {
+            ((WAMCompiler) compiler).reset();
+        }
+
         // Create a token source to load the model rules from.
         Source<Token> tokenSource =
             TokenSource.getTokenSourceForInputStream(WAMEngine.class.getClassLoader().getResourceAsStream(
@@ -95,6 +106,12 @@ public class WAMEngine extends ResolutionEngine<Clause, WAMCompiledPredicate, WA
                 compiler.compile(sentence);
             }
 
+            // The all solutions predicates are built on internal predicates that cannot be written in the library.
+            for (Clause clause : new AllSolutionsLibrary(interner).getClauses())
+            {
+                compiler.compile(new SentenceImpl<Clause>(clause));
+            }
+
             compiler.endScope();
         }
         catch (SourceCodeException e)
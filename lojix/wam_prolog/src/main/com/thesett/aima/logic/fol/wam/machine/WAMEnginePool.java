@@ -0,0 +1,198 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+import com.thesett.aima.logic.fol.Clause;
+import com.thesett.aima.logic.fol.LogicCompiler;
+import com.thesett.aima.logic.fol.Parser;
+import com.thesett.aima.logic.fol.isoprologparser.ClauseParser;
+import com.thesett.aima.logic.fol.isoprologparser.Token;
+import com.thesett.aima.logic.fol.wam.compiler.WAMCompiledPredicate;
+import com.thesett.aima.logic.fol.wam.compiler.WAMCompiledQuery;
+import com.thesett.aima.logic.fol.wam.compiler.WAMCompiler;
+import com.thesett.common.util.doublemaps.SymbolTable;
+import com.thesett.common.util.doublemaps.SymbolTableImpl;
+
+/**
+ * WAMEnginePool runs queries over one compiled program on many threads at once. The program is loaded into a machine
+ * as usual, and then shared with a fixed number of worker engines. The workers share the code of the program, and each
+ * has only its own heap, stack, trail and unification stack, and its own compiler for queries. An engine is taken from
+ * the pool by a thread, used to run queries for as long as it likes, and then given back.
+ *
+ * <p/>Once shared the program is frozen, and cannot be added to, so the engines of the pool must not be reset, nor
+ * have clauses added to them. Queries may still be run on the machine that the program was loaded into, although not
+ * by more than one thread at a time.
+ *
+ * <p/>The engines of a pool may also help each other out, by running the branches of an OR-parallel search on the
+ * threads of the pool, whilst they are not taken.
+ *
+ * <p/>A pool should be closed once finished with, to stop the threads that it runs searches and goals on. The engines
+ * of a closed pool can still be taken and run queries, but only one goal at a time, on the thread that took them.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Share a compiled program with a number of worker engines. <td> {@link WAMResolvingJavaMachine}.
+ * <tr><td> Hand out engines to threads, one at a time each.
+ * <tr><td> Run the threads of OR-parallel searches. <td> {@link WAMOrParallelSearch}.
+ * <tr><td> Stop its threads when closed.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMEnginePool
+{
+    /** The default size of the area of the code area that each worker writes its queries into. */
+    public static final int DEFAULT_QUERY_AREA_SIZE = 1 << 14;
+
+    /** Holds the engines that are free to be taken. */
+    private final BlockingQueue<WAMEngine> engines;
+
+    /** Holds the threads that OR-parallel searches are run on, created when first needed. */
+    private ExecutorService executor;
+
+    /** Indicates whether the pool has been closed. */
+    private volatile boolean closed;
+
+    /**
+     * Creates a pool of engines over the program in a machine, with query areas of the default size.
+     *
+     * @param program The machine holding the program to share.
+     * @param size    The number of engines in the pool.
+     */
+    public WAMEnginePool(WAMResolvingJavaMachine program, int size)
+    {
+        this(program, size, DEFAULT_QUERY_AREA_SIZE);
+    }
+
+    /**
+     * Creates a pool of engines over the program in a machine.
+     *
+     * @param  program       The machine holding the program to share.
+     * @param  size          The number of engines in the pool.
+     * @param  queryAreaSize The size of the area of the code area that each engine writes its queries into. This
+     *                       limits the size of the queries that the engines can run.
+     *
+     * @throws IllegalStateException If the program has already been shared.
+     * @throws WAMResourceException  If the code area cannot grow to hold the query areas of the engines.
+     */
+    public WAMEnginePool(WAMResolvingJavaMachine program, int size, int queryAreaSize)
+    {
+        engines = new LinkedBlockingQueue<WAMEngine>(size);
+
+        int queryArea = program.share(size * queryAreaSize);
+
+        for (int i = 0; i < size; i++)
+        {
+            SymbolTable<Integer, String, Object> symbolTable = new SymbolTableImpl<Integer, String, Object>();
+
+            WAMResolvingJavaMachine machine =
+                new WAMResolvingJavaMachine(program, this, symbolTable, queryArea + (i * queryAreaSize), queryAreaSize);
+
+            LogicCompiler<Clause, WAMCompiledPredicate, WAMCompiledQuery> compiler =
+                new WAMCompiler(symbolTable, machine);
+            Parser<Clause, Token> parser = new ClauseParser(machine);
+
+            engines.add(new WAMEngine(parser, machine, compiler, machine));
+        }
+    }
+
+    /**
+     * Takes an engine from the pool, waiting for one to be given back if none are free.
+     *
+     * @return An engine to run queries on.
+     *
+     * @throws InterruptedException If interrupted whilst waiting for an engine.
+     */
+    public WAMEngine take() throws InterruptedException
+    {
+        return engines.take();
+    }
+
+    /**
+     * Gives an engine back to the pool, once the thread that took it has finished running queries on it.
+     *
+     * @param engine The engine to give back.
+     */
+    public void give(WAMEngine engine)
+    {
+        engines.add(engine);
+    }
+
+    /**
+     * Closes the pool, stopping its threads once they have finished what they are running. Searches and goals that are
+     * still running are left to finish, but no more are started.
+     */
+    public synchronized void close()
+    {
+        closed = true;
+
+        if (executor != null)
+        {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * Takes an engine from the pool to help out another, if one is free. No engines are handed out in this way once the
+     * pool is closed, as it no longer has the threads to run them on.
+     *
+     * @return An engine, or <tt>null</tt> if none are free or the pool is closed.
+     */
+    WAMEngine poll()
+    {
+        return closed ? null : engines.poll();
+    }
+
+    /**
+     * Runs a thread of an OR-parallel search. The threads are daemons, so that a search that is never finished with
+     * does not keep the JVM running.
+     *
+     * @param  runnable The thread to run.
+     *
+     * @throws IllegalStateException If the pool has been closed.
+     */
+    synchronized void execute(Runnable runnable)
+    {
+        if (closed)
+        {
+            throw new IllegalStateException("The engine pool has been closed.");
+        }
+
+        if (executor == null)
+        {
+            executor =
+                Executors.newCachedThreadPool(new ThreadFactory()
+                    {
+                        public Thread newThread(Runnable r)
+                        {
+                            Thread thread = new Thread(r, "wam-or-parallel");
+                            thread.setDaemon(true);
+
+                            return thread;
+                        }
+                    });
+        }
+
+        executor.execute(runnable);
+    }
+}
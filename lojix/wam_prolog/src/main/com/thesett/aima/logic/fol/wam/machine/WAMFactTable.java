@@ -0,0 +1,418 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+import com.thesett.aima.logic.fol.VariableAndFunctorInterner;
+import com.thesett.aima.logic.fol.wam.compiler.WAMInstruction;
+
+/**
+ * WAMFactTable holds the rows of a predicate made up of ground facts, in columns outside of the Java heap, rather than
+ * as compiled code. Each value is held in one word, as the machine holds it in a constant cell; atoms by their interned
+ * names, and integers by their values. A table takes a few bytes per argument of each fact, where compiled code takes
+ * an instruction per argument along with the choice point instructions chaining the facts together.
+ *
+ * <p/>Hash indexes can be built on any of the columns, and are built when the table is added to a machine, after
+ * which no more rows can be added to it. A call to the predicate looks up the rows matching the first of its bound
+ * arguments that has an index, or scans all of the rows when there is none. Each index is a hash table of the first
+ * row holding each value in its column, and a column linking each row on to the next one holding the same value, so
+ * that the rows are always found in the order they were added.
+ *
+ * <p/>This is not to be confused with {@link WAMTable}, which holds the answers found to tabled calls.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Hold the rows of a predicate of facts, by column.
+ * <tr><td> Check that values can be held in constant cells. <td> {@link VariableAndFunctorInterner}.
+ * <tr><td> Build hash indexes on columns.
+ * <tr><td> Find the rows holding a value in an indexed column.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMFactTable
+{
+    /** The initial number of rows to make room for. */
+    private static final int INITIAL_ROWS = 1024;
+
+    /** The initial number of entries in an index hash table, which must be a power of two. */
+    private static final int INITIAL_INDEX_SIZE = 1024;
+
+    /** The interner to intern atoms with. */
+    private final VariableAndFunctorInterner interner;
+
+    /** The number of columns. */
+    private final int arity;
+
+    /** Flags which columns are to be indexed. */
+    private final boolean[] indexed;
+
+    /** Holds the values, column by column. */
+    private IntBuffer[] columns;
+
+    /** The number of rows. */
+    private int size;
+
+    /** The number of rows there is room for. */
+    private int capacity;
+
+    /** Flags when the indexes have been built, and no more rows can be added. */
+    private boolean built;
+
+    /** Holds the hash table of each indexed column, as pairs of a value and one more than the first row holding it. */
+    private IntBuffer[] heads;
+
+    /** Holds the number of bits in the hash of each indexed column. */
+    private int[] headBits;
+
+    /** Holds a column for each indexed column, linking each row to the next one with the same value, or to -1. */
+    private IntBuffer[] links;
+
+    /**
+     * Creates an empty fact table.
+     *
+     * @param interner       The interner to intern atoms with, which must be the machine the table is to be added to.
+     * @param arity          The number of columns in the table.
+     * @param indexedColumns The columns to build indexes on, from zero.
+     */
+    public WAMFactTable(VariableAndFunctorInterner interner, int arity, int... indexedColumns)
+    {
+        this.interner = interner;
+        this.arity = arity;
+
+        indexed = new boolean[arity];
+
+        for (int column : indexedColumns)
+        {
+            if ((column < 0) || (column >= arity))
+            {
+                throw new IllegalArgumentException("There is no column " + column + " to index in a table of arity " +
+                    arity + ".");
+            }
+
+            indexed[column] = true;
+        }
+
+        columns = new IntBuffer[arity];
+        capacity = INITIAL_ROWS;
+
+        for (int i = 0; i < arity; i++)
+        {
+            columns[i] = allocate(capacity);
+        }
+    }
+
+    /**
+     * Provides the number of columns in the table.
+     *
+     * @return The number of columns in the table.
+     */
+    public int getArity()
+    {
+        return arity;
+    }
+
+    /**
+     * Provides the number of rows in the table.
+     *
+     * @return The number of rows in the table.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Adds a row to the table. Atoms are given as strings, and integers as integers small enough to be held in a
+     * constant cell.
+     *
+     * @param  values The values in the row, one for each column.
+     *
+     * @throws IllegalArgumentException If there are the wrong number of values, or a value cannot be held in a
+     *                                  constant cell.
+     * @throws IllegalStateException    If the table has already been added to a machine.
+     */
+    public void addRow(Object... values)
+    {
+        if (built)
+        {
+            throw new IllegalStateException("Rows cannot be added to a table once it has been added to a machine.");
+        }
+
+        if (values.length != arity)
+        {
+            throw new IllegalArgumentException("A row of " + values.length + " values cannot be added to a table of " +
+                "arity " + arity + ".");
+        }
+
+        if (size == WAMResolvingJavaMachine.MAX_SMALL_INT)
+        {
+            throw new IllegalStateException("The table is full.");
+        }
+
+        // Convert all of the values before adding any, so that a row is added whole, or not at all.
+        int[] row = new int[arity];
+
+        for (int i = 0; i < arity; i++)
+        {
+            row[i] = toConstant(values[i]);
+        }
+
+        if (size == capacity)
+        {
+            capacity = (int) Math.min((long) capacity << 1, WAMResolvingJavaMachine.MAX_SMALL_INT);
+
+            for (int i = 0; i < arity; i++)
+            {
+                IntBuffer column = allocate(capacity);
+                columns[i].position(0).limit(size);
+                column.put(columns[i]);
+                columns[i] = column;
+            }
+        }
+
+        for (int i = 0; i < arity; i++)
+        {
+            columns[i].put(size, row[i]);
+        }
+
+        size++;
+    }
+
+    /**
+     * Provides a value in the table.
+     *
+     * @param  row    The row of the value.
+     * @param  column The column of the value.
+     *
+     * @return The value, as the value part of a constant cell.
+     */
+    int get(int row, int column)
+    {
+        return columns[column].get(row);
+    }
+
+    /**
+     * Checks if a column is indexed.
+     *
+     * @param  column The column to check.
+     *
+     * @return <tt>true</tt> if the column is indexed.
+     */
+    boolean isIndexed(int column)
+    {
+        return indexed[column];
+    }
+
+    /**
+     * Finds the first row holding a value in an indexed column.
+     *
+     * @param  column The column to look in.
+     * @param  value  The value to look for, as the value part of a constant cell.
+     *
+     * @return The first row holding the value, or -1 if there is none.
+     */
+    int first(int column, int value)
+    {
+        IntBuffer head = heads[column];
+        int mask = (1 << headBits[column]) - 1;
+
+        for (int slot = hash(value, headBits[column]);; slot = (slot + 1) & mask)
+        {
+            int row = head.get((slot << 1) + 1);
+
+            if (row == 0)
+            {
+                return -1;
+            }
+            else if (head.get(slot << 1) == value)
+            {
+                return row - 1;
+            }
+        }
+    }
+
+    /**
+     * Finds the next row holding the same value as a row in an indexed column.
+     *
+     * @param  column The column to look in.
+     * @param  row    The row to look on from.
+     *
+     * @return The next row holding the same value, or -1 if there is none.
+     */
+    int next(int column, int row)
+    {
+        return links[column].get(row);
+    }
+
+    /**
+     * Builds the indexes on the table. Once they are built, no more rows can be added. The rows are linked in from the
+     * last to the first, so that each value leads to the first row holding it, and the rows holding it are linked in
+     * order.
+     */
+    void buildIndexes()
+    {
+        if (built)
+        {
+            return;
+        }
+
+        built = true;
+        heads = new IntBuffer[arity];
+        headBits = new int[arity];
+        links = new IntBuffer[arity];
+
+        for (int column = 0; column < arity; column++)
+        {
+            if (!indexed[column])
+            {
+                continue;
+            }
+
+            int bits = Integer.numberOfTrailingZeros(INITIAL_INDEX_SIZE);
+            IntBuffer head = allocate(2 << bits);
+            IntBuffer link = allocate(Math.max(size, 1));
+            int keys = 0;
+
+            for (int row = size - 1; row >= 0; row--)
+            {
+                // Keep the hash table no more than half full.
+                if ((keys << 1) >= (1 << bits))
+                {
+                    head = rehash(head, bits, ++bits);
+                }
+
+                int value = columns[column].get(row);
+                int mask = (1 << bits) - 1;
+                int slot = hash(value, bits);
+
+                while ((head.get((slot << 1) + 1) != 0) && (head.get(slot << 1) != value))
+                {
+                    slot = (slot + 1) & mask;
+                }
+
+                int next = head.get((slot << 1) + 1) - 1;
+
+                if (next < 0)
+                {
+                    keys++;
+                }
+
+                link.put(row, next);
+                head.put(slot << 1, value);
+                head.put((slot << 1) + 1, row + 1);
+            }
+
+            heads[column] = head;
+            headBits[column] = bits;
+            links[column] = link;
+        }
+    }
+
+    /**
+     * Converts a value into the value part of the constant cell that holds it in the machine.
+     *
+     * @param  value The value to convert.
+     *
+     * @return The value part of its constant cell.
+     *
+     * @throws IllegalArgumentException If the value cannot be held in a constant cell.
+     */
+    private int toConstant(Object value)
+    {
+        if (value instanceof String)
+        {
+            return interner.internFunctorName((String) value, 0) & 0x00ffffff;
+        }
+        else if ((value instanceof Integer) || (value instanceof Short) || (value instanceof Byte) ||
+                (value instanceof Long))
+        {
+            long n = ((Number) value).longValue();
+
+            if ((n >= WAMResolvingJavaMachine.MIN_SMALL_INT) && (n <= WAMResolvingJavaMachine.MAX_SMALL_INT))
+            {
+                return WAMInstruction.SMALL_INT | ((int) n & WAMInstruction.SMALL_INT_MASK);
+            }
+        }
+
+        throw new IllegalArgumentException("The value " + value + " is not an atom, or an integer from " +
+            WAMResolvingJavaMachine.MIN_SMALL_INT + " to " + WAMResolvingJavaMachine.MAX_SMALL_INT + ".");
+    }
+
+    /**
+     * Moves the entries of an index hash table into a larger one.
+     *
+     * @param  head    The hash table.
+     * @param  bits    The number of bits in the hash of the table.
+     * @param  newBits The number of bits in the hash of the larger table.
+     *
+     * @return The larger hash table.
+     */
+    private static IntBuffer rehash(IntBuffer head, int bits, int newBits)
+    {
+        IntBuffer larger = allocate(2 << newBits);
+        int mask = (1 << newBits) - 1;
+
+        for (int slot = 0; slot < (1 << bits); slot++)
+        {
+            int row = head.get((slot << 1) + 1);
+
+            if (row != 0)
+            {
+                int value = head.get(slot << 1);
+                int newSlot = hash(value, newBits);
+
+                while (larger.get((newSlot << 1) + 1) != 0)
+                {
+                    newSlot = (newSlot + 1) & mask;
+                }
+
+                larger.put(newSlot << 1, value);
+                larger.put((newSlot << 1) + 1, row);
+            }
+        }
+
+        return larger;
+    }
+
+    /**
+     * Hashes a value into a slot of an index hash table.
+     *
+     * @param  value The value to hash.
+     * @param  bits  The number of bits in the hash.
+     *
+     * @return The slot to start looking for the value at.
+     */
+    private static int hash(int value, int bits)
+    {
+        return (value * 0x9e3779b9) >>> (32 - bits);
+    }
+
+    /**
+     * Allocates a column of words outside of the Java heap.
+     *
+     * @param  words The number of words in the column.
+     *
+     * @return The column, initially all zeros.
+     */
+    private static IntBuffer allocate(int words)
+    {
+        return ByteBuffer.allocateDirect(words << 2).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+}
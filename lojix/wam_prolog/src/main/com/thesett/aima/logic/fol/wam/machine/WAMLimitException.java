@@ -0,0 +1,80 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import com.thesett.common.error.BaseRuntimeException;
+
+/**
+ * WAMLimitException is raised when a query running on a WAM machine goes over one of the limits set on it by
+ * {@link WAMQueryLimits}. Unlike a {@link WAMResourceException}, this does not mean that the machine has run out of
+ * memory, only that the query has used more than it was allowed to. The query is abandoned before this is raised, and
+ * the machine may be used to run other queries straight away. The limit that was gone over is named by one of the
+ * constants on this class.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Represent the stopping of a query, due to it going over one of its limits.
+ * <tr><td> Identify the limit that was gone over.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMLimitException extends BaseRuntimeException
+{
+    /** The serialization version of this class. */
+    private static final long serialVersionUID = 1L;
+
+    /** Names the limit on the number of inferences. */
+    public static final String INFERENCES = "inferences";
+
+    /** Names the limit on the heap. */
+    public static final String HEAP = "heap";
+
+    /** Names the limit on the stack. */
+    public static final String STACK = "stack";
+
+    /** Names the limit on the trail. */
+    public static final String TRAIL = "trail";
+
+    /** Names the limit on the running time, in milliseconds. */
+    public static final String TIME = "time";
+
+    /** Holds the name of the limit that was gone over. */
+    private final String limit;
+
+    /**
+     * Creates a limit exception for the named limit.
+     *
+     * @param limit The name of the limit that was gone over.
+     * @param value The value of the limit.
+     */
+    public WAMLimitException(String limit, long value)
+    {
+        super("The query has gone over its " + limit + " limit of " + value + ".", null);
+
+        this.limit = limit;
+    }
+
+    /**
+     * Provides the name of the limit that was gone over.
+     *
+     * @return The name of the limit that was gone over.
+     */
+    public String getLimit()
+    {
+        return limit;
+    }
+}
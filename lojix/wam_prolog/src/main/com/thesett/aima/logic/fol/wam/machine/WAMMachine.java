@@ -47,6 +47,17 @@ public interface WAMMachine extends VariableAndFunctorInterner
      */
     WAMCallPoint resolveCallPoint(int functorName);
 
+    /**
+     * Provides the operand to write into a call instruction, in order to call the code at a call point. This is the
+     * entry address of the code, unless the machine calls through a procedure table, in which case calls are linked by
+     * the name of the functor, and find its current code as they are made.
+     *
+     * @param  callPoint The call point to call.
+     *
+     * @return The operand to write into the call instruction.
+     */
+    int linkCall(WAMCallPoint callPoint);
+
     /**
      * Reserves a forward address referencing a label id, within the current predicate. The forward address will be
      * filled in once the label to which it refers is known. This is done using the {@link #resolveLabelPoint} method.
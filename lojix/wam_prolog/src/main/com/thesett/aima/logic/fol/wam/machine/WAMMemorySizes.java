@@ -0,0 +1,63 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+/**
+ * WAMMemorySizes holds the sizes of the memory areas of a WAM machine. Each area starts out at its initial size, and is
+ * grown on demand up to its maximum size. The data areas are sized in cells, and the code area in bytes.
+ *
+ * <p/>The defaults keep a new machine small, so that many machines can be created cheaply, whilst allowing any one of
+ * them to grow large enough for heavy queries.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Specify the initial and maximum sizes of the memory areas of a WAM machine.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMMemorySizes
+{
+    /** The initial size of the heap. */
+    public int heapSize = 1 << 16;
+
+    /** The maximum size of the heap. */
+    public int maxHeapSize = 1 << 26;
+
+    /** The initial size of the stack. */
+    public int stackSize = 1 << 14;
+
+    /** The maximum size of the stack. */
+    public int maxStackSize = 1 << 24;
+
+    /** The initial size of the trail. */
+    public int trailSize = 1 << 12;
+
+    /** The maximum size of the trail. */
+    public int maxTrailSize = 1 << 24;
+
+    /** The initial size of the unification stack. */
+    public int pdlSize = 1 << 10;
+
+    /** The maximum size of the unification stack. */
+    public int maxPdlSize = 1 << 20;
+
+    /** The initial size of the code area. */
+    public int codeSize = 1 << 16;
+
+    /** The maximum size of the code area. */
+    public int maxCodeSize = 1 << 26;
+}
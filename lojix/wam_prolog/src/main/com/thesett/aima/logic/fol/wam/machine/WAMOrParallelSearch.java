@@ -0,0 +1,564 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import java.util.LinkedList;
+import java.util.Set;
+
+import com.thesett.aima.logic.fol.Variable;
+import com.thesett.aima.logic.fol.wam.compiler.WAMCompiledQuery;
+import com.thesett.common.util.SequenceIterator;
+
+/**
+ * WAMOrParallelSearch runs a query OR-parallel, over the machine it was set on and the idle engines of the pool that
+ * the machine is a worker of. Each machine runs a task; a branch of the search tree. The machine the query was set on
+ * runs the whole tree as its task, and the engines of the pool start idle. Work is stolen on demand: whilst any engine
+ * is idle, running machines are asked to give work away, which they do at their next call by splitting off the
+ * alternatives of their oldest choice point, nearest the root of the search tree, that can be run apart from them. The
+ * split off branch is queued as a new task for an idle engine to take. An engine that finishes its task goes back to
+ * being idle, until the search is over.
+ *
+ * <p/>Solutions are handed over to the thread iterating over them, either in the order that they are found, or in the
+ * order that a sequential search would find them. To keep the order, each task writes its solutions to a segment of
+ * its own. Where a task gave away a branch, the segment of the branch is put into its own, at the point where it would
+ * have backtracked into the branch had it run it itself. The solutions are read by walking the tree of segments in
+ * order. Tasks only run so far ahead of the reader, before waiting for it to catch up.
+ *
+ * <p/>A search is cancelled when the query on its machine is replaced or abandoned, which waits for all of its tasks to
+ * stop, and gives the engines back to the pool.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Run a query over a number of machines, on a thread each. <td> {@link WAMEnginePool}.
+ * <tr><td> Hand out branches of the search to idle machines. <td> {@link WAMResolvingJavaMachine}, {@link WAMBranch}.
+ * <tr><td> Merge the solutions found by all machines, in order or as found.
+ * <tr><td> Cancel the search, and wait for it to stop.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMOrParallelSearch extends SequenceIterator<Set<Variable>>
+{
+    /** The number of calls between attempts by a running machine to give work away, whilst work is wanted. */
+    private static final int SHARE_INTERVAL = 32;
+
+    /** The number of unread solutions that a task may write, before it waits for them to be read. */
+    private static final int MAX_UNREAD = 256;
+
+    /** Flags when running machines should stop, or give work away, and so should call in at their next call. */
+    volatile boolean signalled;
+
+    /** Flags when the search has been cancelled. */
+    private volatile boolean cancelled;
+
+    /** Holds the pool that the idle engines are taken from. */
+    private final WAMEnginePool pool;
+
+    /** Holds the query being run. */
+    private final WAMCompiledQuery query;
+
+    /** Holds the start of the code of the query. */
+    private final int queryStart;
+
+    /** Holds the end of the code of the query. */
+    private final int queryEnd;
+
+    /** Flags when the query contains a cut. */
+    private final boolean queryCut;
+
+    /** Flags when solutions are to be read in the order that a sequential search would find them. */
+    private final boolean ordered;
+
+    /** Holds the segment of the task that runs the whole search tree. */
+    private final Segment root;
+
+    /** Holds the segments being read, the innermost first. */
+    private final LinkedList<Segment> reading = new LinkedList<Segment>();
+
+    /** Holds the branches waiting for an idle machine to take them. */
+    private final LinkedList<Task> work = new LinkedList<Task>();
+
+    /** Holds the number of machines waiting for work. */
+    private int idle;
+
+    /** Holds the number of tasks running or waiting to run. */
+    private int running;
+
+    /** Holds the number of threads of the search that have not stopped yet. */
+    private int threads;
+
+    /** Holds the first error raised by any of the tasks, to be raised to the reader. */
+    private RuntimeException error;
+
+    /**
+     * Starts an OR-parallel search.
+     *
+     * @param pool       The pool to take idle engines from.
+     * @param machine    The machine to run the whole search tree on.
+     * @param query      The query to run, which must be the current query of the machine.
+     * @param queryStart The start of the code of the query.
+     * @param queryEnd   The end of the code of the query.
+     * @param queryCut   <tt>true</tt> if the query contains a cut.
+     * @param ordered    <tt>true</tt> to read the solutions in the order a sequential search would find them,
+     *                   <tt>false</tt> to read them in the order they are found in.
+     */
+    WAMOrParallelSearch(WAMEnginePool pool, WAMResolvingJavaMachine machine, WAMCompiledQuery query, int queryStart,
+        int queryEnd, boolean queryCut, boolean ordered)
+    {
+        this.pool = pool;
+        this.query = query;
+        this.queryStart = queryStart;
+        this.queryEnd = queryEnd;
+        this.queryCut = queryCut;
+        this.ordered = ordered;
+
+        root = new Segment();
+        reading.add(root);
+
+        Task task = new Task(null, root);
+        running = 1;
+        start(machine, task, null);
+
+        // Take all of the engines that are free to help with the search.
+        for (WAMEngine engine = pool.poll(); engine != null; engine = pool.poll())
+        {
+            start((WAMResolvingJavaMachine) engine.getResolver(), null, engine);
+        }
+    }
+
+    /**
+     * Reads the next solution.
+     *
+     * @return The next solution, or <tt>null</tt> if there are no more.
+     */
+    public synchronized Set<Variable> nextInSequence()
+    {
+        try
+        {
+            while (true)
+            {
+                if (error != null)
+                {
+                    throw error;
+                }
+
+                if (reading.isEmpty() || cancelled)
+                {
+                    return null;
+                }
+
+                Segment segment = reading.getFirst();
+
+                if (!segment.items.isEmpty())
+                {
+                    Item item = segment.items.removeFirst();
+
+                    if (item.segment != null)
+                    {
+                        reading.addFirst(item.segment);
+
+                        continue;
+                    }
+
+                    segment.unread--;
+                    notifyAll();
+
+                    return item.solution;
+                }
+                else if (segment.closed)
+                {
+                    reading.removeFirst();
+                }
+                else
+                {
+                    wait();
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // Restore the interrupted status, and give up on the search.
+            Thread.currentThread().interrupt();
+            cancel();
+
+            return null;
+        }
+    }
+
+    /**
+     * Cancels the search, and waits for all of its machines to stop. This may be called from any thread but those of
+     * the search.
+     */
+    synchronized void cancel()
+    {
+        abort();
+
+        boolean interrupted = false;
+
+        while (threads > 0)
+        {
+            try
+            {
+                wait();
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Called by a running machine at a call, whilst the search is signalled, to check if it should stop, or give work
+     * away. Machines only try to give work away every so many calls, so that the search is not locked on every call
+     * when there is no work to give.
+     *
+     * @param  task    The task the machine is running.
+     * @param  machine The machine.
+     *
+     * @return <tt>true</tt> if the machine should stop running its task.
+     */
+    boolean interrupt(Task task, WAMResolvingJavaMachine machine)
+    {
+        if (cancelled)
+        {
+            return true;
+        }
+
+        if (--task.countdown > 0)
+        {
+            return false;
+        }
+
+        task.countdown = SHARE_INTERVAL;
+
+        synchronized (this)
+        {
+            if (idle > work.size())
+            {
+                WAMBranch branch = machine.split(queryStart, queryEnd, queryCut);
+
+                if (branch != null)
+                {
+                    Task stolen = new Task(branch, ordered ? new Segment() : root);
+                    task.given.addFirst(stolen.segment);
+                    work.add(stolen);
+                    running++;
+                    notifyAll();
+                }
+            }
+
+            updateSignal();
+        }
+
+        return false;
+    }
+
+    /**
+     * Called by a running machine when it backtracks past a choice point whose alternatives it gave away. This is the
+     * point at which a sequential search would have found the solutions of the branch that was given away, so the
+     * segment of the branch is put into the segment of the task at this point.
+     *
+     * @param task The task the machine is running.
+     */
+    synchronized void passed(Task task)
+    {
+        Segment given = task.given.removeFirst();
+
+        if (ordered)
+        {
+            task.segment.items.add(new Item(null, given));
+            notifyAll();
+        }
+    }
+
+    /**
+     * Starts a thread of the search, to run a task on a machine, or to run tasks on an engine taken from the pool.
+     *
+     * @param machine The machine to run on.
+     * @param task    The task to run, or <tt>null</tt> to wait for tasks to run.
+     * @param engine  The engine taken from the pool, or <tt>null</tt> if the machine is not one.
+     */
+    private synchronized void start(final WAMResolvingJavaMachine machine, final Task task, final WAMEngine engine)
+    {
+        threads++;
+
+        pool.execute(new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        if (task != null)
+                        {
+                            runTask(machine, task);
+                        }
+
+                        for (Task next = take(); next != null; next = take())
+                        {
+                            machine.restore(next.branch, query);
+                            runTask(machine, next);
+                        }
+                    }
+                    catch (RuntimeException e)
+                    {
+                        fail(e);
+                    }
+                    finally
+                    {
+                        if (engine != null)
+                        {
+                            pool.give(engine);
+                        }
+
+                        stopped();
+                    }
+                }
+            });
+    }
+
+    /**
+     * Runs a task on a machine, until it has no more solutions, or the search is cancelled.
+     *
+     * @param machine The machine to run on.
+     * @param task    The task to run.
+     */
+    private void runTask(WAMResolvingJavaMachine machine, Task task)
+    {
+        machine.task = task;
+
+        try
+        {
+            for (Set<Variable> solution = machine.resolve(); solution != null; solution = machine.resolve())
+            {
+                if (!write(task, solution))
+                {
+                    break;
+                }
+            }
+        }
+        catch (RuntimeException e)
+        {
+            // The error must be recorded before the segment is closed, or the reader may see the end of the
+            // solutions first.
+            fail(e);
+        }
+        finally
+        {
+            machine.task = null;
+            finished(task);
+        }
+    }
+
+    /**
+     * Waits for a task to run.
+     *
+     * @return The task to run, or <tt>null</tt> if the search is over.
+     */
+    private synchronized Task take()
+    {
+        while (work.isEmpty() && (running > 0) && !cancelled)
+        {
+            idle++;
+            updateSignal();
+
+            try
+            {
+                wait();
+            }
+            catch (InterruptedException e)
+            {
+                abort();
+            }
+            finally
+            {
+                idle--;
+            }
+        }
+
+        Task task = cancelled ? null : work.poll();
+        updateSignal();
+
+        return task;
+    }
+
+    /**
+     * Writes a solution to the segment of a task, waiting for the reader to catch up if it is too far ahead.
+     *
+     * @param  task     The task that found the solution.
+     * @param  solution The solution.
+     *
+     * @return <tt>true</tt> if the task should go on, <tt>false</tt> if the search has been cancelled.
+     */
+    private synchronized boolean write(Task task, Set<Variable> solution)
+    {
+        Segment segment = task.segment;
+
+        while ((segment.unread >= MAX_UNREAD) && !cancelled)
+        {
+            try
+            {
+                wait();
+            }
+            catch (InterruptedException e)
+            {
+                abort();
+            }
+        }
+
+        if (cancelled)
+        {
+            return false;
+        }
+
+        segment.items.add(new Item(solution, null));
+        segment.unread++;
+        notifyAll();
+
+        return true;
+    }
+
+    /**
+     * Records that a task has finished. Its segment is complete, and once all tasks have finished, so is the search.
+     *
+     * @param task The task that finished.
+     */
+    private synchronized void finished(Task task)
+    {
+        running--;
+
+        if (ordered || (running == 0))
+        {
+            task.segment.closed = true;
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Records an error raised by a task, and cancels the search so that the reader sees it.
+     *
+     * @param e The error.
+     */
+    private synchronized void fail(RuntimeException e)
+    {
+        if (error == null)
+        {
+            error = e;
+        }
+
+        abort();
+    }
+
+    /** Cancels the search, without waiting for it to stop, so that it may be called by the threads of the search. */
+    private synchronized void abort()
+    {
+        cancelled = true;
+        signalled = true;
+        notifyAll();
+    }
+
+    /** Records that a thread of the search has stopped. */
+    private synchronized void stopped()
+    {
+        threads--;
+        notifyAll();
+    }
+
+    /** Signals the running machines when they should stop, or give work away. */
+    private void updateSignal()
+    {
+        signalled = cancelled || (idle > work.size());
+    }
+
+    /**
+     * A Segment holds the solutions found by a task, in the order that they are to be read. The segments of branches
+     * given away by the task are held amongst its solutions, at the point they are to be read at.
+     */
+    static class Segment
+    {
+        /** Holds the solutions, and segments of branches, not read yet. */
+        final LinkedList<Item> items = new LinkedList<Item>();
+
+        /** Holds the number of solutions not read yet. */
+        int unread;
+
+        /** Flags when the task writing to the segment has finished. */
+        boolean closed;
+    }
+
+    /**
+     * An Item is an entry in a segment, holding either a solution or the segment of a branch given away.
+     */
+    static class Item
+    {
+        /** Holds the solution, or <tt>null</tt> if the item is a segment. */
+        final Set<Variable> solution;
+
+        /** Holds the segment of a branch given away, or <tt>null</tt> if the item is a solution. */
+        final Segment segment;
+
+        /**
+         * Creates an item.
+         *
+         * @param solution The solution, or <tt>null</tt> if the item is a segment.
+         * @param segment  The segment of a branch given away, or <tt>null</tt> if the item is a solution.
+         */
+        Item(Set<Variable> solution, Segment segment)
+        {
+            this.solution = solution;
+            this.segment = segment;
+        }
+    }
+
+    /**
+     * A Task is a branch of the search, to be run on a machine.
+     */
+    class Task
+    {
+        /** Holds the search that the task is part of. */
+        final WAMOrParallelSearch search = WAMOrParallelSearch.this;
+
+        /** Holds the branch to run, or <tt>null</tt> to run the whole search tree. */
+        final WAMBranch branch;
+
+        /** Holds the segment that the task writes its solutions to. */
+        final Segment segment;
+
+        /** Holds the segments of the branches that the task gave away, the most recent first. */
+        final LinkedList<Segment> given = new LinkedList<Segment>();
+
+        /** Holds the number of calls to go before the next attempt to give work away. */
+        int countdown;
+
+        /**
+         * Creates a task.
+         *
+         * @param branch  The branch to run, or <tt>null</tt> to run the whole search tree.
+         * @param segment The segment to write solutions to.
+         */
+        Task(WAMBranch branch, Segment segment)
+        {
+            this.branch = branch;
+            this.segment = segment;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+/**
+ * WAMPredicateProfile holds the counts and timings recorded against one predicate by a {@link WAMProfiler}.
+ *
+ * <p/>The counts follow the ports of the predicate. A call is counted each time it is called, and a redo each time it
+ * is backtracked into to try another of its clauses. An exit is counted each time it proceeds back to its caller, and
+ * a fail each time a failure happens within its own code. As last calls are made without returning, the exit of a
+ * predicate that ends in a last call is counted against the predicate that it last calls.
+ *
+ * <p/>The times are in nanoseconds, and are estimated by sampling, so are only meaningful once many samples have been
+ * taken. The self time is the time spent whilst the predicate was being called, and the total time the time spent
+ * whilst it was anywhere on the stack of calls.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities
+ * <tr><td> Hold the profile of a predicate.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMPredicateProfile
+{
+    /** The name of the predicate, in name/arity form. */
+    public final String name;
+
+    /** The number of times the predicate was called. */
+    public long calls;
+
+    /** The number of times the predicate was backtracked into. */
+    public long redos;
+
+    /** The number of times the predicate proceeded back to its caller. */
+    public long exits;
+
+    /** The number of failures that happened within the code of the predicate. */
+    public long fails;
+
+    /** The number of calls made from the code of the predicate. */
+    public long inferences;
+
+    /** The number of choice points created by the predicate. */
+    public long choicePoints;
+
+    /** The number of exits of the predicate that left choice points behind. */
+    public long choicePointsLeft;
+
+    /** The time spent whilst the predicate was being called. */
+    public long selfTime;
+
+    /** The time spent whilst the predicate was on the stack of calls. */
+    public long totalTime;
+
+    /** Holds the number of the last sample that the total time of the predicate was added to. */
+    long lastSample;
+
+    /**
+     * Creates an empty profile for a predicate.
+     *
+     * @param name The name of the predicate, in name/arity form.
+     */
+    public WAMPredicateProfile(String name)
+    {
+        this.name = name;
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.thesett.aima.logic.fol.FunctorName;
+import com.thesett.aima.logic.fol.VariableAndFunctorInterner;
+
+/**
+ * WAMProfiler records where a {@link WAMResolvingJavaMachine} spends its time, predicate by predicate. It is attached
+ * to a machine with {@link WAMResolvingJavaMachine#setProfiler}, and counts the ports of each predicate as the machine
+ * passes through them, see {@link WAMPredicateProfile}.
+ *
+ * <p/>Timings are taken by sampling. Every so many calls, the stack of calls is read off the chain of environment
+ * frames, and the time since the previous sample is added to the predicate being called, and to every predicate on
+ * the stack. Predicates that have been called by last calls have given up their frames, so do not appear on the
+ * stack. The sampled stacks are also kept in folded form, one line per distinct stack with its root first, as taken by
+ * flame graph tools.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Count the ports of each predicate.
+ * <tr><td> Sample the time spent in each predicate, and the stacks it is spent in.
+ * <tr><td> Write a report of the predicates, most costly first.
+ * <tr><td> Write the sampled stacks in folded form.
+ * <tr><td> Name the predicates. <td> {@link VariableAndFunctorInterner}.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMProfiler
+{
+    /** The default number of calls between samples. */
+    public static final int DEFAULT_SAMPLE_INTERVAL = 1 << 7;
+
+    /** The maximum number of frames read off the stack of calls for a sample. Deeper frames are left out. */
+    public static final int MAX_SAMPLE_DEPTH = 1 << 7;
+
+    /** Holds the interner used to name the predicates. */
+    private final VariableAndFunctorInterner interner;
+
+    /** Holds the number of calls between samples. */
+    private final int sampleInterval;
+
+    /** Holds the profiles of the predicates, by their interned names. */
+    private WAMPredicateProfile[] profiles = new WAMPredicateProfile[64];
+
+    /** Holds the time of each sampled stack, by the interned names of its predicates, root first. */
+    private final Map<String, Long> stacks = new HashMap<String, Long>();
+
+    /** Holds the number of calls left to make before the next sample. */
+    private int countdown;
+
+    /** Holds the number of samples taken. */
+    private long samples;
+
+    /** Holds the time of the previous sample, or of resuming, whichever was later. */
+    private long lastTime;
+
+    /** Holds the stack of calls read for a sample, topmost first. */
+    int[] stack = new int[MAX_SAMPLE_DEPTH];
+
+    /**
+     * Creates a profiler that samples at the default interval.
+     *
+     * @param interner The interner used to name the predicates.
+     */
+    public WAMProfiler(VariableAndFunctorInterner interner)
+    {
+        this(interner, DEFAULT_SAMPLE_INTERVAL);
+    }
+
+    /**
+     * Creates a profiler that samples every so many calls. Sampling more often gives better timings, at a higher
+     * cost.
+     *
+     * @param interner       The interner used to name the predicates.
+     * @param sampleInterval The number of calls between samples.
+     */
+    public WAMProfiler(VariableAndFunctorInterner interner, int sampleInterval)
+    {
+        if (sampleInterval < 1)
+        {
+            throw new IllegalArgumentException("The sample interval must be at least one call.");
+        }
+
+        this.interner = interner;
+        this.sampleInterval = sampleInterval;
+        countdown = sampleInterval;
+    }
+
+    /**
+     * Provides the profiles of all predicates seen so far, most costly first. The cost is the self time, with the
+     * number of calls breaking any ties.
+     *
+     * @return The profiles of all predicates seen so far.
+     */
+    public List<WAMPredicateProfile> getProfiles()
+    {
+        List<WAMPredicateProfile> result = new ArrayList<WAMPredicateProfile>();
+
+        for (WAMPredicateProfile profile : profiles)
+        {
+            if (profile != null)
+            {
+                result.add(profile);
+            }
+        }
+
+        Collections.sort(result, new Comparator<WAMPredicateProfile>()
+            {
+                public int compare(WAMPredicateProfile a, WAMPredicateProfile b)
+                {
+                    if (a.selfTime != b.selfTime)
+                    {
+                        return (a.selfTime > b.selfTime) ? -1 : 1;
+                    }
+
+                    return (a.calls == b.calls) ? a.name.compareTo(b.name) : ((a.calls > b.calls) ? -1 : 1);
+                }
+            });
+
+        return result;
+    }
+
+    /**
+     * Writes a report of the profiles of all predicates seen so far, one line each, most costly first. Times are
+     * given in milliseconds.
+     *
+     * @param  out The writer to write the report to.
+     *
+     * @throws IOException If the report cannot be written.
+     */
+    public void writeReport(Writer out) throws IOException
+    {
+        out.write(String.format("%-32s %12s %12s %12s %12s %12s %12s %12s %12s %12s%n", "predicate", "calls", "redos",
+                "exits", "fails", "inferences", "choices", "left", "self ms", "total ms"));
+
+        for (WAMPredicateProfile profile : getProfiles())
+        {
+            out.write(String.format("%-32s %12d %12d %12d %12d %12d %12d %12d %12.3f %12.3f%n", profile.name,
+                    profile.calls, profile.redos, profile.exits, profile.fails, profile.inferences,
+                    profile.choicePoints, profile.choicePointsLeft, profile.selfTime / 1e6, profile.totalTime / 1e6));
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Writes the sampled stacks in folded form, one line per distinct stack, giving the names of its predicates from
+     * the root to the top, separated by semicolons, followed by the time spent in it in nanoseconds.
+     *
+     * @param  out The writer to write the stacks to.
+     *
+     * @throws IOException If the stacks cannot be written.
+     */
+    public void writeFoldedStacks(Writer out) throws IOException
+    {
+        List<String> lines = new ArrayList<String>();
+
+        for (Map.Entry<String, Long> entry : stacks.entrySet())
+        {
+            StringBuilder line = new StringBuilder();
+
+            for (String name : entry.getKey().split(";"))
+            {
+                if (line.length() > 0)
+                {
+                    line.append(';');
+                }
+
+                line.append(profile(Integer.parseInt(name)).name);
+            }
+
+            lines.add(line.append(' ').append(entry.getValue()).toString());
+        }
+
+        Collections.sort(lines);
+
+        for (String line : lines)
+        {
+            out.write(line);
+            out.write('\n');
+        }
+
+        out.flush();
+    }
+
+    /** Clears out all profiles and sampled stacks recorded so far. */
+    public void clear()
+    {
+        Arrays.fill(profiles, null);
+        stacks.clear();
+        countdown = sampleInterval;
+        samples = 0;
+        lastTime = System.nanoTime();
+    }
+
+    /** Starts the clock from now, as the machine starts or resumes running, so that time spent idle is left out. */
+    void resume()
+    {
+        lastTime = System.nanoTime();
+    }
+
+    /**
+     * Counts a call to a predicate.
+     *
+     * @param  name   The interned name of the predicate called.
+     * @param  caller The interned name of the predicate making the call, or <tt>-1</tt> if it is not a predicate.
+     *
+     * @return <tt>true</tt> if a sample is to be taken at this call.
+     */
+    boolean call(int name, int caller)
+    {
+        profile(name).calls++;
+
+        if (caller >= 0)
+        {
+            profile(caller).inferences++;
+        }
+
+        if (--countdown == 0)
+        {
+            countdown = sampleInterval;
+
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Counts a backtrack into a predicate.
+     *
+     * @param name The interned name of the predicate, or <tt>-1</tt> if it is not a predicate.
+     */
+    void redo(int name)
+    {
+        if (name >= 0)
+        {
+            profile(name).redos++;
+        }
+    }
+
+    /**
+     * Counts an exit from a predicate.
+     *
+     * @param name          The interned name of the predicate, or <tt>-1</tt> if it is not a predicate.
+     * @param choicePoints <tt>true</tt> if the exit leaves choice points behind.
+     */
+    void exit(int name, boolean choicePoints)
+    {
+        if (name >= 0)
+        {
+            WAMPredicateProfile profile = profile(name);
+            profile.exits++;
+
+            if (choicePoints)
+            {
+                profile.choicePointsLeft++;
+            }
+        }
+    }
+
+    /**
+     * Counts a failure within a predicate.
+     *
+     * @param name The interned name of the predicate, or <tt>-1</tt> if it is not a predicate.
+     */
+    void fail(int name)
+    {
+        if (name >= 0)
+        {
+            profile(name).fails++;
+        }
+    }
+
+    /**
+     * Counts a choice point created by a predicate.
+     *
+     * @param name The interned name of the predicate, or <tt>-1</tt> if it is not a predicate.
+     */
+    void choicePoint(int name)
+    {
+        if (name >= 0)
+        {
+            profile(name).choicePoints++;
+        }
+    }
+
+    /**
+     * Takes a sample of the stack of calls held in {@link #stack}, adding the time since the previous sample to the
+     * predicates on it.
+     *
+     * @param depth The number of predicates on the stack, topmost first.
+     */
+    void sample(int depth)
+    {
+        long now = System.nanoTime();
+        long time = now - lastTime;
+        lastTime = now;
+        samples++;
+
+        profile(stack[0]).selfTime += time;
+
+        StringBuilder key = new StringBuilder();
+
+        for (int i = depth - 1; i >= 0; i--)
+        {
+            WAMPredicateProfile profile = profile(stack[i]);
+
+            // Recursive predicates appear on the stack many times, but have the time added to them only once.
+            if (profile.lastSample != samples)
+            {
+                profile.lastSample = samples;
+                profile.totalTime += time;
+            }
+
+            if (key.length() > 0)
+            {
+                key.append(';');
+            }
+
+            key.append(stack[i]);
+        }
+
+        String folded = key.toString();
+        Long total = stacks.get(folded);
+        stacks.put(folded, (total == null) ? time : (total + time));
+    }
+
+    /**
+     * Finds the profile of a predicate, creating it if it has not been seen before.
+     *
+     * @param  name The interned name of the predicate.
+     *
+     * @return The profile of the predicate.
+     */
+    private WAMPredicateProfile profile(int name)
+    {
+        if (name >= profiles.length)
+        {
+            profiles = Arrays.copyOf(profiles, Math.max(name + 1, profiles.length << 1));
+        }
+
+        WAMPredicateProfile profile = profiles[name];
+
+        if (profile == null)
+        {
+            FunctorName functorName = interner.getDeinternedFunctorName(name);
+            profile = new WAMPredicateProfile(functorName.getName() + "/" + functorName.getArity());
+            profiles[name] = profile;
+        }
+
+        return profile;
+    }
+}
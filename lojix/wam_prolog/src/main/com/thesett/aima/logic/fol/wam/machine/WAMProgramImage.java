@@ -0,0 +1,363 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import com.thesett.aima.logic.fol.FunctorName;
+import com.thesett.aima.logic.fol.wam.compiler.WAMCallPoint;
+import com.thesett.aima.logic.fol.wam.compiler.WAMLabel;
+
+/**
+ * WAMProgramImage holds a program taken out of the code area of a machine, so that it can be saved to a file, and
+ * loaded into another machine without being parsed or compiled again. An image holds the interned functor and variable
+ * names, the call points of the predicates, the labels of the addresses in the code area, the holes in it left by freed
+ * code, and the code itself.
+ *
+ * <p/>An image file starts with a header holding the tables, followed by the code. The code is aligned in the file,
+ * so that it can be mapped straight into memory, and read from there by the machine, rather than read in. The mapping
+ * is read only, so the file is never written to by the machine loading it.
+ *
+ * <p/>The code refers to functors by their interned names, so an image can only be loaded into a machine that
+ * interns the names in the image to the same values as they had when it was saved.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities
+ * <tr><td> Write a program image to a file.
+ * <tr><td> Map a program image from a file, checking its format and version.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+class WAMProgramImage
+{
+    /** The magic number that program image files start with. */
+    private static final int MAGIC = 0x57414d49;
+
+    /** The version of the image format, which must be changed whenever the format or the instruction set changes. */
+    private static final int VERSION = 1;
+
+    /** The flag in the header marking an image in which calls are linked by name. */
+    private static final int LINKED_BY_NAME = 1;
+
+    /** The alignment of the code within an image file. */
+    private static final int CODE_ALIGNMENT = 8;
+
+    /** Marks an interned functor name in the image. */
+    private static final byte FUNCTOR = 0;
+
+    /** Marks an interned label name in the image. */
+    private static final byte LABEL = 1;
+
+    /** The encoding of the names in the image. */
+    private static final String ENCODING = "UTF-8";
+
+    /** Flags when the calls in the code are linked by name, rather than to entry addresses. */
+    boolean linkedByName;
+
+    /** Holds the interned functor and label names, in the order of their interned values. */
+    final List<FunctorName> functorNames = new ArrayList<FunctorName>();
+
+    /** Holds the interned variable names, in the order of their interned values. */
+    final List<String> variableNames = new ArrayList<String>();
+
+    /** Holds the call points of the predicates in the code. */
+    final List<WAMCallPoint> callPoints = new ArrayList<WAMCallPoint>();
+
+    /** Holds the label and functor names of addresses in the code, by address. */
+    final SortedMap<Integer, Integer> labels = new TreeMap<Integer, Integer>();
+
+    /** Holds the holes in the code, as lengths by start address. */
+    final SortedMap<Integer, Integer> holes = new TreeMap<Integer, Integer>();
+
+    /** Holds the code, from its start up to its limit. */
+    ByteBuffer code;
+
+    /**
+     * Checks if an address falls within one of the holes in the code.
+     *
+     * @param  address The address to check.
+     *
+     * @return <tt>true</tt> if the address is in a hole.
+     */
+    boolean isInHole(int address)
+    {
+        SortedMap<Integer, Integer> before = holes.headMap(address + 1);
+
+        if (before.isEmpty())
+        {
+            return false;
+        }
+
+        int start = before.lastKey();
+
+        return address < (start + before.get(start));
+    }
+
+    /**
+     * Writes the image to a file.
+     *
+     * @param  file The file to write to.
+     *
+     * @throws IOException If the file cannot be written.
+     */
+    void write(File file) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(bytes);
+
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt(linkedByName ? LINKED_BY_NAME : 0);
+
+        header.writeInt(functorNames.size());
+
+        for (FunctorName name : functorNames)
+        {
+            boolean label = name instanceof WAMLabel;
+
+            header.writeByte(label ? LABEL : FUNCTOR);
+            writeString(header, name.getName());
+            header.writeInt(name.getArity());
+
+            if (label)
+            {
+                header.writeInt(((WAMLabel) name).getId());
+            }
+        }
+
+        header.writeInt(variableNames.size());
+
+        for (String name : variableNames)
+        {
+            writeString(header, name);
+        }
+
+        header.writeInt(callPoints.size());
+
+        for (WAMCallPoint callPoint : callPoints)
+        {
+            header.writeInt(callPoint.name);
+            header.writeInt(callPoint.entryPoint);
+            header.writeInt(callPoint.length);
+        }
+
+        writeMap(header, labels);
+        writeMap(header, holes);
+
+        header.writeInt(code.remaining());
+
+        while ((header.size() % CODE_ALIGNMENT) != 0)
+        {
+            header.writeByte(0);
+        }
+
+        header.flush();
+
+        FileOutputStream out = new FileOutputStream(file);
+
+        try
+        {
+            FileChannel channel = out.getChannel();
+            ByteBuffer headerBuffer = ByteBuffer.wrap(bytes.toByteArray());
+            ByteBuffer codeBuffer = code.duplicate();
+
+            while (headerBuffer.hasRemaining())
+            {
+                channel.write(headerBuffer);
+            }
+
+            while (codeBuffer.hasRemaining())
+            {
+                channel.write(codeBuffer);
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Maps a program image from a file. The tables of the image are read in, and its code is left mapped onto the file,
+     * in a read only buffer.
+     *
+     * @param  file The file to map.
+     *
+     * @return The program image.
+     *
+     * @throws IOException If the file cannot be read, or does not hold a program image of the current version.
+     */
+    static WAMProgramImage map(File file) throws IOException
+    {
+        ByteBuffer buffer;
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+
+        try
+        {
+            FileChannel channel = in.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        finally
+        {
+            // The mapping stays valid once the file is closed.
+            in.close();
+        }
+
+        try
+        {
+            if (buffer.getInt() != MAGIC)
+            {
+                throw new IOException("The file " + file + " is not a program image.");
+            }
+
+            int version = buffer.getInt();
+
+            if (version != VERSION)
+            {
+                throw new IOException("The program image " + file + " is of version " + version +
+                    ", but only version " + VERSION + " can be loaded.");
+            }
+
+            WAMProgramImage image = new WAMProgramImage();
+            image.linkedByName = (buffer.getInt() & LINKED_BY_NAME) != 0;
+
+            for (int i = buffer.getInt(); i > 0; i--)
+            {
+                byte kind = buffer.get();
+                String name = readString(buffer);
+                int arity = buffer.getInt();
+
+                FunctorName functorName = new FunctorName(name, arity);
+                image.functorNames.add((kind == LABEL) ? new WAMLabel(functorName, buffer.getInt()) : functorName);
+            }
+
+            for (int i = buffer.getInt(); i > 0; i--)
+            {
+                image.variableNames.add(readString(buffer));
+            }
+
+            for (int i = buffer.getInt(); i > 0; i--)
+            {
+                int name = buffer.getInt();
+                int entryPoint = buffer.getInt();
+                int length = buffer.getInt();
+
+                image.callPoints.add(new WAMCallPoint(entryPoint, length, name));
+            }
+
+            readMap(buffer, image.labels);
+            readMap(buffer, image.holes);
+
+            int length = buffer.getInt();
+            buffer.position(((buffer.position() + CODE_ALIGNMENT - 1) / CODE_ALIGNMENT) * CODE_ALIGNMENT);
+            buffer.limit(buffer.position() + length);
+
+            image.code = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+
+            return image;
+        }
+        catch (BufferUnderflowException e)
+        {
+            throw new IOException("The program image " + file + " is truncated.");
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new IOException("The program image " + file + " is truncated.");
+        }
+    }
+
+    /**
+     * Writes a string to an image, as its length followed by its encoded bytes.
+     *
+     * @param  out    The image to write to.
+     * @param  string The string to write.
+     *
+     * @throws IOException If the string cannot be written.
+     */
+    private static void writeString(DataOutputStream out, String string) throws IOException
+    {
+        byte[] bytes = string.getBytes(ENCODING);
+
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString} from an image.
+     *
+     * @param  buffer The image to read from.
+     *
+     * @return The string.
+     *
+     * @throws IOException If the string cannot be decoded.
+     */
+    private static String readString(ByteBuffer buffer) throws IOException
+    {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+
+        return new String(bytes, ENCODING);
+    }
+
+    /**
+     * Writes a map of integers to an image, as its size followed by its keys and values in turn.
+     *
+     * @param  out The image to write to.
+     * @param  map The map to write.
+     *
+     * @throws IOException If the map cannot be written.
+     */
+    private static void writeMap(DataOutputStream out, Map<Integer, Integer> map) throws IOException
+    {
+        out.writeInt(map.size());
+
+        for (Map.Entry<Integer, Integer> entry : map.entrySet())
+        {
+            out.writeInt(entry.getKey());
+            out.writeInt(entry.getValue());
+        }
+    }
+
+    /**
+     * Reads a map of integers written by {@link #writeMap} from an image.
+     *
+     * @param buffer The image to read from.
+     * @param map    The map to read into.
+     */
+    private static void readMap(ByteBuffer buffer, Map<Integer, Integer> map)
+    {
+        for (int i = buffer.getInt(); i > 0; i--)
+        {
+            int key = buffer.getInt();
+            map.put(key, buffer.getInt());
+        }
+    }
+}
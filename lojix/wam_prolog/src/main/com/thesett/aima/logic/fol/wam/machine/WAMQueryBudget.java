@@ -0,0 +1,65 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * WAMQueryBudget holds the limits of a query that is run over more than one machine, by the engines of a pool running
+ * parts of it in parallel, so that the machines together are held to the limits of the query. The inferences made by
+ * all of the machines are counted against the one limit, and the time limit runs to the same deadline for all of them.
+ * The memory quotas apply to each machine on its own, as each has memory areas of its own.
+ *
+ * <p/>Once any of the machines goes over a limit, the others stop at their next check of the limits, with the same
+ * error.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Share the limits of a query between the machines running it. <td> {@link WAMQueryLimits}.
+ * <tr><td> Count the inferences made by all of the machines running a query.
+ * <tr><td> Stop all of the machines running a query, once any goes over a limit. <td> {@link WAMLimitException}.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+class WAMQueryBudget
+{
+    /** Holds the limits of the query. */
+    final WAMQueryLimits limits;
+
+    /** Holds the time in nanoseconds, by which the query must finish, or zero if it has no time limit. */
+    final long deadline;
+
+    /** Holds the number of inferences made by all of the machines running the query. */
+    final AtomicLong inferences;
+
+    /** Holds the error raised by the first machine to go over a limit, or <tt>null</tt> if none has. */
+    volatile WAMLimitException exceeded;
+
+    /**
+     * Creates the budget of a query.
+     *
+     * @param limits     The limits of the query.
+     * @param deadline   The time in nanoseconds, by which the query must finish, or zero if it has no time limit.
+     * @param inferences The number of inferences made by the query so far.
+     */
+    WAMQueryBudget(WAMQueryLimits limits, long deadline, long inferences)
+    {
+        this.limits = limits;
+        this.deadline = deadline;
+        this.inferences = new AtomicLong(inferences);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+/**
+ * WAMQueryLimits holds the limits on the resources that any one query run on a WAM machine may use. A query that goes
+ * over any of its limits is stopped, so that one pathological query cannot hold on to a machine, or to the thread
+ * running it, indefinitely. Each limit that is zero or less is not checked.
+ *
+ * <p/>The limits apply to all of the solutions of a query taken together, from when it is first run, until the next
+ * query is set. The time limit is wall-clock time, so it includes any time spent between asking for solutions.
+ *
+ * <p/>A query run in parallel, over the engines of a pool, is held to its limits as a whole. The inferences made by all
+ * of the engines running it count towards the one limit, and they all run to the same time limit, but the memory
+ * quotas apply to each engine on its own. Once any of the engines goes over a limit, they all stop.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Specify the resource limits on the queries run on a WAM machine.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMQueryLimits
+{
+    /** The maximum number of inferences, that is calls to predicates, that a query may make. */
+    public long maxInferences;
+
+    /** The maximum number of heap cells that a query may have in use. */
+    public int maxHeap;
+
+    /** The maximum number of stack cells that a query may have in use. */
+    public int maxStack;
+
+    /** The maximum number of trail entries that a query may have in use. */
+    public int maxTrail;
+
+    /** The maximum time in milliseconds that a query may run for. */
+    public long timeLimit;
+}
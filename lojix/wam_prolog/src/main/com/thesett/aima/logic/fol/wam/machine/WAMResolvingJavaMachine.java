@@ -15,18 +15,46 @@
  */
 package com.thesett.aima.logic.fol.wam.machine;
 
+import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
+import com.thesett.aima.logic.fol.Functor;
 import com.thesett.aima.logic.fol.FunctorName;
+import com.thesett.aima.logic.fol.LinkageException;
+import com.thesett.aima.logic.fol.NumericType;
 import com.thesett.aima.logic.fol.Variable;
 import com.thesett.aima.logic.fol.wam.compiler.WAMCallPoint;
+import com.thesett.aima.logic.fol.wam.compiler.WAMCompiledPredicate;
+import com.thesett.aima.logic.fol.wam.compiler.WAMCompiledQuery;
 import com.thesett.aima.logic.fol.wam.compiler.WAMInstruction;
+import com.thesett.aima.logic.fol.wam.compiler.WAMReservedLabel;
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.ALLOCATE;
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.ALLOCATE_N;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.ARITH_CMP;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.ARITH_FLOAT;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.ARITH_GET;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.ARITH_INT;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.ARITH_LOAD;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.ARITH_OP;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.ARITH_PUT;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.BOXED_FLOAT;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.BOXED_INT;
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.CALL;
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.CALL_INTERNAL;
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.CON;
@@ -35,16 +63,21 @@ import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.CUT;
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.DEALLOCATE;
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.EXECUTE;
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.GET_CONST;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.GET_FLOAT;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.GET_INT;
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.GET_LEVEL;
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.GET_LIST;
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.GET_STRUC;
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.GET_VAL;
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.GET_VAR;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.JIT_INDEX;
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.LIS;
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.NECK_CUT;
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.NO_OP;
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.PROCEED;
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.PUT_CONST;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.PUT_FLOAT;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.PUT_INT;
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.PUT_LIST;
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.PUT_STRUC;
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.PUT_UNSAFE_VAL;
@@ -58,6 +91,8 @@ import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.SET_LOCAL_V
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.SET_VAL;
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.SET_VAR;
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.SET_VOID;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.SMALL_INT;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.SMALL_INT_MASK;
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.STACK_ADDR;
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.STR;
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.SUSPEND;
@@ -73,7 +108,11 @@ import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.UNIFY_LOCAL
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.UNIFY_VAL;
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.UNIFY_VAR;
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.UNIFY_VOID;
+import com.thesett.aima.logic.fol.wam.indexing.ArgumentIndex;
+import com.thesett.aima.logic.fol.wam.indexing.CodeBufferTable;
+import com.thesett.aima.logic.fol.wam.indexing.IntIntOpenLinearTable;
 import com.thesett.common.util.SequenceIterator;
+import com.thesett.common.util.SizeableLinkedList;
 import com.thesett.common.util.doublemaps.SymbolTable;
 
 /**
@@ -98,6 +137,34 @@ import com.thesett.common.util.doublemaps.SymbolTable;
  * with the exception that the code area is held in a separate array. This follows the x86 machine convention of
  * separating code and data segments in memory, and also caters well for the sharing of the code area with the JVM as a
  * byte buffer.
+ * <li>The byte code is not interpreted directly. As code is added to the machine, it is decoded into an array of ints
+ * parallel to the code area, with the op-code of each instruction at its own address, and each of its arguments widened
+ * to an int at the address of that argument. Code addresses are therefore unchanged, and jumps and labels need no
+ * translating, but the interpreter does not need to assemble arguments out of bytes on every step.
+ * <li>Cells are 32 bits wide, which leaves no room to hold a float or a full integer alongside a tag. Integers small
+ * enough to fit in the bits left over in a constant cell are held there, flagged by {@link WAMInstruction#SMALL_INT}.
+ * Floats and larger integers are boxed; held in the cells following a reserved functor cell, as a structure that no
+ * instruction will look inside of. Arithmetic is evaluated on a separate stack of 64 bit values.
+ * <li>Calls are decoded with the number of the call point they call, and jump to its entry point. Normally call points
+ * are numbered by address, and calls are relinked when a predicate is redefined. Optionally, calls may instead go
+ * through a procedure table, with one call point per functor that is replaced when its predicate is (re)defined, so
+ * that predicates can be added after their callers, in any order, without anything being relinked.
+ * <li>A program loaded into one machine may be shared by worker machines, each running queries over it on a thread of
+ * its own. Workers share the code area, decoded code and call points of the program, read only, and have data areas of
+ * their own, and a query area of their own set aside at the end of the shared code area. Once shared, the program can
+ * no longer be changed, and neither compiles hot predicates nor builds argument indexes, as that would change it.
+ * <li>The workers of a shared program may run a query OR-parallel between them. A running machine gives away the
+ * remaining alternatives of one of its choice points by copying the heap and stack below it, and marking it as taken,
+ * so that it passes over it on backtracking. Only choice points that no cut can remove are given away, so that the
+ * machines never need to tell each other about cuts.
+ * <li>The workers of a shared program may also run the independent goals of a conjunction in parallel, where the
+ * compiler has found them. Each goal is copied off the heap and run to all of its solutions on a free worker, and the
+ * solutions are copied back onto the heap of the machine that started it, when it gets to the goal.
+ * <li>Calls to tabled predicates are evaluated by iterating to a fixed point. The first call of a variant runs the
+ * clauses of the predicate over and over, adding their answers to a table, until no more are found. Calls to the same
+ * variant made whilst it is being evaluated return the answers found so far, instead of looping. Tables that depend on
+ * each other like this are completed together, once the first of them called finds no more answers. Completed tables
+ * are kept, and their answers returned straight off, until the program is changed.
  * <li>The deref operation is presented in the book as a recursive function. It was turned into an equivalent iterative
  * looping function instead. The deref operation returns multiple parameters, but as Java only supports single return
  * types, a choice had to be made between creating a simple class to hold the return types, or storing the return values
@@ -108,18 +175,19 @@ import com.thesett.common.util.doublemaps.SymbolTable;
  * <tr><th> Responsibilities <th> Collaborations
  * <tr><td> Execute compiled WAM programs and queries.
  * <tr><td> Provide access to the heap.
+ * <tr><td> Share a program with worker machines. <td> {@link WAMEnginePool}.
+ * <tr><td> Split off branches of a search, for other machines to run. <td> {@link WAMOrParallelSearch}.
+ * <tr><td> Run independent goals on other machines, and join their solutions. <td> {@link WAMAndParallelJob}.
+ * <tr><td> Evaluate calls to tabled predicates, and keep their answers. <td> {@link WAMTable}.
+ * <tr><td> Collect the solutions to goals, for findall/3, bagof/3 and setof/3. <td> {@link WAMSolutionCollector}.
+ * <tr><td> Call predicates with arguments written straight onto the heap.
+ * <tr><td> Stop queries that go over their resource limits. <td> {@link WAMQueryLimits}.
+ * <tr><td> Profile the predicates run. <td> {@link WAMProfiler}.
  * </table></pre>
  *
  * @author Rupert Smith
- * @todo   Think about unloading of byte code as well as insertion of of byte code. For example, would it be possible to
- *         unload a program, and replace it with a different one? This would require re-linking of any references to the
- *         original. So maybe want to add an index to reverse references. Call instructions should have their jumps
- *         pre-calculated for speed, but perhaps should also put the bare f/n into them, for the case where they may
- *         need to be updated. Also, add a semaphore to all call instructions, or at the entry point of all programs,
- *         this would be used to synchronize live updates to programs in a running machine, as well as to add debugging
- *         break points.
- * @todo   Think about ability to grow (and shrink?) the heap. Might be best to do this at the same time as the first
- *         garbage collector.
+ * @todo   Add a semaphore to all call instructions, or at the entry point of all programs. This would be used to
+ *         synchronize live updates to programs in a running machine, as well as to add debugging break points.
  */
 public class WAMResolvingJavaMachine extends WAMResolvingMachine
 {
@@ -135,6 +203,63 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
     /** The id of the internal call/1 function execute variant. */
     public static final int EXECUTE_1_ID = 2;
 
+    /** The id of the internal integer/1 function. */
+    public static final int INTEGER_1_ID = 3;
+
+    /** The id of the internal float/1 function. */
+    public static final int FLOAT_1_ID = 4;
+
+    /** The id of the internal number/1 function. */
+    public static final int NUMBER_1_ID = 5;
+
+    /** The id of the internal '$par_start'/3 function, that starts a goal running in parallel. */
+    public static final int PAR_START_3_ID = 6;
+
+    /** The id of the internal '$par_join'/2 function, that joins the solutions to a goal running in parallel. */
+    public static final int PAR_JOIN_2_ID = 7;
+
+    /** The id of the internal '$par_goal'/1 function, that takes the goal a machine is to run in parallel. */
+    public static final int PAR_GOAL_1_ID = 8;
+
+    /** The id of the internal '$par_solution'/1 function, that hands back a solution to a goal run in parallel. */
+    public static final int PAR_SOLUTION_1_ID = 9;
+
+    /** The id of the internal '$tbl_call'/2 function, that looks up the table of a call to a tabled predicate. */
+    public static final int TBL_CALL_2_ID = 10;
+
+    /** The id of the internal '$tbl_more'/1 function, that checks if a tabled call is to be evaluated again. */
+    public static final int TBL_MORE_1_ID = 11;
+
+    /** The id of the internal '$tbl_add'/2 function, that adds an answer to the table of a call. */
+    public static final int TBL_ADD_2_ID = 12;
+
+    /** The id of the internal '$tbl_answers'/2 function, that lists the answers in the table of a call. */
+    public static final int TBL_ANSWERS_2_ID = 13;
+
+    /** The id of the internal '$fa_begin'/1 function, that starts collecting the solutions to a goal. */
+    public static final int FA_BEGIN_1_ID = 14;
+
+    /** The id of the internal '$fa_add'/2 function, that copies a solution to a goal into its collection. */
+    public static final int FA_ADD_2_ID = 15;
+
+    /** The id of the internal '$fa_end'/2 function, that lists the solutions collected to a goal. */
+    public static final int FA_END_2_ID = 16;
+
+    /** The id of the internal '$bag_witness'/4 function, that finds the free variables of the goal of a bagof/3. */
+    public static final int BAG_WITNESS_4_ID = 17;
+
+    /** The id of the internal '$bag_groups'/2 function, that groups the solutions of a bagof/3 by free variables. */
+    public static final int BAG_GROUPS_2_ID = 18;
+
+    /** The id of the internal '$sort'/2 function, that sorts a list into the standard order of terms. */
+    public static final int SORT_2_ID = 19;
+
+    /**
+     * Flags the ids of the internal functions that look up rows in tables of facts. The number of the table is held
+     * above the lowest bit of the id, which is set for the function that retries a call to the table on backtracking.
+     */
+    public static final int FACTS_ID = 1 << 24;
+
     /** The mask to extract an address from a tagged heap cell. */
     public static final int AMASK = 0x3FFFFFFF;
 
@@ -150,32 +275,155 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
     /** Defines the register capacity for the virtual machine. */
     private static final int REG_SIZE = 256;
 
-    /** Defines the heap size to use for the virtual machine. */
-    private static final int HEAP_SIZE = 10000000;
-
     /** Defines the offset of the base of the heap in the data area. */
     private static final int HEAP_BASE = REG_SIZE;
 
-    /** Defines the stack size to use for the virtual machine. */
-    private static final int STACK_SIZE = 1000000;
+    /**
+     * Defines the space kept free at the top of the heap. No instruction allocates more than this on the heap, so
+     * checking for overflow after every instruction catches it before the stack is written over.
+     */
+    private static final int HEAP_GUARD = 512;
+
+    /**
+     * Defines the pseudo op-code that marks the start of a compiled block in the decoded code. It lies outside of the
+     * range of the byte code op-codes.
+     */
+    private static final int COMPILED = 0x100;
+
+    /** Defines the smallest integer that can be held in a constant cell. */
+    static final int MIN_SMALL_INT = -(1 << 28);
+
+    /** Defines the largest integer that can be held in a constant cell. */
+    static final int MAX_SMALL_INT = (1 << 28) - 1;
+
+    /** Defines the initial size of the arithmetic stack. */
+    private static final int ARITH_STACK_SIZE = 32;
+
+    /** Defines the largest stack frame that may be pushed; a choice point saving the maximum number of registers. */
+    private static final int MAX_FRAME_SIZE = REG_SIZE + 8;
+
+    /** The number of inferences between checks of the clock, when a query has a time limit. */
+    private static final int TIME_CHECK_INTERVAL = 1 << 10;
+
+    /** The number of inferences between checks of the budget of a query, when it is shared with other machines. */
+    private static final int BUDGET_CHECK_INTERVAL = 1 << 10;
+
+    /** Holds the limits of queries that have none. */
+    private static final WAMQueryLimits NO_LIMITS = new WAMQueryLimits();
+
+    /** Marks a choice point whose remaining alternatives have been taken by another machine, in place of a label. */
+    private static final int TAKEN = -1;
+
+    /** Holds the initial and maximum sizes of the memory areas. */
+    private final WAMMemorySizes sizes;
+
+    /** Holds the machine whose program this one runs as a worker, or <tt>null</tt> if it runs its own program. */
+    private final WAMResolvingJavaMachine program;
+
+    /** Holds the pool that this machine is a worker of, or <tt>null</tt> if it is not one. */
+    private final WAMEnginePool pool;
+
+    /** Flags when the program is shared with worker machines, and so can no longer be changed. */
+    private boolean shared;
+
+    /**
+     * Holds the code of the predicates of a shared program that contain cuts, or evaluate tabled calls, as a bit per
+     * address.
+     */
+    private BitSet cutCode;
+
+    /** Flags when queries are run OR-parallel, over this machine and the free engines of its pool. */
+    private boolean orParallel;
+
+    /** Flags when the solutions of OR-parallel searches are read in the order that a sequential search finds them. */
+    private boolean orOrdered;
+
+    /** Holds the OR-parallel search running the current query, or <tt>null</tt> if there is none. */
+    private WAMOrParallelSearch search;
+
+    /** Holds the task of an OR-parallel search that this machine is running, or <tt>null</tt> if it is running none. */
+    WAMOrParallelSearch.Task task;
+
+    /** Holds the goals started in parallel by the current query, in the order started. */
+    private final List<WAMAndParallelJob> jobs = new ArrayList<WAMAndParallelJob>();
+
+    /** Holds the number of goals started in parallel by the current query, to hand out handles to them. */
+    private int numJobs;
+
+    /** Holds the goal run in parallel that this machine is running, or <tt>null</tt> if it is running none. */
+    WAMAndParallelJob job;
+
+    /** Holds the tables of the calls made to tabled predicates, by call. */
+    private final Map<WAMTermCopy, WAMTable> tables = new HashMap<WAMTermCopy, WAMTable>();
+
+    /** Holds the tables that are not yet complete, in the order that they were first called. */
+    private final List<WAMTable> completion = new ArrayList<WAMTable>();
+
+    /** Holds the number of answers added to all tables, to tell when an evaluation has found no more. */
+    private int numAnswers;
+
+    /** Holds the code of the most recent call set up with arguments put straight onto the heap. */
+    private WAMCompiledQuery callQuery;
+
+    /** Holds the predicate called by the most recent call set up with arguments put straight onto the heap. */
+    private FunctorName callFunctor;
+
+    /** Flags when the current query is a call with its arguments put straight onto the heap. */
+    private boolean directCall;
+
+    /** Holds the interned name of cons/2, that terms are put onto the heap as lists with. */
+    private int consFunctor;
+
+    /** Holds the collections of solutions to goals that are being found, for findall/3, bagof/3 and setof/3. */
+    private final WAMSolutionCollector collector = new WAMSolutionCollector(this);
+
+    /**
+     * Holds the number of arguments of the predicate that an internal function calls, if any, so that the clauses of
+     * the predicate save and restore all of its arguments on backtracking.
+     */
+    private int internalCallArity;
+
+    /** Holds the tables of facts added to the program, numbered in the order they were added. */
+    private List<WAMFactTable> factTables;
+
+    /** Holds the values of the arguments of a call to a table of facts, or -1 for the arguments that are unbound. */
+    private final int[] factKeys = new int[REG_SIZE];
+
+    /** Holds the cell of the empty list. */
+    private int nilCell;
+
+    /** Holds the interned name of member/2, that the solutions to goals run in parallel are backtracked over with. */
+    private int memberFunctor;
+
+    /** Holds the start of the area of the shared code area that a worker writes its queries into. */
+    private int queryArea;
 
-    /** Defines the offset of the base of the stack in the data area. */
-    private static final int STACK_BASE = REG_SIZE + HEAP_SIZE;
+    /** Holds the current heap size. */
+    private int heapSize;
 
-    /** Defines the trail size to use for the virtual machine. */
-    private static final int TRAIL_SIZE = 10000;
+    /** Holds the offset of the base of the stack in the data area. */
+    private int stackBase;
 
-    /** Defines the offset of the base of the trail in the data area. */
-    private static final int TRAIL_BASE = REG_SIZE + HEAP_SIZE + STACK_SIZE;
+    /** Holds the current stack size. */
+    private int stackSize;
 
-    /** Defines the max unification stack depth for the virtual machine. */
-    private static final int PDL_SIZE = 10000;
+    /** Holds the offset of the base of the trail in the data area. */
+    private int trailBase;
 
-    /** Defines the highest address in the data area of the virtual machine. */
-    private static final int TOP = REG_SIZE + HEAP_SIZE + STACK_SIZE + TRAIL_SIZE + PDL_SIZE;
+    /** Holds the current trail size. */
+    private int trailSize;
 
-    /** Defines the initial code area size for the virtual machine. */
-    private static final int CODE_SIZE = 1000000;
+    /** Holds the current unification stack size. */
+    private int pdlSize;
+
+    /** Holds the highest address in the data area. */
+    private int top;
+
+    /** Holds the heap pointer value, above which the heap must be grown. */
+    private int heapLimit;
+
+    /** Holds the decoded code, parallel to the code area. */
+    private int[] code;
 
     /** Holds the current instruction pointer into the code. */
     private int ip;
@@ -213,6 +461,9 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
     /** Used to record whether the machine is in structure read or write mode. */
     private boolean writeMode;
 
+    /** Holds the hash table reader used to look up indexing tables in the code area. */
+    private final CodeBufferTable indexTable = new IntIntOpenLinearTable();
+
     /** Holds the heap cell tag from the most recent dereference. */
     private byte derefTag;
 
@@ -222,29 +473,220 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
     /** Indicates that the machine has been suspended, upon finding a solution. */
     private boolean suspended;
 
+    /** Holds the number of heap cells in use, above which the heap is garbage collected. */
+    private int gcThreshold;
+
+    /** Holds the heap pointer value, above which the next garbage collection is triggered. */
+    private int gcLimit;
+
+    /** Holds the resource limits on each query. */
+    private WAMQueryLimits limits = new WAMQueryLimits();
+
+    /** Holds the resource limits on the current query, which are those of another machine whilst helping it. */
+    private WAMQueryLimits queryLimits = NO_LIMITS;
+
+    /** Holds the budget of the current query, when it is shared with other machines, or <tt>null</tt> if not. */
+    private WAMQueryBudget budget;
+
+    /** Holds the number of inferences made by the current query, that have been counted against its budget. */
+    private long budgetInferences;
+
+    /** Holds the number of inferences at which the budget of the current query is next checked. */
+    private long budgetCheck;
+
+    /** Holds the number of inferences made by the current query. */
+    private long inferences;
+
+    /** Holds the number of inferences at which the limits of the current query are next checked. */
+    private long limitCheck;
+
+    /** Holds the number of inferences at which the clock is next checked. */
+    private long timeCheck;
+
+    /** Holds the time in nanoseconds, by which the current query must finish, if it has a time limit. */
+    private long deadline;
+
+    /** Holds the profiler to record the predicates run against, or <tt>null</tt> if they are not being profiled. */
+    private WAMProfiler profiler;
+
+    /**
+     * Holds the predicate that each address in the code area belongs to, whilst profiling. Each entry is zero if not
+     * yet looked up, <tt>-1</tt> if the address is not in a predicate, or one more than the interned name of the
+     * predicate.
+     */
+    private int[] owners;
+
+    /** Holds the predicates by their entry points, whilst profiling, built when first needed after code changes. */
+    private SortedMap<Integer, WAMCallPoint> entryPoints;
+
+    /** Holds the mark bits of the live heap cells, during a garbage collection. */
+    private long[] gcMarks;
+
+    /** Holds bits marking which of the live heap cells are functor cells, during a garbage collection. */
+    private long[] gcFunctors;
+
+    /** Holds the number of live heap cells below each block of 64 cells, during a garbage collection. */
+    private int[] gcCounts;
+
+    /** Holds the addresses of live heap cells that have yet to be traced from, during a garbage collection. */
+    private int[] gcStack = new int[1024];
+
+    /** Holds the top of the garbage collection tracing stack. */
+    private int gcStackTop;
+
+    /** Holds the number of calls to a predicate, after which it is compiled, or zero to not compile. */
+    private int compileThreshold;
+
+    /**
+     * Holds the call points of the predicates in the code area, numbered in the order they were added. The number of
+     * the called predicate is decoded into call instructions, so that calls jump to its entry point, and can be
+     * counted. Number zero is used for calls to unknown code, and is never compiled. When calling through the procedure
+     * table, each functor keeps one number, and the call point under it is replaced whenever the predicate is
+     * (re)defined.
+     */
+    private WAMCallPoint[] callees;
+
+    /** Holds the number of call points numbered so far. */
+    private int numCallees;
+
+    /** Holds the numbers of the predicates in the code area, by their entry addresses. */
+    private Map<Integer, Integer> calleeNumbers;
+
+    /** Flags when calls are linked by name through the procedure table, rather than to entry addresses. */
+    private boolean procedureTable;
+
+    /** Holds the numbers of the call points in the procedure table, by the interned names of their functors. */
+    private Map<Integer, Integer> procedureSlots;
+
+    /** Holds the compiler used to compile hot predicates to Java byte code. */
+    private WAMBlockCompiler blockCompiler;
+
+    /** Holds the compiled blocks, numbered by the order they were compiled in. */
+    private WAMCompiledBlock[] compiledBlocks;
+
+    /** Holds the number of compiled blocks. */
+    private int numCompiledBlocks;
+
+    /** Holds the arithmetic stack. Integers are held as they are, and floats as their bits. */
+    private long[] arithStack = new long[ARITH_STACK_SIZE];
+
+    /** Flags which of the values on the arithmetic stack are floats. */
+    private boolean[] arithFloat = new boolean[ARITH_STACK_SIZE];
+
+    /** Holds the arithmetic stack pointer. */
+    private int arithTop;
+
+    /** Holds the arithmetic operators by their functor cells, for evaluating expressions built on the heap. */
+    private final Map<Integer, Byte> arithmeticFunctors = new HashMap<Integer, Byte>();
+
     /**
      * Creates a unifying virtual machine for WAM with default heap sizes.
      *
      * @param symbolTable The symbol table for the machine.
      */
     public WAMResolvingJavaMachine(SymbolTable<Integer, String, Object> symbolTable)
+    {
+        this(symbolTable, new WAMMemorySizes());
+    }
+
+    /**
+     * Creates a unifying virtual machine for WAM with the specified memory area sizes.
+     *
+     * @param symbolTable The symbol table for the machine.
+     * @param sizes       The initial and maximum sizes of the memory areas.
+     */
+    public WAMResolvingJavaMachine(SymbolTable<Integer, String, Object> symbolTable, WAMMemorySizes sizes)
     {
         super(symbolTable);
 
+        // All addresses in the data area must fit into the address part of a cell.
+        if (((long) REG_SIZE + sizes.maxHeapSize + sizes.maxStackSize + sizes.maxTrailSize + sizes.maxPdlSize) > AMASK)
+        {
+            throw new IllegalArgumentException("The maximum memory area sizes do not fit into the address space.");
+        }
+
+        this.sizes = sizes;
+        program = null;
+        pool = null;
+        gcThreshold = sizes.heapSize / 2;
+        maxCodeSize = sizes.maxCodeSize;
+
         // Reset the machine to its initial state.
         reset();
     }
 
+    /**
+     * Creates a worker machine, that runs the program of another machine. The code and call points of the program are
+     * shared, and the worker only writes to its own data areas and to its area of the code area for queries. The call
+     * points of the program are put in the symbol table, so that queries compiled against it can be linked to them.
+     *
+     * @param program       The machine holding the shared program.
+     * @param pool          The pool that the worker belongs to.
+     * @param symbolTable   The symbol table for the worker, to compile its queries against.
+     * @param queryArea     The start of the worker's area of the code area for queries.
+     * @param queryAreaSize The size of the worker's area of the code area for queries.
+     */
+    WAMResolvingJavaMachine(WAMResolvingJavaMachine program, WAMEnginePool pool,
+        SymbolTable<Integer, String, Object> symbolTable, int queryArea, int queryAreaSize)
+    {
+        super(symbolTable);
+
+        this.program = program;
+        this.pool = pool;
+        this.queryArea = queryArea;
+        sizes = program.sizes;
+        gcThreshold = program.gcThreshold;
+        maxCodeSize = queryAreaSize;
+        compileThreshold = 0;
+        shared = true;
+        procedureTable = program.procedureTable;
+        cutCode = program.cutCode;
+
+        // Take a view onto the shared code area, with a position of its own that is confined to the query area.
+        codeBuffer = program.codeBuffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        codeBuffer.limit(queryArea + queryAreaSize);
+        code = program.code;
+
+        callees = program.callees;
+        numCallees = program.numCallees;
+        calleeNumbers = program.calleeNumbers;
+        procedureSlots = program.procedureSlots;
+        factTables = program.factTables;
+        compiledBlocks = new WAMCompiledBlock[0];
+        reverseTable.putAll(program.reverseTable);
+
+        for (Object value : program.symbolTable.getValues(SYMKEY_CALLPOINTS))
+        {
+            if ((value instanceof WAMCallPoint) && !(value instanceof WAMReservedLabel))
+            {
+                symbolTable.put(((WAMCallPoint) value).name, SYMKEY_CALLPOINTS, value);
+            }
+        }
+
+        reset();
+    }
+
     /**
      * Resets the machine, to its initial state. This clears any programs from the machine, and clears all of its stacks
      * and heaps.
      */
     public void reset()
     {
-        // Create fresh heaps, code areas and stacks.
-        data = ByteBuffer.allocateDirect(TOP << 2).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
-        codeBuffer = ByteBuffer.allocateDirect(CODE_SIZE);
-        codeBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        // Stop any search or goals still running for the machine, before its data areas are replaced.
+        endSearch();
+        endJobs();
+
+        // Create fresh heaps and stacks, at their initial sizes.
+        heapSize = sizes.heapSize;
+        stackSize = sizes.stackSize;
+        trailSize = sizes.trailSize;
+        pdlSize = sizes.pdlSize;
+        stackBase = HEAP_BASE + heapSize;
+        trailBase = stackBase + stackSize;
+        top = trailBase + trailSize + pdlSize;
+        heapLimit = stackBase - HEAP_GUARD;
+
+        data = ByteBuffer.allocateDirect(top << 2).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
 
         // Registers are on the top of the data area, the heap comes next.
         hp = HEAP_BASE;
@@ -257,10 +699,10 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
         b0 = 0;
 
         // The trail comes after the stack.
-        trp = TRAIL_BASE;
+        trp = trailBase;
 
         // The unification stack (PDL) is a push down stack at the end of the data area.
-        up = TOP;
+        up = top;
 
         // Turn off write mode.
         writeMode = false;
@@ -275,12 +717,74 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
         // The machine is initially not suspended.
         suspended = false;
 
-        // Ensure that the overridden reset method of WAMBaseMachine is run too, to clear the call table.
-        super.reset();
+        // Garbage collection is first triggered at the configured threshold.
+        gcLimit = HEAP_BASE + gcThreshold;
+
+        // A worker keeps the program it shares, and only empties its query area.
+        if (program != null)
+        {
+            codeBuffer.position(queryArea);
+            queryCallPoint = null;
+        }
+        else
+        {
+            // Create a fresh code area, at its initial size.
+            codeBuffer = ByteBuffer.allocateDirect(sizes.codeSize);
+            codeBuffer.order(ByteOrder.LITTLE_ENDIAN);
+            code = new int[sizes.codeSize];
+
+            // Forget about any compiled code, and start counting calls afresh. Workers may still hold the old tables.
+            callees = new WAMCallPoint[] { new WAMCallPoint(-1, 0, -1) };
+            numCallees = 1;
+            calleeNumbers = new HashMap<Integer, Integer>();
+            procedureSlots = new HashMap<Integer, Integer>();
+            factTables = new ArrayList<WAMFactTable>();
+            blockCompiler = new WAMBlockCompiler();
+            compiledBlocks = new WAMCompiledBlock[16];
+            numCompiledBlocks = 0;
+            shared = false;
+
+            // Ensure that the overridden reset method of WAMBaseMachine is run too, to clear the call table.
+            super.reset();
+
+            // Put the internal functions in the call table.
+            setInternalCodeAddress(internFunctorName("call", 1), CALL_1_ID);
+            setInternalCodeAddress(internFunctorName("execute", 1), EXECUTE_1_ID);
+            setInternalCodeAddress(internFunctorName("$integer", 1), INTEGER_1_ID);
+            setInternalCodeAddress(internFunctorName("$float", 1), FLOAT_1_ID);
+            setInternalCodeAddress(internFunctorName("$number", 1), NUMBER_1_ID);
+            setInternalCodeAddress(internFunctorName("$par_start", 3), PAR_START_3_ID);
+            setInternalCodeAddress(internFunctorName("$par_join", 2), PAR_JOIN_2_ID);
+            setInternalCodeAddress(internFunctorName("$par_goal", 1), PAR_GOAL_1_ID);
+            setInternalCodeAddress(internFunctorName("$par_solution", 1), PAR_SOLUTION_1_ID);
+            setInternalCodeAddress(internFunctorName("$tbl_call", 2), TBL_CALL_2_ID);
+            setInternalCodeAddress(internFunctorName("$tbl_more", 1), TBL_MORE_1_ID);
+            setInternalCodeAddress(internFunctorName("$tbl_add", 2), TBL_ADD_2_ID);
+            setInternalCodeAddress(internFunctorName("$tbl_answers", 2), TBL_ANSWERS_2_ID);
+            setInternalCodeAddress(internFunctorName("$fa_begin", 1), FA_BEGIN_1_ID);
+            setInternalCodeAddress(internFunctorName("$fa_add", 2), FA_ADD_2_ID);
+            setInternalCodeAddress(internFunctorName("$fa_end", 2), FA_END_2_ID);
+            setInternalCodeAddress(internFunctorName("$bag_witness", 4), BAG_WITNESS_4_ID);
+            setInternalCodeAddress(internFunctorName("$bag_groups", 2), BAG_GROUPS_2_ID);
+            setInternalCodeAddress(internFunctorName("$sort", 2), SORT_2_ID);
+        }
+
+        clearTables();
 
-        // Put the internal functions in the call table.
-        setInternalCodeAddress(internFunctorName("call", 1), CALL_1_ID);
-        setInternalCodeAddress(internFunctorName("execute", 1), EXECUTE_1_ID);
+        nilCell = constantCell(internFunctorName("nil", 0));
+        memberFunctor = internFunctorName("member", 2);
+        consFunctor = internFunctorName("cons", 2);
+        collector.reset();
+
+        // Empty the arithmetic stack, and look up the functor cells of the arithmetic operators.
+        arithTop = 0;
+        arithmeticFunctors.clear();
+
+        for (Map.Entry<FunctorName, Byte> entry : WAMInstruction.getArithmeticOperators().entrySet())
+        {
+            FunctorName name = entry.getKey();
+            arithmeticFunctors.put((name.getArity() << 24) | (internFunctorName(name) & 0xffffff), entry.getValue());
+        }
 
         // Notify any debug monitor that the machine has been reset.
         if (monitor != null)
@@ -289,13 +793,46 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p/>Any search still suspended on the previous query is abandoned, as its code may be written over by the new
+     * one.
+     */
+    public void setQuery(WAMCompiledQuery query) throws LinkageException
+    {
+        abandonQuery();
+
+        super.setQuery(query);
+        directCall = false;
+    }
+
     /**
      * Provides an iterator that generates all solutions on demand as a sequence of variable bindings.
      *
+     * <p/>When queries are run OR-parallel, the iterator starts a search of the current query afresh, running it over
+     * this machine and the free engines of its pool.
+     *
      * @return An iterator that generates all solutions on demand as a sequence of variable bindings.
      */
     public Iterator<Set<Variable>> iterator()
     {
+        if (orParallel && !directCall)
+        {
+            if (currentQuery == null)
+            {
+                throw new IllegalStateException("No query set to resolve.");
+            }
+
+            abandonQuery();
+
+            int start = queryCallPoint.entryPoint;
+            int end = start + queryCallPoint.length;
+            search = new WAMOrParallelSearch(pool, this, currentQuery, start, end, hasCut(start, end), orOrdered);
+
+            return search;
+        }
+
         return new SequenceIterator<Set<Variable>>()
             {
                 public Set<Variable> nextInSequence()
@@ -306,80 +843,569 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
     }
 
     /**
-     * Sets the maximum number of search steps that a search method may take. If it fails to find a solution before this
-     * number of steps has been reached its search method should fail and return null. What exactly constitutes a single
-     * step, and the granularity of the step size, is open to different interpretation by different search algorithms.
-     * The guideline is that this is the maximum number of states on which the goal test should be performed.
+     * {@inheritDoc}
+     *
+     * <p/>A call is always run on this machine alone, even when queries are run OR-parallel, as its arguments are not
+     * part of its code for other machines to run it from.
+     */
+    public void setCall(String name, Object... arguments) throws LinkageException
+    {
+        FunctorName functorName = new FunctorName(name, arguments.length);
+
+        // The code of a call only depends on the predicate called, so it is kept to be used again for the same one.
+        if ((callQuery == null) || !functorName.equals(callFunctor))
+        {
+            callQuery = compileCall(functorName);
+            callFunctor = functorName;
+        }
+
+        setQuery(callQuery);
+        directCall = true;
+
+        // The arguments go on the heap of the query, so they are only put there once any previous query is cleared.
+        Map<Variable, Integer> variables = new HashMap<Variable, Integer>();
+
+        for (int i = 0; i < arguments.length; i++)
+        {
+            encode(i, arguments[i], variables);
+        }
+    }
+
+    /**
+     * Sets the maximum number of search steps that a search method may take. A step of a query is taken to be an
+     * inference, that is a call to a predicate. A query that takes more steps than this is abandoned, and a
+     * {@link WAMLimitException} raised, rather than failing, so that it is not mistaken for having no more solutions.
      *
-     * @param max The maximum number of states to goal test. If this is zero or less then the maximum number of steps
+     * @param max The maximum number of inferences per query. If this is zero or less then the maximum number of steps
      *            will not be checked for.
      */
     public void setMaxSteps(int max)
     {
-        throw new UnsupportedOperationException("WAMResolvingJavaMachine does not support max steps limit on search.");
+        limits.maxInferences = max;
     }
 
-    /** {@inheritDoc} */
-    public IntBuffer getDataBuffer()
+    /**
+     * Sets the resource limits on the queries run on this machine, starting with the next query to be run. A query
+     * that goes over any of its limits is abandoned, and a {@link WAMLimitException} raised.
+     *
+     * <p/>A step of a query is taken to be an inference, that is a call to a predicate, so the maximum number of
+     * inferences may also be set by {@link #setMaxSteps}.
+     *
+     * @param limits The resource limits on each query.
+     */
+    public void setLimits(WAMQueryLimits limits)
     {
-        return data;
+        WAMQueryLimits copy = new WAMQueryLimits();
+
+        copy.maxInferences = limits.maxInferences;
+        copy.maxHeap = limits.maxHeap;
+        copy.maxStack = limits.maxStack;
+        copy.maxTrail = limits.maxTrail;
+        copy.timeLimit = limits.timeLimit;
+
+        this.limits = copy;
     }
 
-    /** {@inheritDoc} */
-    public WAMInternalRegisters getInternalRegisters()
+    /**
+     * Provides the number of inferences, that is calls to predicates, made by the current query so far. The count
+     * starts again from zero each time a new query is run, and carries on across the solutions of the same query.
+     *
+     * @return The number of inferences made by the current query so far.
+     */
+    public long getInferences()
     {
-        return new WAMInternalRegisters(ip, hp, hbp, sp, up, ep, bp, b0, trp, writeMode);
+        return inferences;
     }
 
-    /** {@inheritDoc} */
-    public WAMMemoryLayout getMemoryLayout()
+    /**
+     * Sets the profiler to record the predicates run on this machine against. The profiler counts the ports of each
+     * predicate, and samples the time spent in each, every so many calls. When no profiler is set, the cost to the
+     * machine is a single test at each call, exit, choice point and failure.
+     *
+     * @param profiler The profiler to record against, or <tt>null</tt> to stop profiling.
+     */
+    public void setProfiler(WAMProfiler profiler)
     {
-        return new WAMMemoryLayout(0, REG_SIZE, HEAP_BASE, HEAP_SIZE, STACK_BASE, STACK_SIZE, TRAIL_BASE, TRAIL_SIZE,
-            TOP - PDL_SIZE, PDL_SIZE);
+        this.profiler = profiler;
+        owners = (profiler == null) ? null : new int[code.length];
+        entryPoints = null;
+
+        if (profiler != null)
+        {
+            profiler.resume();
+        }
+    }
+
+    /**
+     * Sets the number of heap cells in use, above which the heap is garbage collected. Collection happens at the next
+     * call once the heap has grown past the threshold. The live data left after a collection may itself be close to
+     * the threshold, in which case the next collection is put off until the heap has grown to double the live data.
+     *
+     * @param threshold The number of heap cells in use, above which the heap is garbage collected.
+     */
+    public void setGarbageCollectionThreshold(int threshold)
+    {
+        gcThreshold = threshold;
+        gcLimit = HEAP_BASE + threshold;
+    }
+
+    /**
+     * Sets the number of calls to a predicate, after which it is compiled to Java byte code. Straight runs of the
+     * instructions that move data and unify in the predicate are compiled, and the rest is still interpreted. Code is
+     * not compiled whilst a debug monitor is attached. Nothing is compiled unless a threshold is set.
+     *
+     * @param calls The number of calls to a predicate, after which it is compiled, or zero to not compile at all.
+     */
+    public void setCompilationThreshold(int calls)
+    {
+        checkNotShared();
+        compileThreshold = calls;
+    }
+
+    /**
+     * Sets whether calls are linked by name through a procedure table, rather than directly to the entry addresses of
+     * the predicates they call. Through the procedure table, predicates may be defined after the code that calls them,
+     * and redefined, without the calls to them being relinked, at the cost of a memory load on every call. The machine
+     * is reset, as the code in it was linked the other way, so this should be set before any code is added.
+     *
+     * @param enabled <tt>true</tt> to call through the procedure table, <tt>false</tt> to call entry points directly.
+     */
+    public void setProcedureTable(boolean enabled)
+    {
+        checkNotShared();
+        procedureTable = enabled;
+        reset();
+    }
+
+    /**
+     * Sets whether queries are run OR-parallel, over this machine and the engines of its pool that are free when the
+     * search starts. Branches of the search that no cut can remove are handed out to the engines as they become idle.
+     * Solutions may be read in the order that a sequential search would find them, or in the order that they are
+     * found, which lets the engines run further ahead of the reader.
+     *
+     * @param  enabled <tt>true</tt> to run queries OR-parallel, <tt>false</tt> to run them on this machine alone.
+     * @param  ordered <tt>true</tt> to read solutions in sequential order, <tt>false</tt> to read them as found.
+     *
+     * @throws IllegalStateException If the machine is not a worker of a pool.
+     */
+    public void setOrParallel(boolean enabled, boolean ordered)
+    {
+        if (pool == null)
+        {
+            throw new IllegalStateException("Only the workers of a pool can run queries OR-parallel.");
+        }
+
+        orParallel = enabled;
+        orOrdered = ordered;
     }
 
     /**
      * {@inheritDoc}
      *
-     * <p/>Does nothing.
+     * <p/>Any compiled code is put back to being interpreted, so that the monitor sees every instruction step.
      */
-    protected void codeAdded(ByteBuffer codeBuffer, int codeOffset, int length)
+    public void attachMonitor(WAMResolvingMachineDPIMonitor monitor)
     {
+        super.attachMonitor(monitor);
+        discardCompiledBlocks();
     }
 
-    /** {@inheritDoc} */
-    protected int derefStack(int a)
+    /**
+     * {@inheritDoc}
+     *
+     * <p/>The program cannot be changed once it is shared. Changing the program clears the tables of answers to calls
+     * to tabled predicates.
+     */
+    public void emmitCode(WAMCompiledPredicate predicate) throws LinkageException
     {
-        /*log.fine("Stack deref from " + (a + ep + 3) + ", ep = " + ep);*/
+        checkNotShared();
+        super.emmitCode(predicate);
 
-        return deref(a + ep + 3);
+        // The answers in the tables may no longer be right for the changed program.
+        clearTables();
     }
 
-    /** {@inheritDoc} */
-    protected boolean execute(WAMCallPoint callPoint)
+    /**
+     * Adds a table of facts to the program, as the predicate with the table's arity and the given name, replacing any
+     * previous definition of it. The indexes on the table are built, and no more rows can be added to it. A call to
+     * the predicate looks up the rows of the table, without any code for the facts being held in the code area.
+     *
+     * @param  name  The name of the predicate.
+     * @param  table The table of facts, which must intern its atoms with this machine.
+     *
+     * @throws LinkageException      If the code to call the table cannot be linked into the machine.
+     * @throws IllegalStateException If the program has been shared.
+     */
+    public void addFactTable(String name, WAMFactTable table) throws LinkageException
     {
-        /*log.fine("protected boolean execute(WAMCallPoint callPoint): called");*/
+        checkNotShared();
 
-        boolean failed;
+        // A choice point on a table saves the arguments, along with the column and row to look up next.
+        int arity = table.getArity();
 
-        // Check if the machine is being woken up from being suspended, in which case immediately fail in order to
-        // trigger back-tracking to find more solutions.
-        if (suspended)
-        {
-            failed = true;
-            suspended = false;
-        }
-        else
+        if ((arity + 2) > REG_SIZE)
         {
-            ip = callPoint.entryPoint;
-            uClear();
-            failed = false;
+            throw new IllegalArgumentException("A table of arity " + arity + " has too many columns to be called.");
         }
 
-        int numOfArgs = 0;
+        table.buildIndexes();
+        factTables.add(table);
 
-        // Holds the current continuation point.
-        cp = codeBuffer.position();
+        emmitCode(new FactTableCall(internFunctorName(name, arity), FACTS_ID | ((factTables.size() - 1) << 1),
+                arity));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p/>Tables of facts are held outside of the code area, and the code to call them only refers to them by their
+     * position in this machine, so a program with tables cannot be saved.
+     *
+     * @throws IllegalStateException If any tables of facts have been added to the program.
+     */
+    public void saveImage(File file) throws IOException
+    {
+        if (!factTables.isEmpty())
+        {
+            throw new IllegalStateException("A program with tables of facts cannot be saved as an image.");
+        }
+
+        super.saveImage(file);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p/>The program cannot be changed once it is shared.
+     */
+    public void loadImage(File file) throws IOException
+    {
+        checkNotShared();
+        super.loadImage(file);
+    }
+
+    /** {@inheritDoc} */
+    public IntBuffer getDataBuffer()
+    {
+        return data;
+    }
+
+    /** {@inheritDoc} */
+    public WAMInternalRegisters getInternalRegisters()
+    {
+        return new WAMInternalRegisters(ip, hp, hbp, sp, up, ep, bp, b0, trp, writeMode);
+    }
+
+    /** {@inheritDoc} */
+    public WAMMemoryLayout getMemoryLayout()
+    {
+        return new WAMMemoryLayout(0, REG_SIZE, HEAP_BASE, heapSize, stackBase, stackSize, trailBase, trailSize,
+            top - pdlSize, pdlSize);
+    }
+
+    /** {@inheritDoc} */
+    public void emmitCode(int offset, int address)
+    {
+        super.emmitCode(offset, address);
+
+        // Keep any decoded copy of the reference up to date. References are always decoded at their own address.
+        if (offset < code.length)
+        {
+            code[offset] = address;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p/>Through the procedure table, calls are linked by the name of the functor called.
+     */
+    public int linkCall(WAMCallPoint callPoint)
+    {
+        return procedureTable ? callPoint.name : callPoint.entryPoint;
+    }
+
+    /** {@inheritDoc} */
+    protected WAMCallPoint setCodeAddress(int functorName, int offset, int length)
+    {
+        WAMCallPoint callPoint = super.setCodeAddress(functorName, offset, length);
+
+        // Replace the call point in the procedure table, so that all calls to the predicate now find the new code.
+        if (procedureTable)
+        {
+            int number = procedureSlot(functorName);
+            callees[number] = callPoint;
+
+            return callPoint;
+        }
+
+        // Number the predicate, so that calls to it can be counted.
+        calleeNumbers.put(offset, addCallee(callPoint));
+
+        return callPoint;
+    }
+
+    /** {@inheritDoc} */
+    protected boolean isLinkedByName()
+    {
+        return procedureTable;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p/>Code is referenced when a suspended query may continue, or backtrack, into it. This is so if the instruction
+     * or continuation pointer points into it, or any environment or choice point that may yet be returned or
+     * backtracked into holds a continuation point or alternative clause within it.
+     */
+    protected boolean isCodeReferenced(int start, int end)
+    {
+        if (!suspended)
+        {
+            return false;
+        }
+
+        if (((ip >= start) && (ip < end)) || ((cp >= start) && (cp < end)) || isReturnedInto(ep, start, end))
+        {
+            return true;
+        }
+
+        for (int b = bp; b != 0; b = data.get(b + data.get(b) + 3))
+        {
+            int n = data.get(b);
+            int cont = data.get(b + n + 2);
+            int alternative = data.get(b + n + 4);
+
+            if (((cont >= start) && (cont < end)) || ((alternative >= start) && (alternative < end)) ||
+                    isReturnedInto(data.get(b + n + 1), start, end))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p/>The code of every current predicate, of retired predicates that a suspended query may still run, and of the
+     * query is scanned for calls onto the old definition. Compiled blocks never hold calls, so are skipped over. Calls
+     * through the procedure table never need relinking.
+     */
+    protected void relinkCalls(int from, int to)
+    {
+        if (procedureTable)
+        {
+            return;
+        }
+
+        for (int i = 1; i < numCallees; i++)
+        {
+            WAMCallPoint callPoint = callees[i];
+
+            if (resolveCallPoint(callPoint.name) == callPoint)
+            {
+                relinkCalls(callPoint.entryPoint, callPoint.entryPoint + callPoint.length, from, to);
+            }
+        }
+
+        for (WAMCallPoint callPoint : retiredCode)
+        {
+            relinkCalls(callPoint.entryPoint, callPoint.entryPoint + callPoint.length, from, to);
+        }
+
+        if (queryCallPoint != null)
+        {
+            relinkCalls(queryCallPoint.entryPoint, queryCallPoint.entryPoint + queryCallPoint.length, from, to);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p/>Forgets the predicates and compiled blocks that were in the freed code.
+     */
+    protected void codeFreed(int start, int length)
+    {
+        int end = start + length;
+
+        forgetOwners(start, end);
+
+        for (Iterator<Integer> i = calleeNumbers.keySet().iterator(); i.hasNext();)
+        {
+            int addr = i.next();
+
+            if ((addr >= start) && (addr < end))
+            {
+                i.remove();
+            }
+        }
+
+        for (int i = 0; i < numCompiledBlocks; i++)
+        {
+            if ((compiledBlocks[i] != null) && (compiledBlocks[i].start >= start) && (compiledBlocks[i].start < end))
+            {
+                compiledBlocks[i] = null;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p/>A worker cannot grow the code area that it shares, so has only the room left in its query area.
+     */
+    protected boolean reserveCode(int length)
+    {
+        return (program != null) ? (codeBuffer.remaining() >= length) : super.reserveCode(length);
+    }
+
+    /**
+     * Shares the program in this machine with worker machines. The program is put back to being interpreted, and
+     * frozen. Space for the query areas of the workers is set aside at the end of the code area, after which this
+     * machine goes on writing its own queries.
+     *
+     * @param  length The total size of the query areas of the workers.
+     *
+     * @return The start of the query areas of the workers.
+     *
+     * @throws WAMResourceException If the code area cannot grow to hold the query areas.
+     */
+    int share(int length)
+    {
+        checkNotShared();
+
+        if (!reserveCode(length))
+        {
+            throw new WAMResourceException(WAMResourceException.CODE, maxCodeSize);
+        }
+
+        discardCompiledBlocks();
+        compileThreshold = 0;
+
+        // Find the predicates with cuts in them, as the choice points that these can remove cannot be run in parallel.
+        // Those that evaluate tabled calls or collect solutions are found too, as the tables they evaluate and the
+        // solutions they collect are held by one machine alone.
+        cutCode = new BitSet();
+
+        for (Object value : symbolTable.getValues(SYMKEY_CALLPOINTS))
+        {
+            if ((value instanceof WAMCallPoint) && !(value instanceof WAMReservedLabel))
+            {
+                WAMCallPoint callPoint = (WAMCallPoint) value;
+                int end = callPoint.entryPoint + callPoint.length;
+
+                if ((callPoint.entryPoint >= 0) &&
+                        (hasCut(callPoint.entryPoint, end) || keepsSolutions(callPoint.entryPoint, end)))
+                {
+                    cutCode.set(callPoint.entryPoint, end);
+                }
+            }
+        }
+
+        shared = true;
+
+        int start = codeBuffer.position();
+        codeBuffer.position(start + length);
+        codeAdded(codeBuffer, start, 0);
+        queryCallPoint = null;
+
+        return start;
+    }
+
+    /**
+     * Checks that the program has not been shared, as it cannot be changed once it has been.
+     *
+     * @throws IllegalStateException If the program has been shared.
+     */
+    private void checkNotShared()
+    {
+        if (shared)
+        {
+            throw new IllegalStateException("The program of a machine cannot be changed once it is shared.");
+        }
+    }
+
+    /**
+     * Puts all compiled code back to being interpreted, and forgets about the compiled blocks.
+     */
+    private void discardCompiledBlocks()
+    {
+        for (int i = 0; i < numCompiledBlocks; i++)
+        {
+            if (compiledBlocks[i] != null)
+            {
+                decodeInstruction(codeBuffer, compiledBlocks[i].start);
+                compiledBlocks[i] = null;
+            }
+        }
+
+        numCompiledBlocks = 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p/>Decodes the new code into the int array that the interpreter runs over.
+     */
+    protected void codeAdded(ByteBuffer codeBuffer, int codeOffset, int length)
+    {
+        if (code.length < codeBuffer.capacity())
+        {
+            code = Arrays.copyOf(code, codeBuffer.capacity());
+        }
+
+        int end = codeOffset + length;
+
+        for (int addr = codeOffset; addr < end;)
+        {
+            addr += decodeInstruction(codeBuffer, addr);
+        }
+
+        forgetOwners(codeOffset, end);
+    }
+
+    /** {@inheritDoc} */
+    protected int derefStack(int a)
+    {
+        /*log.fine("Stack deref from " + (a + ep + 3) + ", ep = " + ep);*/
+
+        return deref(a + ep + 3);
+    }
+
+    /** {@inheritDoc} */
+    protected boolean execute(WAMCallPoint callPoint)
+    {
+        /*log.fine("protected boolean execute(WAMCallPoint callPoint): called");*/
+
+        boolean failed;
+
+        // Check if the machine is being woken up from being suspended, in which case immediately fail in order to
+        // trigger back-tracking to find more solutions.
+        if (suspended)
+        {
+            failed = true;
+            suspended = false;
+        }
+        else
+        {
+            ip = callPoint.entryPoint;
+            uClear();
+            failed = false;
+
+            startLimits();
+        }
+
+        if (profiler != null)
+        {
+            profiler.resume();
+        }
+
+        int numOfArgs = 0;
+
+        // Holds the current continuation point.
+        cp = codeBuffer.position();
 
         // Notify any debug monitor that execution is starting.
         if (monitor != null)
@@ -387,22 +1413,36 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
             monitor.onExecute(this);
         }
 
+        // The heap is checked for growth after every step, and the same check is used to step any debug monitor, by
+        // making it always pass when there is one. This keeps the debugging support to a single test per step.
+        int stepLimit = (monitor != null) ? 0 : heapLimit;
+
         //while (!failed && (ip < code.length))
         while (true)
         {
             // Attempt to backtrack on failure.
             if (failed)
             {
+                if (profiler != null)
+                {
+                    profiler.fail(ownerOf(ip));
+                }
+
                 failed = backtrack();
 
                 if (failed)
                 {
                     break;
                 }
+
+                if (profiler != null)
+                {
+                    profiler.redo(ownerOf(ip));
+                }
             }
 
             // Grab next instruction and switch on it.
-            byte instruction = codeBuffer.get(ip);
+            int instruction = code[ip];
 
             switch (instruction)
             {
@@ -410,20 +1450,13 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
             case PUT_STRUC:
             {
                 // grab addr, f/n
-                byte mode = codeBuffer.get(ip + 1);
+                int mode = code[ip + 1];
                 int xi = getRegisterOrStackSlot(mode);
-                int fn = codeBuffer.getInt(ip + 3);
+                int fn = code[ip + 3];
 
                 /*trace.fine(ip + ": PUT_STRUC " + printSlot(xi, mode) + ", " + fn);*/
 
-                // heap[h] <- STR, h + 1
-                data.put(hp, fn);
-
-                // Xi <- heap[h]
-                data.put(xi, structureAt(hp));
-
-                // h <- h + 2
-                hp += 1;
+                putStructure(xi, fn);
 
                 // P <- instruction_size(P)
                 ip += 7;
@@ -435,19 +1468,12 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
             case SET_VAR:
             {
                 // grab addr
-                byte mode = codeBuffer.get(ip + 1);
+                int mode = code[ip + 1];
                 int xi = getRegisterOrStackSlot(mode);
 
                 /*trace.fine(ip + ": SET_VAR " + printSlot(xi, mode));*/
 
-                // heap[h] <- REF, h
-                data.put(hp, refTo(hp));
-
-                // Xi <- heap[h]
-                data.put(xi, data.get(hp));
-
-                // h <- h + 1
-                hp++;
+                setVariable(xi);
 
                 // P <- instruction_size(P)
                 ip += 3;
@@ -459,16 +1485,12 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
             case SET_VAL:
             {
                 // grab addr
-                byte mode = codeBuffer.get(ip + 1);
+                int mode = code[ip + 1];
                 int xi = getRegisterOrStackSlot(mode);
 
                 /*trace.fine(ip + ": SET_VAL " + printSlot(xi, mode));*/
 
-                // heap[h] <- Xi
-                data.put(hp, data.get(xi));
-
-                // h <- h + 1
-                hp++;
+                setValue(xi);
 
                 // P <- instruction_size(P)
                 ip += 3;
@@ -480,108 +1502,30 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
             case GET_STRUC:
             {
                 // grab addr, f/n
-                byte mode = codeBuffer.get(ip + 1);
+                int mode = code[ip + 1];
                 int xi = getRegisterOrStackSlot(mode);
-                int fn = codeBuffer.getInt(ip + 3);
+                int fn = code[ip + 3];
 
                 /*trace.fine(ip + ": GET_STRUC " + printSlot(xi, mode) + ", " + fn);*/
 
-                // addr <- deref(Xi);
-                int addr = deref(xi);
-                byte tag = derefTag;
-                int a = derefVal;
-
-                // switch STORE[addr]
-                switch (tag)
-                {
-                // case REF:
-                case REF:
-                {
-                    // heap[h] <- STR, h + 1
-                    data.put(hp, structureAt(hp + 1));
-
-                    // heap[h+1] <- f/n
-                    data.put(hp + 1, fn);
+                failed = !getStructure(xi, fn);
 
-                    // bind(addr, h)
-                    bind(addr, hp);
-
-                    // h <- h + 2
-                    hp += 2;
+                // P <- instruction_size(P)
+                ip += 7;
 
-                    // mode <- write
-                    writeMode = true;
-                    /*trace.fine("-> write mode");*/
-
-                    break;
-                }
-
-                // case STR, a:
-                case STR:
-                {
-                    // if heap[a] = f/n
-                    if (data.get(a) == fn)
-                    {
-                        // s <- a + 1
-                        sp = a + 1;
-
-                        // mode <- read
-                        writeMode = false;
-                        /*trace.fine("-> read mode");*/
-                    }
-                    else
-                    {
-                        // fail
-                        failed = true;
-                    }
-
-                    break;
-                }
-
-                default:
-                {
-                    // fail
-                    failed = true;
-                }
-                }
-
-                // P <- instruction_size(P)
-                ip += 7;
-
-                break;
-            }
+                break;
+            }
 
             // unify_var Xi:
             case UNIFY_VAR:
             {
                 // grab addr
-                byte mode = codeBuffer.get(ip + 1);
+                int mode = code[ip + 1];
                 int xi = getRegisterOrStackSlot(mode);
 
                 /*trace.fine(ip + ": UNIFY_VAR " + printSlot(xi, mode));*/
 
-                // switch mode
-                if (!writeMode)
-                {
-                    // case read:
-                    // Xi <- heap[s]
-                    data.put(xi, data.get(sp));
-                }
-                else
-                {
-                    // case write:
-                    // heap[h] <- REF, h
-                    data.put(hp, refTo(hp));
-
-                    // Xi <- heap[h]
-                    data.put(xi, data.get(hp));
-
-                    // h <- h + 1
-                    hp++;
-                }
-
-                // s <- s + 1
-                sp++;
+                unifyVariable(xi);
 
                 // P <- P + instruction_size(P)
                 ip += 3;
@@ -593,30 +1537,12 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
             case UNIFY_VAL:
             {
                 // grab addr
-                byte mode = codeBuffer.get(ip + 1);
+                int mode = code[ip + 1];
                 int xi = getRegisterOrStackSlot(mode);
 
                 /*trace.fine(ip + ": UNIFY_VAL " + printSlot(xi, mode));*/
 
-                // switch mode
-                if (!writeMode)
-                {
-                    // case read:
-                    // unify (Xi, s)
-                    failed = !unify(xi, sp);
-                }
-                else
-                {
-                    // case write:
-                    // heap[h] <- Xi
-                    data.put(hp, data.get(xi));
-
-                    // h <- h + 1
-                    hp++;
-                }
-
-                // s <- s + 1
-                sp++;
+                failed = !unifyValue(xi);
 
                 // P <- P + instruction_size(P)
                 ip += 3;
@@ -628,34 +1554,13 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
             case PUT_VAR:
             {
                 // grab addr, Ai
-                byte mode = codeBuffer.get(ip + 1);
+                int mode = code[ip + 1];
                 int xi = getRegisterOrStackSlot(mode);
-                byte ai = codeBuffer.get(ip + 3);
+                int ai = code[ip + 3];
 
                 /*trace.fine(ip + ": PUT_VAR " + printSlot(xi, mode) + ", A" + ai);*/
 
-                if (mode == WAMInstruction.REG_ADDR)
-                {
-                    // heap[h] <- REF, H
-                    data.put(hp, refTo(hp));
-
-                    // Xn <- heap[h]
-                    data.put(xi, data.get(hp));
-
-                    // Ai <- heap[h]
-                    data.put(ai, data.get(hp));
-                }
-                else
-                {
-                    // STACK[addr] <- REF, addr
-                    data.put(xi, refTo(xi));
-
-                    // Ai <- STACK[addr]
-                    data.put(ai, data.get(xi));
-                }
-
-                // h <- h + 1
-                hp++;
+                putVariable(mode, xi, ai);
 
                 // P <- P + instruction_size(P)
                 ip += 4;
@@ -667,14 +1572,13 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
             case PUT_VAL:
             {
                 // grab addr, Ai
-                byte mode = codeBuffer.get(ip + 1);
+                int mode = code[ip + 1];
                 int xi = getRegisterOrStackSlot(mode);
-                byte ai = codeBuffer.get(ip + 3);
+                int ai = code[ip + 3];
 
                 /*trace.fine(ip + ": PUT_VAL " + printSlot(xi, mode) + ", A" + ai);*/
 
-                // Ai <- Xn
-                data.put(ai, data.get(xi));
+                putValue(xi, ai);
 
                 // P <- P + instruction_size(P)
                 ip += 4;
@@ -686,14 +1590,13 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
             case GET_VAR:
             {
                 // grab addr, Ai
-                byte mode = codeBuffer.get(ip + 1);
+                int mode = code[ip + 1];
                 int xi = getRegisterOrStackSlot(mode);
-                byte ai = codeBuffer.get(ip + 3);
+                int ai = code[ip + 3];
 
                 /*trace.fine(ip + ": GET_VAR " + printSlot(xi, mode) + ", A" + ai);*/
 
-                // Xn <- Ai
-                data.put(xi, data.get(ai));
+                getVariable(xi, ai);
 
                 // P <- P + instruction_size(P)
                 ip += 4;
@@ -705,14 +1608,13 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
             case GET_VAL:
             {
                 // grab addr, Ai
-                byte mode = codeBuffer.get(ip + 1);
+                int mode = code[ip + 1];
                 int xi = getRegisterOrStackSlot(mode);
-                byte ai = codeBuffer.get(ip + 3);
+                int ai = code[ip + 3];
 
                 /*trace.fine(ip + ": GET_VAL " + printSlot(xi, mode) + ", A" + ai);*/
 
-                // unify (Xn, Ai)
-                failed = !unify(xi, ai);
+                failed = !getValue(xi, ai);
 
                 // P <- P + instruction_size(P)
                 ip += 4;
@@ -723,14 +1625,13 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
             case PUT_CONST:
             {
                 // grab addr, f/n
-                byte mode = codeBuffer.get(ip + 1);
+                int mode = code[ip + 1];
                 int xi = getRegisterOrStackSlot(mode);
-                int fn = codeBuffer.getInt(ip + 3);
+                int fn = code[ip + 3];
 
                 /*trace.fine(ip + ": PUT_CONST " + printSlot(xi, mode) + ", " + fn);*/
 
-                // Xi <- heap[h]
-                data.put(xi, constantCell(fn));
+                putConstant(xi, fn);
 
                 // P <- instruction_size(P)
                 ip += 7;
@@ -741,18 +1642,13 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
             case GET_CONST:
             {
                 // grab addr, Ai
-                byte mode = codeBuffer.get(ip + 1);
+                int mode = code[ip + 1];
                 int xi = getRegisterOrStackSlot(mode);
-                int fn = codeBuffer.getInt(ip + 3);
+                int fn = code[ip + 3];
 
                 /*trace.fine(ip + ": GET_CONST " + printSlot(xi, mode) + ", " + fn);*/
 
-                // addr <- deref(Xi)
-                int addr = deref(xi);
-                int tag = derefTag;
-                int val = derefVal;
-
-                failed = !unifyConst(fn, xi);
+                failed = !getConstant(xi, fn);
 
                 // P <- P + instruction_size(P)
                 ip += 7;
@@ -762,15 +1658,11 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
 
             case SET_CONST:
             {
-                int fn = codeBuffer.getInt(ip + 1);
+                int fn = code[ip + 1];
 
                 /*trace.fine(ip + ": SET_CONST " + fn);*/
 
-                // heap[h] <- <CON, c>
-                data.put(hp, constantCell(fn));
-
-                // h <- h + 1
-                hp++;
+                setConstant(fn);
 
                 // P <- instruction_size(P)
                 ip += 5;
@@ -780,31 +1672,11 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
 
             case UNIFY_CONST:
             {
-                int fn = codeBuffer.getInt(ip + 1);
+                int fn = code[ip + 1];
 
                 /*trace.fine(ip + ": UNIFY_CONST " + fn);*/
 
-                // switch mode
-                if (!writeMode)
-                {
-                    // case read:
-                    // addr <- deref(S)
-
-                    // unifyConst(fn, addr)
-                    failed = !unifyConst(fn, sp);
-                }
-                else
-                {
-                    // case write:
-                    // heap[h] <- <CON, c>
-                    data.put(hp, constantCell(fn));
-
-                    // h <- h + 1
-                    hp++;
-                }
-
-                // s <- s + 1
-                sp++;
+                failed = !unifyConstant(fn);
 
                 // P <- P + instruction_size(P)
                 ip += 5;
@@ -815,13 +1687,12 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
             case PUT_LIST:
             {
                 // grab addr
-                byte mode = codeBuffer.get(ip + 1);
+                int mode = code[ip + 1];
                 int xi = getRegisterOrStackSlot(mode);
 
                 /*trace.fine(ip + ": PUT_LIST " + printSlot(xi, mode));*/
 
-                // Xi <- <LIS, H>
-                data.put(xi, listCell(hp));
+                putList(xi);
 
                 // P <- P + instruction_size(P)
                 ip += 3;
@@ -832,56 +1703,12 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
             case GET_LIST:
             {
                 // grab addr
-                byte mode = codeBuffer.get(ip + 1);
+                int mode = code[ip + 1];
                 int xi = getRegisterOrStackSlot(mode);
 
                 /*trace.fine(ip + ": GET_LIST " + printSlot(xi, mode));*/
 
-                int addr = deref(xi);
-                int tag = derefTag;
-                int val = derefVal;
-
-                // case STORE[addr] of
-                switch (tag)
-                {
-                case REF:
-                {
-                    // <REF, _> :
-                    // HEAP[H] <- <LIS, H+1>
-                    data.put(hp, listCell(hp + 1));
-
-                    // bind(addr, H)
-                    bind(addr, hp);
-
-                    // H <- H + 1
-                    hp += 1;
-
-                    // mode <- write
-                    writeMode = true;
-                    /*trace.fine("-> write mode");*/
-
-                    break;
-                }
-
-                case LIS:
-                {
-                    // <LIS, a> :
-                    // S <- a
-                    sp = val;
-
-                    // mode <- read
-                    writeMode = false;
-                    /*trace.fine("-> read mode");*/
-
-                    break;
-                }
-
-                default:
-                {
-                    // other: fail <- true;
-                    failed = true;
-                }
-                }
+                failed = !getList(xi);
 
                 // P <- P + instruction_size(P)
                 ip += 3;
@@ -892,19 +1719,11 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
             case SET_VOID:
             {
                 // grab N
-                int n = (int) codeBuffer.get(ip + 1);
+                int n = code[ip + 1];
 
                 /*trace.fine(ip + ": SET_VOID " + n);*/
 
-                // for i <- H to H + n - 1 do
-                //  HEAP[i] <- <REF, i>
-                for (int addr = hp; addr < (hp + n); addr++)
-                {
-                    data.put(addr, refTo(addr));
-                }
-
-                // H <- H + n
-                hp += n;
+                setVoid(n);
 
                 // P <- P + instruction_size(P)
                 ip += 2;
@@ -915,29 +1734,11 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
             case UNIFY_VOID:
             {
                 // grab N
-                int n = (int) codeBuffer.get(ip + 1);
+                int n = code[ip + 1];
 
                 /*trace.fine(ip + ": UNIFY_VOID " + n);*/
 
-                // case mode of
-                if (!writeMode)
-                {
-                    //  read: S <- S + n
-                    sp += n;
-                }
-                else
-                {
-                    //  write:
-                    //   for i <- H to H + n -1 do
-                    //    HEAP[i] <- <REF, i>
-                    for (int addr = hp; addr < (hp + n); addr++)
-                    {
-                        data.put(addr, refTo(addr));
-                    }
-
-                    //   H <- H + n
-                    hp += n;
-                }
+                unifyVoid(n);
 
                 // P <- P + instruction_size(P)
                 ip += 2;
@@ -949,26 +1750,13 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
             case PUT_UNSAFE_VAL:
             {
                 // grab addr, Ai
-                byte mode = codeBuffer.get(ip + 1);
-                int yi = (int) codeBuffer.get(ip + 2) + (ep + 3);
-                byte ai = codeBuffer.get(ip + 3);
+                int mode = code[ip + 1];
+                int yi = code[ip + 2] + (ep + 3);
+                int ai = code[ip + 3];
 
                 /*trace.fine(ip + ": PUT_UNSAFE_VAL " + printSlot(yi, WAMInstruction.STACK_ADDR) + ", A" + ai);*/
 
-                int addr = deref(yi);
-
-                if (addr < ep)
-                {
-                    // Ai <- Xn
-                    data.put(ai, data.get(addr));
-                }
-                else
-                {
-                    data.put(hp, refTo(hp));
-                    bind(addr, hp);
-                    data.put(ai, data.get(hp));
-                    hp++;
-                }
+                putUnsafeValue(yi, ai);
 
                 // P <- P + instruction_size(P)
                 ip += 4;
@@ -980,25 +1768,12 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
             case SET_LOCAL_VAL:
             {
                 // grab addr
-                byte mode = codeBuffer.get(ip + 1);
+                int mode = code[ip + 1];
                 int xi = getRegisterOrStackSlot(mode);
 
                 /*trace.fine(ip + ": SET_LOCAL_VAL " + printSlot(xi, mode));*/
 
-                int addr = deref(xi);
-
-                if (addr < ep)
-                {
-                    data.put(hp, data.get(addr));
-                }
-                else
-                {
-                    data.put(hp, refTo(hp));
-                    bind(addr, hp);
-                }
-
-                // h <- h + 1
-                hp++;
+                setLocalValue(xi);
 
                 // P <- P + instruction_size(P)
                 ip += 3;
@@ -1010,39 +1785,12 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
             case UNIFY_LOCAL_VAL:
             {
                 // grab addr
-                byte mode = codeBuffer.get(ip + 1);
+                int mode = code[ip + 1];
                 int xi = getRegisterOrStackSlot(mode);
 
                 /*trace.fine(ip + ": UNIFY_LOCAL_VAL " + printSlot(xi, mode));*/
 
-                // switch mode
-                if (!writeMode)
-                {
-                    // case read:
-                    // unify (Xi, s)
-                    failed = !unify(xi, sp);
-                }
-                else
-                {
-                    // case write:
-                    int addr = deref(xi);
-
-                    if (addr < ep)
-                    {
-                        data.put(hp, data.get(addr));
-                    }
-                    else
-                    {
-                        data.put(hp, refTo(hp));
-                        bind(addr, hp);
-                    }
-
-                    // h <- h + 1
-                    hp++;
-                }
-
-                // s <- s + 1
-                sp++;
+                failed = !unifyLocalValue(xi);
 
                 // P <- P + instruction_size(P)
                 ip += 3;
@@ -1054,9 +1802,10 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
             case CALL:
             {
                 // grab @(p/n), perms
-                int pn = codeBuffer.getInt(ip + 1);
-                int n = codeBuffer.get(ip + 5);
-                int numPerms = (int) codeBuffer.get(ip + 6);
+                WAMCallPoint callee = callees[code[ip + 2]];
+                int pn = callee.entryPoint;
+                int n = code[ip + 5];
+                int numPerms = code[ip + 6];
 
                 // num_of_args <- n
                 numOfArgs = n;
@@ -1069,6 +1818,47 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
                     break;
                 }
 
+                // Count the call, and compile the called predicate once it is hot.
+                if (++callee.callCount == compileThreshold)
+                {
+                    compilePredicate(callee);
+                }
+
+                // Count the inference, and stop the query if it has gone over any of its limits.
+                if (++inferences >= limitCheck)
+                {
+                    checkLimits();
+                }
+
+                if (profiler != null)
+                {
+                    profileCall(callee.name, false);
+                }
+
+                // Collect garbage on the heap, if it has grown past the collection threshold.
+                if (hp > gcLimit)
+                {
+                    collectGarbage(n, ip + 7);
+                }
+
+                // Give work away to an OR-parallel search that wants it, or stop if the search has been cancelled.
+                if ((task != null) && task.search.signalled && task.search.interrupt(task, this))
+                {
+                    bp = 0;
+                    failed = true;
+
+                    break;
+                }
+
+                // Stop running a goal in parallel, once it is no longer wanted.
+                if ((job != null) && job.cancelled)
+                {
+                    bp = 0;
+                    failed = true;
+
+                    break;
+                }
+
                 // STACK[E + 2] <- numPerms
                 data.put(ep + 2, numPerms);
 
@@ -1090,8 +1880,9 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
             case EXECUTE:
             {
                 // grab @(p/n)
-                int pn = codeBuffer.getInt(ip + 1);
-                int n = codeBuffer.get(ip + 5);
+                WAMCallPoint callee = callees[code[ip + 2]];
+                int pn = callee.entryPoint;
+                int n = code[ip + 5];
 
                 // num_of_args <- n
                 numOfArgs = n;
@@ -1106,6 +1897,47 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
                     break;
                 }
 
+                // Count the call, and compile the called predicate once it is hot.
+                if (++callee.callCount == compileThreshold)
+                {
+                    compilePredicate(callee);
+                }
+
+                // Count the inference, and stop the query if it has gone over any of its limits.
+                if (++inferences >= limitCheck)
+                {
+                    checkLimits();
+                }
+
+                if (profiler != null)
+                {
+                    profileCall(callee.name, true);
+                }
+
+                // Collect garbage on the heap, if it has grown past the collection threshold.
+                if (hp > gcLimit)
+                {
+                    collectGarbage(n, cp);
+                }
+
+                // Give work away to an OR-parallel search that wants it, or stop if the search has been cancelled.
+                if ((task != null) && task.search.signalled && task.search.interrupt(task, this))
+                {
+                    bp = 0;
+                    failed = true;
+
+                    break;
+                }
+
+                // Stop running a goal in parallel, once it is no longer wanted.
+                if ((job != null) && job.cancelled)
+                {
+                    bp = 0;
+                    failed = true;
+
+                    break;
+                }
+
                 // B0 <- B
                 b0 = bp;
 
@@ -1120,6 +1952,12 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
             {
                 /*trace.fine(ip + ": PROCEED" + " (cp = " + cp + ")]");*/
 
+                // Any choice point above the one current at the call, was left behind by the predicate.
+                if (profiler != null)
+                {
+                    profiler.exit(ownerOf(ip), bp > b0);
+                }
+
                 // P <- CP
                 ip = cp;
 
@@ -1160,7 +1998,7 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
             case ALLOCATE_N:
             {
                 // grab N
-                int n = (int) codeBuffer.get(ip + 1);
+                int n = code[ip + 1];
 
                 // if E > B
                 //  then newB <- E + STACK[E + 2] + 3
@@ -1176,6 +2014,13 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
                 // STACK[E + 2] <- N
                 data.put(esp + 2, n);
 
+                // Initialize the permanent variables as unbound, so that the garbage collector never finds stale
+                // references in them.
+                for (int i = esp + 3; i < (esp + 3 + n); i++)
+                {
+                    data.put(i, refTo(i));
+                }
+
                 // E <- newE
                 // newE <- E + n + 3
                 ep = esp;
@@ -1213,7 +2058,12 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
             case TRY_ME_ELSE:
             {
                 // grab L
-                int l = codeBuffer.getInt(ip + 1);
+                int l = code[ip + 1];
+
+                if (profiler != null)
+                {
+                    profiler.choicePoint(ownerOf(ip));
+                }
 
                 // if E > B
                 //  then newB <- E + STACK[E + 2] + 3
@@ -1271,7 +2121,7 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
             case RETRY_ME_ELSE:
             {
                 // grab L
-                int l = codeBuffer.getInt(ip + 1);
+                int l = code[ip + 1];
 
                 // n <- STACK[B]
                 int n = data.get(bp);
@@ -1357,14 +2207,17 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
             case SWITCH_ON_TERM:
             {
                 // grab labels
-                int v = codeBuffer.getInt(ip + 1);
-                int c = codeBuffer.getInt(ip + 5);
-                int l = codeBuffer.getInt(ip + 9);
-                int s = codeBuffer.getInt(ip + 13);
+                int v = code[ip + 1];
+                int c = code[ip + 5];
+                int l = code[ip + 9];
+                int s = code[ip + 13];
+
+                deref(0);
 
-                int addr = deref(1);
                 int tag = derefTag;
 
+                /*trace.fine(ip + ": SWITCH_ON_TERM " + v + ", " + c + ", " + l + ", " + s);*/
+
                 // case STORE[deref(A1)] of
                 switch (tag)
                 {
@@ -1393,19 +2246,28 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
                     break;
                 }
 
+                // A zero address means that there is no clause for this type of term, so backtrack.
+                if (ip == 0)
+                {
+                    failed = true;
+                }
+
                 break;
             }
 
             case SWITCH_ON_CONST:
             {
                 // grab labels
-                int t = codeBuffer.getInt(ip + 1);
-                int n = codeBuffer.getInt(ip + 5);
+                int t = code[ip + 1];
+                int n = code[ip + 5];
 
                 // <tag, val> <- STORE[deref(A1)]
-                deref(1);
+                int addr = deref(0);
 
-                int val = derefVal;
+                // The table is keyed on the constant cell itself.
+                int val = data.get(addr);
+
+                /*trace.fine(ip + ": SWITCH_ON_CONST " + t + ", " + n);*/
 
                 // <found, inst> <- get_hash(val, T, N)
                 int inst = getHash(val, t, n);
@@ -1428,13 +2290,16 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
             case SWITCH_ON_STRUC:
             {
                 // grab labels
-                int t = codeBuffer.getInt(ip + 1);
-                int n = codeBuffer.getInt(ip + 5);
+                int t = code[ip + 1];
+                int n = code[ip + 5];
 
                 // <tag, val> <- STORE[deref(A1)]
-                deref(1);
+                deref(0);
+
+                // The table is keyed on the functor cell of the structure.
+                int val = data.get(derefVal);
 
-                int val = derefVal;
+                /*trace.fine(ip + ": SWITCH_ON_STRUC " + t + ", " + n);*/
 
                 // <found, inst> <- get_hash(val, T, N)
                 int inst = getHash(val, t, n);
@@ -1457,7 +2322,12 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
             case TRY:
             {
                 // grab L
-                int l = codeBuffer.getInt(ip + 1);
+                int l = code[ip + 1];
+
+                if (profiler != null)
+                {
+                    profiler.choicePoint(ownerOf(ip));
+                }
 
                 // if E > B
                 //  then newB <- E + STACK[E + 2] + 3
@@ -1514,7 +2384,7 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
             case RETRY:
             {
                 // grab L
-                int l = codeBuffer.getInt(ip + 1);
+                int l = code[ip + 1];
 
                 // n <- STACK[B]
                 int n = data.get(bp);
@@ -1558,7 +2428,7 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
             case TRUST:
             {
                 // grab L
-                int l = codeBuffer.getInt(ip + 1);
+                int l = code[ip + 1];
 
                 // n <- STACK[B]
                 int n = data.get(bp);
@@ -1617,11 +2487,11 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
 
             case GET_LEVEL:
             {
-                int yn = (int) codeBuffer.get(ip + 1) + (ep + 3);
+                int yn = code[ip + 1] + (ep + 3);
 
                 data.put(yn, b0);
 
-                /*trace.fine(ip + ": GET_LEVEL " + codeBuffer.get(ip + 1));*/
+                /*trace.fine(ip + ": GET_LEVEL " + code[ip + 1]);*/
 
                 ip += 2;
 
@@ -1630,7 +2500,7 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
 
             case CUT:
             {
-                int yn = (int) codeBuffer.get(ip + 1) + (ep + 3);
+                int yn = code[ip + 1] + (ep + 3);
 
                 int cbp = data.get(yn);
 
@@ -1640,7 +2510,7 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
                     tidyTrail();
                 }
 
-                /*trace.fine(ip + ": CUT " + codeBuffer.get(ip + 1));*/
+                /*trace.fine(ip + ": CUT " + code[ip + 1]);*/
                 /*trace.fine("<- chp @ " + bp + " " + traceChoiceFrame());*/
 
                 ip += 2;
@@ -1651,7 +2521,7 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
             case CONTINUE:
             {
                 // grab L
-                int l = codeBuffer.getInt(ip + 1);
+                int l = code[ip + 1];
 
                 /*trace.fine(ip + ": CONTINUE " + l);*/
 
@@ -1669,683 +2539,5080 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
                 break;
             }
 
-            // call_internal @(p/n), perms:
-            case CALL_INTERNAL:
-            {
-                // grab @(p/n), perms
-                int pn = codeBuffer.getInt(ip + 1);
-                int n = codeBuffer.get(ip + 5);
-                int numPerms = (int) codeBuffer.get(ip + 6);
+            // jit_index @(p/n):
+            case JIT_INDEX:
+            {
+                // grab p/n
+                int fn = code[ip + 1];
+
+                /*trace.fine(ip + ": JIT_INDEX " + fn);*/
+
+                // Jump to the clauses selected by any bound non-first argument, or else try them all.
+                ip = jitIndex(fn & 0x00ffffff, ip + 5, numOfArgs);
+
+                // A zero address means that there are no clauses matching the bound argument, so backtrack.
+                if (ip == 0)
+                {
+                    failed = true;
+                }
+
+                break;
+            }
+
+            // call_internal @(p/n), perms:
+            case CALL_INTERNAL:
+            {
+                // grab @(p/n), perms
+                int pn = code[ip + 1];
+                int n = code[ip + 5];
+                int numPerms = code[ip + 6];
+
+                /*trace.fine(ip + ": CALL_INTERNAL " + pn + "/" + n + ", " + numPerms + " (cp = " + cp + ")]");*/
+
+                internalCallArity = n;
+
+                // Count the inference, as the internal function may call on to another predicate.
+                if (++inferences >= limitCheck)
+                {
+                    checkLimits();
+                }
+
+                boolean callOk = callInternal(pn, n, numPerms);
+
+                // num_of_args <- the arity of any predicate called by the internal function
+                numOfArgs = internalCallArity;
+
+                failed = !callOk;
+
+                break;
+            }
+
+            // put_int Xi, n:
+            case PUT_INT:
+            {
+                // grab addr, n
+                int mode = code[ip + 1];
+                int xi = getRegisterOrStackSlot(mode);
+                int n = code[ip + 3];
+
+                /*trace.fine(ip + ": PUT_INT " + printSlot(xi, mode) + ", " + n);*/
+
+                data.put(xi, intCell(n));
+
+                // P <- P + instruction_size(P)
+                ip += 7;
+
+                break;
+            }
+
+            // get_int Xi, n:
+            case GET_INT:
+            {
+                // grab addr, n
+                int mode = code[ip + 1];
+                int xi = getRegisterOrStackSlot(mode);
+                int n = code[ip + 3];
+
+                /*trace.fine(ip + ": GET_INT " + printSlot(xi, mode) + ", " + n);*/
+
+                failed = !unifyNumber(xi, n, false);
+
+                // P <- P + instruction_size(P)
+                ip += 7;
+
+                break;
+            }
+
+            // put_float Xi, f:
+            case PUT_FLOAT:
+            {
+                // grab addr, f
+                int mode = code[ip + 1];
+                int xi = getRegisterOrStackSlot(mode);
+                long f = ((long) code[ip + 3] << 32) | (code[ip + 7] & 0xffffffffL);
+
+                /*trace.fine(ip + ": PUT_FLOAT " + printSlot(xi, mode) + ", " + Double.longBitsToDouble(f));*/
+
+                data.put(xi, floatCell(f));
+
+                // P <- P + instruction_size(P)
+                ip += 11;
+
+                break;
+            }
+
+            // get_float Xi, f:
+            case GET_FLOAT:
+            {
+                // grab addr, f
+                int mode = code[ip + 1];
+                int xi = getRegisterOrStackSlot(mode);
+                long f = ((long) code[ip + 3] << 32) | (code[ip + 7] & 0xffffffffL);
+
+                /*trace.fine(ip + ": GET_FLOAT " + printSlot(xi, mode) + ", " + Double.longBitsToDouble(f));*/
+
+                failed = !unifyNumber(xi, f, true);
+
+                // P <- P + instruction_size(P)
+                ip += 11;
+
+                break;
+            }
+
+            // arith_load Xi:
+            case ARITH_LOAD:
+            {
+                // grab addr
+                int mode = code[ip + 1];
+                int xi = getRegisterOrStackSlot(mode);
+
+                /*trace.fine(ip + ": ARITH_LOAD " + printSlot(xi, mode));*/
+
+                arithEvaluate(xi);
+
+                // P <- P + instruction_size(P)
+                ip += 3;
+
+                break;
+            }
+
+            // arith_int n:
+            case ARITH_INT:
+            {
+                /*trace.fine(ip + ": ARITH_INT " + code[ip + 1]);*/
+
+                arithPush(code[ip + 1], false);
+
+                // P <- P + instruction_size(P)
+                ip += 5;
+
+                break;
+            }
+
+            // arith_float f:
+            case ARITH_FLOAT:
+            {
+                /*trace.fine(ip + ": ARITH_FLOAT " + code[ip + 1] + ", " + code[ip + 5]);*/
+
+                arithPush(((long) code[ip + 1] << 32) | (code[ip + 5] & 0xffffffffL), true);
+
+                // P <- P + instruction_size(P)
+                ip += 9;
+
+                break;
+            }
+
+            // arith_op op:
+            case ARITH_OP:
+            {
+                /*trace.fine(ip + ": ARITH_OP " + code[ip + 1]);*/
+
+                arithApply(code[ip + 1]);
+
+                // P <- P + instruction_size(P)
+                ip += 2;
+
+                break;
+            }
+
+            // arith_cmp op:
+            case ARITH_CMP:
+            {
+                /*trace.fine(ip + ": ARITH_CMP " + code[ip + 1]);*/
+
+                failed = !arithCompare(code[ip + 1]);
+
+                // P <- P + instruction_size(P)
+                ip += 2;
+
+                break;
+            }
+
+            // arith_put Xi:
+            case ARITH_PUT:
+            {
+                // grab addr
+                int mode = code[ip + 1];
+                int xi = getRegisterOrStackSlot(mode);
+
+                /*trace.fine(ip + ": ARITH_PUT " + printSlot(xi, mode));*/
+
+                data.put(xi, arithPopCell());
+
+                // P <- P + instruction_size(P)
+                ip += 3;
+
+                break;
+            }
+
+            // arith_get Xi:
+            case ARITH_GET:
+            {
+                // grab addr
+                int mode = code[ip + 1];
+                int xi = getRegisterOrStackSlot(mode);
+
+                /*trace.fine(ip + ": ARITH_GET " + printSlot(xi, mode));*/
+
+                arithTop--;
+                failed = !unifyNumber(xi, arithStack[arithTop], arithFloat[arithTop]);
+
+                // P <- P + instruction_size(P)
+                ip += 3;
+
+                break;
+            }
+
+            // run a compiled block:
+            case COMPILED:
+            {
+                WAMCompiledBlock block = compiledBlocks[code[ip + 1]];
+
+                /*trace.fine(ip + ": COMPILED " + code[ip + 1] + " to " + block.end);*/
+
+                failed = !block.execute();
+
+                ip = block.end;
+
+                break;
+            }
+
+            // suspend on success:
+            case SUSPEND:
+            {
+                /*trace.fine(ip + ": SUSPEND");*/
+                ip += 1;
+                suspended = true;
+
+                return true;
+            }
+            }
+
+            if (hp > stepLimit)
+            {
+                // Grow the heap if it is close to running into the stack.
+                while (hp > heapLimit)
+                {
+                    grow(heapSize, 0, 0, 0);
+                }
+
+                // Notify any debug monitor that the machine has been stepped.
+                if (monitor != null)
+                {
+                    monitor.onStep(this);
+                }
+
+                stepLimit = (monitor != null) ? 0 : heapLimit;
+            }
+        }
+
+        return !failed;
+    }
+
+    /**
+     * Resolves a register or stack slot number to an address in the data area. This is the same as
+     * {@link #getRegisterOrStackSlot}, but for instructions that are not being interpreted.
+     *
+     * @param  mode The mode, {@link WAMInstruction#REG_ADDR} for register addressing, {@link WAMInstruction#STACK_ADDR}
+     *              for stack addressing.
+     * @param  reg  The register or stack slot number.
+     *
+     * @return The address of the register or stack slot.
+     */
+    int slot(int mode, int reg)
+    {
+        return reg + ((mode == STACK_ADDR) ? (ep + 3) : 0);
+    }
+
+    /**
+     * put_struc Xi, f/n: Creates a structure on the heap, and places a reference to it in a register.
+     *
+     * @param xi The address of the register.
+     * @param fn The functor of the structure.
+     */
+    void putStructure(int xi, int fn)
+    {
+        // heap[h] <- STR, h + 1
+        data.put(hp, fn);
+
+        // Xi <- heap[h]
+        data.put(xi, structureAt(hp));
+
+        // h <- h + 2
+        hp += 1;
+    }
+
+    /**
+     * set_var Xi: Creates a fresh variable on the heap, and places it in a register.
+     *
+     * @param xi The address of the register.
+     */
+    void setVariable(int xi)
+    {
+        // heap[h] <- REF, h
+        data.put(hp, refTo(hp));
+
+        // Xi <- heap[h]
+        data.put(xi, data.get(hp));
+
+        // h <- h + 1
+        hp++;
+    }
+
+    /**
+     * set_val Xi: Copies a register onto the heap.
+     *
+     * @param xi The address of the register.
+     */
+    void setValue(int xi)
+    {
+        // heap[h] <- Xi
+        data.put(hp, data.get(xi));
+
+        // h <- h + 1
+        hp++;
+    }
+
+    /**
+     * set_local_val Xi: Copies a register onto the heap, moving it onto the heap first if it is an unbound variable
+     * on the stack.
+     *
+     * @param xi The address of the register.
+     */
+    void setLocalValue(int xi)
+    {
+        int addr = deref(xi);
+
+        if (addr < ep)
+        {
+            data.put(hp, data.get(addr));
+
+            // h <- h + 1
+            hp++;
+        }
+        else
+        {
+            data.put(hp, refTo(hp));
+
+            // h <- h + 1, before binding, as trailing the binding may grow the data area.
+            hp++;
+
+            bind(addr, hp - 1);
+        }
+    }
+
+    /**
+     * set_const c: Places a constant on the heap.
+     *
+     * @param fn The constant.
+     */
+    void setConstant(int fn)
+    {
+        // heap[h] <- <CON, c>
+        data.put(hp, constantCell(fn));
+
+        // h <- h + 1
+        hp++;
+    }
+
+    /**
+     * set_void n: Creates fresh variables on the heap.
+     *
+     * @param n The number of variables to create.
+     */
+    void setVoid(int n)
+    {
+        // for i <- H to H + n - 1 do
+        //  HEAP[i] <- <REF, i>
+        for (int addr = hp; addr < (hp + n); addr++)
+        {
+            data.put(addr, refTo(addr));
+        }
+
+        // H <- H + n
+        hp += n;
+    }
+
+    /**
+     * put_list Xi: Places a reference to a list cell, about to be created on the heap, in a register.
+     *
+     * @param xi The address of the register.
+     */
+    void putList(int xi)
+    {
+        // Xi <- <LIS, H>
+        data.put(xi, listCell(hp));
+    }
+
+    /**
+     * put_var Xn, Ai: Creates a fresh variable, and places it in a register or stack slot, and an argument register.
+     *
+     * @param mode The addressing mode of the register or stack slot.
+     * @param xi   The address of the register or stack slot.
+     * @param ai   The address of the argument register.
+     */
+    void putVariable(int mode, int xi, int ai)
+    {
+        if (mode == WAMInstruction.REG_ADDR)
+        {
+            // heap[h] <- REF, H
+            data.put(hp, refTo(hp));
+
+            // Xn <- heap[h]
+            data.put(xi, data.get(hp));
+
+            // Ai <- heap[h]
+            data.put(ai, data.get(hp));
+        }
+        else
+        {
+            // STACK[addr] <- REF, addr
+            data.put(xi, refTo(xi));
+
+            // Ai <- STACK[addr]
+            data.put(ai, data.get(xi));
+        }
+
+        // h <- h + 1
+        hp++;
+    }
+
+    /**
+     * put_val Xn, Ai: Copies a register or stack slot into an argument register.
+     *
+     * @param xi The address of the register or stack slot.
+     * @param ai The address of the argument register.
+     */
+    void putValue(int xi, int ai)
+    {
+        // Ai <- Xn
+        data.put(ai, data.get(xi));
+    }
+
+    /**
+     * put_unsafe_val Yn, Ai: Copies a stack slot into an argument register, moving it onto the heap first if it is an
+     * unbound variable in the current environment, which is about to be discarded.
+     *
+     * @param yi The address of the stack slot.
+     * @param ai The address of the argument register.
+     */
+    void putUnsafeValue(int yi, int ai)
+    {
+        int addr = deref(yi);
+
+        if (addr < ep)
+        {
+            // Ai <- Xn
+            data.put(ai, data.get(addr));
+        }
+        else
+        {
+            data.put(hp, refTo(hp));
+            hp++;
+            bind(addr, hp - 1);
+            data.put(ai, data.get(hp - 1));
+        }
+    }
+
+    /**
+     * put_const Xi, c: Places a constant in a register.
+     *
+     * @param xi The address of the register.
+     * @param fn The constant.
+     */
+    void putConstant(int xi, int fn)
+    {
+        // Xi <- heap[h]
+        data.put(xi, constantCell(fn));
+    }
+
+    /**
+     * get_var Xn, Ai: Copies an argument register into a register or stack slot.
+     *
+     * @param xi The address of the register or stack slot.
+     * @param ai The address of the argument register.
+     */
+    void getVariable(int xi, int ai)
+    {
+        // Xn <- Ai
+        data.put(xi, data.get(ai));
+    }
+
+    /**
+     * get_val Xn, Ai: Unifies a register or stack slot with an argument register.
+     *
+     * @param  xi The address of the register or stack slot.
+     * @param  ai The address of the argument register.
+     *
+     * @return <tt>true</tt> if the unification succeeds.
+     */
+    boolean getValue(int xi, int ai)
+    {
+        // unify (Xn, Ai)
+        return unify(xi, ai);
+    }
+
+    /**
+     * get_const Xi, c: Unifies a register with a constant.
+     *
+     * @param  xi The address of the register.
+     * @param  fn The constant.
+     *
+     * @return <tt>true</tt> if the unification succeeds.
+     */
+    boolean getConstant(int xi, int fn)
+    {
+        return unifyConst(fn, xi);
+    }
+
+    /**
+     * get_struc Xi, f/n: Matches a register against a structure, either entering read mode to match its arguments
+     * against an existing structure, or binding it to a new structure and entering write mode to build the arguments.
+     *
+     * @param  xi The address of the register.
+     * @param  fn The functor of the structure.
+     *
+     * @return <tt>true</tt> if the match succeeds.
+     */
+    boolean getStructure(int xi, int fn)
+    {
+        // addr <- deref(Xi);
+        int addr = deref(xi);
+        byte tag = derefTag;
+        int a = derefVal;
+
+        // switch STORE[addr]
+        switch (tag)
+        {
+        // case REF:
+        case REF:
+        {
+            // heap[h] <- STR, h + 1
+            data.put(hp, structureAt(hp + 1));
+
+            // heap[h+1] <- f/n
+            data.put(hp + 1, fn);
+
+            // h <- h + 2, before binding, as trailing the binding may grow the data area.
+            hp += 2;
+
+            // bind(addr, h)
+            bind(addr, hp - 2);
+
+            // mode <- write
+            writeMode = true;
+            /*trace.fine("-> write mode");*/
+
+            return true;
+        }
+
+        // case STR, a:
+        case STR:
+        {
+            // if heap[a] = f/n
+            if (data.get(a) == fn)
+            {
+                // s <- a + 1
+                sp = a + 1;
+
+                // mode <- read
+                writeMode = false;
+                /*trace.fine("-> read mode");*/
+
+                return true;
+            }
+
+            // fail
+            return false;
+        }
+
+        default:
+        {
+            // fail
+            return false;
+        }
+        }
+    }
+
+    /**
+     * get_list Xi: Matches a register against a list cell, either entering read mode to match against an existing
+     * list cell, or binding it to a new list cell and entering write mode to build it.
+     *
+     * @param  xi The address of the register.
+     *
+     * @return <tt>true</tt> if the match succeeds.
+     */
+    boolean getList(int xi)
+    {
+        int addr = deref(xi);
+        int tag = derefTag;
+        int val = derefVal;
+
+        // case STORE[addr] of
+        switch (tag)
+        {
+        case REF:
+        {
+            // <REF, _> :
+            // HEAP[H] <- <LIS, H+1>
+            data.put(hp, listCell(hp + 1));
+
+            // H <- H + 1, before binding, as trailing the binding may grow the data area.
+            hp += 1;
+
+            // bind(addr, H)
+            bind(addr, hp - 1);
+
+            // mode <- write
+            writeMode = true;
+            /*trace.fine("-> write mode");*/
+
+            return true;
+        }
+
+        case LIS:
+        {
+            // <LIS, a> :
+            // S <- a
+            sp = val;
+
+            // mode <- read
+            writeMode = false;
+            /*trace.fine("-> read mode");*/
+
+            return true;
+        }
+
+        default:
+        {
+            // other: fail <- true;
+            return false;
+        }
+        }
+    }
+
+    /**
+     * unify_var Xi: Loads the next argument of a structure being matched into a register, or creates a fresh variable
+     * for it when building.
+     *
+     * @param xi The address of the register.
+     */
+    void unifyVariable(int xi)
+    {
+        // switch mode
+        if (!writeMode)
+        {
+            // case read:
+            // Xi <- heap[s]
+            data.put(xi, data.get(sp));
+        }
+        else
+        {
+            // case write:
+            // heap[h] <- REF, h
+            data.put(hp, refTo(hp));
+
+            // Xi <- heap[h]
+            data.put(xi, data.get(hp));
+
+            // h <- h + 1
+            hp++;
+        }
+
+        // s <- s + 1
+        sp++;
+    }
+
+    /**
+     * unify_val Xi: Unifies the next argument of a structure being matched with a register, or copies the register
+     * into it when building.
+     *
+     * @param  xi The address of the register.
+     *
+     * @return <tt>true</tt> if the unification succeeds.
+     */
+    boolean unifyValue(int xi)
+    {
+        boolean unified = true;
+
+        // switch mode
+        if (!writeMode)
+        {
+            // case read:
+            // unify (Xi, s)
+            unified = unify(xi, sp);
+        }
+        else
+        {
+            // case write:
+            // heap[h] <- Xi
+            data.put(hp, data.get(xi));
+
+            // h <- h + 1
+            hp++;
+        }
+
+        // s <- s + 1
+        sp++;
+
+        return unified;
+    }
+
+    /**
+     * unify_local_val Xi: Unifies the next argument of a structure being matched with a register, or copies the
+     * register into it when building, moving it onto the heap first if it is an unbound variable on the stack.
+     *
+     * @param  xi The address of the register.
+     *
+     * @return <tt>true</tt> if the unification succeeds.
+     */
+    boolean unifyLocalValue(int xi)
+    {
+        boolean unified = true;
+
+        // switch mode
+        if (!writeMode)
+        {
+            // case read:
+            // unify (Xi, s)
+            unified = unify(xi, sp);
+        }
+        else
+        {
+            // case write:
+            int addr = deref(xi);
+
+            if (addr < ep)
+            {
+                data.put(hp, data.get(addr));
+
+                // h <- h + 1
+                hp++;
+            }
+            else
+            {
+                data.put(hp, refTo(hp));
+
+                // h <- h + 1, before binding, as trailing the binding may grow the data area.
+                hp++;
+
+                bind(addr, hp - 1);
+            }
+        }
+
+        // s <- s + 1
+        sp++;
+
+        return unified;
+    }
+
+    /**
+     * unify_const c: Unifies the next argument of a structure being matched with a constant, or places the constant
+     * into it when building.
+     *
+     * @param  fn The constant.
+     *
+     * @return <tt>true</tt> if the unification succeeds.
+     */
+    boolean unifyConstant(int fn)
+    {
+        boolean unified = true;
+
+        // switch mode
+        if (!writeMode)
+        {
+            // case read:
+            // unifyConst(fn, addr)
+            unified = unifyConst(fn, sp);
+        }
+        else
+        {
+            // case write:
+            // heap[h] <- <CON, c>
+            data.put(hp, constantCell(fn));
+
+            // h <- h + 1
+            hp++;
+        }
+
+        // s <- s + 1
+        sp++;
+
+        return unified;
+    }
+
+    /**
+     * unify_void n: Skips over arguments of a structure being matched, or creates fresh variables for them when
+     * building.
+     *
+     * @param n The number of arguments.
+     */
+    void unifyVoid(int n)
+    {
+        // case mode of
+        if (!writeMode)
+        {
+            //  read: S <- S + n
+            sp += n;
+        }
+        else
+        {
+            //  write:
+            //   for i <- H to H + n -1 do
+            //    HEAP[i] <- <REF, i>
+            for (int addr = hp; addr < (hp + n); addr++)
+            {
+                data.put(addr, refTo(addr));
+            }
+
+            //   H <- H + n
+            hp += n;
+        }
+    }
+
+    /**
+     * Pretty prints the current environment frame, for debugging purposes.
+     *
+     * @return The current environment frame, pretty printed.
+     */
+    protected String traceEnvFrame()
+    {
+        return "env: [ ep = " + data.get(ep) + ", cp = " + data.get(ep + 1) + ", n = " + data.get(ep + 2) + "]";
+    }
+
+    /**
+     * Pretty prints the current choice point frame, for debugging purposes.
+     *
+     * @return The current choice point frame, pretty printed.
+     */
+    protected String traceChoiceFrame()
+    {
+        if (bp == 0)
+        {
+            return "";
+        }
+
+        int n = data.get(bp);
+
+        return "choice: [ n = " + data.get(bp) + ", ep = " + data.get(bp + n + 1) + ", cp = " + data.get(bp + n + 2) +
+            ", bp = " + data.get(bp + n + 3) + ", l = " + data.get(bp + n + 4) + ", trp = " + data.get(bp + n + 5) +
+            ", hp = " + data.get(bp + n + 6) + ", b0 = " + data.get(bp + n + 7);
+    }
+
+    /** {@inheritDoc} */
+    protected int deref(int a)
+    {
+        // tag, value <- STORE[a]
+        int addr = a;
+        int tmp = data.get(a);
+        derefTag = (byte) (tmp >>> TSHIFT);
+        derefVal = tmp & AMASK;
+
+        // while tag = REF and value != a
+        while ((derefTag == WAMInstruction.REF))
+        {
+            // tag, value <- STORE[a]
+            addr = derefVal;
+            tmp = data.get(derefVal);
+            derefTag = (byte) (tmp >>> TSHIFT);
+            tmp = tmp & AMASK;
+
+            // Break on free var.
+            if (derefVal == tmp)
+            {
+                break;
+            }
+
+            derefVal = tmp;
+        }
+
+        return addr;
+    }
+
+    /**
+     * Gets the heap cell tag for the most recent dereference operation.
+     *
+     * @return The heap cell tag for the most recent dereference operation.
+     */
+    protected byte getDerefTag()
+    {
+        return derefTag;
+    }
+
+    /**
+     * Gets the heap cell value for the most recent dereference operation.
+     *
+     * @return The heap cell value for the most recent dereference operation.
+     */
+    protected int getDerefVal()
+    {
+        return derefVal;
+    }
+
+    /**
+     * Gets the value of the heap cell at the specified location.
+     *
+     * @param  addr The address to fetch from the heap.
+     *
+     * @return The heap cell at the specified location.
+     */
+    protected int getHeap(int addr)
+    {
+        return data.get(addr);
+    }
+
+    /**
+     * Sets the value of the heap cell, or register, at the specified location.
+     *
+     * @param addr The address to write to.
+     * @param cell The cell to write there.
+     */
+    void setHeap(int addr, int cell)
+    {
+        data.put(addr, cell);
+    }
+
+    /**
+     * Gets the cell of the empty list.
+     *
+     * @return The cell of the empty list.
+     */
+    int getNilCell()
+    {
+        return nilCell;
+    }
+
+    /**
+     * Pushes a list cell onto the heap. There must be room on the heap for it.
+     *
+     * @param  head The cell holding the head of the list.
+     * @param  tail The cell holding the tail of the list.
+     *
+     * @return A cell holding the list.
+     */
+    int pushList(int head, int tail)
+    {
+        data.put(hp, head);
+        data.put(hp + 1, tail);
+        hp += 2;
+
+        return listCell(hp - 2);
+    }
+
+    /**
+     * Invokes an internal function.
+     *
+     * @param  function The id of the internal function to call.
+     * @param  arity    The arity of the function to call.
+     * @param  numPerms The number of permanent variables remaining in the environment.
+     *
+     * @return <tt>true</tt> if the call succeeded, and <tt>false</tt> if it failed.
+     */
+    private boolean callInternal(int function, int arity, int numPerms)
+    {
+        switch (function)
+        {
+        case CALL_1_ID:
+            return internalCall_1(numPerms);
+
+        case EXECUTE_1_ID:
+            return internalExecute_1();
+
+        case INTEGER_1_ID:
+        case FLOAT_1_ID:
+        case NUMBER_1_ID:
+            return internalTypeCheck(function);
+
+        case PAR_START_3_ID:
+            return internalParStart();
+
+        case PAR_JOIN_2_ID:
+            return internalParJoin(numPerms);
+
+        case PAR_GOAL_1_ID:
+            return internalParGoal();
+
+        case PAR_SOLUTION_1_ID:
+            return internalParSolution();
+
+        case TBL_CALL_2_ID:
+            return internalTableCall();
+
+        case TBL_MORE_1_ID:
+            return internalTableMore();
+
+        case TBL_ADD_2_ID:
+            return internalTableAdd();
+
+        case TBL_ANSWERS_2_ID:
+            return internalTableAnswers();
+
+        case FA_BEGIN_1_ID:
+        case FA_ADD_2_ID:
+        case FA_END_2_ID:
+        case BAG_WITNESS_4_ID:
+        case BAG_GROUPS_2_ID:
+        case SORT_2_ID:
+            return internalCollect(function);
+
+        default:
+            if ((function & FACTS_ID) != 0)
+            {
+                return internalFacts(function, arity);
+            }
+
+            throw new IllegalStateException("Unknown internal function id: " + function);
+        }
+    }
+
+    /**
+     * Implements the 'call/1' predicate.
+     *
+     * @param  numPerms The number of permanent variables remaining in the environment.
+     *
+     * @return <tt>true</tt> if the call succeeded, and <tt>false</tt> if it failed.
+     */
+    private boolean internalCall_1(int numPerms)
+    {
+        int pn = setupCall_1();
+
+        if (pn == -1)
+        {
+            return false;
+        }
+
+        // Make the call.
+        // STACK[E + 2] <- numPerms
+        data.put(ep + 2, numPerms);
+
+        // CP <- P + instruction_size(P)
+        cp = ip + 7;
+
+        /*trace.fine(ip + ": (CALL) " + pn + ", " + numPerms + " (cp = " + cp + ")]");*/
+
+        // B0 <- B
+        b0 = bp;
+
+        // P <- @(p/n)
+        ip = pn;
+
+        return true;
+    }
+
+    /**
+     * Implements the execute variant of the 'call/1' predicate.
+     *
+     * @return <tt>true</tt> if the call succeeded, and <tt>false</tt> if it failed.
+     */
+    private boolean internalExecute_1()
+    {
+        int pn = setupCall_1();
+
+        if (pn == -1)
+        {
+            return false;
+        }
+
+        // Make the call.
+        /*trace.fine(ip + ": (EXECUTE) " + pn + " (cp = " + cp + ")]");*/
+
+        // B0 <- B
+        b0 = bp;
+
+        // P <- @(p/n)
+        ip = pn;
+
+        return true;
+    }
+
+    /**
+     * Implements the 'integer/1', 'float/1' and 'number/1' predicates, checking the type of the number in the first
+     * argument register.
+     *
+     * @param  function The id of the internal function, which identifies the type to check for.
+     *
+     * @return <tt>true</tt> if the first argument is a number of the type checked for.
+     */
+    private boolean internalTypeCheck(int function)
+    {
+        deref(0);
+
+        boolean isInt =
+            ((derefTag == CON) && ((derefVal & SMALL_INT) != 0)) ||
+            ((derefTag == STR) && (data.get(derefVal) == BOXED_INT));
+        boolean isFloat = (derefTag == STR) && (data.get(derefVal) == BOXED_FLOAT);
+
+        // P <- P + instruction_size(P)
+        ip += 7;
+
+        switch (function)
+        {
+        case INTEGER_1_ID:
+            return isInt;
+
+        case FLOAT_1_ID:
+            return isFloat;
+
+        default:
+            return isInt || isFloat;
+        }
+    }
+
+    /**
+     * Sets up the registers to make a call, for implementing call/1. The first register should reference a structure to
+     * be turned into a predicate call. The arguments of this structure will be set up in the registers, and the entry
+     * point of the predicate to call will be returned.
+     *
+     * @return The entry address of the predicate to call, or <tt>-1</tt> if the call cannot be resolved to a known
+     *         predicate.
+     */
+    private int setupCall_1()
+    {
+        // Get X0.
+        int addr = deref(0);
+        byte tag = derefTag;
+        int val = derefVal;
+
+        // Check it points to a structure.
+        int fn;
+
+        if ((tag == STR) && (getHeap(val) != BOXED_INT) && (getHeap(val) != BOXED_FLOAT))
+        {
+            fn = getHeap(val);
+        }
+        else if ((tag == CON) && ((val & SMALL_INT) == 0))
+        {
+            fn = val;
+        }
+        else
+        {
+            /*trace.fine("call/1 not invoked against structure.");*/
+
+            return -1;
+        }
+
+        // Look up the call point of the matching functor.
+        int f = fn & 0x00ffffff;
+
+        WAMCallPoint callPoint = resolveCallPoint(f);
+
+        if (callPoint.entryPoint == -1)
+        {
+            /*trace.fine("call/1 to unknown call point.");*/
+
+            return -1;
+        }
+
+        int pn = callPoint.entryPoint;
+
+        // Set registers X0... to ref to args...
+        FunctorName functorName = getDeinternedFunctorName(f);
+        int arity = functorName.getArity();
+        internalCallArity = arity;
+
+        for (int i = 0; i < arity; i++)
+        {
+            data.put(i, refTo(val + 1 + i));
+        }
+
+        return pn;
+    }
+
+    /**
+     * Implements the '$par_start'/3 predicate, that starts the goal in the first argument register running on a free
+     * engine of the pool that this machine is a worker of, and binds the third to a handle on it. The goal is only
+     * started if it shares no unbound variables with the term in the second argument register, which holds the
+     * variables of the goals that run before it. Otherwise, or if there is no engine free, or if this machine is not
+     * a worker, the handle is bound to zero, and the goal is to be run as usual.
+     *
+     * @return <tt>true</tt> if the handle unifies with the third argument.
+     */
+    private boolean internalParStart()
+    {
+        int handle = 0;
+
+        // Goals are not run in parallel within an OR-parallel search, as its branches may be taken by other machines.
+        if ((pool != null) && (task == null) && (numJobs < MAX_SMALL_INT))
+        {
+            sweepJobs();
+
+            deref(0);
+
+            boolean callable =
+                ((derefTag == STR) && (data.get(derefVal) != BOXED_INT) && (data.get(derefVal) != BOXED_FLOAT)) ||
+                ((derefTag == CON) && ((derefVal & SMALL_INT) == 0));
+
+            Map<Integer, Integer> vars = new HashMap<Integer, Integer>();
+            WAMTermCopy goal = callable ? copyOut(0, vars) : null;
+            WAMEngine engine = ((goal != null) && !sharesVariables(1, vars)) ? pool.poll() : null;
+
+            if (engine != null)
+            {
+                handle = ++numJobs;
+
+                WAMAndParallelJob started = new WAMAndParallelJob(handle, hp, goal, pool, engine, shareLimits());
+                jobs.add(started);
+                pool.execute(started);
+            }
+        }
+
+        // P <- P + instruction_size(P)
+        ip += 7;
+
+        return unifyNumber(2, handle, false);
+    }
+
+    /**
+     * Implements the '$par_join'/2 predicate, that joins the solutions to the goal in the second argument register,
+     * started in parallel with the handle in the first. It waits for the goal to finish running, then copies its
+     * solutions onto the heap as a list, and calls member/2 to unify the goal with each of them in turn. If the goal
+     * was not run in parallel, or not all of its solutions were found, it calls the goal instead, as call/1 would. If
+     * the goal raised an error, the error is raised here, as it would have been had the goal been called here.
+     *
+     * @param  numPerms The number of permanent variables remaining in the environment.
+     *
+     * @return <tt>true</tt> if the call succeeded, and <tt>false</tt> if it failed.
+     */
+    private boolean internalParJoin(int numPerms)
+    {
+        deref(0);
+
+        boolean isHandle = (derefTag == CON) && ((derefVal & SMALL_INT) != 0);
+        WAMAndParallelJob started = isHandle ? findJob((derefVal << 3) >> 3) : null;
+        List<WAMTermCopy> solutions = null;
+
+        if (started != null)
+        {
+            try
+            {
+                solutions = started.await();
+            }
+            catch (WAMLimitException e)
+            {
+                // The goal went over the limits of the query, so the query is stopped as if it had done so here.
+                stopQuery(e);
+            }
+            catch (WAMArithmeticException e)
+            {
+                // The goal evaluated an expression with no value, so the query is stopped as if it had done so here.
+                stopQuery(e);
+            }
+        }
+        int pn = (solutions != null) ? resolveCallPoint(memberFunctor).entryPoint : -1;
+
+        // Move the goal into the first argument register, to be called, or unified with its solutions.
+        data.put(0, data.get(1));
+
+        if (pn == -1)
+        {
+            return internalCall_1(numPerms);
+        }
+
+        putTermList(1, solutions);
+
+        // Make the call.
+        // STACK[E + 2] <- numPerms
+        data.put(ep + 2, numPerms);
+
+        // CP <- P + instruction_size(P)
+        cp = ip + 7;
+
+        /*trace.fine(ip + ": (CALL) " + pn + ", " + numPerms + " (cp = " + cp + ")]");*/
+
+        // B0 <- B
+        b0 = bp;
+
+        // P <- @(p/n)
+        ip = pn;
+
+        return true;
+    }
+
+    /**
+     * Implements the '$par_goal'/1 predicate, that unifies the first argument register with the goal that this
+     * machine is to run in parallel.
+     *
+     * @return <tt>true</tt> if the goal unifies with the first argument.
+     */
+    private boolean internalParGoal()
+    {
+        if (job == null)
+        {
+            return false;
+        }
+
+        while ((hp + job.goal.cells.length) > heapLimit)
+        {
+            grow(heapSize, 0, 0, 0);
+        }
+
+        int goal = copyIn(job.goal);
+
+        // P <- P + instruction_size(P)
+        ip += 7;
+
+        return unify(0, goal);
+    }
+
+    /**
+     * Implements the '$par_solution'/1 predicate, that hands back the goal in the first argument register, as a
+     * solution to the goal that this machine is running in parallel. Should there be too many solutions, the machine
+     * stops.
+     *
+     * @return <tt>true</tt> if the solution was handed back, <tt>false</tt> if the machine is to stop.
+     */
+    private boolean internalParSolution()
+    {
+        if ((job == null) || !job.add(copyOut(0, new HashMap<Integer, Integer>())))
+        {
+            bp = 0;
+
+            return false;
+        }
+
+        // P <- P + instruction_size(P)
+        ip += 7;
+
+        return true;
+    }
+
+    /**
+     * Implements the '$tbl_call'/2 predicate, that looks up the table of the tabled call in the first argument
+     * register, creating it if there is none, and binds the second to a handle on it if the clauses of the call are to
+     * be run to find its answers. This is so when the table is new, or was left incomplete and answers have been found
+     * since. Otherwise, if the table is complete or its answers are being found by clauses already running, this fails,
+     * so that the answers in the table are returned instead; and in the second case, all tables called since the one
+     * that it is to be completed along with, depend on it, and are to be completed with it too.
+     *
+     * @return <tt>true</tt> if the clauses of the call are to be run.
+     */
+    private boolean internalTableCall()
+    {
+        WAMTermCopy call = copyOut(0, new HashMap<Integer, Integer>());
+        WAMTable table = tables.get(call);
+
+        if (table == null)
+        {
+            table = new WAMTable(call, completion.size());
+            tables.put(call, table);
+            completion.add(table);
+        }
+        else if (table.complete)
+        {
+            return false;
+        }
+        else if (table.evaluating || (table.mark == numAnswers))
+        {
+            for (int i = completion.size() - 1; i > table.leader; i--)
+            {
+                WAMTable dependent = completion.get(i);
+                dependent.leader = Math.min(dependent.leader, table.leader);
+            }
+
+            return false;
+        }
+
+        table.evaluating = true;
+        table.mark = numAnswers;
+
+        // P <- P + instruction_size(P)
+        ip += 7;
+
+        return unifyNumber(1, table.index, false);
+    }
+
+    /**
+     * Implements the '$tbl_more'/1 predicate, that is called each time the clauses of the tabled call with the handle
+     * in the first argument register have been run to find all of their answers. If more answers have been added to any
+     * table since they were last run, they are to be run again. Otherwise the answers to the call have all been found.
+     * Its table is completed, along with all tables called since, unless it depends on a table called before it, in
+     * which case it is left to be completed along with that.
+     *
+     * @return <tt>true</tt> if the clauses of the call are to be run again.
+     */
+    private boolean internalTableMore()
+    {
+        WAMTable table = findTable(0);
+
+        if (table == null)
+        {
+            return false;
+        }
+
+        if (table.mark != numAnswers)
+        {
+            table.mark = numAnswers;
+
+            // P <- P + instruction_size(P)
+            ip += 7;
+
+            return true;
+        }
+
+        table.evaluating = false;
+
+        if (table.leader == table.index)
+        {
+            for (int i = completion.size() - 1; i >= table.index; i--)
+            {
+                completion.remove(i).complete = true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Implements the '$tbl_add'/2 predicate, that adds the answer in the second argument register, to the table with
+     * the handle in the first, unless the table already holds a variant of it.
+     *
+     * @return <tt>true</tt> always, unless the table has been cleared.
+     */
+    private boolean internalTableAdd()
+    {
+        WAMTable table = findTable(0);
+
+        if (table == null)
+        {
+            return false;
+        }
+
+        if (table.add(copyOut(1, new HashMap<Integer, Integer>())))
+        {
+            numAnswers++;
+        }
+
+        // P <- P + instruction_size(P)
+        ip += 7;
+
+        return true;
+    }
+
+    /**
+     * Implements the '$tbl_answers'/2 predicate, that unifies the second argument register with a list of the answers
+     * in the table of the tabled call in the first argument register, copied onto the heap. If there are no answers,
+     * this fails.
+     *
+     * @return <tt>true</tt> if the call has answers.
+     */
+    private boolean internalTableAnswers()
+    {
+        WAMTable table = tables.get(copyOut(0, new HashMap<Integer, Integer>()));
+
+        if ((table == null) || table.answers.isEmpty())
+        {
+            return false;
+        }
+
+        putTermList(2, table.answers);
+
+        // P <- P + instruction_size(P)
+        ip += 7;
+
+        return unify(1, 2);
+    }
+
+    /**
+     * Looks up a value (an interned name referring to a constant or structure), in the hash table of size n referred
+     * to.
+     *
+     * @param  val The value to look up.
+     * @param  t   The offset of the start of the hash table.
+     * @param  n   The size of the hash table in bytes.
+     *
+     * @return <tt>0</tt> iff no match is found, or a pointer into the code area of the matching branch.
+     */
+    private int getHash(int val, int t, int n)
+    {
+        indexTable.setup(codeBuffer, t, n);
+
+        return indexTable.get(val);
+    }
+
+    /**
+     * Selects the clauses of a predicate to try, on the first of its non-first arguments that is bound and indexed.
+     * The index on an argument position is built the first time that the argument is seen bound.
+     *
+     * @param  name      The interned name of the predicate being called.
+     * @param  chain     The address of the try_me_else chain over all of the predicates clauses.
+     * @param  numOfArgs The number of arguments of the predicate.
+     *
+     * @return The address of the code to try the selected clauses, or <tt>0</tt> if no clauses can match.
+     */
+    private int jitIndex(int name, int chain, int numOfArgs)
+    {
+        ArgumentIndex index = null;
+
+        for (int i = 1; i < numOfArgs; i++)
+        {
+            int addr = deref(i);
+
+            if (derefTag == REF)
+            {
+                continue;
+            }
+
+            // Fetch the indexes for the predicate, creating them if this is the first time any is needed.
+            if (index == null)
+            {
+                WAMCallPoint callPoint = resolveCallPoint(name);
+                index = callPoint.argumentIndex;
+
+                // A shared program is only read, so only the indexes built before it was shared can be used.
+                if ((index == null) && shared)
+                {
+                    return chain;
+                }
+                else if (index == null)
+                {
+                    index = new ArgumentIndex(numOfArgs);
+                    callPoint.argumentIndex = index;
+                }
+            }
+
+            if (!index.isBuilt(i))
+            {
+                if (shared)
+                {
+                    continue;
+                }
+
+                buildArgumentIndex(index, i, chain);
+            }
+
+            if (index.isIndexed(i))
+            {
+                int key;
+
+                switch (derefTag)
+                {
+                case STR:
+                {
+                    int fn = data.get(derefVal);
+
+                    if (fn == BOXED_INT)
+                    {
+                        key = boxedNumberKey(fn, data.get(derefVal + 1));
+                    }
+                    else if (fn == BOXED_FLOAT)
+                    {
+                        key = boxedNumberKey(fn,
+                                ((long) data.get(derefVal + 1) << 32) | (data.get(derefVal + 2) & 0xffffffffL));
+                    }
+                    else
+                    {
+                        key = fn;
+                    }
+
+                    break;
+                }
+
+                case LIS:
+                    key = LIS << TSHIFT;
+                    break;
+
+                default:
+                    key = data.get(addr);
+                }
+
+                return index.get(i, key);
+            }
+        }
+
+        return chain;
+    }
+
+    /**
+     * Builds an index on an argument position of a predicate. The clauses are found by following the try_me_else chain
+     * over them, and the key of each clause is found by scanning its head code for the instruction that matches the
+     * argument. Clauses with a variable in the argument position match any key. For each key, the code to try the
+     * clauses that may match it is written to the end of the code area.
+     *
+     * @param index The indexes of the predicate.
+     * @param arg   The argument position to index.
+     * @param chain The address of the try_me_else chain over all of the predicates clauses.
+     */
+    private void buildArgumentIndex(ArgumentIndex index, int arg, int chain)
+    {
+        // Find the entry points of the clauses, just past their choice point instructions.
+        List<Integer> clauses = new ArrayList<Integer>();
+
+        for (int addr = chain; addr != 0;)
+        {
+            byte instruction = codeBuffer.get(addr);
+
+            if ((instruction == TRY_ME_ELSE) || (instruction == RETRY_ME_ELSE))
+            {
+                clauses.add(addr + 5);
+                addr = codeBuffer.getInt(addr + 1);
+            }
+            else
+            {
+                clauses.add(addr + 1);
+                addr = 0;
+            }
+        }
+
+        // Group the clauses by key, keeping them in order.
+        Map<Integer, List<Integer>> keys = new LinkedHashMap<Integer, List<Integer>>();
+        List<Integer> varClauses = new ArrayList<Integer>();
+
+        for (int i = 0; i < clauses.size(); i++)
+        {
+            int key = headArgumentKey(clauses.get(i), arg);
+
+            if (key == 0)
+            {
+                varClauses.add(i);
+
+                continue;
+            }
+
+            List<Integer> keyClauses = keys.get(key);
+
+            if (keyClauses == null)
+            {
+                keyClauses = new ArrayList<Integer>();
+                keys.put(key, keyClauses);
+            }
+
+            keyClauses.add(i);
+        }
+
+        // Check that there is a choice between keys to be made, and that there is room for the code to do it.
+        int codeSize = chainSize(varClauses.size());
+
+        for (List<Integer> keyClauses : keys.values())
+        {
+            codeSize += chainSize(keyClauses.size() + varClauses.size());
+        }
+
+        int top = codeBuffer.position();
+        int start = (keys.size() < 2) ? -1 : allocateCode(codeSize);
+
+        if (start < 0)
+        {
+            index.setIndex(arg, null, 0);
+
+            return;
+        }
+
+        // Build the table of keys to the code to try the clauses that may match them, including the variable clauses.
+        codeBuffer.position(start);
+        int n = IntIntOpenLinearTable.sizeInBytes(keys.size());
+        CodeBufferTable table = new IntIntOpenLinearTable();
+        table.setup(ByteBuffer.allocate(n), 0, n);
+
+        for (Map.Entry<Integer, List<Integer>> entry : keys.entrySet())
+        {
+            List<Integer> keyClauses = new ArrayList<Integer>(entry.getValue());
+            keyClauses.addAll(varClauses);
+            Collections.sort(keyClauses);
+
+            table.put(entry.getKey(), emmitChain(clauses, keyClauses));
+        }
+
+        index.setIndex(arg, table, emmitChain(clauses, varClauses));
+        index.setCode(arg, start, codeSize);
+
+        // Notify the native machine of the addition of new code.
+        codeAdded(codeBuffer, start, codeSize);
+        codeBuffer.position(Math.max(top, start + codeSize));
+    }
+
+    /**
+     * Finds the key that a clause matches on, in an argument position. This is the constant cell, the functor cell, or
+     * the list tag that the argument register is matched against in the clause head. Small integers are keyed on
+     * their constant cells, in the same way as atoms, and boxed numbers on their values.
+     *
+     * @param  addr The address of the clause entry point.
+     * @param  arg  The argument position.
+     *
+     * @return The key for the argument, or <tt>0</tt> if the clause does not match on anything there.
+     */
+    private int headArgumentKey(int addr, int arg)
+    {
+        while (true)
+        {
+            byte instruction = codeBuffer.get(addr);
+
+            switch (instruction)
+            {
+            case GET_CONST:
+            case GET_STRUC:
+            case GET_LIST:
+
+                if ((codeBuffer.get(addr + 1) == WAMInstruction.REG_ADDR) && (codeBuffer.get(addr + 2) == arg))
+                {
+                    if (instruction == GET_CONST)
+                    {
+                        return constantCell(codeBuffer.getInt(addr + 3));
+                    }
+                    else if (instruction == GET_STRUC)
+                    {
+                        return codeBuffer.getInt(addr + 3);
+                    }
+                    else
+                    {
+                        return LIS << TSHIFT;
+                    }
+                }
+
+                break;
+
+            case NO_OP:
+            case ALLOCATE:
+            case GET_LEVEL:
+            case GET_VAR:
+            case GET_VAL:
+            case UNIFY_VAR:
+            case UNIFY_VAL:
+            case UNIFY_CONST:
+            case UNIFY_VOID:
+            case UNIFY_LOCAL_VAL:
+                break;
+
+            case GET_INT:
+
+                if ((codeBuffer.get(addr + 1) == WAMInstruction.REG_ADDR) && (codeBuffer.get(addr + 2) == arg))
+                {
+                    int n = codeBuffer.getInt(addr + 3);
+
+                    return ((n >= MIN_SMALL_INT) && (n <= MAX_SMALL_INT))
+                        ? ((CON << TSHIFT) | SMALL_INT | (n & SMALL_INT_MASK)) : boxedNumberKey(BOXED_INT, n);
+                }
+
+                break;
+
+            case GET_FLOAT:
+
+                if ((codeBuffer.get(addr + 1) == WAMInstruction.REG_ADDR) && (codeBuffer.get(addr + 2) == arg))
+                {
+                    return boxedNumberKey(BOXED_FLOAT, codeBuffer.getLong(addr + 3));
+                }
+
+                break;
+
+            default:
+
+                // The end of the head code has been reached.
+                return 0;
+            }
+
+            addr += WAMInstruction.WAMInstructionSet.fromCode(instruction).length();
+        }
+    }
+
+    /**
+     * Provides the key that a boxed number is indexed on, by folding its value into an int. Keys only choose which
+     * clauses to try, so numbers whose keys clash are still told apart when their clauses are tried. A zero key means
+     * there is nothing to match on, so a value that folds to zero is keyed on its functor cell instead.
+     *
+     * @param  fn    The functor cell of the boxed number.
+     * @param  value The integer, or the bits of the float.
+     *
+     * @return The key for the boxed number.
+     */
+    private static int boxedNumberKey(int fn, long value)
+    {
+        int key = (int) (value ^ (value >>> 32));
+
+        return (key != 0) ? key : fn;
+    }
+
+    /**
+     * Writes out a try, retry, trust chain over some clauses at the code buffer position. No chain is written for a
+     * single clause, which is jumped to directly.
+     *
+     * @param  clauses  The entry points of all of the clauses of the predicate.
+     * @param  selected The positions of the clauses to try, in order.
+     *
+     * @return The address of the code to try the clauses, or <tt>0</tt> if there are none.
+     */
+    private int emmitChain(List<Integer> clauses, List<Integer> selected)
+    {
+        if (selected.isEmpty())
+        {
+            return 0;
+        }
+        else if (selected.size() == 1)
+        {
+            return clauses.get(selected.get(0));
+        }
+
+        int start = codeBuffer.position();
+
+        for (int i = 0; i < selected.size(); i++)
+        {
+            codeBuffer.put((i == 0) ? TRY : ((i < (selected.size() - 1)) ? RETRY : TRUST));
+            codeBuffer.putInt(clauses.get(selected.get(i)));
+        }
+
+        return start;
+    }
+
+    /**
+     * Calculates the size of the code to try some clauses.
+     *
+     * @param  numClauses The number of clauses to try.
+     *
+     * @return The size of the code in bytes.
+     */
+    private int chainSize(int numClauses)
+    {
+        return (numClauses > 1) ? (numClauses * 5) : 0;
+    }
+
+    /**
+     * Creates a heap cell contents containing a structure tag, and the address of the structure.
+     *
+     * <p/>Note: This only creates the contents of the cell, it does not write it to the heap.
+     *
+     * @param  addr The address of the structure.
+     *
+     * @return The heap cell contents referencing the structure.
+     */
+    private int structureAt(int addr)
+    {
+        return (WAMInstruction.STR << TSHIFT) | (addr & AMASK);
+    }
+
+    /**
+     * Creates a heap cell contents containing a reference.
+     *
+     * <p/>Note: This only creates the contents of the cell, it does not write it to the heap.
+     *
+     * @param  addr The references address.
+     *
+     * @return The heap cell contents containing the reference.
+     */
+    int refTo(int addr)
+    {
+        return (WAMInstruction.REF << TSHIFT) | (addr & AMASK);
+    }
+
+    /**
+     * Creates a heap cell contents containing a constant.
+     *
+     * <p/>Note: This only creates the contents of the cell, it does not write it to the heap.
+     *
+     * <p/>See the comment on {@link #CMASK} about the arity always being zero on a constant.
+     *
+     * @param  fn The functor name and arity of the constant. Arity should always be zero.
+     *
+     * @return The heap cell contents containing the constant.
+     */
+    private int constantCell(int fn)
+    {
+        return (CON << TSHIFT) | (fn & CMASK);
+    }
+
+    /**
+     * Creates a heap cell contents containing a list pointer.
+     *
+     * <p/>Note: This only creates the contents of the cell, it does not write it to the heap.
+     *
+     * @param  addr The address of the list contents.
+     *
+     * @return The heap cell contents containing the list pointer.
+     */
+    private int listCell(int addr)
+    {
+        return (WAMInstruction.LIS << TSHIFT) | (addr & AMASK);
+    }
+
+    /**
+     * Decodes a single instruction into the decoded code. The op-code is placed at the address of the instruction, and
+     * each argument is widened to an int and placed at its own address. Byte arguments are all register numbers, slot
+     * numbers or counts, so they are widened as unsigned values.
+     *
+     * @param  codeBuffer The code area.
+     * @param  addr       The address of the instruction.
+     *
+     * @return The length of the instruction in bytes, including any index table that follows it.
+     */
+    private int decodeInstruction(ByteBuffer codeBuffer, int addr)
+    {
+        byte instruction = codeBuffer.get(addr);
+        code[addr] = instruction;
+
+        switch (instruction)
+        {
+        case SET_VAR:
+        case SET_VAL:
+        case SET_LOCAL_VAL:
+        case UNIFY_VAR:
+        case UNIFY_VAL:
+        case UNIFY_LOCAL_VAL:
+        case PUT_LIST:
+        case GET_LIST:
+            code[addr + 1] = codeBuffer.get(addr + 1);
+            code[addr + 2] = codeBuffer.get(addr + 2) & 0xff;
+
+            return 3;
+
+        case PUT_VAR:
+        case PUT_VAL:
+        case PUT_UNSAFE_VAL:
+        case GET_VAR:
+        case GET_VAL:
+            code[addr + 1] = codeBuffer.get(addr + 1);
+            code[addr + 2] = codeBuffer.get(addr + 2) & 0xff;
+            code[addr + 3] = codeBuffer.get(addr + 3) & 0xff;
+
+            return 4;
+
+        case PUT_STRUC:
+        case GET_STRUC:
+        case PUT_CONST:
+        case GET_CONST:
+            code[addr + 1] = codeBuffer.get(addr + 1);
+            code[addr + 2] = codeBuffer.get(addr + 2) & 0xff;
+            code[addr + 3] = codeBuffer.getInt(addr + 3);
+
+            return 7;
+
+        case PUT_INT:
+        case GET_INT:
+            code[addr + 1] = codeBuffer.get(addr + 1);
+            code[addr + 2] = codeBuffer.get(addr + 2) & 0xff;
+            code[addr + 3] = codeBuffer.getInt(addr + 3);
+
+            return 7;
+
+        case PUT_FLOAT:
+        case GET_FLOAT:
+        {
+            long bits = codeBuffer.getLong(addr + 3);
+            code[addr + 1] = codeBuffer.get(addr + 1);
+            code[addr + 2] = codeBuffer.get(addr + 2) & 0xff;
+            code[addr + 3] = (int) (bits >>> 32);
+            code[addr + 7] = (int) bits;
+
+            return 11;
+        }
+
+        case ARITH_LOAD:
+        case ARITH_PUT:
+        case ARITH_GET:
+            code[addr + 1] = codeBuffer.get(addr + 1);
+            code[addr + 2] = codeBuffer.get(addr + 2) & 0xff;
+
+            return 3;
+
+        case ARITH_FLOAT:
+        {
+            long bits = codeBuffer.getLong(addr + 1);
+            code[addr + 1] = (int) (bits >>> 32);
+            code[addr + 5] = (int) bits;
+
+            return 9;
+        }
+
+        case ARITH_OP:
+        case ARITH_CMP:
+            code[addr + 1] = codeBuffer.get(addr + 1) & 0xff;
+
+            return 2;
+
+        case ARITH_INT:
+        case SET_CONST:
+        case UNIFY_CONST:
+        case TRY_ME_ELSE:
+        case RETRY_ME_ELSE:
+        case TRY:
+        case RETRY:
+        case TRUST:
+        case CONTINUE:
+        case JIT_INDEX:
+            code[addr + 1] = codeBuffer.getInt(addr + 1);
+
+            return 5;
+
+        case SET_VOID:
+        case UNIFY_VOID:
+        case ALLOCATE_N:
+        case GET_LEVEL:
+        case CUT:
+            code[addr + 1] = codeBuffer.get(addr + 1) & 0xff;
+
+            return 2;
+
+        case CALL:
+            code[addr + 1] = codeBuffer.getInt(addr + 1);
+            code[addr + 2] = procedureTable ? procedureSlot(code[addr + 1]) : calleeNumber(code[addr + 1]);
+            code[addr + 5] = codeBuffer.get(addr + 5) & 0xff;
+            code[addr + 6] = codeBuffer.get(addr + 6) & 0xff;
+
+            return 7;
+
+        case CALL_INTERNAL:
+            code[addr + 1] = codeBuffer.getInt(addr + 1);
+            code[addr + 5] = codeBuffer.get(addr + 5) & 0xff;
+            code[addr + 6] = codeBuffer.get(addr + 6) & 0xff;
+
+            return 7;
+
+        case EXECUTE:
+            code[addr + 1] = codeBuffer.getInt(addr + 1);
+            code[addr + 2] = procedureTable ? procedureSlot(code[addr + 1]) : calleeNumber(code[addr + 1]);
+            code[addr + 5] = codeBuffer.get(addr + 5) & 0xff;
+
+            return 6;
+
+        case SWITCH_ON_TERM:
+            code[addr + 1] = codeBuffer.getInt(addr + 1);
+            code[addr + 5] = codeBuffer.getInt(addr + 5);
+            code[addr + 9] = codeBuffer.getInt(addr + 9);
+            code[addr + 13] = codeBuffer.getInt(addr + 13);
+
+            return 17;
+
+        case SWITCH_ON_CONST:
+        case SWITCH_ON_STRUC:
+            // The index table itself stays in the code area, where it is looked up.
+            code[addr + 1] = codeBuffer.getInt(addr + 1);
+            code[addr + 5] = codeBuffer.getInt(addr + 5);
+
+            return 9 + code[addr + 5];
+
+        default:
+            return 1;
+        }
+    }
+
+    /**
+     * Looks up the number of the predicate at an entry address, for counting calls to it.
+     *
+     * @param  addr The entry address of the predicate.
+     *
+     * @return The number of the predicate, or zero if there is no predicate at the address.
+     */
+    private int calleeNumber(int addr)
+    {
+        Integer number = calleeNumbers.get(addr);
+
+        return (number == null) ? 0 : number;
+    }
+
+    /**
+     * Checks if a chain of environments holds a continuation point into a range of the code area.
+     *
+     * @param  e     The environment to start from.
+     * @param  start The start of the range.
+     * @param  end   The end of the range, one past its last address.
+     *
+     * @return <tt>true</tt> if any environment on the chain continues into the range.
+     */
+    private boolean isReturnedInto(int e, int start, int end)
+    {
+        for (; e != 0; e = data.get(e))
+        {
+            int cont = data.get(e + 1);
+
+            if ((cont >= start) && (cont < end))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Points the calls onto one address in a range of the code, at another address. Each instruction is decoded again
+     * as it is passed over, which also keeps the numbers of the predicates called up to date.
+     *
+     * @param start The start of the range.
+     * @param end   The end of the range, one past its last address.
+     * @param from  The address called.
+     * @param to    The address to call instead.
+     */
+    private void relinkCalls(int start, int end, int from, int to)
+    {
+        for (int addr = start; addr < end;)
+        {
+            if (code[addr] == COMPILED)
+            {
+                addr = compiledBlocks[code[addr + 1]].end;
+
+                continue;
+            }
+
+            byte instruction = codeBuffer.get(addr);
+
+            if (((instruction == CALL) || (instruction == EXECUTE)) && (codeBuffer.getInt(addr + 1) == from))
+            {
+                emmitCode(addr + 1, to);
+            }
+
+            addr += decodeInstruction(codeBuffer, addr);
+        }
+    }
+
+    /**
+     * Looks up the number of the call point of a functor in the procedure table, giving it a number if it has none yet.
+     * A functor with no code yet is given a call point with no entry point, that calls to it will fail on, until the
+     * predicate is defined.
+     *
+     * @param  functorName The interned name of the functor.
+     *
+     * @return The number of the call point of the functor in the procedure table.
+     */
+    private int procedureSlot(int functorName)
+    {
+        Integer number = procedureSlots.get(functorName);
+
+        // A shared procedure table cannot be added to, so calls to functors not in it go to unknown code.
+        if ((number == null) && shared)
+        {
+            return 0;
+        }
+        else if (number == null)
+        {
+            WAMCallPoint callPoint = resolveCallPoint(functorName);
+
+            number = addCallee((callPoint.length > 0) ? callPoint : new WAMCallPoint(-1, 0, functorName));
+            procedureSlots.put(functorName, number);
+        }
+
+        return number;
+    }
+
+    /**
+     * Numbers a call point, so that calls to it can be decoded with its number.
+     *
+     * @param  callPoint The call point to number.
+     *
+     * @return The number of the call point.
+     */
+    private int addCallee(WAMCallPoint callPoint)
+    {
+        if (numCallees == callees.length)
+        {
+            callees = Arrays.copyOf(callees, numCallees << 1);
+        }
+
+        callees[numCallees] = callPoint;
+
+        return numCallees++;
+    }
+
+    /**
+     * Compiles straight runs of the instructions that move data and unify in a predicate, to Java byte code. Each run
+     * is replaced in the decoded code by a marker that invokes its compiled block. Runs are broken at labels, so that
+     * no jump leads into the middle of one, and are kept short enough that they cannot create more heap cells than the
+     * heap keeps free.
+     *
+     * @param callPoint The call point of the predicate to compile.
+     */
+    private void compilePredicate(WAMCallPoint callPoint)
+    {
+        if ((callPoint.entryPoint < 0) || (monitor != null))
+        {
+            return;
+        }
+
+        /*log.fine("Compiling " + callPoint.name + " at " + callPoint.entryPoint);*/
+
+        int end = callPoint.entryPoint + callPoint.length;
+        List<Integer> run = new ArrayList<Integer>();
+        int runCells = 0;
+
+        for (int addr = callPoint.entryPoint; addr <= end;)
+        {
+            boolean compilable = (addr < end) && WAMBlockCompiler.isCompilable(code[addr]);
+            int cells = compilable ? WAMBlockCompiler.heapCells(code, addr) : 0;
+
+            // Finish the current run if this instruction cannot be added to it.
+            if (!compilable || (getNameForAddress(addr) != null) || ((runCells + cells) > (HEAP_GUARD / 2)) ||
+                    (run.size() == WAMBlockCompiler.MAX_BLOCK_INSTRUCTIONS))
+            {
+                if (run.size() > 1)
+                {
+                    compileRun(run, addr);
+                }
+
+                run.clear();
+                runCells = 0;
+            }
+
+            if (addr == end)
+            {
+                break;
+            }
+
+            if (compilable)
+            {
+                run.add(addr);
+                runCells += cells;
+            }
+
+            addr += decodeInstruction(codeBuffer, addr);
+        }
+    }
+
+    /**
+     * Compiles a run of instructions, and puts the compiled block in place of them in the decoded code.
+     *
+     * @param run The addresses of the instructions in the run.
+     * @param end The address of the instruction following the run.
+     */
+    private void compileRun(List<Integer> run, int end)
+    {
+        int start = run.get(0);
+
+        WAMCompiledBlock block = blockCompiler.compile(code, run);
+        block.init(this, start, end);
+
+        if (numCompiledBlocks == compiledBlocks.length)
+        {
+            compiledBlocks = Arrays.copyOf(compiledBlocks, numCompiledBlocks << 1);
+        }
+
+        compiledBlocks[numCompiledBlocks] = block;
+
+        // Every compilable instruction has at least one argument, so there is room for the block number.
+        code[start] = COMPILED;
+        code[start + 1] = numCompiledBlocks++;
+    }
+
+    /**
+     * Loads the contents of a register, or a stack slot, depending on the mode.
+     *
+     * @param  mode The mode, {@link WAMInstruction#REG_ADDR} for register addressing, {@link WAMInstruction#STACK_ADDR}
+     *              for stack addressing.
+     *
+     * @return The contents of the register or stack slot.
+     */
+    private int getRegisterOrStackSlot(int mode)
+    {
+        return code[ip + 2] + ((mode == STACK_ADDR) ? (ep + 3) : 0);
+    }
+
+    /**
+     * Computes the start of the next stack frame. This depends on whether the most recent stack frame is an environment
+     * frame or a choice point frame, as these have different sizes. The size of the most recent type of frame is
+     * computed and added to the current frame pointer to give the start of the next frame.
+     *
+     * <p/>The size held in an environment is trimmed by each call made from it, and is not restored when backtracking
+     * into an earlier call, so the number of permanent variables still live at the continuation point is also taken
+     * into account, and the larger of the two used.
+     *
+     * @return The start of the next stack frame.
+     */
+    private int nextStackFrame()
+    {
+        // if E > B
+        // then newB <- E + STACK[E + 2] + 3
+        // else newB <- B + STACK[B] + 7
+
+        int esp;
+
+        if (ep == bp)
+        {
+            esp = stackBase;
+        }
+        else if (ep > bp)
+        {
+            esp = ep + Math.max(data.get(ep + 2), permanentVariables(ep, cp)) + 3;
+        }
+        else
+        {
+            esp = bp + data.get(bp) + 8;
+        }
+
+        // Grow the stack if there may not be room for the new frame, and find the new frame in its new position.
+        while ((esp + MAX_FRAME_SIZE) > trailBase)
+        {
+            esp += grow(0, Math.max(stackSize, MAX_FRAME_SIZE), 0, 0);
+        }
+
+        return esp;
+    }
+
+    /**
+     * Backtracks to the continuation label stored in the current choice point frame, if there is one. Otherwise returns
+     * a fail to indicate that there are no more choice points, so no backtracking can be done.
+     *
+     * @return <tt>true</tt> iff this is the final failure, and there are no more choice points.
+     */
+    private boolean backtrack()
+    {
+        // if B = bottom_of_stack
+        while (bp != 0)
+        {
+            // B0 <- STACK[B + STACK[B} + 7]
+            b0 = data.get(bp + data.get(bp) + 7);
+
+            // P <- STACK[B + STACK[B] + 4]
+            ip = data.get(bp + data.get(bp) + 4);
+
+            if (ip != TAKEN)
+            {
+                return false;
+            }
+
+            // Pass over a choice point whose alternatives another machine has taken, to the one before it.
+            bp = data.get(bp + data.get(bp) + 3);
+
+            if (task != null)
+            {
+                task.search.passed(task);
+            }
+        }
+
+        //  then fail_and_exit_program
+        return true;
+    }
+
+    /**
+     * Splits off a branch of the search, for another machine to run. The oldest choice point that can be run apart
+     * from this machine is chosen, as nearest the root of the search tree, it is likely to have the most work under it.
+     * A choice point can be run apart, so long as no cut can remove it; that is, there is no cut in the clauses it
+     * chooses between, or in any clause that will be continued into once one of them succeeds. The heap and stack
+     * below the choice point are copied, with the bindings made since it undone, and it is marked as taken.
+     *
+     * @param  queryStart The start of the code of the query being run.
+     * @param  queryEnd   The end of the code of the query being run.
+     * @param  queryCut   <tt>true</tt> if the query contains a cut.
+     *
+     * @return The branch split off, or <tt>null</tt> if there is no choice point that can be.
+     */
+    WAMBranch split(int queryStart, int queryEnd, boolean queryCut)
+    {
+        // Look down to the most recently taken choice point, as the ones before it have already been looked at.
+        int chosen = 0;
+
+        for (int b = bp; b != 0; b = data.get(b + data.get(b) + 3))
+        {
+            int n = data.get(b);
+            int alternative = data.get(b + n + 4);
+
+            if (alternative == TAKEN)
+            {
+                break;
+            }
+
+            // Alternatives in an index are jumps to the clauses, so look at the clause jumped to.
+            int clause = ((code[alternative] == RETRY) || (code[alternative] == TRUST)) ? code[alternative + 1]
+                                                                                          : alternative;
+
+            if (isCutFree(clause, queryStart, queryEnd, queryCut) &&
+                    isCutFree(data.get(b + n + 2), queryStart, queryEnd, queryCut))
+            {
+                boolean cutFree = true;
+
+                for (int e = data.get(b + n + 1); cutFree && (e != 0); e = data.get(e))
+                {
+                    cutFree = isCutFree(data.get(e + 1), queryStart, queryEnd, queryCut);
+                }
+
+                if (cutFree)
+                {
+                    chosen = b;
+                }
+            }
+        }
+
+        if (chosen == 0)
+        {
+            return null;
+        }
+
+        int n = data.get(chosen);
+        int h = data.get(chosen + n + 6);
+        int[] heap = new int[h - HEAP_BASE];
+        int[] stack = new int[chosen + n + 8 - stackBase];
+
+        data.position(HEAP_BASE);
+        data.get(heap);
+        data.position(stackBase);
+        data.get(stack);
+        data.position(0);
+
+        // Undo the bindings made since the choice point, in the copy.
+        for (int i = data.get(chosen + n + 5); i < trp; i++)
+        {
+            int addr = data.get(i);
+
+            if ((addr >= HEAP_BASE) && (addr < h))
+            {
+                heap[addr - HEAP_BASE] = refTo(addr);
+            }
+            else if ((addr >= stackBase) && (addr < (stackBase + stack.length)))
+            {
+                stack[addr - stackBase] = refTo(addr);
+            }
+        }
+
+        // Cut the choice point off from the ones before it, and from the trail before it, in the copy.
+        stack[chosen + n + 3 - stackBase] = 0;
+        stack[chosen + n + 5 - stackBase] = trailBase;
+        stack[chosen + n + 7 - stackBase] = 0;
+
+        data.put(chosen + n + 4, TAKEN);
+
+        return new WAMBranch(heapSize, stackSize, trailSize, pdlSize, heap, stack, chosen, shareLimits());
+    }
+
+    /**
+     * Sets up the machine to run a branch of a search split off from another machine, by backtracking into it. The
+     * data area is laid out in the same way as the one the branch came from, if it is not already.
+     *
+     * @param branch The branch to run.
+     * @param query  The query being run.
+     */
+    void restore(WAMBranch branch, WAMCompiledQuery query)
+    {
+        clearQuery();
+
+        if ((heapSize != branch.heapSize) || (stackSize != branch.stackSize) || (trailSize != branch.trailSize) ||
+                (pdlSize != branch.pdlSize))
+        {
+            heapSize = branch.heapSize;
+            stackSize = branch.stackSize;
+            trailSize = branch.trailSize;
+            pdlSize = branch.pdlSize;
+            stackBase = HEAP_BASE + heapSize;
+            trailBase = stackBase + stackSize;
+            top = trailBase + trailSize + pdlSize;
+            heapLimit = stackBase - HEAP_GUARD;
+            data = ByteBuffer.allocateDirect(top << 2).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            clearQuery();
+        }
+
+        data.position(HEAP_BASE);
+        data.put(branch.heap);
+        data.position(stackBase);
+        data.put(branch.stack);
+        data.position(0);
+
+        hp = HEAP_BASE + branch.heap.length;
+        bp = branch.choicePoint;
+        currentQuery = query;
+        suspended = true;
+
+        // The branch is held to the limits of the query it is part of.
+        adoptLimits(branch.budget);
+    }
+
+    /**
+     * Stops any OR-parallel search running the current query, and waits for it to stop.
+     */
+    private void endSearch()
+    {
+        if (search != null)
+        {
+            search.cancel();
+            search = null;
+        }
+    }
+
+    /**
+     * Gives up on all of the goals started in parallel by the current query.
+     */
+    private void endJobs()
+    {
+        for (WAMAndParallelJob started : jobs)
+        {
+            started.cancel();
+        }
+
+        jobs.clear();
+        numJobs = 0;
+    }
+
+    /**
+     * Gives up on the goals started in parallel, that the machine has since backtracked to before starting. These are
+     * the ones started with more on the heap than there is now. As the heap is never lower when a goal is started than
+     * when the goals still wanted were started, these are always the most recently started.
+     */
+    private void sweepJobs()
+    {
+        for (int last = jobs.size() - 1; (last >= 0) && (jobs.get(last).heapMark > hp); last--)
+        {
+            jobs.remove(last).cancel();
+        }
+    }
+
+    /**
+     * Looks up a goal started in parallel by its handle. Handles are handed out in order, so the goals are searched
+     * by halving.
+     *
+     * @param  handle The handle of the goal.
+     *
+     * @return The goal, or <tt>null</tt> if it has been given up on.
+     */
+    private WAMAndParallelJob findJob(int handle)
+    {
+        int low = 0;
+        int high = jobs.size() - 1;
+
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            int midHandle = jobs.get(mid).handle;
+
+            if (midHandle < handle)
+            {
+                low = mid + 1;
+            }
+            else if (midHandle > handle)
+            {
+                high = mid - 1;
+            }
+            else
+            {
+                return jobs.get(mid);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Checks if a term contains any of a set of unbound variables.
+     *
+     * @param  addr The address of the term.
+     * @param  vars The addresses of the unbound variables, as keys.
+     *
+     * @return <tt>true</tt> if the term contains any of the variables.
+     */
+    private boolean sharesVariables(int addr, Map<Integer, Integer> vars)
+    {
+        uClear();
+        uPush(addr);
+
+        while (!uEmpty())
+        {
+            int d = deref(uPop());
+            int val = derefVal;
+
+            switch (derefTag)
+            {
+            case REF:
+
+                if (vars.containsKey(d))
+                {
+                    uClear();
+
+                    return true;
+                }
+
+                break;
+
+            case STR:
+            {
+                int fn = data.get(val);
+
+                if ((fn != BOXED_INT) && (fn != BOXED_FLOAT))
+                {
+                    for (int i = fn >>> 24; i > 0; i--)
+                    {
+                        uPush(val + i);
+                    }
+                }
+
+                break;
+            }
+
+            case LIS:
+                uPush(val);
+                uPush(val + 1);
+
+                break;
+
+            default:
+                break;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Copies a term off the heap. The unbound variables of the term are copied as fresh variables, and are recorded
+     * as they are copied.
+     *
+     * @param  addr The address of the term.
+     * @param  vars The addresses of the unbound variables of the term, mapped to their offsets in the copy, to add to.
+     *
+     * @return The copy of the term.
+     */
+    WAMTermCopy copyOut(int addr, Map<Integer, Integer> vars)
+    {
+        int[] cells = new int[16];
+        int size = 1;
+        int[] refs = new int[16];
+        int numRefs = 0;
+
+        // The unification stack holds the addresses of the terms to copy, each followed by the offset to copy it to.
+        uClear();
+        uPush(0);
+        uPush(addr);
+
+        while (!uEmpty())
+        {
+            int d = deref(uPop());
+            int i = uPop();
+            byte tag = derefTag;
+            int val = derefVal;
+
+            // Make sure there is room for the cell, a reference to it, and the largest structure it can refer to.
+            if ((size + 256) > cells.length)
+            {
+                cells = Arrays.copyOf(cells, (size + 256) * 2);
+            }
+
+            if (numRefs == refs.length)
+            {
+                refs = Arrays.copyOf(refs, numRefs * 2);
+            }
+
+            switch (tag)
+            {
+            case REF:
+            {
+                Integer var = vars.get(d);
+
+                if (var == null)
+                {
+                    vars.put(d, i);
+                    var = i;
+                }
+
+                cells[i] = refTo(var);
+                refs[numRefs++] = i;
+
+                break;
+            }
+
+            case STR:
+            {
+                int fn = data.get(val);
+                int length = (fn == BOXED_INT) ? 2 : ((fn == BOXED_FLOAT) ? 3 : ((fn >>> 24) + 1));
+
+                cells[size] = fn;
+
+                if ((fn == BOXED_INT) || (fn == BOXED_FLOAT))
+                {
+                    for (int j = 1; j < length; j++)
+                    {
+                        cells[size + j] = data.get(val + j);
+                    }
+                }
+                else
+                {
+                    for (int j = 1; j < length; j++)
+                    {
+                        uPush(size + j);
+                        uPush(val + j);
+                    }
+                }
+
+                cells[i] = structureAt(size);
+                refs[numRefs++] = i;
+                size += length;
+
+                break;
+            }
+
+            case LIS:
+            {
+                uPush(size);
+                uPush(val);
+                uPush(size + 1);
+                uPush(val + 1);
+
+                cells[i] = (LIS << TSHIFT) | size;
+                refs[numRefs++] = i;
+                size += 2;
+
+                break;
+            }
+
+            default:
+                cells[i] = (tag << TSHIFT) | val;
+            }
+        }
+
+        return new WAMTermCopy(Arrays.copyOf(cells, size), Arrays.copyOf(refs, numRefs));
+    }
+
+    /**
+     * Copies a term onto the top of the heap. There must be room on the heap for it.
+     *
+     * @param  term The term to copy.
+     *
+     * @return The address of the cell referencing the copied term.
+     */
+    private int copyIn(WAMTermCopy term)
+    {
+        int base = hp;
+        int[] cells = term.cells;
+
+        for (int i = 0; i < cells.length; i++)
+        {
+            data.put(base + i, cells[i]);
+        }
+
+        for (int i : term.refs)
+        {
+            data.put(base + i, cells[i] + base);
+        }
+
+        hp += cells.length;
+
+        return base;
+    }
+
+    /**
+     * Copies a list of terms onto the heap, as a list, and puts it in a register. There need not be room on the heap
+     * for the list, as the heap will be grown if needed.
+     *
+     * @param xi    The register to put the list in.
+     * @param terms The terms to copy.
+     */
+    void putTermList(int xi, List<WAMTermCopy> terms)
+    {
+        int size = 0;
+
+        for (WAMTermCopy term : terms)
+        {
+            size += term.cells.length + 2;
+        }
+
+        while ((hp + size) > heapLimit)
+        {
+            grow(heapSize, 0, 0, 0);
+        }
+
+        // Build the list from its end, copying each term onto the heap.
+        int list = nilCell;
+
+        for (int i = terms.size() - 1; i >= 0; i--)
+        {
+            int term = copyIn(terms.get(i));
+
+            data.put(hp, data.get(term));
+            data.put(hp + 1, list);
+            list = listCell(hp);
+            hp += 2;
+        }
+
+        data.put(xi, list);
+    }
+
+    /**
+     * Creates the code of a call to a predicate, with its arguments already in the argument registers. The arguments
+     * are kept in the permanent variables of the query, so that their bindings can be read off once the call succeeds.
+     *
+     * @param  functorName The predicate to call.
+     *
+     * @return The code of the call.
+     */
+    private WAMCompiledQuery compileCall(FunctorName functorName)
+    {
+        int arity = functorName.getArity();
+
+        if (arity > 255)
+        {
+            throw new IllegalArgumentException("Too many arguments to call " + functorName.getName() + ".");
+        }
+
+        Map<Byte, Integer> varNames = new TreeMap<Byte, Integer>();
+        Set<Integer> freeVarNames = new TreeSet<Integer>();
+        SizeableLinkedList<WAMInstruction> instructions = new SizeableLinkedList<WAMInstruction>();
+
+        instructions.add(new WAMInstruction(WAMInstruction.WAMInstructionSet.AllocateN, WAMInstruction.REG_ADDR,
+                (byte) (arity & 0xff)));
+
+        for (int i = 0; i < arity; i++)
+        {
+            int varName = internVariableName("A" + (i + 1));
+            varNames.put((byte) i, varName);
+            freeVarNames.add(varName);
+
+            instructions.add(new WAMInstruction(WAMInstruction.WAMInstructionSet.GetVar, STACK_ADDR, (byte) i,
+                    (byte) i));
+        }
+
+        instructions.add(new WAMInstruction(WAMInstruction.WAMInstructionSet.Call, (byte) (arity & 0xff),
+                functorName));
+        instructions.add(new WAMInstruction(WAMInstruction.WAMInstructionSet.Suspend));
+        instructions.add(new WAMInstruction(WAMInstruction.WAMInstructionSet.Deallocate));
+
+        WAMCompiledQuery query = new WAMCompiledQuery(varNames, freeVarNames);
+        query.addInstructions(instructions);
+
+        return query;
+    }
+
+    /**
+     * Writes a term or plain Java value onto the top of the heap, and places a cell referencing it at an address. This
+     * is the reverse of decoding a term off the heap, and likewise does not recurse on the last argument of a compound
+     * term, but loops onto it, so that long lists are written without using up the Java stack. The heap is grown as
+     * needed.
+     *
+     * @param  addr      The address to place the cell at.
+     * @param  value     The term or value to write.
+     * @param  variables The heap variables of the unbound variables written so far.
+     *
+     * @throws IllegalArgumentException If the value is of a type that cannot be put on the heap.
+     */
+    private void encode(int addr, Object value, Map<Variable, Integer> variables)
+    {
+        while (true)
+        {
+            if (value instanceof Variable)
+            {
+                Variable var = (Variable) value;
+
+                if (var.isBound())
+                {
+                    value = var.getValue();
+
+                    continue;
+                }
+
+                Integer ref = variables.get(var);
+
+                if (ref == null)
+                {
+                    reserveHeap(1);
+                    ref = hp;
+                    data.put(hp, refTo(hp));
+                    hp++;
+
+                    variables.put(var, ref);
+                }
+
+                data.put(addr, refTo(ref));
+            }
+            else if ((value instanceof NumericType) && ((NumericType) value).isInteger())
+            {
+                data.put(addr, encodeInt(((NumericType) value).longValue()));
+            }
+            else if (value instanceof NumericType)
+            {
+                reserveHeap(3);
+                data.put(addr, floatCell(Double.doubleToLongBits(((NumericType) value).doubleValue())));
+            }
+            else if (value instanceof Functor)
+            {
+                Functor functor = (Functor) value;
+                int arity = functor.getArity();
+
+                if (arity == 0)
+                {
+                    data.put(addr, constantCell(functor.getName()));
+
+                    return;
+                }
+
+                // Lists are held as list cells, and other compound terms as structures.
+                boolean isList = functor.getName() == consFunctor;
+                int size = isList ? 2 : (arity + 1);
+
+                reserveHeap(size);
+
+                int cell = hp;
+                hp += size;
+
+                if (isList)
+                {
+                    data.put(addr, listCell(cell));
+                    encode(cell, functor.getArgument(0), variables);
+                }
+                else
+                {
+                    data.put(cell, (arity << 24) | (functor.getName() & 0x00ffffff));
+                    data.put(addr, structureAt(cell));
+                    cell++;
+
+                    for (int i = 0; i < (arity - 1); i++)
+                    {
+                        encode(cell + i, functor.getArgument(i), variables);
+                    }
+                }
+
+                addr = cell + arity - 1;
+                value = functor.getArgument(arity - 1);
+
+                continue;
+            }
+            else if (value instanceof String)
+            {
+                data.put(addr, constantCell(internFunctorName((String) value, 0)));
+            }
+            else if ((value instanceof Float) || (value instanceof Double))
+            {
+                reserveHeap(3);
+                data.put(addr, floatCell(Double.doubleToLongBits(((Number) value).doubleValue())));
+            }
+            else if ((value instanceof Integer) || (value instanceof Long) || (value instanceof Short) ||
+                    (value instanceof Byte))
+            {
+                data.put(addr, encodeInt(((Number) value).longValue()));
+            }
+            else if ((value instanceof Iterable) || (value instanceof Object[]))
+            {
+                Iterable<?> elements =
+                    (value instanceof Iterable) ? (Iterable<?>) value : Arrays.asList((Object[]) value);
+
+                // Each list cell is linked onto the tail of the previous one, ending with the empty list.
+                for (Object element : elements)
+                {
+                    reserveHeap(2);
+
+                    int cell = hp;
+                    hp += 2;
+                    data.put(addr, listCell(cell));
+                    encode(cell, element, variables);
+                    addr = cell + 1;
+                }
+
+                data.put(addr, nilCell);
+            }
+            else
+            {
+                throw new IllegalArgumentException("Cannot put " + value + " onto the heap.");
+            }
+
+            return;
+        }
+    }
+
+    /**
+     * Creates a cell holding an integer, boxed on the heap if it is not small. There need not be room on the heap for
+     * it, as the heap will be grown if needed.
+     *
+     * @param  n The integer.
+     *
+     * @return A cell holding the integer.
+     *
+     * @throws IllegalArgumentException If the integer does not fit in 32 bits, as the machine has no larger integers.
+     */
+    private int encodeInt(long n)
+    {
+        if ((n < Integer.MIN_VALUE) || (n > Integer.MAX_VALUE))
+        {
+            throw new IllegalArgumentException("The integer " + n + " does not fit in 32 bits.");
+        }
+
+        reserveHeap(2);
+
+        return intCell((int) n);
+    }
+
+    /**
+     * Grows the heap until there is room on it for a number of cells.
+     *
+     * @param size The number of cells to make room for.
+     */
+    void reserveHeap(int size)
+    {
+        while ((hp + size) > heapLimit)
+        {
+            grow(heapSize, 0, 0, 0);
+        }
+    }
+
+    /**
+     * Implements the internal predicates that findall/3, bagof/3 and setof/3 are built from, with the solution
+     * collector of the machine.
+     *
+     * @param  function The id of the internal function.
+     *
+     * @return <tt>true</tt> if the call succeeded, and <tt>false</tt> if it failed.
+     */
+    private boolean internalCollect(int function)
+    {
+        // P <- P + instruction_size(P)
+        ip += 7;
+
+        switch (function)
+        {
+        case FA_BEGIN_1_ID:
+            return collector.begin();
+
+        case FA_ADD_2_ID:
+            return collector.add();
+
+        case FA_END_2_ID:
+            return collector.end();
+
+        case BAG_WITNESS_4_ID:
+            return collector.witness();
+
+        case BAG_GROUPS_2_ID:
+            return collector.groups();
+
+        default:
+            return collector.sort();
+        }
+    }
+
+    /**
+     * Implements the call to a table of facts, and its retry on backtracking. The rows are looked up on the first
+     * bound argument with an index, or scanned when there is none, and those that do not hold the other bound
+     * arguments are passed over. When there are more rows to try after the one unified with, a choice point is kept,
+     * that saves the arguments along with the column and the next row to look up, and that retries the call on
+     * backtracking. The code to retry the call follows the code to make it, after a proceed instruction.
+     *
+     * @param  function The id of the internal function, which identifies the table, and whether the call is a retry.
+     * @param  arity    The arity of the table.
+     *
+     * @return <tt>true</tt> if a row of the table unifies with the arguments.
+     */
+    private boolean internalFacts(int function, int arity)
+    {
+        WAMFactTable table = factTables.get((function & ~FACTS_ID) >>> 1);
+        int column;
+        int row;
+
+        if ((function & 1) == 0)
+        {
+            column = -1;
+
+            if (!setFactKeys(arity))
+            {
+                return false;
+            }
+
+            for (int i = 0; (i < arity) && (column < 0); i++)
+            {
+                column = ((factKeys[i] != -1) && table.isIndexed(i)) ? i : -1;
+            }
+
+            row = (column < 0) ? ((table.size() > 0) ? 0 : -1) : table.first(column, factKeys[column]);
+            row = ((row < 0) || matchesFactRow(table, row, arity)) ? row : nextFactRow(table, column, row, arity);
+
+            if (row < 0)
+            {
+                return false;
+            }
+
+            int next = nextFactRow(table, column, row, arity);
+
+            if (next >= 0)
+            {
+                if (profiler != null)
+                {
+                    profiler.choicePoint(ownerOf(ip));
+                }
+
+                int esp = nextStackFrame();
+                int n = arity + 2;
+                data.put(esp, n);
+
+                for (int i = 0; i < arity; i++)
+                {
+                    data.put(esp + i + 1, data.get(i));
+                }
+
+                data.put(esp + arity + 1, intCell(column));
+                data.put(esp + arity + 2, intCell(next));
+                data.put(esp + n + 1, ep);
+                data.put(esp + n + 2, cp);
+                data.put(esp + n + 3, bp);
+
+                // Retry at the call_internal following this one and its proceed.
+                data.put(esp + n + 4, ip + 8);
+                data.put(esp + n + 5, trp);
+                data.put(esp + n + 6, hp);
+                data.put(esp + n + 7, b0);
+
+                bp = esp;
+                hbp = hp;
+            }
+        }
+        else
+        {
+            // Restore the state saved in the choice point, as retry_me_else does.
+            int n = data.get(bp);
+
+            for (int i = 0; i < arity; i++)
+            {
+                data.put(i, data.get(bp + i + 1));
+            }
+
+            ep = data.get(bp + n + 1);
+            cp = data.get(bp + n + 2);
+            unwindTrail(data.get(bp + n + 5), trp);
+            trp = data.get(bp + n + 5);
+            hp = data.get(bp + n + 6);
+            hbp = hp;
+
+            column = (data.get(bp + arity + 1) << 3) >> 3;
+            row = (data.get(bp + arity + 2) << 3) >> 3;
+
+            setFactKeys(arity);
+
+            int next = nextFactRow(table, column, row, arity);
+
+            if (next >= 0)
+            {
+                data.put(bp + arity + 2, intCell(next));
+            }
+            else
+            {
+                // Remove the choice point, as trust_me does, when this is the last row to try.
+                bp = data.get(bp + n + 3);
+            }
+        }
+
+        // P <- P + instruction_size(P)
+        ip += 7;
+
+        for (int i = 0; i < arity; i++)
+        {
+            if (!unifyFactValue(table.get(row, i), i))
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Reads the values of the arguments of a call to a table of facts into {@link #factKeys}. A table only holds
+     * constants, so a call with any other kind of argument cannot match any of its rows.
+     *
+     * @param  arity The arity of the table.
+     *
+     * @return <tt>false</tt> if an argument is neither unbound nor a constant.
+     */
+    private boolean setFactKeys(int arity)
+    {
+        for (int i = 0; i < arity; i++)
+        {
+            deref(i);
+
+            if (derefTag == REF)
+            {
+                factKeys[i] = -1;
+            }
+            else if (derefTag == CON)
+            {
+                factKeys[i] = derefVal;
+            }
+            else
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Checks if a row of a table of facts holds the values of all of the bound arguments of a call to it.
+     *
+     * @param  table The table of facts.
+     * @param  row   The row to check.
+     * @param  arity The arity of the table.
+     *
+     * @return <tt>true</tt> if the row holds the values of all of the bound arguments.
+     */
+    private boolean matchesFactRow(WAMFactTable table, int row, int arity)
+    {
+        for (int i = 0; i < arity; i++)
+        {
+            if ((factKeys[i] != -1) && (table.get(row, i) != factKeys[i]))
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Finds the next row of a table of facts after a row, that holds the values of the bound arguments of a call to
+     * it.
+     *
+     * @param  table  The table of facts.
+     * @param  column The indexed column that the rows are looked up on, or -1 if they are scanned.
+     * @param  row    The row to look on from.
+     * @param  arity  The arity of the table.
+     *
+     * @return The next matching row, or -1 if there is none.
+     */
+    private int nextFactRow(WAMFactTable table, int column, int row, int arity)
+    {
+        do
+        {
+            if (column >= 0)
+            {
+                row = table.next(column, row);
+            }
+            else
+            {
+                row = ((row + 1) < table.size()) ? (row + 1) : -1;
+            }
+        }
+        while ((row >= 0) && !matchesFactRow(table, row, arity));
+
+        return row;
+    }
+
+    /**
+     * Unifies a value held in a table of facts with an argument register. Unlike {@link #unifyConst}, the whole value
+     * part of the constant cell is used, so that small integers can be unified as well as atoms.
+     *
+     * @param  value The value part of the constant cell.
+     * @param  addr  The argument register.
+     *
+     * @return <tt>true</tt> if the value unifies with the argument.
+     */
+    private boolean unifyFactValue(int value, int addr)
+    {
+        int deref = deref(addr);
+
+        if (derefTag == REF)
+        {
+            data.put(deref, (CON << TSHIFT) | value);
+            trail(deref);
+
+            return true;
+        }
+
+        return (derefTag == CON) && (derefVal == value);
+    }
+
+    /**
+     * Looks up an incomplete table, by the handle in a register.
+     *
+     * @param  xi The register holding the handle.
+     *
+     * @return The table, or <tt>null</tt> if there is no incomplete table with the handle.
+     */
+    private WAMTable findTable(int xi)
+    {
+        deref(xi);
+
+        int handle = ((derefTag == CON) && ((derefVal & SMALL_INT) != 0)) ? ((derefVal << 3) >> 3) : -1;
+
+        return ((handle >= 0) && (handle < completion.size())) ? completion.get(handle) : null;
+    }
+
+    /**
+     * Throws away the tables that the current query has left incomplete, keeping the complete ones.
+     */
+    private void endTables()
+    {
+        for (WAMTable table : completion)
+        {
+            tables.remove(table.call);
+        }
+
+        completion.clear();
+    }
+
+    /**
+     * Throws away all tables.
+     */
+    private void clearTables()
+    {
+        tables.clear();
+        completion.clear();
+    }
+
+    /**
+     * Checks if a range of the code area contains a cut.
+     *
+     * @param  start The start of the range.
+     * @param  end   The end of the range, one past its last address.
+     *
+     * @return <tt>true</tt> if the range contains a cut.
+     */
+    private boolean hasCut(int start, int end)
+    {
+        for (int addr = start; addr < end; addr += decodeInstruction(codeBuffer, addr))
+        {
+            if ((code[addr] == CUT) || (code[addr] == NECK_CUT))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Checks if a range of the code area keeps solutions in this machine, apart from its heap, that is, if it starts or
+     * repeats the evaluation of tabled calls, or collects the solutions to a goal.
+     *
+     * @param  start The start of the range.
+     * @param  end   The end of the range, one past its last address.
+     *
+     * @return <tt>true</tt> if the range keeps solutions in this machine.
+     */
+    private boolean keepsSolutions(int start, int end)
+    {
+        for (int addr = start; addr < end; addr += decodeInstruction(codeBuffer, addr))
+        {
+            boolean isTableCall =
+                (code[addr] == CALL_INTERNAL) &&
+                ((code[addr + 1] == TBL_CALL_2_ID) || (code[addr + 1] == TBL_MORE_1_ID) ||
+                    (code[addr + 1] == FA_ADD_2_ID));
+
+            if (isTableCall)
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Checks if the code at an address is cut free, and so cannot remove choice points made before it is run.
+     *
+     * @param  addr       The address.
+     * @param  queryStart The start of the code of the query being run.
+     * @param  queryEnd   The end of the code of the query being run.
+     * @param  queryCut   <tt>true</tt> if the query contains a cut.
+     *
+     * @return <tt>true</tt> if the code at the address is in a predicate, or query, without a cut.
+     */
+    private boolean isCutFree(int addr, int queryStart, int queryEnd, boolean queryCut)
+    {
+        return ((addr >= queryStart) && (addr < queryEnd)) ? !queryCut : !cutCode.get(addr);
+    }
+
+    /**
+     * Creates a binding of one variable onto another. One of the supplied addresses must be an unbound variable. If
+     * both are unbound variables, the higher (newer) address is bound to the lower (older) one.
+     *
+     * @param a1 The address of the first potential unbound variable to bind.
+     * @param a2 The address of the second potential unbound variable to bind.
+     */
+    private void bind(int a1, int a2)
+    {
+        // <t1, _> <- STORE[a1]
+        int t1 = (byte) (data.get(a1) >>> TSHIFT);
+
+        // <t2, _> <- STORE[a2]
+        int t2 = (byte) (data.get(a2) >>> TSHIFT);
+
+        // if (t1 = REF) /\ ((t2 != REF) \/ (a2 < a1))
+        if ((t1 == WAMInstruction.REF) && ((t2 != WAMInstruction.REF) || (a2 < a1)))
+        {
+            //  STORE[a1] <- STORE[a2]
+            //data.put(a1, refTo(a2));
+            data.put(a1, data.get(a2));
+
+            //  trail(a1)
+            trail(a1);
+        }
+        else if (t2 == WAMInstruction.REF)
+        {
+            //  STORE[a2] <- STORE[a1]
+            //data.put(a2, refTo(a1));
+            data.put(a2, data.get(a1));
+
+            //  tail(a2)
+            trail(a2);
+        }
+    }
+
+    /**
+     * Records the address of a binding onto the 'trail'. The trail pointer is advanced by one as part of this
+     * operation.
+     *
+     * @param addr The binding address to add to the trail.
+     */
+    private void trail(int addr)
+    {
+        // if (a < HB) \/ ((H < a) /\ (a < B))
+        if ((addr < hbp) || ((hp < addr) && (addr < bp)))
+        {
+            if (trp == (trailBase + trailSize))
+            {
+                grow(0, 0, trailSize, 0);
+            }
+
+            //  TRAIL[TR] <- a
+            data.put(trp, addr);
+
+            //  TR <- TR + 1
+            trp++;
+        }
+    }
+
+    /**
+     * Undoes variable bindings that have been recorded on the 'trail'. Addresses recorded on the trail are reset to REF
+     * to self.
+     *
+     * @param a1 The start address within the trail to get the first binding address to clear.
+     * @param a2 The end address within the trail, this is one higher than the last address to clear.
+     */
+    private void unwindTrail(int a1, int a2)
+    {
+        // for i <- a1 to a2 - 1 do
+        for (int addr = a1; addr < a2; addr++)
+        {
+            //  STORE[TRAIL[i]] <- <REF, TRAIL[i]>
+            int tmp = data.get(addr);
+            data.put(tmp, refTo(tmp));
+        }
+    }
+
+    /**
+     * Tidies trail when a choice point is being discarded, and a previous choice point it being made the current one.
+     *
+     * <p/>Copies trail bindings created since the choice point, into the trail as known to the previous choice point.
+     * That is bindings on the heap created during the choice point (between HB and H).
+     */
+    private void tidyTrail()
+    {
+        int i;
+
+        // Check that there is a current choice point to tidy down to, otherwise tidy down to the root of the trail.
+        if (bp == 0)
+        {
+            i = trailBase;
+        }
+        else
+        {
+            i = data.get(bp + data.get(bp) + 5);
+        }
+
+        while (i < trp)
+        {
+            int addr = data.get(i);
+
+            if ((addr < hbp) || ((hp < addr) && (addr < bp)))
+            {
+                i++;
+            }
+            else
+            {
+                data.put(i, data.get(trp - 1));
+                trp--;
+            }
+        }
+    }
+
+    /**
+     * Grows the memory areas of the machine by the specified amounts, up to their maximum sizes. The memory areas are
+     * copied into a new data area, and moved up to make room as needed. The heap never moves, but the stack, trail and
+     * unification stack may do, in which case all addresses that point into them are shifted to their new positions.
+     *
+     * <p/>No heap cell ever refers to the stack, as bindings are always made from newer to older variables. This means
+     * that the heap does not need to be scanned for references into the stack, and the cost of growing is bounded by
+     * the size of the stack and trail. The unification stack is moved, but its contents are not shifted, so growing the
+     * heap or stack is only done when it is empty.
+     *
+     * <p/>Should an area that needs to grow already be at its maximum size, the execution state of the machine is
+     * reset, and a resource error raised.
+     *
+     * @param  heapGrowth  The number of cells to add to the heap.
+     * @param  stackGrowth The number of cells to add to the stack.
+     * @param  trailGrowth The number of cells to add to the trail.
+     * @param  pdlGrowth   The number of cells to add to the unification stack.
+     *
+     * @return The distance that the stack has moved by.
+     *
+     * @throws WAMResourceException If an area that needs to grow is already at its maximum size.
+     */
+    private int grow(int heapGrowth, int stackGrowth, int trailGrowth, int pdlGrowth)
+    {
+        int newHeapSize = growSize(heapSize, heapGrowth, sizes.maxHeapSize, WAMResourceException.HEAP);
+        int newStackSize = growSize(stackSize, stackGrowth, sizes.maxStackSize, WAMResourceException.STACK);
+        int newTrailSize = growSize(trailSize, trailGrowth, sizes.maxTrailSize, WAMResourceException.TRAIL);
+        int newPdlSize = growSize(pdlSize, pdlGrowth, sizes.maxPdlSize, WAMResourceException.PDL);
+
+        /*log.fine("Growing memory areas to heap = " + newHeapSize + ", stack = " + newStackSize + ", trail = " +
+            newTrailSize + ", pdl = " + newPdlSize);*/
+
+        int newStackBase = HEAP_BASE + newHeapSize;
+        int newTrailBase = newStackBase + newStackSize;
+        int newTop = newTrailBase + newTrailSize + newPdlSize;
+
+        int stackShift = newStackBase - stackBase;
+        int trailShift = newTrailBase - trailBase;
+        int pdlShift = newTop - top;
+
+        // Find all environments that may yet be returned or backtracked into, whilst the old data area is current. The
+        // current environment holds its own size, so no continuation point is needed to find it.
+        Map<Integer, Integer> environments = new HashMap<Integer, Integer>();
+        findEnvironments(environments, ep, 0);
+
+        for (int b = bp; b != 0; b = data.get(b + data.get(b) + 3))
+        {
+            int n = data.get(b);
+            findEnvironments(environments, data.get(b + n + 1), data.get(b + n + 2));
+        }
+
+        // Copy the areas in use into their new positions.
+        IntBuffer newData = ByteBuffer.allocateDirect(newTop << 2).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+
+        copyData(newData, 0, 0, hp);
+        copyData(newData, stackBase, newStackBase, stackSize);
+        copyData(newData, trailBase, newTrailBase, trp - trailBase);
+        copyData(newData, up, up + pdlShift, top - up);
+
+        // Shift all references into the stack, to their new positions.
+        for (int i = 0; i < REG_SIZE; i++)
+        {
+            newData.put(i, shiftStackCell(newData.get(i), stackShift));
+        }
+
+        for (Map.Entry<Integer, Integer> environment : environments.entrySet())
+        {
+            int e = environment.getKey() + stackShift;
+
+            newData.put(e, shiftStackAddress(newData.get(e), stackShift));
+
+            for (int i = e + 3; i < (e + 3 + environment.getValue()); i++)
+            {
+                newData.put(i, shiftStackCell(newData.get(i), stackShift));
+            }
+        }
+
+        for (int b = bp; b != 0; b = data.get(b + data.get(b) + 3))
+        {
+            int nb = b + stackShift;
+            int n = newData.get(nb);
+
+            for (int i = nb + 1; i <= (nb + n); i++)
+            {
+                newData.put(i, shiftStackCell(newData.get(i), stackShift));
+            }
+
+            newData.put(nb + n + 1, shiftStackAddress(newData.get(nb + n + 1), stackShift));
+            newData.put(nb + n + 3, shiftStackAddress(newData.get(nb + n + 3), stackShift));
+            newData.put(nb + n + 5, newData.get(nb + n + 5) + trailShift);
+            newData.put(nb + n + 7, shiftStackAddress(newData.get(nb + n + 7), stackShift));
+        }
+
+        for (int i = newTrailBase; i < (trp + trailShift); i++)
+        {
+            newData.put(i, shiftStackCell(newData.get(i), stackShift));
+        }
+
+        ep = shiftStackAddress(ep, stackShift);
+        bp = shiftStackAddress(bp, stackShift);
+        b0 = shiftStackAddress(b0, stackShift);
+        trp += trailShift;
+        up += pdlShift;
+
+        // Switch over to the new data area.
+        data = newData;
+        heapSize = newHeapSize;
+        stackSize = newStackSize;
+        trailSize = newTrailSize;
+        pdlSize = newPdlSize;
+        stackBase = newStackBase;
+        trailBase = newTrailBase;
+        top = newTop;
+        heapLimit = stackBase - HEAP_GUARD;
+
+        return stackShift;
+    }
+
+    /**
+     * Counts a call to a predicate against the profiler, and samples the stack of calls if one is due. The stack is
+     * read off the chain of environment frames, each of which holds the address that its predicate was called from.
+     * On a last call the frame of the caller has already been given up, so its own caller is found from the
+     * continuation point instead.
+     *
+     * @param name The interned name of the predicate called.
+     * @param last <tt>true</tt> if the call is a last call.
+     */
+    private void profileCall(int name, boolean last)
+    {
+        int caller = ownerOf(ip);
+
+        if (!profiler.call(name, caller))
+        {
+            return;
+        }
+
+        int[] stack = profiler.stack;
+        int depth = 0;
+
+        stack[depth++] = name;
+
+        if (caller >= 0)
+        {
+            stack[depth++] = caller;
+        }
+
+        if (last)
+        {
+            int owner = ownerOf(cp);
+
+            if (owner >= 0)
+            {
+                stack[depth++] = owner;
+            }
+        }
+
+        for (int e = ep; (e >= stackBase) && (e < trailBase) && (depth < stack.length); e = data.get(e))
+        {
+            int owner = ownerOf(data.get(e + 1));
+
+            if (owner >= 0)
+            {
+                stack[depth++] = owner;
+            }
+        }
+
+        profiler.sample(depth);
+    }
+
+    /**
+     * Finds the predicate that an address in the code area belongs to, whilst profiling. Addresses are looked up
+     * once, and remembered, until the code at them is freed.
+     *
+     * @param  address The address in the code area.
+     *
+     * @return The interned name of the predicate, or <tt>-1</tt> if the address is not in a predicate.
+     */
+    private int ownerOf(int address)
+    {
+        if ((address < 0) || (address >= code.length))
+        {
+            return -1;
+        }
+
+        if (address >= owners.length)
+        {
+            owners = Arrays.copyOf(owners, code.length);
+        }
+
+        int owner = owners[address];
+
+        if (owner == 0)
+        {
+            owner = findOwner(address) + 1;
+            owners[address] = (owner == 0) ? -1 : owner;
+        }
+
+        return (owner < 0) ? -1 : (owner - 1);
+    }
+
+    /**
+     * Forgets the predicates that a range of addresses in the code area were found to belong to, whilst profiling, as
+     * the code there has changed.
+     *
+     * @param start The start of the range.
+     * @param end   The end of the range, one past its last address.
+     */
+    private void forgetOwners(int start, int end)
+    {
+        if ((owners != null) && (start < owners.length))
+        {
+            Arrays.fill(owners, start, Math.min(end, owners.length), 0);
+        }
+
+        entryPoints = null;
+    }
+
+    /**
+     * Looks up the predicate that an address in the code area belongs to, by finding the nearest entry point of a
+     * predicate below it.
+     *
+     * @param  address The address in the code area.
+     *
+     * @return The interned name of the predicate, or <tt>-1</tt> if the address is not in a predicate.
+     */
+    private int findOwner(int address)
+    {
+        if (entryPoints == null)
+        {
+            entryPoints = new TreeMap<Integer, WAMCallPoint>();
+
+            for (Object value : symbolTable.getValues(SYMKEY_CALLPOINTS))
+            {
+                if ((value instanceof WAMCallPoint) && !(value instanceof WAMReservedLabel))
+                {
+                    WAMCallPoint callPoint = (WAMCallPoint) value;
+
+                    if ((callPoint.entryPoint >= 0) && (callPoint.length > 0))
+                    {
+                        entryPoints.put(callPoint.entryPoint, callPoint);
+                    }
+                }
+            }
+        }
+
+        SortedMap<Integer, WAMCallPoint> below = entryPoints.headMap(address + 1);
+
+        if (below.isEmpty())
+        {
+            return -1;
+        }
+
+        WAMCallPoint predicate = below.get(below.lastKey());
+
+        return (address < (predicate.entryPoint + predicate.length)) ? predicate.name : -1;
+    }
+
+    /**
+     * Starts counting the resources used by a query, against its limits. A machine running a goal in parallel for
+     * another, takes on the budget of the query of that machine instead.
+     */
+    private void startLimits()
+    {
+        if (job != null)
+        {
+            adoptLimits(job.budget);
+
+            return;
+        }
+
+        queryLimits = limits;
+        budget = null;
+        inferences = 0;
+        deadline = (limits.timeLimit > 0) ? (System.nanoTime() + (limits.timeLimit * 1000000L)) : 0L;
+        timeCheck = TIME_CHECK_INTERVAL;
+        limitCheck = nextLimitCheck();
+    }
+
+    /**
+     * Provides the budget of the current query, to be taken on by another machine that is to help run it. The budget
+     * is created on first being shared, from the resources used by the query so far.
+     *
+     * @return The budget of the current query, or <tt>null</tt> if it has no limits.
+     */
+    WAMQueryBudget shareLimits()
+    {
+        boolean limited =
+            (queryLimits.maxInferences > 0) || (queryLimits.maxHeap > 0) || (queryLimits.maxStack > 0) ||
+            (queryLimits.maxTrail > 0) || (deadline != 0L);
+
+        if ((budget == null) && limited)
+        {
+            budget = new WAMQueryBudget(queryLimits, deadline, inferences);
+            budgetInferences = inferences;
+            budgetCheck = inferences + BUDGET_CHECK_INTERVAL;
+            limitCheck = nextLimitCheck();
+        }
+
+        return budget;
+    }
+
+    /**
+     * Takes on the budget of a query run by another machine, to help run it. The inferences made by this machine are
+     * counted against the budget, and it stops once any of the machines sharing the budget goes over a limit.
+     *
+     * @param shared The budget of the query, or <tt>null</tt> if it has no limits.
+     */
+    void adoptLimits(WAMQueryBudget shared)
+    {
+        budget = shared;
+        queryLimits = (shared != null) ? shared.limits : NO_LIMITS;
+        deadline = (shared != null) ? shared.deadline : 0L;
+        inferences = 0;
+        budgetInferences = 0;
+        budgetCheck = BUDGET_CHECK_INTERVAL;
+        timeCheck = TIME_CHECK_INTERVAL;
+        limitCheck = nextLimitCheck();
+    }
+
+    /**
+     * Works out the number of inferences at which the limits of the current query are next to be checked. The
+     * memory quotas are checked on every inference, as are the others when they are close, so that a query with no
+     * memory quotas pays only a single comparison on each call.
+     *
+     * @return The number of inferences at which the limits of the current query are next to be checked.
+     */
+    private long nextLimitCheck()
+    {
+        if ((queryLimits.maxHeap > 0) || (queryLimits.maxStack > 0) || (queryLimits.maxTrail > 0))
+        {
+            return inferences + 1;
+        }
+
+        long check = Long.MAX_VALUE;
+
+        // The inferences of a shared budget are only known by checking it.
+        if (budget != null)
+        {
+            check = budgetCheck;
+        }
+        else if (queryLimits.maxInferences > 0)
+        {
+            check = queryLimits.maxInferences + 1;
+        }
+
+        if (deadline != 0L)
+        {
+            check = Math.min(check, timeCheck);
+        }
+
+        return check;
+    }
+
+    /**
+     * Checks the resources used by the current query against its limits. Should any limit have been gone over, the
+     * query is abandoned, and a limit error raised.
+     *
+     * @throws WAMLimitException If the query has gone over any of its limits.
+     */
+    private void checkLimits()
+    {
+        long total = inferences;
+
+        // Count the inferences made since the budget was last checked against it, every so often.
+        if ((budget != null) && (inferences >= budgetCheck))
+        {
+            total = budget.inferences.addAndGet(inferences - budgetInferences);
+            budgetInferences = inferences;
+            budgetCheck = inferences + BUDGET_CHECK_INTERVAL;
+
+            // Stop if another machine running the query has gone over a limit.
+            if (budget.exceeded != null)
+            {
+                stopQuery(budget.exceeded);
+            }
+        }
+
+        if ((queryLimits.maxInferences > 0) && (total > queryLimits.maxInferences))
+        {
+            overLimit(WAMLimitException.INFERENCES, queryLimits.maxInferences);
+        }
+
+        if ((queryLimits.maxHeap > 0) && ((hp - HEAP_BASE) > queryLimits.maxHeap))
+        {
+            overLimit(WAMLimitException.HEAP, queryLimits.maxHeap);
+        }
+
+        // The stack in use is measured up to the start of its topmost frame.
+        if ((queryLimits.maxStack > 0) && ((Math.max(ep, bp) - stackBase) > queryLimits.maxStack))
+        {
+            overLimit(WAMLimitException.STACK, queryLimits.maxStack);
+        }
+
+        if ((queryLimits.maxTrail > 0) && ((trp - trailBase) > queryLimits.maxTrail))
+        {
+            overLimit(WAMLimitException.TRAIL, queryLimits.maxTrail);
+        }
+
+        if ((deadline != 0L) && (inferences >= timeCheck))
+        {
+            if ((System.nanoTime() - deadline) > 0)
+            {
+                overLimit(WAMLimitException.TIME, queryLimits.timeLimit);
+            }
+
+            timeCheck = inferences + TIME_CHECK_INTERVAL;
+        }
+
+        limitCheck = nextLimitCheck();
+    }
+
+    /**
+     * Abandons the current query, and raises a limit error for it. Any other machines running the query are stopped
+     * too.
+     *
+     * @param  limit The name of the limit that was gone over.
+     * @param  value The value of the limit.
+     *
+     * @throws WAMLimitException Always.
+     */
+    private void overLimit(String limit, long value)
+    {
+        WAMLimitException e = new WAMLimitException(limit, value);
+
+        if ((budget != null) && (budget.exceeded == null))
+        {
+            budget.exceeded = e;
+        }
+
+        stopQuery(e);
+    }
+
+    /**
+     * Abandons the current query, and raises an error for it. A machine running a task of an OR-parallel search leaves
+     * the search to be cancelled by the thread reading it, once the error is handed over to it.
+     *
+     * @param  e The error.
+     *
+     * @throws RuntimeException Always.
+     */
+    private void stopQuery(RuntimeException e)
+    {
+        if (task == null)
+        {
+            abandonQuery();
+        }
+
+        throw e;
+    }
+
+    /**
+     * Abandons the current query, clearing out its stack frames and heap, leaving the machine ready to run another.
+     */
+    private void abandonQuery()
+    {
+        endSearch();
+        endJobs();
+        endTables();
+        collector.clear();
+        clearQuery();
+    }
+
+    /**
+     * Clears out the stack frames and heap of the current query.
+     */
+    private void clearQuery()
+    {
+        ep = 0;
+        bp = 0;
+        b0 = 0;
+        hp = HEAP_BASE;
+        hbp = HEAP_BASE;
+        trp = trailBase;
+        up = top;
+        suspended = false;
+        gcLimit = HEAP_BASE + gcThreshold;
+        arithTop = 0;
+    }
+
+    /**
+     * Works out the new size of a memory area that is to be grown, raising a resource error if it cannot grow.
+     *
+     * @param  size     The current size of the area.
+     * @param  growth   The amount to grow the area by, zero if it is not to grow.
+     * @param  maxSize  The maximum size of the area.
+     * @param  resource The name of the area.
+     *
+     * @return The new size of the area.
+     *
+     * @throws WAMResourceException If the area is to grow, but is already at its maximum size.
+     */
+    private int growSize(int size, int growth, int maxSize, String resource)
+    {
+        if (growth == 0)
+        {
+            return size;
+        }
+
+        if (size >= maxSize)
+        {
+            abandonQuery();
+
+            throw new WAMResourceException(resource, maxSize);
+        }
+
+        return (int) Math.min(maxSize, (long) size + growth);
+    }
+
+    /**
+     * Copies a range of cells from the data area into a new data area.
+     *
+     * @param newData The new data area.
+     * @param from    The start of the range in the current data area.
+     * @param to      The start of the range in the new data area.
+     * @param length  The number of cells to copy.
+     */
+    private void copyData(IntBuffer newData, int from, int to, int length)
+    {
+        IntBuffer source = data.duplicate();
+        source.limit(from + length).position(from);
+
+        newData.position(to);
+        newData.put(source);
+        newData.clear();
+    }
+
+    /**
+     * Shifts the address held in a stack frame, when the stack is moved. Zero addresses mark the absence of a frame,
+     * and are left as they are.
+     *
+     * @param  addr  The address of a stack frame, or zero.
+     * @param  shift The distance that the stack has moved by.
+     *
+     * @return The address of the frame after the move.
+     */
+    private int shiftStackAddress(int addr, int shift)
+    {
+        return (addr == 0) ? 0 : (addr + shift);
+    }
+
+    /**
+     * Shifts a cell that may refer to a variable on the stack, when the stack is moved. The cell is assumed to hold an
+     * address from before the move, and the stack is assumed to lie between the current stack and trail bases.
+     *
+     * @param  cell  The cell to shift.
+     * @param  shift The distance that the stack has moved by.
+     *
+     * @return The cell, referring to the new position of any stack variable.
+     */
+    private int shiftStackCell(int cell, int shift)
+    {
+        int tag = cell >>> TSHIFT;
+        int addr = cell & AMASK;
+
+        if ((tag == WAMInstruction.REF) && (addr >= stackBase) && (addr < trailBase))
+        {
+            return cell + shift;
+        }
+
+        return cell;
+    }
+
+    /**
+     * Garbage collects the heap. All heap cells reachable from the roots of the machine are marked, and the marked
+     * cells are then slid down over the unmarked ones. Sliding keeps the live cells in the same order, so the
+     * comparisons between addresses that {@link #bind} and {@link #trail} rely on still hold afterwards, and the heap
+     * tops saved in choice points still divide the cells created before and after them.
+     *
+     * <p/>The roots are the argument registers, the live permanent variables of every environment that may yet be
+     * returned or backtracked into, the arguments saved in every choice point, and the heap addresses on the trail.
+     * Collection is only done at calls, where the argument registers are the only live registers.
+     *
+     * <p/>The heap tops that goals started in parallel were started at are relocated too, after first giving up on
+     * the goals that have been backtracked over, as the heap top they were started at may be above the heap in use.
+     *
+     * @param numArgs The number of arguments of the predicate being called.
+     * @param cont    The continuation point into the code of the current environment.
+     */
+    private void collectGarbage(int numArgs, int cont)
+    {
+        /*log.fine("Collecting garbage, heap in use = " + (hp - HEAP_BASE));*/
+
+        sweepJobs();
+
+        int blocks = ((hp - HEAP_BASE) >>> 6) + 1;
+        gcMarks = new long[blocks];
+        gcFunctors = new long[blocks];
+
+        // Find all environments that may yet be returned or backtracked into, and the number of live permanent
+        // variables in each.
+        Map<Integer, Integer> environments = new HashMap<Integer, Integer>();
+        findEnvironments(environments, ep, cont);
+
+        for (int b = bp; b != 0; b = data.get(b + data.get(b) + 3))
+        {
+            int n = data.get(b);
+            findEnvironments(environments, data.get(b + n + 1), data.get(b + n + 2));
+        }
+
+        // Mark all heap cells reachable from the roots.
+        for (int i = 0; i < numArgs; i++)
+        {
+            markFrom(data.get(i));
+        }
+
+        for (Map.Entry<Integer, Integer> environment : environments.entrySet())
+        {
+            int e = environment.getKey();
+
+            for (int i = e + 3; i < (e + 3 + environment.getValue()); i++)
+            {
+                markFrom(data.get(i));
+            }
+        }
+
+        for (int b = bp; b != 0; b = data.get(b + data.get(b) + 3))
+        {
+            for (int i = b + 1; i <= (b + data.get(b)); i++)
+            {
+                markFrom(data.get(i));
+            }
+        }
+
+        for (int i = trailBase; i < trp; i++)
+        {
+            markCell(data.get(i));
+            markAll();
+        }
+
+        // Count the live cells below each block, from which the new address of any heap cell can be calculated.
+        gcCounts = new int[blocks];
+
+        for (int i = 1; i < blocks; i++)
+        {
+            gcCounts[i] = gcCounts[i - 1] + Long.bitCount(gcMarks[i - 1]);
+        }
+
+        // Update the roots to the new addresses of the cells that they refer to.
+        for (int i = 0; i < numArgs; i++)
+        {
+            data.put(i, relocateCell(data.get(i)));
+        }
+
+        for (Map.Entry<Integer, Integer> environment : environments.entrySet())
+        {
+            int e = environment.getKey();
+
+            for (int i = e + 3; i < (e + 3 + environment.getValue()); i++)
+            {
+                data.put(i, relocateCell(data.get(i)));
+            }
+        }
+
+        for (int b = bp; b != 0; b = data.get(b + data.get(b) + 3))
+        {
+            int n = data.get(b);
+
+            for (int i = b + 1; i <= (b + n); i++)
+            {
+                data.put(i, relocateCell(data.get(i)));
+            }
+
+            data.put(b + n + 6, relocate(data.get(b + n + 6)));
+        }
+
+        // The heap tops that the goals still wanted were started at are moved along with the choice points, so that
+        // they are not given up on as backtracked over once the heap is smaller.
+        for (WAMAndParallelJob started : jobs)
+        {
+            started.heapMark = relocate(started.heapMark);
+        }
+
+        for (int i = trailBase; i < trp; i++)
+        {
+            int addr = data.get(i);
+
+            if ((addr >= HEAP_BASE) && (addr < hp))
+            {
+                data.put(i, relocate(addr));
+            }
+        }
+
+        // Slide the live cells down over the garbage, in order, updating the references that they contain.
+        int to = HEAP_BASE;
+
+        for (int block = 0; block < blocks; block++)
+        {
+            long bits = gcMarks[block];
+
+            while (bits != 0)
+            {
+                int bit = Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+
+                int cell = data.get(HEAP_BASE + (block << 6) + bit);
+                boolean isFunctor = (gcFunctors[block] & (1L << bit)) != 0;
+
+                data.put(to++, isFunctor ? cell : relocateCell(cell));
+            }
+        }
+
+        hbp = relocate(hbp);
+        hp = to;
 
-                // num_of_args <- n
-                numOfArgs = n;
+        gcMarks = null;
+        gcFunctors = null;
+        gcCounts = null;
 
-                /*trace.fine(ip + ": CALL_INTERNAL " + pn + "/" + n + ", " + numPerms + " (cp = " + cp + ")]");*/
+        // Put off the next collection until the heap has grown past the threshold, or at least doubled in size.
+        gcLimit = HEAP_BASE + Math.max(gcThreshold, (hp - HEAP_BASE) << 1);
 
-                boolean callOk = callInternal(pn, n, numPerms);
+        /*log.fine("Collected garbage, heap in use = " + (hp - HEAP_BASE));*/
+    }
 
-                failed = !callOk;
+    /**
+     * Follows a chain of environments back to the root environment, recording the number of live permanent variables
+     * in each of them. The chain is not followed beyond an environment that has already been found to have at least as
+     * many live permanent variables.
+     *
+     * @param environments The environments found so far, and their numbers of live permanent variables.
+     * @param e            The environment to start from.
+     * @param cont         The continuation point into the code of the environment to start from.
+     */
+    private void findEnvironments(Map<Integer, Integer> environments, int e, int cont)
+    {
+        while (e != 0)
+        {
+            int n = permanentVariables(e, cont);
+            Integer found = environments.get(e);
 
+            if ((found != null) && (found >= n))
+            {
                 break;
             }
 
-            // suspend on success:
-            case SUSPEND:
-            {
-                /*trace.fine(ip + ": SUSPEND");*/
-                ip += 1;
-                suspended = true;
+            environments.put(e, n);
 
-                return true;
-            }
-            }
+            cont = data.get(e + 1);
+            e = data.get(e);
+        }
+    }
+
+    /**
+     * Works out the number of permanent variables of an environment that are live at a continuation point into its
+     * code. Continuation points follow calls, and each call records how many permanent variables remain after it, so
+     * this is taken from the call. Environments are trimmed as calls are made, so the size held in the environment
+     * itself may be smaller than this when the continuation point is held in a choice point.
+     *
+     * @param  e    The environment.
+     * @param  cont The continuation point into the code of the environment.
+     *
+     * @return The number of live permanent variables.
+     */
+    private int permanentVariables(int e, int cont)
+    {
+        if ((cont >= 7) && (cont <= code.length))
+        {
+            int instruction = code[cont - 7];
 
-            // Notify any debug monitor that the machine has been stepped.
-            if (monitor != null)
+            if ((instruction == CALL) || (instruction == CALL_INTERNAL))
             {
-                monitor.onStep(this);
+                return code[cont - 1];
             }
         }
 
-        return !failed;
+        return data.get(e + 2);
     }
 
     /**
-     * Pretty prints the current environment frame, for debugging purposes.
+     * Marks all heap cells reachable from a root cell, during garbage collection.
      *
-     * @return The current environment frame, pretty printed.
+     * @param cell The contents of the root cell.
      */
-    protected String traceEnvFrame()
+    private void markFrom(int cell)
     {
-        return "env: [ ep = " + data.get(ep) + ", cp = " + data.get(ep + 1) + ", n = " + data.get(ep + 2) + "]";
+        markReferences(cell);
+        markAll();
     }
 
-    /**
-     * Pretty prints the current choice point frame, for debugging purposes.
-     *
-     * @return The current choice point frame, pretty printed.
-     */
-    protected String traceChoiceFrame()
+    /** Marks all heap cells reachable from the cells on the garbage collection tracing stack. */
+    private void markAll()
     {
-        if (bp == 0)
+        while (gcStackTop > 0)
         {
-            return "";
+            markReferences(data.get(gcStack[--gcStackTop]));
         }
-
-        int n = data.get(bp);
-
-        return "choice: [ n = " + data.get(bp) + ", ep = " + data.get(bp + n + 1) + ", cp = " + data.get(bp + n + 2) +
-            ", bp = " + data.get(bp + n + 3) + ", l = " + data.get(bp + n + 4) + ", trp = " + data.get(bp + n + 5) +
-            ", hp = " + data.get(bp + n + 6) + ", b0 = " + data.get(bp + n + 7);
     }
 
-    /** {@inheritDoc} */
-    protected int deref(int a)
+    /**
+     * Marks the heap cells directly referred to by a cell, during garbage collection. Newly marked cells are pushed
+     * onto the tracing stack, to be traced from in turn. The functor cell of a structure is marked along with all of
+     * its arguments, and is recorded as a functor cell, so that it is not taken for a reference later.
+     *
+     * @param cell The contents of the cell.
+     */
+    private void markReferences(int cell)
     {
-        // tag, value <- STORE[a]
-        int addr = a;
-        int tmp = data.get(a);
-        derefTag = (byte) (tmp >>> TSHIFT);
-        derefVal = tmp & AMASK;
+        int addr = cell & AMASK;
 
-        // while tag = REF and value != a
-        while ((derefTag == WAMInstruction.REF))
+        switch (cell >>> TSHIFT)
         {
-            // tag, value <- STORE[a]
-            addr = derefVal;
-            tmp = data.get(derefVal);
-            derefTag = (byte) (tmp >>> TSHIFT);
-            tmp = tmp & AMASK;
+        case REF:
+            markCell(addr);
+            break;
 
-            // Break on free var.
-            if (derefVal == tmp)
+        case STR:
+
+            if ((addr >= HEAP_BASE) && (addr < hp) && !isMarked(addr))
             {
-                break;
+                int fn = data.get(addr);
+                int arity = (fn >>> 24) & 0xff;
+
+                // The contents of a boxed number are marked as functor cells too, so that they are not taken for
+                // references, and are never traced.
+                boolean boxed = (fn == BOXED_INT) || (fn == BOXED_FLOAT);
+
+                for (int j = 0; j <= (boxed ? arity : 0); j++)
+                {
+                    int i = addr + j - HEAP_BASE;
+                    gcMarks[i >>> 6] |= 1L << i;
+                    gcFunctors[i >>> 6] |= 1L << i;
+                }
+
+                for (int j = 1; !boxed && (j <= arity); j++)
+                {
+                    markCell(addr + j);
+                }
             }
 
-            derefVal = tmp;
-        }
+            break;
 
-        return addr;
+        case LIS:
+            markCell(addr);
+            markCell(addr + 1);
+            break;
+        }
     }
 
     /**
-     * Gets the heap cell tag for the most recent dereference operation.
+     * Marks a heap cell as live during garbage collection, and pushes it onto the tracing stack, if it has not already
+     * been marked. Addresses outside of the heap are ignored.
      *
-     * @return The heap cell tag for the most recent dereference operation.
+     * @param addr The address of the cell.
      */
-    protected byte getDerefTag()
+    private void markCell(int addr)
     {
-        return derefTag;
-    }
+        if ((addr >= HEAP_BASE) && (addr < hp) && !isMarked(addr))
+        {
+            int i = addr - HEAP_BASE;
+            gcMarks[i >>> 6] |= 1L << i;
 
-    /**
-     * Gets the heap cell value for the most recent dereference operation.
-     *
-     * @return The heap cell value for the most recent dereference operation.
-     */
-    protected int getDerefVal()
-    {
-        return derefVal;
+            if (gcStackTop == gcStack.length)
+            {
+                gcStack = Arrays.copyOf(gcStack, gcStack.length << 1);
+            }
+
+            gcStack[gcStackTop++] = addr;
+        }
     }
 
     /**
-     * Gets the value of the heap cell at the specified location.
+     * Checks if a heap cell has been marked as live during garbage collection.
      *
-     * @param  addr The address to fetch from the heap.
+     * @param  addr The address of the cell.
      *
-     * @return The heap cell at the specified location.
+     * @return <tt>true</tt> iff the cell has been marked.
      */
-    protected int getHeap(int addr)
+    private boolean isMarked(int addr)
     {
-        return data.get(addr);
+        int i = addr - HEAP_BASE;
+
+        return (gcMarks[i >>> 6] & (1L << i)) != 0;
     }
 
     /**
-     * Invokes an internal function.
+     * Calculates the address that a heap cell is moved to by garbage collection. This is the number of live cells below
+     * it. An address that is not of a live cell, such as the top of the heap saved in a choice point, is moved to the
+     * address of the next live cell above it.
      *
-     * @param  function The id of the internal function to call.
-     * @param  arity    The arity of the function to call.
-     * @param  numPerms The number of permanent variables remaining in the environment.
+     * @param  addr The address to relocate, which may be anywhere from the base to the top of the heap.
      *
-     * @return <tt>true</tt> if the call succeeded, and <tt>false</tt> if it failed.
+     * @return The relocated address.
      */
-    private boolean callInternal(int function, int arity, int numPerms)
+    private int relocate(int addr)
     {
-        switch (function)
-        {
-        case CALL_1_ID:
-            return internalCall_1(numPerms);
+        int i = addr - HEAP_BASE;
 
-        case EXECUTE_1_ID:
-            return internalExecute_1();
-
-        default:
-            throw new IllegalStateException("Unknown internal function id: " + function);
-        }
+        return HEAP_BASE + gcCounts[i >>> 6] + Long.bitCount(gcMarks[i >>> 6] & ((1L << i) - 1));
     }
 
     /**
-     * Implements the 'call/1' predicate.
+     * Updates a cell that may refer to the heap, to refer to the address that the heap cell is moved to by garbage
+     * collection.
      *
-     * @param  numPerms The number of permanent variables remaining in the environment.
+     * @param  cell The contents of the cell.
      *
-     * @return <tt>true</tt> if the call succeeded, and <tt>false</tt> if it failed.
+     * @return The updated contents of the cell.
      */
-    private boolean internalCall_1(int numPerms)
+    private int relocateCell(int cell)
     {
-        int pn = setupCall_1();
+        int addr = cell & AMASK;
 
-        if (pn == -1)
+        if (((cell >>> TSHIFT) != CON) && (addr >= HEAP_BASE) && (addr < hp))
         {
-            return false;
+            return (cell & ~AMASK) | relocate(addr);
         }
 
-        // Make the call.
-        // STACK[E + 2] <- numPerms
-        data.put(ep + 2, numPerms);
-
-        // CP <- P + instruction_size(P)
-        cp = ip + 7;
-
-        /*trace.fine(ip + ": (CALL) " + pn + ", " + numPerms + " (cp = " + cp + ")]");*/
-
-        // B0 <- B
-        b0 = bp;
-
-        // P <- @(p/n)
-        ip = pn;
-
-        return true;
+        return cell;
     }
 
     /**
-     * Implements the execute variant of the 'call/1' predicate.
+     * Attempts to unify structures or references on the heap, given two references to them. Structures are matched
+     * element by element, free references become bound.
      *
-     * @return <tt>true</tt> if the call succeeded, and <tt>false</tt> if it failed.
+     * @param  a1 The address of the first structure or reference.
+     * @param  a2 The address of the second structure or reference.
+     *
+     * @return <tt>true</tt> if the two structures unify, <tt>false</tt> otherwise.
      */
-    private boolean internalExecute_1()
+    boolean unify(int a1, int a2)
     {
-        int pn = setupCall_1();
+        // pdl.push(a1)
+        // pdl.push(a2)
+        uPush(a1);
+        uPush(a2);
 
-        if (pn == -1)
+        // fail <- false
+        boolean fail = false;
+
+        // while !empty(PDL) and not failed
+        while (!uEmpty() && !fail)
         {
-            return false;
-        }
+            // d1 <- deref(pdl.pop())
+            // d2 <- deref(pdl.pop())
+            // t1, v1 <- STORE[d1]
+            // t2, v2 <- STORE[d2]
+            int d1 = deref(uPop());
+            int t1 = derefTag;
+            int v1 = derefVal;
 
-        // Make the call.
-        /*trace.fine(ip + ": (EXECUTE) " + pn + " (cp = " + cp + ")]");*/
+            int d2 = deref(uPop());
+            int t2 = derefTag;
+            int v2 = derefVal;
 
-        // B0 <- B
-        b0 = bp;
+            // if (d1 != d2)
+            if (d1 != d2)
+            {
+                // if (t1 = REF or t2 = REF)
+                // bind(d1, d2)
+                if ((t1 == WAMInstruction.REF))
+                {
+                    bind(d1, d2);
+                }
+                else if (t2 == WAMInstruction.REF)
+                {
+                    bind(d1, d2);
+                }
+                else if (t2 == WAMInstruction.STR)
+                {
+                    if (t1 != WAMInstruction.STR)
+                    {
+                        fail = true;
+
+                        continue;
+                    }
+
+                    // f1/n1 <- STORE[v1]
+                    // f2/n2 <- STORE[v2]
+                    int fn1 = data.get(v1);
+                    int fn2 = data.get(v2);
+                    byte n1 = (byte) (fn1 >>> 24);
+
+                    // Boxed numbers are compared by their contents, which are not cells.
+                    if ((fn1 == fn2) && ((fn1 == BOXED_INT) || (fn1 == BOXED_FLOAT)))
+                    {
+                        for (int i = 1; i <= n1; i++)
+                        {
+                            fail |= data.get(v1 + i) != data.get(v2 + i);
+                        }
+                    }
+
+                    // if f1 = f2 and n1 = n2
+                    else if (fn1 == fn2)
+                    {
+                        // for i <- 1 to n1
+                        for (int i = 1; i <= n1; i++)
+                        {
+                            // pdl.push(v1 + i)
+                            // pdl.push(v2 + i)
+                            uPush(v1 + i);
+                            uPush(v2 + i);
+                        }
+                    }
+                    else
+                    {
+                        // fail <- true
+                        fail = true;
+                    }
+                }
+                else if (t2 == WAMInstruction.CON)
+                {
+                    if ((t1 != WAMInstruction.CON) || (v1 != v2))
+                    {
+                        fail = true;
+                    }
+                }
+                else if (t2 == WAMInstruction.LIS)
+                {
+                    if (t1 != WAMInstruction.LIS)
+                    {
+                        fail = true;
+                    }
+                    else
+                    {
+                        uPush(v1);
+                        uPush(v2);
+                        uPush(v1 + 1);
+                        uPush(v2 + 1);
+                    }
+                }
+            }
+        }
 
-        // P <- @(p/n)
-        ip = pn;
+        // Drop any pairs left unmatched by a failure, so that they are not taken up by the next unification.
+        if (fail)
+        {
+            uClear();
+        }
 
-        return true;
+        return !fail;
     }
 
     /**
-     * Sets up the registers to make a call, for implementing call/1. The first register should reference a structure to
-     * be turned into a predicate call. The arguments of this structure will be set up in the registers, and the entry
-     * point of the predicate to call will be returned.
+     * A simplified unification algorithm, for unifying against a constant.
      *
-     * @return The entry address of the predicate to call, or <tt>-1</tt> if the call cannot be resolved to a known
-     *         predicate.
+     * <p/>Attempts to unify a constant or references on the heap, with a constant. If the address leads to a free
+     * variable on dereferencing, the variable is bound to the constant. If the address leads to a constant it is
+     * compared with the passed in constant for equality, and unification succeeds when they are equal.
+     *
+     * @param  fn   The constant to unify with.
+     * @param  addr The address of the first constant or reference.
+     *
+     * @return <tt>true</tt> if the two constant unify, <tt>false</tt> otherwise.
      */
-    private int setupCall_1()
+    private boolean unifyConst(int fn, int addr)
     {
-        // Get X0.
-        int addr = deref(0);
-        byte tag = derefTag;
-        int val = derefVal;
+        boolean success;
 
-        // Check it points to a structure.
-        int fn;
+        int deref = deref(addr);
+        int tag = derefTag;
+        int val = derefVal;
 
-        if (tag == STR)
-        {
-            fn = getHeap(val);
-        }
-        else if (tag == CON)
+        // case STORE[addr] of
+        switch (tag)
         {
-            fn = val;
-        }
-        else
+        case REF:
         {
-            /*trace.fine("call/1 not invoked against structure.");*/
+            // <REF, _> :
+            // STORE[addr] <- <CON, c>
+            data.put(deref, constantCell(fn));
 
-            return -1;
-        }
+            // trail(addr)
+            trail(deref);
 
-        // Look up the call point of the matching functor.
-        int f = fn & 0x00ffffff;
+            success = true;
 
-        WAMCallPoint callPoint = resolveCallPoint(f);
+            break;
+        }
 
-        if (callPoint.entryPoint == -1)
+        case CON:
         {
-            /*trace.fine("call/1 to unknown call point.");*/
+            // <CON, c'> :
+            // fail <- (c != c');
+            success = val == fn;
 
-            return -1;
+            break;
         }
 
-        int pn = callPoint.entryPoint;
-
-        // Set registers X0... to ref to args...
-        FunctorName functorName = getDeinternedFunctorName(f);
-        int arity = functorName.getArity();
-
-        for (int i = 0; i < arity; i++)
+        default:
         {
-            data.put(i, refTo(val + 1 + i));
+            // other: fail <- true;
+            success = false;
+        }
         }
 
-        return pn;
+        return success;
     }
 
     /**
-     * Looks up a value (an interned name referring to a constant or structure), in the hash table of size n referred
-     * to.
+     * Creates a cell holding an integer. Integers that fit in a small integer are held directly in a constant cell,
+     * and larger ones are boxed on the heap.
      *
-     * @param  val The value to look up.
-     * @param  t   The offset of the start of the hash table.
-     * @param  n   The size of the hash table in bytes.
+     * @param  n The integer.
      *
-     * @return <tt>0</tt> iff no match is found, or a pointer into the code area of the matching branch.
+     * @return A cell holding the integer.
      */
-    private int getHash(int val, int t, int n)
+    private int intCell(int n)
     {
-        return 0;
+        if ((n >= MIN_SMALL_INT) && (n <= MAX_SMALL_INT))
+        {
+            return (CON << TSHIFT) | SMALL_INT | (n & SMALL_INT_MASK);
+        }
+
+        data.put(hp, BOXED_INT);
+        data.put(hp + 1, n);
+        hp += 2;
+
+        return structureAt(hp - 2);
     }
 
     /**
-     * Creates a heap cell contents containing a structure tag, and the address of the structure.
-     *
-     * <p/>Note: This only creates the contents of the cell, it does not write it to the heap.
+     * Creates a cell holding a float, boxed on the heap as its high and low words.
      *
-     * @param  addr The address of the structure.
+     * @param  bits The bits of the float.
      *
-     * @return The heap cell contents referencing the structure.
+     * @return A cell holding the float.
      */
-    private int structureAt(int addr)
+    private int floatCell(long bits)
     {
-        return (WAMInstruction.STR << TSHIFT) | (addr & AMASK);
+        data.put(hp, BOXED_FLOAT);
+        data.put(hp + 1, (int) (bits >>> 32));
+        data.put(hp + 2, (int) bits);
+        hp += 3;
+
+        return structureAt(hp - 3);
     }
 
     /**
-     * Creates a heap cell contents containing a reference.
-     *
-     * <p/>Note: This only creates the contents of the cell, it does not write it to the heap.
+     * Unifies a register or variable with a number. An unbound variable is bound to a new cell holding the number,
+     * otherwise the variable must already hold the same number, of the same type.
      *
-     * @param  addr The references address.
+     * @param  addr    The address of the register or variable.
+     * @param  value   The integer, or the bits of the float.
+     * @param  isFloat <tt>true</tt> if the number is a float.
      *
-     * @return The heap cell contents containing the reference.
+     * @return <tt>true</tt> if the unification succeeds.
      */
-    private int refTo(int addr)
+    boolean unifyNumber(int addr, long value, boolean isFloat)
     {
-        return (WAMInstruction.REF << TSHIFT) | (addr & AMASK);
+        int deref = deref(addr);
+        int val = derefVal;
+
+        switch (derefTag)
+        {
+        case REF:
+            data.put(deref, isFloat ? floatCell(value) : intCell((int) value));
+            trail(deref);
+
+            return true;
+
+        case CON:
+            return !isFloat && ((val & SMALL_INT) != 0) && (((val << 3) >> 3) == value);
+
+        case STR:
+
+            if (isFloat)
+            {
+                return (data.get(val) == BOXED_FLOAT) &&
+                    ((((long) data.get(val + 1) << 32) | (data.get(val + 2) & 0xffffffffL)) == value);
+            }
+            else
+            {
+                return (data.get(val) == BOXED_INT) && (data.get(val + 1) == value);
+            }
+
+        default:
+            return false;
+        }
     }
 
     /**
-     * Creates a heap cell contents containing a constant.
-     *
-     * <p/>Note: This only creates the contents of the cell, it does not write it to the heap.
-     *
-     * <p/>See the comment on {@link #CMASK} about the arity always being zero on a constant.
-     *
-     * @param  fn The functor name and arity of the constant. Arity should always be zero.
+     * Pushes a number onto the arithmetic stack, growing the stack if it is full.
      *
-     * @return The heap cell contents containing the constant.
+     * @param value   The integer, or the bits of the float.
+     * @param isFloat <tt>true</tt> if the number is a float.
      */
-    private int constantCell(int fn)
+    private void arithPush(long value, boolean isFloat)
     {
-        return (CON << TSHIFT) | (fn & CMASK);
+        if (arithTop == arithStack.length)
+        {
+            arithStack = Arrays.copyOf(arithStack, arithTop * 2);
+            arithFloat = Arrays.copyOf(arithFloat, arithTop * 2);
+        }
+
+        arithStack[arithTop] = value;
+        arithFloat[arithTop++] = isFloat;
     }
 
     /**
-     * Creates a heap cell contents containing a list pointer.
+     * Pops the number on the top of the arithmetic stack into a cell.
      *
-     * <p/>Note: This only creates the contents of the cell, it does not write it to the heap.
+     * @return A cell holding the number.
+     */
+    private int arithPopCell()
+    {
+        arithTop--;
+
+        return arithFloat[arithTop] ? floatCell(arithStack[arithTop]) : intCell((int) arithStack[arithTop]);
+    }
+
+    /**
+     * Clears the arithmetic stack and abandons the current query, when an arithmetic expression has no value. A machine
+     * running a task of an OR-parallel search leaves the search to be cancelled by the thread reading it, as for a
+     * limit error.
      *
-     * @param  addr The address of the list contents.
+     * @param  error The name of the error.
      *
-     * @return The heap cell contents containing the list pointer.
+     * @return The error to raise.
      */
-    private int listCell(int addr)
+    private WAMArithmeticException arithError(String error)
     {
-        return (WAMInstruction.LIS << TSHIFT) | (addr & AMASK);
+        arithTop = 0;
+
+        if (task == null)
+        {
+            abandonQuery();
+        }
+
+        return new WAMArithmeticException(error);
     }
 
     /**
-     * Loads the contents of a register, or a stack slot, depending on the mode.
+     * Evaluates the arithmetic expression held in a register or variable, and pushes its value onto the arithmetic
+     * stack.
      *
-     * @param  mode The mode, {@link WAMInstruction#REG_ADDR} for register addressing, {@link WAMInstruction#STACK_ADDR}
-     *              for stack addressing.
+     * @param  addr The address of the register or variable.
      *
-     * @return The contents of the register or stack slot.
+     * @throws WAMArithmeticException If the expression is not a ground arithmetic expression, or has no value.
      */
-    private int getRegisterOrStackSlot(byte mode)
+    private void arithEvaluate(int addr)
     {
-        return (int) codeBuffer.get(ip + 2) + ((mode == STACK_ADDR) ? (ep + 3) : 0);
+        deref(addr);
+        arithEvaluate(derefTag, derefVal);
     }
 
     /**
-     * Computes the start of the next stack frame. This depends on whether the most recent stack frame is an environment
-     * frame or a choice point frame, as these have different sizes. The size of the most recent type of frame is
-     * computed and added to the current frame pointer to give the start of the next frame.
+     * Evaluates an arithmetic expression on the heap, and pushes its value onto the arithmetic stack. Expressions
+     * that are not built into the clauses that evaluate them are walked here, and their operators applied as the
+     * arith_op instruction would.
      *
-     * @return The start of the next stack frame.
+     * @param  tag The tag of the dereferenced expression.
+     * @param  val The value of the dereferenced expression.
+     *
+     * @throws WAMArithmeticException If the expression is not a ground arithmetic expression, or has no value.
      */
-    private int nextStackFrame()
+    private void arithEvaluate(byte tag, int val)
     {
-        // if E > B
-        // then newB <- E + STACK[E + 2] + 3
-        // else newB <- B + STACK[B] + 7
+        if ((tag == CON) && ((val & SMALL_INT) != 0))
+        {
+            arithPush((val << 3) >> 3, false);
 
-        if (ep == bp)
+            return;
+        }
+        else if (tag == REF)
         {
-            return STACK_BASE;
+            throw arithError(WAMArithmeticException.INSTANTIATION);
         }
-        else if (ep > bp)
+        else if (tag != STR)
         {
-            return ep + data.get(ep + 2) + 3;
+            throw arithError(WAMArithmeticException.NOT_EVALUABLE);
         }
-        else
+
+        int fn = data.get(val);
+
+        if (fn == BOXED_INT)
+        {
+            arithPush(data.get(val + 1), false);
+
+            return;
+        }
+        else if (fn == BOXED_FLOAT)
+        {
+            arithPush(((long) data.get(val + 1) << 32) | (data.get(val + 2) & 0xffffffffL), true);
+
+            return;
+        }
+
+        Byte op = arithmeticFunctors.get(fn);
+
+        if (op == null)
+        {
+            throw arithError(WAMArithmeticException.NOT_EVALUABLE);
+        }
+
+        for (int i = 1; i <= (fn >>> 24); i++)
         {
-            return bp + data.get(bp) + 8;
+            deref(val + i);
+            arithEvaluate(derefTag, derefVal);
         }
+
+        arithApply(op);
     }
 
     /**
-     * Backtracks to the continuation label stored in the current choice point frame, if there is one. Otherwise returns
-     * a fail to indicate that there are no more choice points, so no backtracking can be done.
+     * Applies an arithmetic operator to the numbers on the top of the arithmetic stack, replacing them with the
+     * result. Integers are held in 32 bits, and the integer operators are worked out in 64, so that a result that does
+     * not fit raises an overflow error, rather than wrapping around. Any operation involving a float produces a float.
      *
-     * @return <tt>true</tt> iff this is the final failure, and there are no more choice points.
+     * @param  op The arithmetic operator.
+     *
+     * @throws WAMArithmeticException If the operator is given an operand of the wrong type, divides by zero, or gives
+     *                                a result that cannot be held, or if the operator raises an error for an expression
+     *                                seen to have no value when it was compiled.
      */
-    private boolean backtrack()
+    private void arithApply(int op)
     {
-        // if B = bottom_of_stack
-        if (bp == 0)
+        switch (op)
         {
-            //  then fail_and_exit_program
-            return true;
+        case WAMInstruction.OP_INSTANTIATION_ERROR:
+            throw arithError(WAMArithmeticException.INSTANTIATION);
+
+        case WAMInstruction.OP_TYPE_ERROR:
+            throw arithError(WAMArithmeticException.NOT_EVALUABLE);
+
+        case WAMInstruction.OP_INT_OVERFLOW:
+            throw arithError(WAMArithmeticException.INT_OVERFLOW);
+
+        default:
         }
-        else
+
+        if ((op == WAMInstruction.OP_NEG) || (op == WAMInstruction.OP_ABS))
         {
-            // B0 <- STACK[B + STACK[B} + 7]
-            b0 = data.get(bp + data.get(bp) + 7);
+            int top = arithTop - 1;
+
+            if (arithFloat[top])
+            {
+                double a = Double.longBitsToDouble(arithStack[top]);
+                arithStack[top] = Double.doubleToLongBits((op == WAMInstruction.OP_NEG) ? -a : Math.abs(a));
+            }
+            else
+            {
+                long a = arithStack[top];
+                arithStack[top] = arithInt((op == WAMInstruction.OP_NEG) ? -a : Math.abs(a));
+            }
+
+            return;
+        }
+
+        int top = --arithTop - 1;
+        boolean isFloat = arithFloat[top] || arithFloat[arithTop];
+        long a = arithStack[top];
+        long b = arithStack[arithTop];
+        double x = arithFloat[top] ? Double.longBitsToDouble(a) : a;
+        double y = arithFloat[arithTop] ? Double.longBitsToDouble(b) : b;
+
+        switch (op)
+        {
+        case WAMInstruction.OP_ADD:
+            arithResult(isFloat, a + b, x + y);
+
+            return;
+
+        case WAMInstruction.OP_SUB:
+            arithResult(isFloat, a - b, x - y);
+
+            return;
+
+        case WAMInstruction.OP_MUL:
+            arithResult(isFloat, a * b, x * y);
+
+            return;
+
+        case WAMInstruction.OP_DIV:
+
+            if (isFloat ? (y == 0.0) : (b == 0))
+            {
+                throw arithError(WAMArithmeticException.ZERO_DIVISOR);
+            }
+
+            arithResult(isFloat, isFloat ? 0 : (a / b), x / y);
+
+            return;
+
+        case WAMInstruction.OP_MIN:
+        case WAMInstruction.OP_MAX:
+
+            // The result keeps the type of the operand chosen.
+            if ((op == WAMInstruction.OP_MIN) == (y < x))
+            {
+                arithStack[top] = arithStack[arithTop];
+                arithFloat[top] = arithFloat[arithTop];
+            }
+
+            return;
+
+        case WAMInstruction.OP_POW:
+
+            if (isFloat || (b < 0))
+            {
+                arithResult(true, 0, Math.pow(x, y));
+            }
+            else
+            {
+                arithResult(false, arithPower(a, b), 0);
+            }
+
+            return;
+
+        default:
+        }
+
+        // The remaining operators are defined on integers only.
+        if (isFloat)
+        {
+            throw arithError(WAMArithmeticException.NOT_INTEGER);
+        }
+
+        switch (op)
+        {
+        case WAMInstruction.OP_INT_DIV:
+        case WAMInstruction.OP_MOD:
+        case WAMInstruction.OP_REM:
+
+            if (b == 0)
+            {
+                throw arithError(WAMArithmeticException.ZERO_DIVISOR);
+            }
+
+            long rem = a % b;
+
+            if (op == WAMInstruction.OP_INT_DIV)
+            {
+                arithResult(false, a / b, 0);
+
+                return;
+            }
+            else if ((op == WAMInstruction.OP_MOD) && (rem != 0) && ((rem ^ b) < 0))
+            {
+                rem += b;
+            }
 
-            // P <- STACK[B + STACK[B] + 4]
-            ip = data.get(bp + data.get(bp) + 4);
+            arithResult(false, rem, 0);
 
-            return false;
+            return;
+
+        case WAMInstruction.OP_SHIFT_LEFT:
+            arithResult(false, arithShift(a, b), 0);
+
+            return;
+
+        case WAMInstruction.OP_SHIFT_RIGHT:
+            arithResult(false, arithShift(a, -b), 0);
+
+            return;
+
+        case WAMInstruction.OP_AND:
+            arithResult(false, a & b, 0);
+
+            return;
+
+        case WAMInstruction.OP_OR:
+            arithResult(false, a | b, 0);
+
+            return;
+
+        default:
+            throw arithError(WAMArithmeticException.NOT_EVALUABLE);
         }
     }
 
     /**
-     * Creates a binding of one variable onto another. One of the supplied addresses must be an unbound variable. If
-     * both are unbound variables, the higher (newer) address is bound to the lower (older) one.
+     * Raises an integer to a power, by repeated squaring, checking that each step fits in an integer. When the base is
+     * larger than one, each square that is taken is needed by the result, so it overflows exactly when the result does.
      *
-     * @param a1 The address of the first potential unbound variable to bind.
-     * @param a2 The address of the second potential unbound variable to bind.
+     * @param  a The integer to raise.
+     * @param  b The power to raise it to, which is not negative.
+     *
+     * @return The integer raised to the power.
+     *
+     * @throws WAMArithmeticException If the result is too large to be held.
      */
-    private void bind(int a1, int a2)
+    private long arithPower(long a, long b)
     {
-        // <t1, _> <- STORE[a1]
-        int t1 = (byte) (data.get(a1) >>> TSHIFT);
-
-        // <t2, _> <- STORE[a2]
-        int t2 = (byte) (data.get(a2) >>> TSHIFT);
+        long result = 1;
+        long base = a;
 
-        // if (t1 = REF) /\ ((t2 != REF) \/ (a2 < a1))
-        if ((t1 == WAMInstruction.REF) && ((t2 != WAMInstruction.REF) || (a2 < a1)))
+        for (long n = b; n != 0; n >>= 1)
         {
-            //  STORE[a1] <- STORE[a2]
-            //data.put(a1, refTo(a2));
-            data.put(a1, data.get(a2));
+            if ((n & 1) != 0)
+            {
+                result = arithInt(result * base);
+            }
 
-            //  trail(a1)
-            trail(a1);
+            if (n > 1)
+            {
+                base = arithInt(base * base);
+            }
         }
-        else if (t2 == WAMInstruction.REF)
-        {
-            //  STORE[a2] <- STORE[a1]
-            //data.put(a2, refTo(a1));
-            data.put(a2, data.get(a1));
 
-            //  tail(a2)
-            trail(a2);
-        }
+        return result;
     }
 
     /**
-     * Records the address of a binding onto the 'trail'. The trail pointer is advanced by one as part of this
-     * operation.
+     * Shifts an integer left by a number of bits, or right if the number is negative. Bits shifted out to the right are
+     * lost, whereas bits shifted out to the left overflow.
      *
-     * @param addr The binding address to add to the trail.
+     * @param  a The integer to shift.
+     * @param  b The number of bits to shift it left by.
+     *
+     * @return The shifted integer.
+     *
+     * @throws WAMArithmeticException If the result is too large to be held.
      */
-    private void trail(int addr)
+    private long arithShift(long a, long b)
     {
-        // if (a < HB) \/ ((H < a) /\ (a < B))
-        if ((addr < hbp) || ((hp < addr) && (addr < bp)))
+        if (b < 0)
         {
-            //  TRAIL[TR] <- a
-            data.put(trp, addr);
-
-            //  TR <- TR + 1
-            trp++;
+            return (b <= -Integer.SIZE) ? ((a < 0) ? -1 : 0) : (a >> -b);
         }
+        else if (a == 0)
+        {
+            return 0;
+        }
+
+        return arithInt((b >= Integer.SIZE) ? Long.MAX_VALUE : (a << b));
     }
 
     /**
-     * Undoes variable bindings that have been recorded on the 'trail'. Addresses recorded on the trail are reset to REF
-     * to self.
+     * Checks that the result of an integer operation can be held in an integer.
      *
-     * @param a1 The start address within the trail to get the first binding address to clear.
-     * @param a2 The end address within the trail, this is one higher than the last address to clear.
+     * @param  n The result, worked out in 64 bits.
+     *
+     * @return The result.
+     *
+     * @throws WAMArithmeticException If the result is too large to be held.
      */
-    private void unwindTrail(int a1, int a2)
+    private long arithInt(long n)
     {
-        // for i <- a1 to a2 - 1 do
-        for (int addr = a1; addr < a2; addr++)
+        if ((n < Integer.MIN_VALUE) || (n > Integer.MAX_VALUE))
         {
-            //  STORE[TRAIL[i]] <- <REF, TRAIL[i]>
-            int tmp = data.get(addr);
-            data.put(tmp, refTo(tmp));
+            throw arithError(WAMArithmeticException.INT_OVERFLOW);
         }
+
+        return n;
     }
 
     /**
-     * Tidies trail when a choice point is being discarded, and a previous choice point it being made the current one.
+     * Replaces the number on the top of the arithmetic stack with the result of an operation.
      *
-     * <p/>Copies trail bindings created since the choice point, into the trail as known to the previous choice point.
-     * That is bindings on the heap created during the choice point (between HB and H).
+     * @param  isFloat <tt>true</tt> if the result is a float.
+     * @param  n       The result, if it is an integer, worked out in 64 bits.
+     * @param  f       The result, if it is a float.
+     *
+     * @throws WAMArithmeticException If the result is too large to be held, or is not a number.
      */
-    private void tidyTrail()
+    private void arithResult(boolean isFloat, long n, double f)
     {
-        int i;
-
-        // Check that there is a current choice point to tidy down to, otherwise tidy down to the root of the trail.
-        if (bp == 0)
+        if (!isFloat)
         {
-            i = TRAIL_BASE;
+            arithStack[arithTop - 1] = arithInt(n);
         }
-        else
+        else if (Double.isNaN(f))
         {
-            i = data.get(bp + data.get(bp) + 5);
+            throw arithError(WAMArithmeticException.UNDEFINED);
         }
-
-        while (i < trp)
+        else if (Double.isInfinite(f))
         {
-            int addr = data.get(i);
-
-            if ((addr < hbp) || ((hp < addr) && (addr < bp)))
-            {
-                i++;
-            }
-            else
-            {
-                data.put(i, data.get(trp - 1));
-                trp--;
-            }
+            throw arithError(WAMArithmeticException.FLOAT_OVERFLOW);
         }
-    }
-
-    /**
-     * Attempts to unify structures or references on the heap, given two references to them. Structures are matched
-     * element by element, free references become bound.
-     *
-     * @param  a1 The address of the first structure or reference.
-     * @param  a2 The address of the second structure or reference.
-     *
-     * @return <tt>true</tt> if the two structures unify, <tt>false</tt> otherwise.
-     */
-    private boolean unify(int a1, int a2)
-    {
-        // pdl.push(a1)
-        // pdl.push(a2)
-        uPush(a1);
-        uPush(a2);
-
-        // fail <- false
-        boolean fail = false;
-
-        // while !empty(PDL) and not failed
-        while (!uEmpty() && !fail)
+        else
         {
-            // d1 <- deref(pdl.pop())
-            // d2 <- deref(pdl.pop())
-            // t1, v1 <- STORE[d1]
-            // t2, v2 <- STORE[d2]
-            int d1 = deref(uPop());
-            int t1 = derefTag;
-            int v1 = derefVal;
-
-            int d2 = deref(uPop());
-            int t2 = derefTag;
-            int v2 = derefVal;
-
-            // if (d1 != d2)
-            if (d1 != d2)
-            {
-                // if (t1 = REF or t2 = REF)
-                // bind(d1, d2)
-                if ((t1 == WAMInstruction.REF))
-                {
-                    bind(d1, d2);
-                }
-                else if (t2 == WAMInstruction.REF)
-                {
-                    bind(d1, d2);
-                }
-                else if (t2 == WAMInstruction.STR)
-                {
-                    // f1/n1 <- STORE[v1]
-                    // f2/n2 <- STORE[v2]
-                    int fn1 = data.get(v1);
-                    int fn2 = data.get(v2);
-                    byte n1 = (byte) (fn1 >>> 24);
-
-                    // if f1 = f2 and n1 = n2
-                    if (fn1 == fn2)
-                    {
-                        // for i <- 1 to n1
-                        for (int i = 1; i <= n1; i++)
-                        {
-                            // pdl.push(v1 + i)
-                            // pdl.push(v2 + i)
-                            uPush(v1 + i);
-                            uPush(v2 + i);
-                        }
-                    }
-                    else
-                    {
-                        // fail <- true
-                        fail = true;
-                    }
-                }
-                else if (t2 == WAMInstruction.CON)
-                {
-                    if ((t1 != WAMInstruction.CON) || (v1 != v2))
-                    {
-                        fail = true;
-                    }
-                }
-                else if (t2 == WAMInstruction.LIS)
-                {
-                    if (t1 != WAMInstruction.LIS)
-                    {
-                        fail = true;
-                    }
-                    else
-                    {
-                        uPush(v1);
-                        uPush(v2);
-                        uPush(v1 + 1);
-                        uPush(v2 + 1);
-                    }
-                }
-            }
+            arithStack[arithTop - 1] = Double.doubleToLongBits(f);
         }
 
-        return !fail;
+        arithFloat[arithTop - 1] = isFloat;
     }
 
     /**
-     * A simplified unification algorithm, for unifying against a constant.
-     *
-     * <p/>Attempts to unify a constant or references on the heap, with a constant. If the address leads to a free
-     * variable on dereferencing, the variable is bound to the constant. If the address leads to a constant it is
-     * compared with the passed in constant for equality, and unification succeeds when they are equal.
+     * Compares the two numbers on the top of the arithmetic stack, and pops them both. Two integers are compared as
+     * integers, otherwise both numbers are compared as floats. Identity of numbers requires them to be of the same
+     * type, as well as equal.
      *
-     * @param  fn   The constant to unify with.
-     * @param  addr The address of the first constant or reference.
+     * @param  op The comparison to make.
      *
-     * @return <tt>true</tt> if the two constant unify, <tt>false</tt> otherwise.
+     * @return <tt>true</tt> if the comparison holds.
      */
-    private boolean unifyConst(int fn, int addr)
+    private boolean arithCompare(int op)
     {
-        boolean success;
+        arithTop -= 2;
 
-        int deref = deref(addr);
-        int tag = derefTag;
-        int val = derefVal;
+        long a = arithStack[arithTop];
+        long b = arithStack[arithTop + 1];
+        boolean aFloat = arithFloat[arithTop];
+        boolean bFloat = arithFloat[arithTop + 1];
 
-        // case STORE[addr] of
-        switch (tag)
-        {
-        case REF:
+        if (op == WAMInstruction.CMP_SAME)
         {
-            // <REF, _> :
-            // STORE[addr] <- <CON, c>
-            data.put(deref, constantCell(fn));
+            return (aFloat == bFloat) && (a == b);
+        }
 
-            // trail(addr)
-            trail(deref);
+        int compare =
+            (!aFloat && !bFloat)
+            ? ((a < b) ? -1 : ((a == b) ? 0 : 1))
+            : Double.compare(aFloat ? Double.longBitsToDouble(a) : a, bFloat ? Double.longBitsToDouble(b) : b);
 
-            success = true;
+        switch (op)
+        {
+        case WAMInstruction.CMP_EQ:
+            return compare == 0;
 
-            break;
-        }
+        case WAMInstruction.CMP_NE:
+            return compare != 0;
 
-        case CON:
-        {
-            // <CON, c'> :
-            // fail <- (c != c');
-            success = val == fn;
+        case WAMInstruction.CMP_LT:
+            return compare < 0;
 
-            break;
-        }
+        case WAMInstruction.CMP_LE:
+            return compare <= 0;
+
+        case WAMInstruction.CMP_GT:
+            return compare > 0;
 
         default:
-        {
-            // other: fail <- true;
-            success = false;
+            return compare >= 0;
         }
-        }
-
-        return success;
     }
 
     /**
@@ -2355,6 +7622,11 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
      */
     private void uPush(int val)
     {
+        if (up == (top - pdlSize))
+        {
+            grow(0, 0, 0, pdlSize);
+        }
+
         data.put(--up, val);
     }
 
@@ -2371,7 +7643,7 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
     /** Clears the unification stack. */
     private void uClear()
     {
-        up = TOP;
+        up = top;
     }
 
     /**
@@ -2381,7 +7653,7 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
      */
     private boolean uEmpty()
     {
-        return up >= TOP;
+        return up >= top;
     }
 
     /**
@@ -2396,4 +7668,55 @@ public class WAMResolvingJavaMachine extends WAMResolvingMachine
     {
         return ((mode == STACK_ADDR) ? "Y" : "X") + ((mode == STACK_ADDR) ? (xi - ep - 3) : xi);
     }
+
+    /**
+     * FactTableCall is the code for a predicate defined by a table of facts. It calls the internal function that looks
+     * up the table, and proceeds. After it comes the code that a choice point on the table retries at, which calls
+     * the internal function to retry the lookup, and proceeds.
+     */
+    private static class FactTableCall extends WAMCompiledPredicate
+    {
+        /** The id of the internal function that looks up the table. */
+        private final int id;
+
+        /** The arity of the table. */
+        private final int arity;
+
+        /**
+         * Creates the code to call a table of facts.
+         *
+         * @param name  The interned name of the predicate.
+         * @param id    The id of the internal function that looks up the table.
+         * @param arity The arity of the table.
+         */
+        FactTableCall(int name, int id, int arity)
+        {
+            super(name);
+            this.id = id;
+            this.arity = arity;
+        }
+
+        /** {@inheritDoc} */
+        public long sizeof()
+        {
+            return 16;
+        }
+
+        /** {@inheritDoc} */
+        public void emmitCode(ByteBuffer buffer, WAMMachine machine, WAMCallPoint callPoint)
+        {
+            for (int retry = 0; retry < 2; retry++)
+            {
+                buffer.put(CALL_INTERNAL);
+                buffer.putInt(id | retry);
+                buffer.put((byte) arity);
+                buffer.put((byte) 0);
+                buffer.put(PROCEED);
+            }
+
+            this.machine = machine;
+            this.callPoint = callPoint;
+            this.status = LinkStatus.Linked;
+        }
+    }
 }
@@ -15,15 +15,26 @@
  */
 package com.thesett.aima.logic.fol.wam.machine;
 
+import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import com.thesett.aima.logic.fol.DoubleLiteral;
 import com.thesett.aima.logic.fol.Functor;
 import com.thesett.aima.logic.fol.FunctorName;
+import com.thesett.aima.logic.fol.IntLiteral;
 import com.thesett.aima.logic.fol.LinkageException;
 import com.thesett.aima.logic.fol.Resolver;
 import com.thesett.aima.logic.fol.Term;
@@ -33,8 +44,27 @@ import com.thesett.aima.logic.fol.wam.compiler.WAMCallPoint;
 import com.thesett.aima.logic.fol.wam.compiler.WAMCompiledPredicate;
 import com.thesett.aima.logic.fol.wam.compiler.WAMCompiledQuery;
 import com.thesett.aima.logic.fol.wam.compiler.WAMInstruction;
+import com.thesett.aima.logic.fol.wam.compiler.WAMReservedLabel;
+import com.thesett.aima.logic.fol.wam.indexing.ArgumentIndex;
+import com.thesett.aima.logic.fol.wam.indexing.CodeBufferTable;
+import com.thesett.aima.logic.fol.wam.indexing.IntIntOpenLinearTable;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.BOXED_FLOAT;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.BOXED_INT;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.CALL;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.CON;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.EXECUTE;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.GET_CONST;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.GET_STRUC;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.JIT_INDEX;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.PUT_CONST;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.PUT_STRUC;
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.REF;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.SET_CONST;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.SMALL_INT;
 import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.STR;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.SWITCH_ON_CONST;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.SWITCH_ON_STRUC;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.UNIFY_CONST;
 import com.thesett.common.util.doublemaps.SymbolTable;
 
 /**
@@ -46,10 +76,24 @@ import com.thesett.common.util.doublemaps.SymbolTable;
  * queries. Queries also have their binary byte code inserted into the machine, and a reference to the most recently
  * inserted query is retained for invocation by the search method.
  *
+ * <p/>The code of a query is only needed until the next query is set, so queries are written into a scratch area at the
+ * end of the code area, which is reused by the next query. Should other code have been added after a query, the scratch
+ * area moves on to the end of it. Setting the query that is already in the scratch area again does not re-emit it.
+ *
+ * <p/>When a predicate is redefined, the code of its old definition is retired. Retired code is freed once no
+ * execution can return into it, which only the machine executing the code can tell, so machines that do not say
+ * otherwise keep all retired code. Freed code leaves a hole in the code area, and holes are filled first fit by later
+ * predicates, before the end of the code area is grown into. The calls in the code area onto the old definition are
+ * relinked onto the new one.
+ *
  * <pre><p/><table id="crc"><caption>CRC Card</caption>
  * <tr><th> Responsibilities <th> Collaborations
  * <tr><td> Resolve a query over a set of compiled Horn clauses in the WAM language.
  * <tr><td> Decode results into an abstract source tree from the binary heap format. <td> {@link Term}.
+ * <tr><td> Read results straight off the heap, without decoding them. <td> {@link WAMSolutionCursor}.
+ * <tr><td> Run batches of calls to a predicate. <td> {@link WAMBatchSink}.
+ * <tr><td> Allocate and free segments of the code area.
+ * <tr><td> Save the program to an image file, and load it back from one. <td> {@link WAMProgramImage}.
  * </table></pre>
  *
  * @author Rupert Smith
@@ -60,6 +104,9 @@ public abstract class WAMResolvingMachine extends WAMBaseMachine
     /** Used for debugging. */
     /* private static final Logger log = Logger.getLogger(WAMResolvingMachine.class.getName()); */
 
+    /** The initial size of the stack of terms still to be decoded, when decoding a term from the heap. */
+    private static final int DECODE_STACK_SIZE = 16;
+
     /** Static counter for inventing new variable names. */
     protected static AtomicInteger varNameId = new AtomicInteger();
 
@@ -72,9 +119,24 @@ public abstract class WAMResolvingMachine extends WAMBaseMachine
      */
     protected ByteBuffer codeBuffer;
 
+    /** Holds the maximum size that the code area may be grown to. */
+    protected int maxCodeSize = Integer.MAX_VALUE;
+
+    /** Holds the call point of the query in the scratch area for queries, or <tt>null</tt> if there is none. */
+    protected WAMCallPoint queryCallPoint;
+
+    /** Holds the holes left in the code area by freed code, as lengths by start address. */
+    protected SortedMap<Integer, Integer> freeCode = new TreeMap<Integer, Integer>();
+
+    /** Holds the call points of old definitions of redefined predicates, that have not been freed yet. */
+    protected List<WAMCallPoint> retiredCode = new LinkedList<WAMCallPoint>();
+
     /** Holds the abstract machine debugging monitor, or <tt>null</tt> if none is attached. */
     protected WAMResolvingMachineDPIMonitor monitor;
 
+    /** Holds the interned name of cons/2, that list cells are decoded to, or <tt>-1</tt> until it is looked up. */
+    private int consName = -1;
+
     /**
      * Creates a resolving machine with the specified symbol table.
      *
@@ -85,22 +147,54 @@ public abstract class WAMResolvingMachine extends WAMBaseMachine
         super(symbolTable);
     }
 
-    /** {@inheritDoc} */
+    /**
+     * {@inheritDoc}
+     *
+     * <p/>Any previous definition of the predicate is retired, and freed straight away if nothing can return into it,
+     * so that the new definition may be written in its place.
+     */
     public void emmitCode(WAMCompiledPredicate predicate) throws LinkageException
     {
         // Keep track of the offset into which the code was loaded.
-        int entryPoint = codeBuffer.position();
         int length = (int) predicate.sizeof();
 
+        // Retire the code of any previous definition. Internal call points have no code of their own.
+        WAMCallPoint previous = resolveCallPoint(predicate.getName());
+        boolean redefined = (previous.entryPoint >= 0) && (previous.length > 0);
+
+        if (redefined)
+        {
+            retiredCode.add(previous);
+            freeRetiredCode();
+        }
+
+        // Find room for the code, in a hole or by growing the code area if needed.
+        int top = codeBuffer.position();
+        int entryPoint = allocateCode(length);
+
+        if (entryPoint < 0)
+        {
+            throw new WAMResourceException(WAMResourceException.CODE, maxCodeSize);
+        }
+
+        codeBuffer.position(entryPoint);
+
         // If the code is for a program clause, store the programs entry point in the call table.
         WAMCallPoint callPoint = setCodeAddress(predicate.getName(), entryPoint, length);
 
         // Emmit code for the clause into this machine.
         predicate.emmitCode(codeBuffer, this, callPoint);
+        codeBuffer.position(Math.max(top, codeBuffer.position()));
 
         // Notify the native machine of the addition of new code.
         codeAdded(codeBuffer, entryPoint, length);
 
+        // Point calls onto the old definition at the new one.
+        if (redefined && (previous.entryPoint != entryPoint))
+        {
+            relinkCalls(previous.entryPoint, entryPoint);
+        }
+
         // Notify any attached DPI monitor of the addition of new code.
         if (monitor != null)
         {
@@ -108,15 +202,34 @@ public abstract class WAMResolvingMachine extends WAMBaseMachine
         }
     }
 
-    /** {@inheritDoc} */
+    /**
+     * {@inheritDoc}
+     *
+     * <p/>The query is written over the previous one, when nothing has been added to the code area since it.
+     */
     public void emmitCode(WAMCompiledQuery query) throws LinkageException
     {
+        // Reuse the scratch area for queries, if the previous query is still the last thing in the code area.
+        if ((queryCallPoint != null) &&
+                (codeBuffer.position() == (queryCallPoint.entryPoint + queryCallPoint.length)))
+        {
+            codeBuffer.position(queryCallPoint.entryPoint);
+        }
+
         // Keep track of the offset into which the code was loaded.
-        int entryPoint = codeBuffer.position();
         int length = (int) query.sizeof();
 
-        // If the code is for a program clause, store the programs entry point in the call table.
+        // Ensure that there is room for the code, growing the code area if needed.
+        if (!reserveCode(length))
+        {
+            throw new WAMResourceException(WAMResourceException.CODE, maxCodeSize);
+        }
+
+        int entryPoint = codeBuffer.position();
+
+        // Queries do not go in the call table, but their code is kept track of as the contents of the scratch area.
         WAMCallPoint callPoint = new WAMCallPoint(entryPoint, length, -1);
+        queryCallPoint = callPoint;
 
         // Emmit code for the clause into this machine.
         query.emmitCode(codeBuffer, this, callPoint);
@@ -167,13 +280,34 @@ public abstract class WAMResolvingMachine extends WAMBaseMachine
     {
         /*log.fine("public void setQuery(WAMCompiledClause query = " + query + "): called");*/
 
-        // Emmit code for the clause into this machine.
-        emmitCode(query);
+        // Any query that was running is finished with, so retired code that only it could return into can go.
+        freeRetiredCode();
+
+        // Emmit code for the clause into this machine, unless it is the query already held in the scratch area.
+        if ((query.getCallPoint() == null) || (query.getCallPoint() != queryCallPoint) ||
+                (codeBuffer.position() != (queryCallPoint.entryPoint + queryCallPoint.length)))
+        {
+            emmitCode(query);
+        }
 
         // Keep hold of the query to run.
         currentQuery = query;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p/>Forgets about any query in the scratch area, as the code area is cleared.
+     */
+    public void reset()
+    {
+        queryCallPoint = null;
+        freeCode.clear();
+        retiredCode.clear();
+
+        super.reset();
+    }
+
     /** {@inheritDoc} */
     public Set<Variable> resolve()
     {
@@ -187,6 +321,416 @@ public abstract class WAMResolvingMachine extends WAMBaseMachine
         return executeAndExtractBindings(currentQuery);
     }
 
+    /**
+     * Provides a cursor over the solutions to the current query, that reads their bindings straight off the heap,
+     * rather than decoding them into a set of variable bindings for each solution as {@link #resolve()} does.
+     *
+     * @return A cursor over the solutions to the current query.
+     *
+     * @throws IllegalStateException If no query has been set.
+     */
+    public WAMSolutionCursor cursor()
+    {
+        if (currentQuery == null)
+        {
+            throw new IllegalStateException("No query set to resolve.");
+        }
+
+        return new WAMSolutionCursor(this, currentQuery);
+    }
+
+    /**
+     * Sets up a call to a predicate as the current query, with its arguments written straight onto the heap, rather
+     * than being parsed and compiled as part of a query. An argument may be a term, or a plain Java value; strings are
+     * atoms, integers and floating point numbers are numbers, and collections and arrays are lists of their elements.
+     * Unbound variables in the arguments are fresh variables on the heap, the same variable in more than one place
+     * being the same heap variable.
+     *
+     * <p/>The solutions give a binding for each argument, in variables named A1 to An, and may be read with {@link
+     * #resolve()}, or with {@link #cursor()}.
+     *
+     * @param  name      The name of the predicate to call.
+     * @param  arguments The arguments to call it with.
+     *
+     * @throws LinkageException         If the call cannot be linked to the predicate.
+     * @throws IllegalArgumentException If an argument is of a type that cannot be put on the heap.
+     */
+    public abstract void setCall(String name, Object... arguments) throws LinkageException;
+
+    /**
+     * Runs a batch of calls to a predicate, one for each tuple of arguments, passing the solutions to each on to a sink
+     * as they are found. The code of the call is only created once, for all calls with the same number of arguments,
+     * and only the heap, stack and trail are cleared between calls. The arguments of each call are written onto the
+     * heap as by {@link #setCall}.
+     *
+     * <p/>For example, to find the first verdict of r/2 for each of a list of records:
+     *
+     * <pre>
+     * machine.runBatch("r", records.iterator(), new WAMBatchSink()
+     *     {
+     *         public boolean solution(int item, WAMSolutionCursor cursor)
+     *         {
+     *             verdicts[item] = cursor.name(cursor.binding(1));
+     *
+     *             return false;
+     *         }
+     *
+     *         public void failed(int item)
+     *         {
+     *         }
+     *     });
+     * </pre>
+     *
+     * @param  name      The name of the predicate to call.
+     * @param  arguments The tuples of arguments to call it with, each the arguments of one call.
+     * @param  sink      The sink to pass the results of each call to.
+     *
+     * @return The number of calls run.
+     *
+     * @throws LinkageException         If a call cannot be linked to the predicate.
+     * @throws IllegalArgumentException If an argument is of a type that cannot be put on the heap.
+     */
+    public int runBatch(String name, Iterator<Object[]> arguments, WAMBatchSink sink) throws LinkageException
+    {
+        WAMSolutionCursor cursor = null;
+        int item = 0;
+
+        for (; arguments.hasNext(); item++)
+        {
+            setCall(name, arguments.next());
+
+            // The cursor is kept for as long as the calls share the same code.
+            if ((cursor == null) || !cursor.isOver(currentQuery))
+            {
+                cursor = new WAMSolutionCursor(this, currentQuery);
+            }
+            else
+            {
+                cursor.restart();
+            }
+
+            boolean found = false;
+
+            while (cursor.next())
+            {
+                found = true;
+
+                if (!sink.solution(item, cursor))
+                {
+                    break;
+                }
+            }
+
+            if (!found)
+            {
+                sink.failed(item);
+            }
+        }
+
+        return item;
+    }
+
+    /**
+     * Saves the program in the machine to an image file, from which it can be loaded into another machine with
+     * {@link #loadImage(File)}, without being parsed or compiled again. The query in the scratch area, and any argument
+     * indexes, are not part of the program, so are left out of the image as holes in the code area.
+     *
+     * @param  file The file to save the image to.
+     *
+     * @throws IOException If the file cannot be written.
+     */
+    public void saveImage(File file) throws IOException
+    {
+        WAMProgramImage image = new WAMProgramImage();
+        image.linkedByName = isLinkedByName();
+
+        for (int i = 0; getFunctorInterner().getAttributeFromInt(i) != null; i++)
+        {
+            image.functorNames.add(getDeinternedFunctorName(i));
+        }
+
+        for (int i = 0; getVariableInterner().getAttributeFromInt(i) != null; i++)
+        {
+            image.variableNames.add(getVariableName(i));
+        }
+
+        // Leave out the query, trimming it off the end of the code area if it is there.
+        int top = codeBuffer.position();
+        image.holes.putAll(freeCode);
+
+        if (queryCallPoint != null)
+        {
+            if (top == (queryCallPoint.entryPoint + queryCallPoint.length))
+            {
+                top = queryCallPoint.entryPoint;
+            }
+            else
+            {
+                image.holes.put(queryCallPoint.entryPoint, queryCallPoint.length);
+            }
+        }
+
+        for (WAMCallPoint callPoint : retiredCode)
+        {
+            image.holes.put(callPoint.entryPoint, callPoint.length);
+            addIndexHoles(image, callPoint.argumentIndex);
+        }
+
+        for (Object value : symbolTable.getValues(SYMKEY_CALLPOINTS))
+        {
+            // Internal call points have no code of their own, and are set up afresh by every machine.
+            if ((value instanceof WAMCallPoint) && !(value instanceof WAMReservedLabel) &&
+                    (((WAMCallPoint) value).length > 0))
+            {
+                WAMCallPoint callPoint = (WAMCallPoint) value;
+
+                image.callPoints.add(callPoint);
+                addIndexHoles(image, callPoint.argumentIndex);
+            }
+        }
+
+        for (Map.Entry<Integer, Integer> entry : reverseTable.entrySet())
+        {
+            int address = entry.getKey();
+
+            if ((address < top) && !image.isInHole(address))
+            {
+                image.labels.put(address, entry.getValue());
+            }
+        }
+
+        ByteBuffer code = codeBuffer.duplicate();
+        code.position(0);
+        code.limit(top);
+        image.code = code;
+
+        image.write(file);
+    }
+
+    /**
+     * Resets the machine, and loads a program into it from an image file saved by {@link #saveImage(File)}. The code
+     * area is mapped straight onto the image file, and read from there until it is first written to, when it is copied
+     * into memory of its own.
+     *
+     * <p/>The code refers to functors by their interned names. The names in the image are interned in this machine,
+     * and where any of them are not interned to the values they had when the image was saved, the code is relinked to
+     * the new values as it is loaded, at the cost of copying it out of the image. The image is checked before the
+     * machine is reset, so an image that cannot be loaded leaves the machine as it was.
+     *
+     * @param  file The file to load the image from.
+     *
+     * @throws IOException           If the file cannot be read, or does not hold a program image.
+     * @throws IllegalStateException If the image was linked differently to the machine, or its names cannot be interned
+     *                               to values that fit in the code.
+     */
+    public void loadImage(File file) throws IOException
+    {
+        WAMProgramImage image = WAMProgramImage.map(file);
+
+        if (image.linkedByName != isLinkedByName())
+        {
+            throw new IllegalStateException("The program image " + file + " links calls " +
+                (image.linkedByName ? "by name" : "to entry addresses") + ", but the machine does not.");
+        }
+
+        // Work out the values that the names in the image are interned to in this machine.
+        int[] names = new int[image.functorNames.size()];
+        boolean relink = false;
+
+        for (int i = 0; i < names.length; i++)
+        {
+            names[i] = internFunctorName(image.functorNames.get(i));
+
+            if (names[i] > 0x00ffffff)
+            {
+                throw new IllegalStateException("The names in the program image " + file +
+                    " cannot be interned to values that fit in the code.");
+            }
+
+            relink |= (names[i] != i);
+        }
+
+        ByteBuffer code = image.code;
+
+        if (relink)
+        {
+            code = relinkImage(image, names);
+        }
+
+        reset();
+
+        for (String name : image.variableNames)
+        {
+            internVariableName(name);
+        }
+
+        codeBuffer = code;
+        codeBuffer.position(codeBuffer.limit());
+
+        for (WAMCallPoint callPoint : image.callPoints)
+        {
+            setCodeAddress(names[callPoint.name], callPoint.entryPoint, callPoint.length);
+        }
+
+        // The entry points of the predicates are already named, but may be labelled too.
+        for (Map.Entry<Integer, Integer> entry : image.labels.entrySet())
+        {
+            int label = names[entry.getValue()];
+
+            if (!Integer.valueOf(label).equals(reverseTable.get(entry.getKey())))
+            {
+                resolveLabelPoint(label, entry.getKey());
+            }
+        }
+
+        for (Map.Entry<Integer, Integer> hole : image.holes.entrySet())
+        {
+            freeCode(hole.getKey(), hole.getValue());
+        }
+
+        // Only the code of the predicates is notified, as the holes may hold anything.
+        for (WAMCallPoint callPoint : image.callPoints)
+        {
+            codeAdded(codeBuffer, callPoint.entryPoint, callPoint.length);
+
+            if (monitor != null)
+            {
+                monitor.onCodeUpdate(this, callPoint.entryPoint, callPoint.length);
+            }
+        }
+    }
+
+    /**
+     * Copies the code of a program image out of the image, rewriting every reference to an interned name in the code
+     * of its predicates to the value that the name is interned to in this machine. The hash tables of the indexing
+     * instructions are keyed on names, so they are filled in again under the rewritten keys.
+     *
+     * @param  image The program image.
+     * @param  names The values that the names in the image are interned to in this machine, by their saved values.
+     *
+     * @return The relinked code.
+     */
+    private ByteBuffer relinkImage(WAMProgramImage image, int[] names)
+    {
+        ByteBuffer code = ByteBuffer.allocateDirect(image.code.limit()).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer source = image.code.duplicate();
+        source.position(0);
+        code.put(source);
+        code.flip();
+
+        for (WAMCallPoint callPoint : image.callPoints)
+        {
+            int ip = callPoint.entryPoint;
+            int end = callPoint.entryPoint + callPoint.length;
+
+            while (ip < end)
+            {
+                byte instruction = code.get(ip);
+                int length = WAMInstruction.WAMInstructionSet.fromCode(instruction).length();
+
+                switch (instruction)
+                {
+                case PUT_STRUC:
+                case GET_STRUC:
+                case PUT_CONST:
+                case GET_CONST:
+                    relinkName(code, ip + 3, names);
+                    break;
+
+                case SET_CONST:
+                case UNIFY_CONST:
+                case JIT_INDEX:
+                    relinkName(code, ip + 1, names);
+                    break;
+
+                case CALL:
+                case EXECUTE:
+
+                    // Calls linked to entry addresses do not refer to names.
+                    if (image.linkedByName)
+                    {
+                        relinkName(code, ip + 1, names);
+                    }
+
+                    break;
+
+                case SWITCH_ON_CONST:
+                case SWITCH_ON_STRUC:
+                {
+                    int t = code.getInt(ip + 1);
+                    int n = code.getInt(ip + 5);
+
+                    relinkIndexTable(code, t, n, names);
+                    length += n;
+                    break;
+                }
+
+                default:
+
+                    // Other instructions do not refer to names.
+                    break;
+                }
+
+                ip += length;
+            }
+        }
+
+        return code;
+    }
+
+    /**
+     * Rewrites a name in the code, keeping any arity held in its top byte.
+     *
+     * @param code  The code to rewrite.
+     * @param addr  The address of the name.
+     * @param names The values that the names are to be rewritten to, by their current values.
+     */
+    private static void relinkName(ByteBuffer code, int addr, int[] names)
+    {
+        int fn = code.getInt(addr);
+
+        code.putInt(addr, (fn & 0xff000000) | names[fn & 0x00ffffff]);
+    }
+
+    /**
+     * Fills in the hash table of an indexing instruction again, under keys holding rewritten names. Keys that hold
+     * numbers are kept as they are.
+     *
+     * @param code  The code holding the table.
+     * @param t     The address of the table.
+     * @param n     The size of the table in bytes.
+     * @param names The values that the names are to be rewritten to, by their current values.
+     */
+    private static void relinkIndexTable(ByteBuffer code, int t, int n, int[] names)
+    {
+        List<int[]> entries = new LinkedList<int[]>();
+
+        for (int addr = t; addr < (t + n); addr += 8)
+        {
+            int key = code.getInt(addr);
+
+            // Numbers are keyed on their own cells, which do not hold names.
+            if ((key == BOXED_INT) || (key == BOXED_FLOAT) || (((key >>> 30) == CON) && ((key & SMALL_INT) != 0)))
+            {
+                entries.add(new int[] { key, code.getInt(addr + 4) });
+            }
+            else if (key != 0)
+            {
+                entries.add(new int[] { (key & 0xff000000) | names[key & 0x00ffffff], code.getInt(addr + 4) });
+            }
+
+            code.putLong(addr, 0L);
+        }
+
+        CodeBufferTable table = new IntIntOpenLinearTable();
+        table.setup(code, t, n);
+
+        for (int[] entry : entries)
+        {
+            table.put(entry[0], entry[1]);
+        }
+    }
+
     /** {@inheritDoc} */
     public void attachMonitor(WAMResolvingMachineDPIMonitor monitor)
     {
@@ -210,6 +754,228 @@ public abstract class WAMResolvingMachine extends WAMBaseMachine
         return this;
     }
 
+    /**
+     * Ensures that there is room at the end of the code area to add some more code. The code area is grown when there
+     * is not, by copying it into a larger buffer, at least doubling its size but not beyond its maximum. Code addresses
+     * are offsets into the code area, so they remain valid in the new buffer.
+     *
+     * @param  length The length of the code to be added.
+     *
+     * @return <tt>true</tt> if there is room for the code, <tt>false</tt> if the code area cannot grow large enough.
+     */
+    protected boolean reserveCode(int length)
+    {
+        // A code area mapped onto a program image is read only, so is copied before anything is written to it.
+        if ((codeBuffer.remaining() >= length) && !codeBuffer.isReadOnly())
+        {
+            return true;
+        }
+
+        long needed = (long) codeBuffer.position() + length;
+
+        if (needed > maxCodeSize)
+        {
+            return false;
+        }
+
+        int size = (int) Math.min(maxCodeSize, Math.max((long) codeBuffer.capacity() << 1, needed));
+
+        ByteBuffer newBuffer = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+        codeBuffer.flip();
+        newBuffer.put(codeBuffer);
+        codeBuffer = newBuffer;
+
+        return true;
+    }
+
+    /**
+     * Allocates a segment of the code area. The first hole left by freed code that is large enough is used, and the end
+     * of the code area is only grown into when there is none. The code buffer position is not moved.
+     *
+     * @param  length The length of the segment.
+     *
+     * @return The start address of the segment, or <tt>-1</tt> if the code area cannot grow large enough.
+     */
+    protected int allocateCode(int length)
+    {
+        if (codeBuffer.isReadOnly() && !reserveCode(0))
+        {
+            return -1;
+        }
+
+        if (length > 0)
+        {
+            for (Map.Entry<Integer, Integer> hole : freeCode.entrySet())
+            {
+                int start = hole.getKey();
+                int size = hole.getValue();
+
+                if (size >= length)
+                {
+                    freeCode.remove(start);
+
+                    if (size > length)
+                    {
+                        freeCode.put(start + length, size - length);
+                    }
+
+                    return start;
+                }
+            }
+        }
+
+        return reserveCode(length) ? codeBuffer.position() : -1;
+    }
+
+    /**
+     * Frees a segment of the code area, merging it with any holes either side of it.
+     *
+     * @param start  The start address of the segment.
+     * @param length The length of the segment.
+     */
+    protected void freeCode(int start, int length)
+    {
+        if (length <= 0)
+        {
+            return;
+        }
+
+        forgetAddresses(start, start + length);
+        codeFreed(start, length);
+
+        SortedMap<Integer, Integer> before = freeCode.headMap(start);
+
+        if (!before.isEmpty())
+        {
+            int previousStart = before.lastKey();
+
+            if ((previousStart + before.get(previousStart)) == start)
+            {
+                length += start - previousStart;
+                start = previousStart;
+            }
+        }
+
+        Integer following = freeCode.remove(start + length);
+
+        if (following != null)
+        {
+            length += following;
+        }
+
+        freeCode.put(start, length);
+    }
+
+    /**
+     * Frees the code of any retired predicate definitions, that nothing can return into any more.
+     */
+    protected void freeRetiredCode()
+    {
+        for (Iterator<WAMCallPoint> i = retiredCode.iterator(); i.hasNext();)
+        {
+            WAMCallPoint callPoint = i.next();
+            ArgumentIndex index = callPoint.argumentIndex;
+
+            if (isCodeReferenced(callPoint.entryPoint, callPoint.entryPoint + callPoint.length))
+            {
+                continue;
+            }
+
+            if (index != null)
+            {
+                boolean referenced = false;
+
+                for (int arg = 0; arg < index.getArity(); arg++)
+                {
+                    int start = index.getCodeStart(arg);
+                    referenced |= isCodeReferenced(start, start + index.getCodeLength(arg));
+                }
+
+                if (referenced)
+                {
+                    continue;
+                }
+
+                for (int arg = 0; arg < index.getArity(); arg++)
+                {
+                    freeCode(index.getCodeStart(arg), index.getCodeLength(arg));
+                }
+            }
+
+            freeCode(callPoint.entryPoint, callPoint.length);
+            i.remove();
+        }
+    }
+
+    /**
+     * Checks if calls are linked by the names of the predicates they call, rather than to their entry addresses. Code
+     * linked one way cannot be run by a machine that links calls the other way.
+     *
+     * @return <tt>true</tt> if calls are linked by name.
+     */
+    protected boolean isLinkedByName()
+    {
+        return false;
+    }
+
+    /**
+     * Checks if any execution may still return into a range of the code area. The code is assumed to be referenced,
+     * unless the machine running it can tell otherwise.
+     *
+     * @param  start The start of the range.
+     * @param  end   The end of the range, one past its last address.
+     *
+     * @return <tt>true</tt> if anything may still return into the range.
+     */
+    protected boolean isCodeReferenced(int start, int end)
+    {
+        return true;
+    }
+
+    /**
+     * Adds the code of the argument indexes of a predicate to the holes in a program image, as the indexes are not
+     * saved, but built again on demand.
+     *
+     * @param image The program image.
+     * @param index The argument indexes of the predicate, or <tt>null</tt> if it has none.
+     */
+    private void addIndexHoles(WAMProgramImage image, ArgumentIndex index)
+    {
+        if (index == null)
+        {
+            return;
+        }
+
+        for (int arg = 0; arg < index.getArity(); arg++)
+        {
+            if (index.getCodeLength(arg) > 0)
+            {
+                image.holes.put(index.getCodeStart(arg), index.getCodeLength(arg));
+            }
+        }
+    }
+
+    /**
+     * Notified when a predicate is redefined at a new address, to point the calls onto the old definition at the new
+     * one. The calls are left alone unless the machine running the code does so.
+     *
+     * @param from The entry point of the old definition.
+     * @param to   The entry point of the new definition.
+     */
+    protected void relinkCalls(int from, int to)
+    {
+    }
+
+    /**
+     * Notified whenever a segment of code is freed, before it may be reused.
+     *
+     * @param start  The start address of the freed code.
+     * @param length The length of the freed code.
+     */
+    protected void codeFreed(int start, int length)
+    {
+    }
+
     /**
      * Notified whenever code is added to the machine.
      *
@@ -305,13 +1071,13 @@ public abstract class WAMResolvingMachine extends WAMBaseMachine
             // by the register that holds the variable.
             /*log.fine("query.getVarNames().size() =  " + query.getVarNames().size());*/
 
-            for (byte reg : query.getVarNames().keySet())
+            for (Map.Entry<Byte, Integer> entry : query.getVarNames().entrySet())
             {
-                int varName = query.getVarNames().get(reg);
+                int varName = entry.getValue();
 
                 if (query.getNonAnonymousFreeVariables().contains(varName))
                 {
-                    int addr = derefStack(reg);
+                    int addr = derefStack(entry.getKey());
                     Term term = decodeHeap(addr, varContext);
 
                     results.add(new Variable(varName, term, false));
@@ -325,6 +1091,11 @@ public abstract class WAMResolvingMachine extends WAMBaseMachine
     /**
      * Decodes a term from the raw byte representation on the machines heap, into an abstract syntax tree.
      *
+     * <p/>The term is decoded without recursion, using an explicit stack of the parts of it that are still to be
+     * decoded, so that long lists and deeply nested terms do not use up the Java stack. The head of a list is decoded
+     * before its tail, so the stack only grows with the depth of nesting of the heads of lists, and not with the length
+     * of lists.
+     *
      * @param  start           The start offset of the term on the heap.
      * @param  variableContext The variable context for the decoded variables. This may be shared amongst all variables
      *                         decoded for a particular unifcation.
@@ -336,103 +1107,160 @@ public abstract class WAMResolvingMachine extends WAMBaseMachine
         /*log.fine("private Term decodeHeap(int start = " + start + ", Map<Integer, Variable> variableContext = " +
             variableContext + "): called");*/
 
-        // Used to hold the decoded argument in.
-        Term result = null;
+        // Used to hold the decoded term in.
+        Term[] result = new Term[1];
 
-        // Dereference the initial heap pointer.
-        int addr = deref(start);
-        byte tag = getDerefTag();
-        int val = getDerefVal();
+        // The stack holds the heap addresses still to be decoded, and the argument array and position within it that
+        // each decoded term is to be placed in.
+        int[] addrs = new int[DECODE_STACK_SIZE];
+        Term[][] targets = new Term[DECODE_STACK_SIZE][];
+        int[] positions = new int[DECODE_STACK_SIZE];
 
-        /*log.fine("addr = " + addr);*/
-        /*log.fine("tag = " + tag);*/
-        /*log.fine("val = " + val);*/
+        addrs[0] = start;
+        targets[0] = result;
+        positions[0] = 0;
 
-        switch (tag)
-        {
-        case REF:
+        int sp = 1;
+
+        while (sp > 0)
         {
-            // Check if a variable for the address has already been created in this context, and use it if so.
-            Variable var = variableContext.get(val);
+            sp--;
+
+            Term[] target = targets[sp];
+            int position = positions[sp];
 
-            if (var == null)
+            // Dereference the heap pointer.
+            deref(addrs[sp]);
+
+            byte tag = getDerefTag();
+            int val = getDerefVal();
+
+            /*log.fine("tag = " + tag);*/
+            /*log.fine("val = " + val);*/
+
+            // Used to hold the arguments of a compound term, that are still to be decoded.
+            Term[] arguments = null;
+            int argStart = 0;
+
+            switch (tag)
+            {
+            case REF:
             {
-                var = new Variable(varNameId.decrementAndGet(), null, false);
+                // Check if a variable for the address has already been created in this context, and use it if so.
+                Variable var = variableContext.get(val);
 
-                variableContext.put(val, var);
+                if (var == null)
+                {
+                    var = new Variable(varNameId.decrementAndGet(), null, false);
+
+                    variableContext.put(val, var);
+                }
+
+                target[position] = var;
+
+                break;
             }
 
-            result = var;
+            case STR:
+            {
+                // Decode f/n from the STR data.
+                int fn = getHeap(val);
+                int f = fn & 0x00ffffff;
 
-            break;
-        }
+                // Boxed numbers are decoded from their contents.
+                if (fn == BOXED_INT)
+                {
+                    target[position] = new IntLiteral(getHeap(val + 1));
 
-        case STR:
-        {
-            // Decode f/n from the STR data.
-            int fn = getHeap(val);
-            int f = fn & 0x00ffffff;
+                    break;
+                }
+                else if (fn == BOXED_FLOAT)
+                {
+                    long bits = ((long) getHeap(val + 1) << 32) | (getHeap(val + 2) & 0xffffffffL);
+                    target[position] = new DoubleLiteral(Double.longBitsToDouble(bits));
 
-            /*log.fine("fn = " + fn);*/
-            /*log.fine("f = " + f);*/
+                    break;
+                }
 
-            // Look up and initialize this functor name from the symbol table.
-            FunctorName functorName = getDeinternedFunctorName(f);
+                /*log.fine("fn = " + fn);*/
+                /*log.fine("f = " + f);*/
 
-            // Fill in this functors name and arity and allocate storage space for its arguments.
-            int arity = functorName.getArity();
-            Term[] arguments = new Term[arity];
+                // Look up and initialize this functor name from the symbol table.
+                FunctorName functorName = getDeinternedFunctorName(f);
 
-            // Loop over all of the functors arguments, recursively decoding them.
-            for (int i = 0; i < arity; i++)
-            {
-                arguments[i] = decodeHeap(val + 1 + i, variableContext);
+                // Create a new functor to hold the decoded data, with its arguments filled in as they are decoded.
+                arguments = new Term[functorName.getArity()];
+                argStart = val + 1;
+                target[position] = new Functor(f, arguments);
+
+                break;
             }
 
-            // Create a new functor to hold the decoded data.
-            result = new Functor(f, arguments);
+            case WAMInstruction.CON:
+            {
+                // Small integers are held directly in the CON data.
+                if ((val & SMALL_INT) != 0)
+                {
+                    target[position] = new IntLiteral((val << 3) >> 3);
 
-            break;
-        }
+                    break;
+                }
 
-        case WAMInstruction.CON:
-        {
-            //Decode f/n from the CON data.
-            int f = val & 0x3fffffff;
+                //Decode f/n from the CON data.
+                int f = val & 0x3fffffff;
 
-            /*log.fine("f = " + f);*/
+                /*log.fine("f = " + f);*/
 
-            // Create a new functor to hold the decoded data.
-            result = new Functor(f, null);
+                // Create a new functor to hold the decoded data.
+                target[position] = new Functor(f, null);
 
-            break;
-        }
+                break;
+            }
 
-        case WAMInstruction.LIS:
-        {
-            FunctorName functorName = new FunctorName("cons", 2);
-            int f = internFunctorName(functorName);
+            case WAMInstruction.LIS:
+            {
+                // The name of cons/2 is only looked up once, as lists may be long.
+                if (consName == -1)
+                {
+                    consName = internFunctorName("cons", 2);
+                }
 
-            // Fill in this functors name and arity and allocate storage space for its arguments.
-            int arity = functorName.getArity();
-            Term[] arguments = new Term[arity];
+                // Create a new functor to hold the decoded head and tail of the list cell.
+                arguments = new Term[2];
+                argStart = val;
+                target[position] = new Functor(consName, arguments);
 
-            // Loop over all of the functors arguments, recursively decoding them.
-            for (int i = 0; i < arity; i++)
-            {
-                arguments[i] = decodeHeap(val + i, variableContext);
+                break;
             }
 
-            // Create a new functor to hold the decoded data.
-            result = new Functor(f, arguments);
+            default:
+                throw new IllegalStateException("Encountered unknown tag type on the heap.");
+            }
 
-            break;
-        }
+            // Push the arguments of a compound term to be decoded, last first, so that they are decoded in order.
+            if (arguments != null)
+            {
+                int arity = arguments.length;
+
+                if ((sp + arity) > addrs.length)
+                {
+                    int size = Math.max(addrs.length * 2, sp + arity);
 
-        default:
-            throw new IllegalStateException("Encountered unknown tag type on the heap.");
+                    addrs = Arrays.copyOf(addrs, size);
+                    targets = Arrays.copyOf(targets, size);
+                    positions = Arrays.copyOf(positions, size);
+                }
+
+                for (int i = arity - 1; i >= 0; i--)
+                {
+                    addrs[sp] = argStart + i;
+                    targets[sp] = arguments;
+                    positions[sp] = i;
+                    sp++;
+                }
+            }
         }
 
-        return result;
+        return result[0];
     }
 }
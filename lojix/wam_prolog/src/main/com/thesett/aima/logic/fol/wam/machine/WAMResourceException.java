@@ -0,0 +1,78 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import com.thesett.common.error.BaseRuntimeException;
+
+/**
+ * WAMResourceException is raised when a WAM machine runs out of one of its memory areas, having grown it to its maximum
+ * size. This corresponds to the Prolog resource error. The resource that ran out is named by one of the constants on
+ * this class.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Represent failure of a machine, due to lack of memory to continue in.
+ * <tr><td> Identify the memory area that ran out.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMResourceException extends BaseRuntimeException
+{
+    /** The serialization version of this class. */
+    private static final long serialVersionUID = 1L;
+
+    /** Names the heap. */
+    public static final String HEAP = "heap";
+
+    /** Names the stack. */
+    public static final String STACK = "stack";
+
+    /** Names the trail. */
+    public static final String TRAIL = "trail";
+
+    /** Names the unification stack. */
+    public static final String PDL = "pdl";
+
+    /** Names the code area. */
+    public static final String CODE = "code";
+
+    /** Holds the name of the resource that ran out. */
+    private final String resource;
+
+    /**
+     * Creates a resource exception for the named resource.
+     *
+     * @param resource The name of the resource that ran out.
+     * @param maxSize  The maximum size that the resource was allowed to grow to.
+     */
+    public WAMResourceException(String resource, int maxSize)
+    {
+        super("The " + resource + " has overflowed its maximum size of " + maxSize + ".", null);
+
+        this.resource = resource;
+    }
+
+    /**
+     * Provides the name of the resource that ran out.
+     *
+     * @return The name of the resource that ran out.
+     */
+    public String getResource()
+    {
+        return resource;
+    }
+}
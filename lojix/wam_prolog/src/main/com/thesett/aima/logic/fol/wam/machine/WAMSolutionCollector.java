@@ -0,0 +1,554 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.BOXED_FLOAT;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.BOXED_INT;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.CON;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.LIS;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.REF;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.SMALL_INT;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.STR;
+
+/**
+ * WAMSolutionCollector implements the internal predicates that findall/3, bagof/3 and setof/3 are built from, over the
+ * heap of a machine. The solutions to a goal are copied off the heap into a collection as they are found, so that they
+ * survive the backtracking that finds the next, and copied back onto the heap as one list once the goal has no more.
+ * The solutions of a bagof/3 are grouped by the bindings of the free variables of its goal, and those of a setof/3 are
+ * sorted into the standard order of terms.
+ *
+ * <p/>Collections are known to the clauses that use them by a handle, which is their position in the order that they
+ * were started. Collections are nested, as the goals that they collect the solutions of are.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Collect the solutions to a goal, off the heap. <td> {@link WAMTermCopy}.
+ * <tr><td> List the collected solutions back onto the heap. <td> {@link WAMResolvingJavaMachine}.
+ * <tr><td> Find the free variables of the goal of a bagof/3.
+ * <tr><td> Group the solutions of a bagof/3 by the bindings of its free variables.
+ * <tr><td> Sort a list into the standard order of terms.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+class WAMSolutionCollector
+{
+    /** Holds the machine whose heap the solutions are collected from. */
+    private final WAMResolvingJavaMachine machine;
+
+    /** Holds the collections of solutions to goals that are being found, in the order started. */
+    private final List<List<WAMTermCopy>> collections = new ArrayList<List<WAMTermCopy>>();
+
+    /** Holds the functor cell of ^/2, that marks the variables of the goal of a bagof/3 not to group solutions by. */
+    private int caretCell;
+
+    /** Holds the functor cell of -/2, that pairs the solutions of a bagof/3 with the free variables of its goal. */
+    private int pairCell;
+
+    /** Holds the interned name of cons/2, that lists are compared as. */
+    private int consFunctor;
+
+    /** Holds the addresses of the terms still to be walked over. */
+    private int[] stack = new int[32];
+
+    /** Holds the number of addresses on the stack. */
+    private int stackTop;
+
+    /**
+     * Creates a solution collector over the heap of a machine.
+     *
+     * @param machine The machine whose heap the solutions are collected from.
+     */
+    WAMSolutionCollector(WAMResolvingJavaMachine machine)
+    {
+        this.machine = machine;
+    }
+
+    /** Looks up the functors that the collector reads, once the machine has been reset. */
+    void reset()
+    {
+        caretCell = (2 << 24) | (machine.internFunctorName("^", 2) & 0x00ffffff);
+        pairCell = (2 << 24) | (machine.internFunctorName("-", 2) & 0x00ffffff);
+        consFunctor = machine.internFunctorName("cons", 2);
+        collections.clear();
+    }
+
+    /** Throws away all collections still open, when the query that started them is abandoned. */
+    void clear()
+    {
+        collections.clear();
+    }
+
+    /**
+     * Implements the '$fa_begin'/1 predicate, that starts a new collection of solutions to a goal, and binds the first
+     * argument register to a handle on it.
+     *
+     * @return <tt>true</tt> if the handle unifies with the first argument register.
+     */
+    boolean begin()
+    {
+        collections.add(new ArrayList<WAMTermCopy>());
+
+        return machine.unifyNumber(0, collections.size() - 1, false);
+    }
+
+    /**
+     * Implements the '$fa_add'/2 predicate, that copies the solution in the second argument register off the heap,
+     * into the collection with the handle in the first. The copy is kept apart from the heap, so that it survives the
+     * backtracking that finds the next solution.
+     *
+     * @return <tt>true</tt> always, unless the collection has been ended.
+     */
+    boolean add()
+    {
+        int handle = findCollection(0);
+
+        if (handle == -1)
+        {
+            return false;
+        }
+
+        collections.get(handle).add(machine.copyOut(1, new HashMap<Integer, Integer>()));
+
+        return true;
+    }
+
+    /**
+     * Implements the '$fa_end'/2 predicate, that ends the collection with the handle in the first argument register,
+     * and unifies the second with a list of the solutions in it, copied back onto the heap. Collections are nested in
+     * the order started, so any still open that were started after it are ended too.
+     *
+     * @return <tt>true</tt> if the list unifies with the second argument register.
+     */
+    boolean end()
+    {
+        int handle = findCollection(0);
+
+        if (handle == -1)
+        {
+            return false;
+        }
+
+        List<WAMTermCopy> collection = collections.get(handle);
+        collections.subList(handle, collections.size()).clear();
+
+        machine.putTermList(2, collection);
+
+        return machine.unify(1, 2);
+    }
+
+    /**
+     * Implements the '$bag_witness'/4 predicate, that finds the free variables of the goal in the second argument
+     * register, for the template in the first. These are the variables of the goal that are not in the template, or
+     * marked with ^/2 as not to be grouped by. The third argument register is unified with a list of the free
+     * variables, in the order they are first met in the goal, and the fourth with the goal without its ^/2 marks.
+     *
+     * @return <tt>true</tt> if the free variables and goal unify with the third and fourth argument registers.
+     */
+    boolean witness()
+    {
+        Set<Integer> bound = new HashSet<Integer>();
+        termVariables(0, bound, null);
+
+        // Strip the ^/2 marks off the goal, leaving their variables out.
+        int goal = 1;
+
+        while (true)
+        {
+            machine.deref(goal);
+
+            if ((machine.getDerefTag() != STR) || (machine.getHeap(machine.getDerefVal()) != caretCell))
+            {
+                break;
+            }
+
+            goal = machine.getDerefVal() + 2;
+            termVariables(goal - 1, bound, null);
+        }
+
+        List<Integer> free = new ArrayList<Integer>();
+        termVariables(goal, bound, free);
+
+        machine.reserveHeap(2 * free.size());
+
+        int witness = machine.getNilCell();
+
+        for (int i = free.size() - 1; i >= 0; i--)
+        {
+            witness = machine.pushList(machine.refTo(free.get(i)), witness);
+        }
+
+        machine.setHeap(4, witness);
+
+        return machine.unify(2, 4) && machine.unify(3, goal);
+    }
+
+    /**
+     * Implements the '$bag_groups'/2 predicate, that groups the list of solutions to the goal of a bagof/3 in the
+     * first argument register, each paired with the bindings of the free variables of the goal, W-T, by variants of
+     * those bindings. The second argument register is unified with a list of the groups, each a list of pairs, in the
+     * order their bindings were first found. The pairs are not copied, but listed again as they are.
+     *
+     * @return <tt>true</tt> if the groups unify with the second argument register.
+     */
+    boolean groups()
+    {
+        Map<WAMTermCopy, List<Integer>> groups = new LinkedHashMap<WAMTermCopy, List<Integer>>();
+        int count = 0;
+
+        for (int list = machine.deref(0); machine.getDerefTag() == LIS; list = machine.deref(list))
+        {
+            int pair = machine.getDerefVal();
+            list = pair + 1;
+            count++;
+
+            machine.deref(pair);
+
+            if ((machine.getDerefTag() != STR) || (machine.getHeap(machine.getDerefVal()) != pairCell))
+            {
+                return false;
+            }
+
+            WAMTermCopy key = machine.copyOut(machine.getDerefVal() + 1, new HashMap<Integer, Integer>());
+            List<Integer> group = groups.get(key);
+
+            if (group == null)
+            {
+                group = new ArrayList<Integer>();
+                groups.put(key, group);
+            }
+
+            group.add(pair);
+        }
+
+        machine.reserveHeap(2 * (count + groups.size()));
+
+        List<List<Integer>> ordered = new ArrayList<List<Integer>>(groups.values());
+        int result = machine.getNilCell();
+
+        for (int i = ordered.size() - 1; i >= 0; i--)
+        {
+            result = machine.pushList(listOf(ordered.get(i)), result);
+        }
+
+        machine.setHeap(2, result);
+
+        return machine.unify(1, 2);
+    }
+
+    /**
+     * Implements the '$sort'/2 predicate, that sorts the list in the first argument register into the standard order
+     * of terms, removing duplicates, and unifies the second with the sorted list. The elements are not copied, but
+     * listed again as they are. This fails if the first argument register does not hold a proper list.
+     *
+     * @return <tt>true</tt> if the sorted list unifies with the second argument register.
+     */
+    boolean sort()
+    {
+        List<Integer> elements = new ArrayList<Integer>();
+
+        int list = machine.deref(0);
+
+        while (machine.getDerefTag() == LIS)
+        {
+            elements.add(machine.getDerefVal());
+            list = machine.deref(machine.getDerefVal() + 1);
+        }
+
+        if (machine.getHeap(list) != machine.getNilCell())
+        {
+            return false;
+        }
+
+        Collections.sort(elements, new Comparator<Integer>()
+            {
+                public int compare(Integer a, Integer b)
+                {
+                    return compareTerms(a, b);
+                }
+            });
+
+        List<Integer> sorted = new ArrayList<Integer>();
+
+        for (int element : elements)
+        {
+            if (sorted.isEmpty() || (compareTerms(sorted.get(sorted.size() - 1), element) != 0))
+            {
+                sorted.add(element);
+            }
+        }
+
+        machine.reserveHeap(2 * sorted.size());
+        machine.setHeap(2, listOf(sorted));
+
+        return machine.unify(1, 2);
+    }
+
+    /**
+     * Looks up an open collection of solutions, by the handle in a register.
+     *
+     * @param  xi The register holding the handle.
+     *
+     * @return The handle, or <tt>-1</tt> if there is no open collection with the handle.
+     */
+    private int findCollection(int xi)
+    {
+        machine.deref(xi);
+
+        int val = machine.getDerefVal();
+        int handle = ((machine.getDerefTag() == CON) && ((val & SMALL_INT) != 0)) ? ((val << 3) >> 3) : -1;
+
+        return ((handle >= 0) && (handle < collections.size())) ? handle : -1;
+    }
+
+    /**
+     * Lists the terms at some addresses on the heap, by listing their cells again. There must be room on the heap for
+     * the list.
+     *
+     * @param  terms The addresses of the terms.
+     *
+     * @return A cell holding the list.
+     */
+    private int listOf(List<Integer> terms)
+    {
+        int list = machine.getNilCell();
+
+        for (int i = terms.size() - 1; i >= 0; i--)
+        {
+            list = machine.pushList(machine.getHeap(terms.get(i)), list);
+        }
+
+        return list;
+    }
+
+    /**
+     * Finds the unbound variables of a term, in the order that they are first met, depth first and left to right.
+     *
+     * @param addr  The address of the term.
+     * @param seen  The addresses of the variables seen so far, to add to.
+     * @param found The addresses of the variables not seen before, to add to, or <tt>null</tt> if not wanted.
+     */
+    private void termVariables(int addr, Set<Integer> seen, List<Integer> found)
+    {
+        stackTop = 0;
+        push(addr);
+
+        while (stackTop > 0)
+        {
+            int d = machine.deref(stack[--stackTop]);
+            byte tag = machine.getDerefTag();
+            int val = machine.getDerefVal();
+
+            if (tag == REF)
+            {
+                if (seen.add(d) && (found != null))
+                {
+                    found.add(d);
+                }
+            }
+            else if (tag == LIS)
+            {
+                push(val + 1);
+                push(val);
+            }
+            else if (tag == STR)
+            {
+                int fn = machine.getHeap(val);
+
+                if ((fn != BOXED_INT) && (fn != BOXED_FLOAT))
+                {
+                    for (int i = fn >>> 24; i > 0; i--)
+                    {
+                        push(val + i);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Compares two terms in the standard order of terms. Variables come before numbers, numbers before atoms, and
+     * atoms before compound terms. Variables are ordered by address, numbers by value with floats before integers of
+     * the same value, and atoms by name. Compound terms are ordered by arity, then name, then by their arguments from
+     * left to right. Lists are compound terms named cons.
+     *
+     * @param  a The address of the first term.
+     * @param  b The address of the second term.
+     *
+     * @return A negative number, zero, or a positive number, as the first term is before, the same as, or after the
+     *         second.
+     */
+    private int compareTerms(int a, int b)
+    {
+        stackTop = 0;
+        push(b);
+        push(a);
+
+        while (stackTop > 0)
+        {
+            int x = machine.deref(stack[--stackTop]);
+            byte xTag = machine.getDerefTag();
+            int xVal = machine.getDerefVal();
+            int xClass = orderClass(xTag, xVal);
+
+            int y = machine.deref(stack[--stackTop]);
+            byte yTag = machine.getDerefTag();
+            int yVal = machine.getDerefVal();
+            int yClass = orderClass(yTag, yVal);
+
+            int result = xClass - yClass;
+
+            if (result == 0)
+            {
+                switch (xClass)
+                {
+                case 0:
+                    result = (x < y) ? -1 : ((x > y) ? 1 : 0);
+                    break;
+
+                case 1:
+                {
+                    boolean xFloat = (xTag == STR) && (machine.getHeap(xVal) == BOXED_FLOAT);
+                    boolean yFloat = (yTag == STR) && (machine.getHeap(yVal) == BOXED_FLOAT);
+                    double xNum = numberValue(xTag, xVal);
+                    double yNum = numberValue(yTag, yVal);
+
+                    result = (xNum < yNum) ? -1 : ((xNum > yNum) ? 1 : (xFloat == yFloat) ? 0 : (xFloat ? -1 : 1));
+                    break;
+                }
+
+                case 2:
+                    result =
+                        machine.getDeinternedFunctorName(xVal & 0x3fffffff).getName().compareTo(
+                            machine.getDeinternedFunctorName(yVal & 0x3fffffff).getName());
+                    break;
+
+                default:
+                {
+                    int xFn = (xTag == LIS) ? ((2 << 24) | consFunctor) : machine.getHeap(xVal);
+                    int yFn = (yTag == LIS) ? ((2 << 24) | consFunctor) : machine.getHeap(yVal);
+                    int arity = xFn >>> 24;
+
+                    result = arity - (yFn >>> 24);
+
+                    if (result == 0)
+                    {
+                        result =
+                            machine.getDeinternedFunctorName(xFn & 0x00ffffff).getName().compareTo(
+                                machine.getDeinternedFunctorName(yFn & 0x00ffffff).getName());
+                    }
+
+                    // List cells hold their arguments from their address, and structures from after their functor.
+                    int xArgs = (xTag == LIS) ? xVal : (xVal + 1);
+                    int yArgs = (yTag == LIS) ? yVal : (yVal + 1);
+
+                    for (int i = arity - 1; (result == 0) && (i >= 0); i--)
+                    {
+                        push(yArgs + i);
+                        push(xArgs + i);
+                    }
+                }
+                }
+            }
+
+            if (result != 0)
+            {
+                return result;
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Works out the class of a term in the standard order of terms.
+     *
+     * @param  tag The tag of the dereferenced term.
+     * @param  val The value of the dereferenced term.
+     *
+     * @return <tt>0</tt> for a variable, <tt>1</tt> for a number, <tt>2</tt> for an atom, <tt>3</tt> for a compound
+     *         term.
+     */
+    private int orderClass(byte tag, int val)
+    {
+        switch (tag)
+        {
+        case REF:
+            return 0;
+
+        case CON:
+            return ((val & SMALL_INT) != 0) ? 1 : 2;
+
+        case STR:
+            return ((machine.getHeap(val) == BOXED_INT) || (machine.getHeap(val) == BOXED_FLOAT)) ? 1 : 3;
+
+        default:
+            return 3;
+        }
+    }
+
+    /**
+     * Reads the value of a number.
+     *
+     * @param  tag The tag of the dereferenced number.
+     * @param  val The value of the dereferenced number.
+     *
+     * @return The value of the number.
+     */
+    private double numberValue(byte tag, int val)
+    {
+        if (tag == CON)
+        {
+            return (val << 3) >> 3;
+        }
+        else if (machine.getHeap(val) == BOXED_INT)
+        {
+            return machine.getHeap(val + 1);
+        }
+        else
+        {
+            return Double.longBitsToDouble(((long) machine.getHeap(val + 1) << 32) |
+                    (machine.getHeap(val + 2) & 0xffffffffL));
+        }
+    }
+
+    /**
+     * Pushes the address of a term still to be walked over onto the stack.
+     *
+     * @param addr The address of the term.
+     */
+    private void push(int addr)
+    {
+        if (stackTop == stack.length)
+        {
+            int[] grown = new int[stack.length << 1];
+            System.arraycopy(stack, 0, grown, 0, stackTop);
+            stack = grown;
+        }
+
+        stack[stackTop++] = addr;
+    }
+}
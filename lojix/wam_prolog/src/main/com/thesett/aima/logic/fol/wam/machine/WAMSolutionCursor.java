@@ -0,0 +1,408 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.thesett.aima.logic.fol.Term;
+import com.thesett.aima.logic.fol.Variable;
+import com.thesett.aima.logic.fol.wam.compiler.WAMCompiledQuery;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.BOXED_FLOAT;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.BOXED_INT;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.CON;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.LIS;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.REF;
+import static com.thesett.aima.logic.fol.wam.compiler.WAMInstruction.SMALL_INT;
+
+/**
+ * WAMSolutionCursor steps through the solutions to a query, and reads the bindings of its variables straight off the
+ * heap of the machine, without decoding them into terms. Terms are referred to by their addresses on the heap, which
+ * stay valid only until the cursor is moved on to the next solution. The binding of each variable is found by its
+ * position in the query, and the parts of a term are read by asking for its kind, and then its functor, arguments or
+ * value as befits the kind. A term can still be decoded in full, when it is needed as a {@link Term}.
+ *
+ * <p/>For example, to print the name of the atom bound to the first variable of each solution:
+ *
+ * <pre>
+ * WAMSolutionCursor cursor = machine.cursor();
+ *
+ * while (cursor.next())
+ * {
+ *     int term = cursor.binding(0);
+ *
+ *     if (cursor.kind(term) == WAMSolutionCursor.ATOM)
+ *     {
+ *         System.out.println(cursor.name(term));
+ *     }
+ * }
+ * </pre>
+ *
+ * <p/>Solutions are found on the machine that the query is set on, one at a time, as its iterator would find them. The
+ * cursor and the iterator of a machine should not both be used on the same query.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Step through the solutions to a query. <td> {@link WAMResolvingMachine}.
+ * <tr><td> Find the bindings of the variables of a query.
+ * <tr><td> Read the parts of terms on the heap.
+ * <tr><td> Decode terms on the heap, on request.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMSolutionCursor
+{
+    /** The kind of an unbound variable. */
+    public static final int VAR = 0;
+
+    /** The kind of an atom. */
+    public static final int ATOM = 1;
+
+    /** The kind of an integer. */
+    public static final int INT = 2;
+
+    /** The kind of a float. */
+    public static final int FLOAT = 3;
+
+    /** The kind of a structure, other than a list cell. */
+    public static final int STRUCT = 4;
+
+    /** The kind of a list cell, a cons/2 with a head and tail. */
+    public static final int LIST = 5;
+
+    /** Holds the machine that the query is run on. */
+    private final WAMResolvingMachine machine;
+
+    /** Holds the query. */
+    private final WAMCompiledQuery query;
+
+    /** Holds the registers holding the variables of the query, in the order they are reported. */
+    private final int[] registers;
+
+    /** Holds the interned names of the variables of the query, in the order they are reported. */
+    private final int[] names;
+
+    /** Holds the interned name of cons/2, that list cells are reported with. */
+    private final int consName;
+
+    /** Holds the variables decoded for the current solution, so that terms decoded from it share them. */
+    private Map<Integer, Variable> variableContext;
+
+    /** Flags when the cursor is on a solution. */
+    private boolean onSolution;
+
+    /** Flags when there are no more solutions. */
+    private boolean exhausted;
+
+    /**
+     * Creates a cursor over the solutions to a query.
+     *
+     * @param machine The machine that the query is set on.
+     * @param query   The query.
+     */
+    WAMSolutionCursor(WAMResolvingMachine machine, WAMCompiledQuery query)
+    {
+        this.machine = machine;
+        this.query = query;
+
+        // Only the non-anonymous free variables of the query are reported.
+        int count = 0;
+
+        for (int name : query.getVarNames().values())
+        {
+            count += query.getNonAnonymousFreeVariables().contains(name) ? 1 : 0;
+        }
+
+        registers = new int[count];
+        names = new int[count];
+
+        int i = 0;
+
+        for (Map.Entry<Byte, Integer> entry : query.getVarNames().entrySet())
+        {
+            if (query.getNonAnonymousFreeVariables().contains(entry.getValue()))
+            {
+                registers[i] = entry.getKey();
+                names[i++] = entry.getValue();
+            }
+        }
+
+        consName = machine.internFunctorName("cons", 2);
+    }
+
+    /**
+     * Moves the cursor on to the next solution.
+     *
+     * @return <tt>true</tt> if there is another solution, and <tt>false</tt> if there are no more.
+     */
+    public boolean next()
+    {
+        if (exhausted)
+        {
+            return false;
+        }
+
+        onSolution = machine.execute(query.getCallPoint());
+        exhausted = !onSolution;
+        variableContext = null;
+
+        return onSolution;
+    }
+
+    /**
+     * Checks if the cursor is over the solutions to a query.
+     *
+     * @param  query The query to check.
+     *
+     * @return <tt>true</tt> if the cursor is over the solutions to the query.
+     */
+    boolean isOver(WAMCompiledQuery query)
+    {
+        return this.query == query;
+    }
+
+    /** Moves the cursor back to before the first solution, once its query has been set afresh on the machine. */
+    void restart()
+    {
+        onSolution = false;
+        exhausted = false;
+        variableContext = null;
+    }
+
+    /**
+     * Provides the number of variables that the query reports bindings for.
+     *
+     * @return The number of variables of the query.
+     */
+    public int getNumVariables()
+    {
+        return registers.length;
+    }
+
+    /**
+     * Provides the name of a variable of the query.
+     *
+     * @param  i The position of the variable, from zero.
+     *
+     * @return The name of the variable.
+     */
+    public String getVariableName(int i)
+    {
+        return machine.getVariableName(names[i]);
+    }
+
+    /**
+     * Finds the binding of a variable of the query, in the current solution.
+     *
+     * @param  i The position of the variable, from zero.
+     *
+     * @return The address of the term bound to the variable.
+     *
+     * @throws IllegalStateException If the cursor is not on a solution.
+     */
+    public int binding(int i)
+    {
+        if (!onSolution)
+        {
+            throw new IllegalStateException("The cursor is not on a solution.");
+        }
+
+        return machine.derefStack(registers[i]);
+    }
+
+    /**
+     * Works out the kind of a term.
+     *
+     * @param  term The address of the term.
+     *
+     * @return One of {@link #VAR}, {@link #ATOM}, {@link #INT}, {@link #FLOAT}, {@link #STRUCT} or {@link #LIST}.
+     */
+    public int kind(int term)
+    {
+        machine.deref(term);
+
+        byte tag = machine.getDerefTag();
+        int val = machine.getDerefVal();
+
+        switch (tag)
+        {
+        case REF:
+            return VAR;
+
+        case CON:
+            return ((val & SMALL_INT) != 0) ? INT : ATOM;
+
+        case LIS:
+            return LIST;
+
+        default:
+
+            int fn = machine.getHeap(val);
+
+            return (fn == BOXED_INT) ? INT : ((fn == BOXED_FLOAT) ? FLOAT : STRUCT);
+        }
+    }
+
+    /**
+     * Provides the interned name of the functor of an atom, structure or list cell.
+     *
+     * @param  term The address of the term.
+     *
+     * @return The interned name of the functor of the term.
+     *
+     * @throws IllegalArgumentException If the term is not an atom, structure or list cell.
+     */
+    public int functor(int term)
+    {
+        switch (kind(term))
+        {
+        case ATOM:
+            return machine.getDerefVal() & 0x3fffffff;
+
+        case STRUCT:
+            return machine.getHeap(machine.getDerefVal()) & 0x00ffffff;
+
+        case LIST:
+            return consName;
+
+        default:
+            throw new IllegalArgumentException("The term at " + term + " has no functor.");
+        }
+    }
+
+    /**
+     * Provides the name of the functor of an atom, structure or list cell.
+     *
+     * @param  term The address of the term.
+     *
+     * @return The name of the functor of the term.
+     *
+     * @throws IllegalArgumentException If the term is not an atom, structure or list cell.
+     */
+    public String name(int term)
+    {
+        return machine.getFunctorName(functor(term));
+    }
+
+    /**
+     * Provides the number of arguments of a term.
+     *
+     * @param  term The address of the term.
+     *
+     * @return The number of arguments of the term, which is zero for anything but structures and list cells.
+     */
+    public int arity(int term)
+    {
+        switch (kind(term))
+        {
+        case STRUCT:
+            return machine.getFunctorArity(machine.getHeap(machine.getDerefVal()) & 0x00ffffff);
+
+        case LIST:
+            return 2;
+
+        default:
+            return 0;
+        }
+    }
+
+    /**
+     * Finds an argument of a structure or list cell. The head of a list cell is its first argument, and its tail its
+     * second.
+     *
+     * @param  term The address of the term.
+     * @param  i    The position of the argument, from zero.
+     *
+     * @return The address of the argument.
+     *
+     * @throws IllegalArgumentException If the term is not a structure or list cell.
+     */
+    public int argument(int term, int i)
+    {
+        switch (kind(term))
+        {
+        case STRUCT:
+            return machine.getDerefVal() + 1 + i;
+
+        case LIST:
+            return machine.getDerefVal() + i;
+
+        default:
+            throw new IllegalArgumentException("The term at " + term + " has no arguments.");
+        }
+    }
+
+    /**
+     * Reads the value of an integer.
+     *
+     * @param  term The address of the term.
+     *
+     * @return The value of the integer.
+     *
+     * @throws IllegalArgumentException If the term is not an integer.
+     */
+    public int intValue(int term)
+    {
+        if (kind(term) != INT)
+        {
+            throw new IllegalArgumentException("The term at " + term + " is not an integer.");
+        }
+
+        int val = machine.getDerefVal();
+
+        return (machine.getDerefTag() == CON) ? ((val << 3) >> 3) : machine.getHeap(val + 1);
+    }
+
+    /**
+     * Reads the value of a float.
+     *
+     * @param  term The address of the term.
+     *
+     * @return The value of the float.
+     *
+     * @throws IllegalArgumentException If the term is not a float.
+     */
+    public double floatValue(int term)
+    {
+        if (kind(term) != FLOAT)
+        {
+            throw new IllegalArgumentException("The term at " + term + " is not a float.");
+        }
+
+        int val = machine.getDerefVal();
+        long bits = ((long) machine.getHeap(val + 1) << 32) | (machine.getHeap(val + 2) & 0xffffffffL);
+
+        return Double.longBitsToDouble(bits);
+    }
+
+    /**
+     * Decodes a term in full. Terms decoded from the same solution share their unbound variables.
+     *
+     * @param  term The address of the term.
+     *
+     * @return The decoded term.
+     */
+    public Term decode(int term)
+    {
+        if (variableContext == null)
+        {
+            variableContext = new HashMap<Integer, Variable>();
+        }
+
+        return machine.decodeHeap(term, variableContext);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * WAMTable holds the answers to a call to a tabled predicate, and the state of their evaluation. Calls that are
+ * variants of each other share the same table.
+ *
+ * <p/>Whilst incomplete, a table sits on the completion stack of the machine evaluating it, and is known by its
+ * position there. Tables that depend on the answers of others still being evaluated, lower on the stack, cannot be
+ * completed on their own, but only along with the lowest of these, their leader.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities
+ * <tr><td> Hold the answers to a tabled call, in the order found, without repeats.
+ * <tr><td> Hold the state of the evaluation of a tabled call.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+class WAMTable
+{
+    /** Holds the call that the table is for. */
+    final WAMTermCopy call;
+
+    /** Holds the position of the table on the completion stack. */
+    final int index;
+
+    /** Holds the position on the completion stack of the table that this one is to be completed along with. */
+    int leader;
+
+    /** Flags when the clauses of the call are being run, to find more answers. */
+    boolean evaluating;
+
+    /** Flags when all of the answers to the call have been found. */
+    boolean complete;
+
+    /** Holds the number of answers added to all tables, when the clauses of the call were last run. */
+    int mark;
+
+    /** Holds the answers, in the order found. */
+    final List<WAMTermCopy> answers = new ArrayList<WAMTermCopy>();
+
+    /** Holds the answers, to look for repeats in. */
+    private final Set<WAMTermCopy> answerSet = new HashSet<WAMTermCopy>();
+
+    /**
+     * Creates an empty table for a call.
+     *
+     * @param call  The call.
+     * @param index The position of the table on the completion stack.
+     */
+    WAMTable(WAMTermCopy call, int index)
+    {
+        this.call = call;
+        this.index = index;
+        leader = index;
+    }
+
+    /**
+     * Adds an answer to the table, unless it already holds a variant of it.
+     *
+     * @param  answer The answer.
+     *
+     * @return <tt>true</tt> if the answer is new.
+     */
+    boolean add(WAMTermCopy answer)
+    {
+        if (!answerSet.add(answer))
+        {
+            return false;
+        }
+
+        answers.add(answer);
+
+        return true;
+    }
+}
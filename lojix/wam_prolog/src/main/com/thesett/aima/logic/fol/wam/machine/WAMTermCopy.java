@@ -0,0 +1,80 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import java.util.Arrays;
+
+/**
+ * WAMTermCopy holds a copy of a term taken off the heap of a machine, so that it can be put onto the heap of another.
+ * The cells of the copy are laid out as on the heap, from the cell referencing the term, but with addresses relative
+ * to the start of the copy. The cells holding addresses are listed, so that they can be moved to wherever the copy is
+ * put, without telling them apart from the functor cells and numbers held in between.
+ *
+ * <p/>Functor names are held as interned, and so can only be put back onto a machine sharing the same interner.
+ *
+ * <p/>Terms are copied in the same order whatever they are, and each variable is copied as a reference to where it
+ * first occurs, so two copies are equal exactly when the terms they were taken from are variants of each other.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities
+ * <tr><td> Hold a term, independent of where on the heap it is put.
+ * <tr><td> Compare terms as variants of each other.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+class WAMTermCopy
+{
+    /** Holds the cells of the term, the first referencing the term. */
+    final int[] cells;
+
+    /** Holds the offsets of the cells holding addresses. */
+    final int[] refs;
+
+    /**
+     * Creates a term copy.
+     *
+     * @param cells The cells of the term.
+     * @param refs  The offsets of the cells holding addresses.
+     */
+    WAMTermCopy(int[] cells, int[] refs)
+    {
+        this.cells = cells;
+        this.refs = refs;
+    }
+
+    /**
+     * Checks if another term copy is of a variant of the term this is a copy of.
+     *
+     * @param  o The object to compare to.
+     *
+     * @return <tt>true</tt> if the object is a copy of a variant of the same term.
+     */
+    public boolean equals(Object o)
+    {
+        return (o instanceof WAMTermCopy) && Arrays.equals(cells, ((WAMTermCopy) o).cells);
+    }
+
+    /**
+     * Computes a hash code for the term, that is the same for all variants of it.
+     *
+     * @return A hash code for the term.
+     */
+    public int hashCode()
+    {
+        return Arrays.hashCode(cells);
+    }
+}
@@ -168,6 +168,12 @@ public class WAMResolvingNativeMachine extends WAMResolvingMachine
         throw new NotImplementedException();
     }
 
+    /** {@inheritDoc} */
+    public void setCall(String name, Object... arguments)
+    {
+        throw new NotImplementedException();
+    }
+
     /** {@inheritDoc} */
     public IntBuffer getDataBuffer()
     {
@@ -16,3 +16,15 @@ member(X, [_|Tail]) :- member(X, Tail).
 
 append([], List, List).
 append([H|Tail1], List2, [H|Tail3]) :- append(Tail1, List2, Tail3).
+
+X is Y :- X is Y.
+X =:= Y :- X =:= Y.
+X =\= Y :- X =\= Y.
+X < Y :- X < Y.
+X =< Y :- X =< Y.
+X > Y :- X > Y.
+X >= Y :- X >= Y.
+
+integer(X) :- integer(X).
+float(X) :- float(X).
+number(X) :- number(X).
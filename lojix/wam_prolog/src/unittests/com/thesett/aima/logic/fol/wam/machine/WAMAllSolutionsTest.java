@@ -0,0 +1,189 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import com.thesett.common.parsing.SourceCodeException;
+
+/**
+ * WAMAllSolutionsTest checks that findall/3, bagof/3 and setof/3 collect the solutions to their goals.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities
+ * <tr><td> Check that findall/3 collects all solutions, in order, and none.
+ * <tr><td> Check that bagof/3 groups solutions by its free variables, and fails when there are none.
+ * <tr><td> Check that setof/3 sorts its solutions into the standard order without duplicates.
+ * <tr><td> Check that setof/3 sorts compound terms on all of their arguments.
+ * <tr><td> Check that findall/3 may be nested.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMAllSolutionsTest extends WAMEngineTestBase
+{
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test.
+     */
+    public WAMAllSolutionsTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Compiles all the tests defined in this class into a suite.
+     *
+     * @return A test suite.
+     */
+    public static Test suite()
+    {
+        return new TestSuite(WAMAllSolutionsTest.class);
+    }
+
+    /** Check that findall/3 collects all solutions in the order they are found, and the empty list if none. */
+    public void testFindallCollectsAllSolutions() throws Exception
+    {
+        engine.reset();
+
+        addClause("p(3, a)");
+        addClause("p(1, b)");
+        addClause("p(2, a)");
+        addClause("q(x)");
+        engine.endScope();
+
+        assertEquals("Wrong solutions.", "[cons(f(3), cons(f(1), cons(f(2), nil)))]",
+            solutions("?- findall(f(X), p(X, Y), L).", "L"));
+        assertEquals("Wrong solutions.", "[nil]", solutions("?- findall(X, p(X, c), L).", "L"));
+    }
+
+    /** Check that bagof/3 groups solutions by the bindings of its free variables, and fails if there are none. */
+    public void testBagofGroupsByFreeVariables() throws Exception
+    {
+        engine.reset();
+
+        addClause("p(3, a)");
+        addClause("p(1, b)");
+        addClause("p(2, a)");
+        addClause("q(x)");
+        engine.endScope();
+
+        assertEquals("Wrong solutions.", "[cons(3, cons(2, nil)), cons(1, nil)]",
+            solutions("?- bagof(X, p(X, Y), L).", "L"));
+        assertEquals("Wrong solutions.", "[a, b]", solutions("?- bagof(X, p(X, Y), L).", "Y"));
+        assertEquals("Wrong solutions.", "[cons(3, cons(1, cons(2, nil)))]",
+            solutions("?- bagof(X, Y^p(X, Y), L).", "L"));
+        assertEquals("Wrong solutions.", "[]", solutions("?- bagof(X, p(X, c), L).", "L"));
+    }
+
+    /** Check that setof/3 sorts its solutions into the standard order of terms, removing duplicates. */
+    public void testSetofSortsSolutions() throws Exception
+    {
+        engine.reset();
+
+        addClause("r(f(x))");
+        addClause("r(3)");
+        addClause("r(zz)");
+        addClause("r(2.0)");
+        addClause("r(aa)");
+        addClause("r(3)");
+        addClause("r(2)");
+        addClause("r(f(a, b))");
+        engine.endScope();
+
+        assertEquals("Wrong solutions.",
+            "[cons(2.0, cons(2, cons(3, cons(aa, cons(zz, cons(f(x), cons(f(a, b), nil)))))))]",
+            solutions("?- setof(X, r(X), L).", "L"));
+    }
+
+    /**
+     * Check that setof/3 sorts compound terms that differ before their last argument, or within nested arguments, as
+     * comparing them must not leave arguments behind to be unified with the sorted list.
+     */
+    public void testSetofSortsCompoundTermsOnAllArguments() throws Exception
+    {
+        engine.reset();
+
+        addClause("s(2-1)");
+        addClause("s(1-2)");
+        addClause("t(f(b, 2))");
+        addClause("t(f(a, 1))");
+        addClause("t(f(a, 1))");
+        addClause("u(g(h(2, x), y))");
+        addClause("u(g(h(1, z), y))");
+        addClause("u(g(h(1, x), y))");
+        engine.endScope();
+
+        assertEquals("Wrong solutions.", "[cons(-(1, 2), cons(-(2, 1), nil))]",
+            solutions("?- setof(X, s(X), L).", "L"));
+        assertEquals("Wrong solutions.", "[cons(f(a, 1), cons(f(b, 2), nil))]",
+            solutions("?- setof(X, t(X), L).", "L"));
+        assertEquals("Wrong solutions.",
+            "[cons(g(h(1, x), y), cons(g(h(1, z), y), cons(g(h(2, x), y), nil)))]",
+            solutions("?- setof(X, u(X), L).", "L"));
+    }
+
+    /** Check that a findall/3 may be run within the goal of another. */
+    public void testFindallNests() throws Exception
+    {
+        engine.reset();
+
+        addClause("p(1)");
+        addClause("p(2)");
+        addClause("q(X-L) :- p(X), findall(Y, p(Y), L).");
+        engine.endScope();
+
+        assertEquals("Wrong solutions.",
+            "[cons(-(1, cons(1, cons(2, nil))), cons(-(2, cons(1, cons(2, nil))), nil))]",
+            solutions("?- findall(Z, q(Z), L).", "L"));
+    }
+
+    /**
+     * Runs a query to find all of its solutions, and prints the binding of one of its variables in each.
+     *
+     * @param  queryString The query to run.
+     * @param  name        The name of the variable to print.
+     *
+     * @return The bindings of the variable, printed in the order they were found.
+     *
+     * @throws SourceCodeException If the query will not parse or compile.
+     */
+    private String solutions(String queryString, String name) throws SourceCodeException
+    {
+        setQuery(queryString);
+
+        WAMSolutionCursor cursor = machine.cursor();
+        List<String> results = new ArrayList<String>();
+
+        while (cursor.next())
+        {
+            for (int i = 0; i < cursor.getNumVariables(); i++)
+            {
+                if (name.equals(cursor.getVariableName(i)))
+                {
+                    results.add(cursor.decode(cursor.binding(i)).toString(machine, false, true));
+                }
+            }
+        }
+
+        return results.toString();
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import com.thesett.aima.logic.fol.Variable;
+import com.thesett.aima.logic.fol.wam.compiler.WAMCompiler;
+import com.thesett.common.parsing.SourceCodeException;
+import com.thesett.common.util.doublemaps.SymbolTableImpl;
+
+/**
+ * WAMAndParallelTest checks that clauses compiled to run their independent goals in parallel, over the engines of a
+ * pool, find the same solutions in the same order as when compiled to run them one after the other. Each predicate is
+ * compiled both ways, under the names 'seq_' and 'par_' followed by its name.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities
+ * <tr><td> Check that independent goals run in parallel find the solutions of running them in sequence, in order.
+ * <tr><td> Check that goals that share variables once called are run in sequence.
+ * <tr><td> Check that goals with too many solutions to run in parallel are run in sequence.
+ * <tr><td> Check that cuts after independent goals are respected.
+ * <tr><td> Check that goals started in parallel, but never joined, do not stop the query.
+ * <tr><td> Check that errors raised by goals run in parallel are raised, without running the goals again.
+ * <tr><td> Check that goals run in parallel are held to the limits of the query that started them.
+ * <tr><td> Check that goals run in parallel are kept across garbage collections before they are joined.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMAndParallelTest extends WAMEngineTestBase
+{
+    /** The number of engines in the pool. */
+    private static final int ENGINES = 4;
+
+    /** The largest heap that the engines may grow to, kept small so that runaway goals stop quickly. */
+    private static final int MAX_HEAP_SIZE = 1 << 18;
+
+    /** Holds the compiler that the program is compiled with. */
+    private WAMCompiler compiler;
+
+    /** Holds the pool of engines sharing the program. */
+    private WAMEnginePool pool;
+
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test.
+     */
+    public WAMAndParallelTest(String name)
+    {
+        super(name);
+    }
+
+    /** Check that independent goals run in parallel find the solutions of running them in sequence, in order. */
+    public void testIndependentGoalsKeepSequentialOrder() throws Exception
+    {
+        addClauses("triple(A, B, C) :- d(A), d(B), d(C)");
+        List<String> expected = solve("?- seq_triple(A, B, C).");
+
+        assertEquals("Wrong number of solutions.", 1000, expected.size());
+        assertEquals("Solutions not in sequential order.", expected, solve("?- par_triple(A, B, C)."));
+    }
+
+    /** Check that goals that share variables once called are run in sequence. */
+    public void testGoalsSharingVariablesWhenCalled() throws Exception
+    {
+        addClauses("pair(A, B) :- small(A), num(B)");
+        List<String> expected = solve("?- seq_pair(X, X).");
+
+        assertEquals("Wrong number of solutions.", 2, expected.size());
+        assertEquals("Wrong solutions.", expected, solve("?- par_pair(X, X)."));
+    }
+
+    /** Check that goals with too many solutions to run in parallel are run in sequence. */
+    public void testTooManySolutionsRunInSequence() throws Exception
+    {
+        addClauses("wide(A, B) :- d(A), big(B)");
+        List<String> expected = solve("?- seq_wide(A, B).");
+
+        assertEquals("Wrong number of solutions.", 20000, expected.size());
+        assertEquals("Solutions not in sequential order.", expected, solve("?- par_wide(A, B)."));
+    }
+
+    /** Check that cuts after independent goals are respected. */
+    public void testCutAfterIndependentGoals() throws Exception
+    {
+        addClauses("firstpair(A, B) :- d(A), d(B), !, true");
+        List<String> expected = solve("?- d(X), seq_firstpair(A, B).");
+
+        assertEquals("Wrong number of solutions.", 10, expected.size());
+        assertEquals("Wrong solutions.", expected, solve("?- d(X), par_firstpair(A, B)."));
+    }
+
+    /** Check that goals started in parallel, but never joined, do not stop the query. */
+    public void testUnjoinedGoalsAreGivenUp() throws Exception
+    {
+        addClauses("never(A, B) :- small(s(s(A))), num(B)");
+
+        assertEquals("Wrong number of solutions.", 0, solve("?- par_never(A, B).").size());
+        assertEquals("Wrong number of solutions.", 10, solve("?- d(A).").size());
+    }
+
+    /** Check that errors raised by goals run in parallel are raised, without running the goals again. */
+    public void testErrorsRaisedWithoutRunningAgain() throws Exception
+    {
+        addClauses("runaway(A, B) :- d(A), deep(B)");
+
+        WAMEngine worker = pool.take();
+
+        try
+        {
+            setQuery(worker, "?- par_runaway(A, B).");
+
+            try
+            {
+                worker.iterator().hasNext();
+                fail("The goal run in parallel should have run out of heap.");
+            }
+            catch (WAMResourceException e)
+            {
+                // Expected.
+            }
+
+            WAMResolvingJavaMachine started = (WAMResolvingJavaMachine) worker.getResolver();
+            assertTrue("The goal should not have been run again.", started.getInferences() < 100);
+        }
+        finally
+        {
+            pool.give(worker);
+        }
+    }
+
+    /** Check that goals run in parallel are held to the limits of the query that started them. */
+    public void testGoalsRunInParallelKeepToQueryLimits() throws Exception
+    {
+        addClauses("endless(A, B) :- d(A), spin(B)");
+
+        WAMEngine worker = pool.take();
+        WAMResolvingJavaMachine started = (WAMResolvingJavaMachine) worker.getResolver();
+        started.setMaxSteps(10000);
+
+        try
+        {
+            setQuery(worker, "?- par_endless(A, B).");
+
+            try
+            {
+                worker.iterator().hasNext();
+                fail("The goal run in parallel should have gone over the inference limit of the query.");
+            }
+            catch (WAMLimitException e)
+            {
+                assertEquals("Wrong limit.", WAMLimitException.INFERENCES, e.getLimit());
+            }
+
+            setQuery(worker, "?- d(A).");
+            assertEquals("Wrong number of solutions after stopping.", 10, countSolutions(started));
+        }
+        finally
+        {
+            started.setMaxSteps(0);
+            pool.give(worker);
+        }
+    }
+
+    /** Check that goals run in parallel are kept across garbage collections before they are joined. */
+    public void testGoalsRunInParallelKeptAcrossGarbageCollection() throws Exception
+    {
+        // The garbage made by grow/1 before outer/2 is called lies below the heap top that work/1 is started at, so
+        // collecting it moves that heap top down. Collection happens within inner/1, before it starts d(C).
+        addClause("waste(_)");
+        addClause("grow(0) :- !");
+        addClause("grow(N) :- M is N - 1, waste(f(M, M, M, M)), grow(M)");
+        addClause("work(B) :- grow(2000), d(B)");
+        addClause("grow2(A, A) :- grow(40)");
+        compiler.setAndParallel(true);
+        addClause("inner(A) :- grow2(A, B), d(B), d(C)");
+        compiler.setAndParallel(false);
+        addClauses("outer(A, B) :- inner(A), work(B)");
+        List<String> expected = solve("?- grow(40), seq_outer(A, B).");
+
+        WAMEngine worker = pool.take();
+        WAMResolvingJavaMachine started = (WAMResolvingJavaMachine) worker.getResolver();
+        started.setGarbageCollectionThreshold(300);
+
+        try
+        {
+            setQuery(worker, "?- grow(40), par_outer(A, B).");
+
+            List<String> results = new ArrayList<String>();
+
+            for (Iterator<Set<Variable>> i = worker.iterator(); i.hasNext();)
+            {
+                List<String> bindings = new ArrayList<String>();
+
+                for (Variable variable : i.next())
+                {
+                    bindings.add(worker.printVariableBinding(variable));
+                }
+
+                Collections.sort(bindings);
+                results.add(bindings.toString());
+            }
+
+            assertEquals("Solutions not in sequential order.", expected, results);
+            assertTrue("The goal run in parallel should not have been run again, but the query made " +
+                started.getInferences() + " inferences.", started.getInferences() < 2000);
+        }
+        finally
+        {
+            started.setGarbageCollectionThreshold(new WAMMemorySizes().heapSize / 2);
+            pool.give(worker);
+        }
+    }
+
+    protected WAMResolvingJavaMachine createMachine()
+    {
+        WAMMemorySizes sizes = new WAMMemorySizes();
+        sizes.maxHeapSize = MAX_HEAP_SIZE;
+
+        return new WAMResolvingJavaMachine(new SymbolTableImpl<Integer, String, Object>(), sizes);
+    }
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        compiler = (WAMCompiler) engine.getCompiler();
+        engine.reset();
+
+        for (int i = 0; i < 10; i++)
+        {
+            addClause("d(" + i + ")");
+        }
+
+        addClause("d2(a)");
+        addClause("d2(b)");
+        addClause("big(f(A, B, C, D)) :- d(A), d(B), d(C), d2(D)");
+        addClause("small(z)");
+        addClause("small(s(z))");
+        addClause("num(z)");
+        addClause("num(s(X)) :- num(X)");
+        addClause("deep(X) :- deep(s(X))");
+        addClause("spin(X) :- spin(X)");
+    }
+
+    protected void tearDown() throws Exception
+    {
+        if (pool != null)
+        {
+            pool.close();
+            pool = null;
+        }
+
+        super.tearDown();
+    }
+
+    /**
+     * Adds a predicate to the program twice, once compiled to run its independent goals in sequence, and once in
+     * parallel, and shares the program with a pool of engines.
+     *
+     * @param  clauses The clauses of the predicate.
+     *
+     * @throws SourceCodeException If the clauses will not parse or compile.
+     */
+    private void addClauses(String... clauses) throws SourceCodeException
+    {
+        for (String clause : clauses)
+        {
+            addClause("seq_" + clause);
+        }
+
+        compiler.setAndParallel(true);
+
+        for (String clause : clauses)
+        {
+            addClause("par_" + clause);
+        }
+
+        compiler.setAndParallel(false);
+        engine.endScope();
+
+        pool = new WAMEnginePool(machine, ENGINES);
+    }
+
+    /**
+     * Runs a query on an engine from the pool, and collects its solutions.
+     *
+     * @param  queryString The query to run.
+     *
+     * @return The solutions, printed.
+     *
+     * @throws Exception If the query fails to compile, or the pool is interrupted.
+     */
+    private List<String> solve(String queryString) throws Exception
+    {
+        WAMEngine worker = pool.take();
+
+        try
+        {
+            setQuery(worker, queryString);
+
+            List<String> results = new ArrayList<String>();
+
+            for (Iterator<Set<Variable>> i = worker.iterator(); i.hasNext();)
+            {
+                List<String> bindings = new ArrayList<String>();
+
+                for (Variable variable : i.next())
+                {
+                    bindings.add(worker.printVariableBinding(variable));
+                }
+
+                Collections.sort(bindings);
+                results.add(bindings.toString());
+            }
+
+            return results;
+        }
+        finally
+        {
+            pool.give(worker);
+        }
+    }
+}
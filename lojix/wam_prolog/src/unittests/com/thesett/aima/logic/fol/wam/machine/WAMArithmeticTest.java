@@ -0,0 +1,193 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import java.util.Iterator;
+import java.util.Set;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import com.thesett.aima.logic.fol.Variable;
+import com.thesett.common.parsing.SourceCodeException;
+
+/**
+ * WAMArithmeticTest checks that arithmetic expressions with no value raise errors, rather than failing or giving a
+ * wrong number, whether they can be seen to have no value when compiled or are only known at run-time, and that the
+ * machine can run further queries once they have.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities
+ * <tr><td> Check that integer results too large to be held raise overflow errors, and the largest that can do not.
+ * <tr><td> Check that terms that are not numbers raise type errors.
+ * <tr><td> Check that unbound variables raise instantiation errors.
+ * <tr><td> Check that division by zero raises an error.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMArithmeticTest extends WAMEngineTestBase
+{
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test.
+     */
+    public WAMArithmeticTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Compiles all the tests defined in this class into a suite.
+     *
+     * @return A test suite.
+     */
+    public static Test suite()
+    {
+        return new TestSuite(WAMArithmeticTest.class);
+    }
+
+    /** Check that integer results too large to be held raise overflow errors, rather than wrapping around. */
+    public void testIntegerOverflowRaisesError() throws Exception
+    {
+        String overflow = WAMArithmeticException.INT_OVERFLOW;
+
+        assertError(overflow, "?- X is 2 ** 40.");
+        assertError(overflow, "?- X is 2147483647 + 1.");
+        assertError(overflow, "?- X is (0 - 2147483647 - 1) - 1.");
+        assertError(overflow, "?- X is 65536 * 65536.");
+        assertError(overflow, "?- X is -(0 - 2147483647 - 1).");
+        assertError(overflow, "?- X is abs(0 - 2147483647 - 1).");
+        assertError(overflow, "?- X is (0 - 2147483647 - 1) // -1.");
+        assertError(overflow, "?- X is 1 << 31.");
+        assertError(overflow, "?- X is 1 << 40.");
+        assertError(overflow, "?- Y = 2 ** 40, X is Y.");
+        assertError(overflow, "?- big(Y), X is Y * 2.");
+
+        assertEquals("Wrong number of solutions after an overflow.", 1, countSolutions("?- X is 1 + 2, X =:= 3."));
+    }
+
+    /** Check that the largest and smallest integers that can be held are worked out exactly. */
+    public void testLargestIntegersAreExact() throws Exception
+    {
+        assertEquals("Wrong number of solutions.", 1,
+            countSolutions("?- X is 2 ** 30 - 1 + 2 ** 30, Y is X - 2147483646, Y =:= 1."));
+        assertEquals("Wrong number of solutions.", 1,
+            countSolutions("?- X is (0 - 2) ** 31, Y is X + 2147483647, Y =:= -1."));
+        assertEquals("Wrong number of solutions.", 1, countSolutions("?- X is 1 << 30 >> 30, X =:= 1."));
+        assertEquals("Wrong number of solutions.", 1, countSolutions("?- big(Y), X is Y - 1 + 1, X =:= Y."));
+    }
+
+    /** Check that terms that are not numbers, and floats given to integer operators, raise type errors. */
+    public void testNonNumericOperandsRaiseTypeErrors() throws Exception
+    {
+        String notEvaluable = WAMArithmeticException.NOT_EVALUABLE;
+
+        assertError(notEvaluable, "?- X is a + 1.");
+        assertError(notEvaluable, "?- X is foo(1) + 1.");
+        assertError(notEvaluable, "?- 1 < a.");
+        assertError(notEvaluable, "?- Y = a, X is Y + 1.");
+        assertError(notEvaluable, "?- Y = foo(1), X is Y + 1.");
+        assertError(notEvaluable, "?- Y = [1], Y > 0.");
+        assertError(notEvaluable, "?- a is a + 1.");
+        assertError(WAMArithmeticException.NOT_INTEGER, "?- X is 1.5 mod 2.");
+        assertError(WAMArithmeticException.NOT_INTEGER, "?- Y = 2.0, X is Y << 1.");
+
+        assertEquals("Wrong number of solutions after a type error.", 1, countSolutions("?- X is 1 + 2, X =:= 3."));
+    }
+
+    /** Check that unbound variables raise instantiation errors. */
+    public void testUnboundOperandsRaiseInstantiationErrors() throws Exception
+    {
+        String instantiation = WAMArithmeticException.INSTANTIATION;
+
+        assertError(instantiation, "?- X is Y + 1.");
+        assertError(instantiation, "?- Y < 1.");
+        assertError(instantiation, "?- inc(Y, X).");
+        assertError(instantiation, "?- Y = f(Z), inc(Z, X).");
+
+        assertEquals("Wrong number of solutions after an instantiation error.", 1, countSolutions("?- inc(1, 2)."));
+    }
+
+    /** Check that division by zero raises an error, for integers and floats. */
+    public void testDivisionByZeroRaisesError() throws Exception
+    {
+        String zeroDivisor = WAMArithmeticException.ZERO_DIVISOR;
+
+        assertError(zeroDivisor, "?- X is 1 // 0.");
+        assertError(zeroDivisor, "?- X is 1 mod 0.");
+        assertError(zeroDivisor, "?- X is 1 / 0.");
+        assertError(zeroDivisor, "?- X is 1.0 / 0.");
+        assertError(zeroDivisor, "?- Y = 0, X is 1 rem Y.");
+    }
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        engine.reset();
+
+        addClause("big(2147483647).");
+        addClause("inc(X, Y) :- Y is X + 1.");
+        engine.endScope();
+    }
+
+    /**
+     * Runs a query, checking that it raises an arithmetic error.
+     *
+     * @param  error       The name of the error that the query should raise.
+     * @param  queryString The query to run.
+     *
+     * @throws SourceCodeException If the query will not parse or compile.
+     */
+    private void assertError(String error, String queryString) throws SourceCodeException
+    {
+        try
+        {
+            countSolutions(queryString);
+            fail("The query " + queryString + " should have raised " + error + ".");
+        }
+        catch (WAMArithmeticException e)
+        {
+            assertEquals("Wrong error for " + queryString, error, e.getError());
+        }
+    }
+
+    /**
+     * Runs a query to find all of its solutions.
+     *
+     * @param  queryString The query to run.
+     *
+     * @return The number of solutions.
+     *
+     * @throws SourceCodeException If the query will not parse or compile.
+     */
+    private int countSolutions(String queryString) throws SourceCodeException
+    {
+        setQuery(queryString);
+
+        int count = 0;
+
+        for (Iterator<Set<Variable>> solutions = engine.iterator(); solutions.hasNext();)
+        {
+            solutions.next();
+            count++;
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import com.thesett.aima.logic.fol.Variable;
+
+/**
+ * WAMBatchTest checks that a batch of calls to a predicate finds the solutions to each call, and passes them on to its
+ * sink in order.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities
+ * <tr><td> Check that each call of a batch is run, and its solution or failure passed on.
+ * <tr><td> Check that the sink controls whether more solutions to a call are looked for.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMBatchTest extends WAMEngineTestBase
+{
+    /** The number of records to test with. */
+    private static final int RECORDS = 1000;
+
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test.
+     */
+    public WAMBatchTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Compiles all the tests defined in this class into a suite.
+     *
+     * @return A test suite.
+     */
+    public static Test suite()
+    {
+        return new TestSuite(WAMBatchTest.class);
+    }
+
+    /** Check that each call of a batch is run, and its first solution or its failure passed on in order. */
+    public void testBatchFindsVerdictOfEachRecord() throws Exception
+    {
+        engine.reset();
+
+        addClause("r(R, low) :- R < 500");
+        addClause("r(R, high) :- R >= 500, R < 900");
+        engine.endScope();
+
+        final String[] verdicts = new String[RECORDS];
+
+        int count =
+            machine.runBatch("r", records(RECORDS), new WAMBatchSink()
+                {
+                    public boolean solution(int item, WAMSolutionCursor cursor)
+                    {
+                        verdicts[item] = cursor.name(cursor.binding(1));
+
+                        return false;
+                    }
+
+                    public void failed(int item)
+                    {
+                        verdicts[item] = "none";
+                    }
+                });
+
+        assertEquals("Wrong number of calls run.", RECORDS, count);
+
+        for (int i = 0; i < RECORDS; i++)
+        {
+            assertEquals("Wrong verdict for " + i + ".", (i < 500) ? "low" : ((i < 900) ? "high" : "none"),
+                verdicts[i]);
+        }
+    }
+
+    /** Check that more solutions to a call are looked for only when the sink asks for them. */
+    public void testSinkAsksForMoreSolutions() throws Exception
+    {
+        engine.reset();
+
+        addClause("c(_, a)");
+        addClause("c(_, b)");
+        addClause("c(_, c)");
+        engine.endScope();
+
+        final int[] counts = new int[2];
+
+        machine.runBatch("c", records(10), new WAMBatchSink()
+            {
+                public boolean solution(int item, WAMSolutionCursor cursor)
+                {
+                    counts[item % 2]++;
+
+                    return (item % 2) == 0;
+                }
+
+                public void failed(int item)
+                {
+                    fail("No call should fail.");
+                }
+            });
+
+        assertEquals("Wrong number of solutions when more are asked for.", 15, counts[0]);
+        assertEquals("Wrong number of solutions when more are not asked for.", 5, counts[1]);
+    }
+
+    /**
+     * Creates the arguments to call a predicate with, for a number of records. Each record is its number, and a
+     * variable for its verdict.
+     *
+     * @param  n The number of records.
+     *
+     * @return The tuples of arguments for the records.
+     */
+    private Iterator<Object[]> records(int n)
+    {
+        Variable verdict = new Variable(machine.internVariableName("V"), null, false);
+        List<Object[]> records = new ArrayList<Object[]>();
+
+        for (int i = 0; i < n; i++)
+        {
+            records.add(new Object[] { i, verdict });
+        }
+
+        return records.iterator();
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * WAMConsultTest checks that programs can be consulted from streams and files, through an engine whose parser does not
+ * return <tt>null</tt> at the end of its input, but expects another clause.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities
+ * <tr><td> Check that consulting a stream stops at its end.
+ * <tr><td> Check that consulting an empty stream adds nothing.
+ * <tr><td> Check that consulting a file stops at its end.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMConsultTest extends WAMEngineTestBase
+{
+    /** The program to consult. */
+    private static final String PROGRAM = "f(a).\nf(b).\ng(X) :- f(X).\n";
+
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test.
+     */
+    public WAMConsultTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Compiles all the tests defined in this class into a suite.
+     *
+     * @return A test suite.
+     */
+    public static Test suite()
+    {
+        return new TestSuite(WAMConsultTest.class);
+    }
+
+    /** Check that consulting a stream stops at its end. */
+    public void testConsultInputStreamStopsAtEnd() throws Exception
+    {
+        engine.reset();
+        engine.consultInputStream(new ByteArrayInputStream(PROGRAM.getBytes("UTF-8")));
+        engine.endScope();
+
+        setQuery("?- g(X).");
+        assertEquals("Wrong number of solutions.", 2, countSolutions(machine));
+    }
+
+    /** Check that consulting an empty stream adds nothing. */
+    public void testConsultEmptyInputStreamOk() throws Exception
+    {
+        engine.reset();
+        engine.consultInputStream(new ByteArrayInputStream(new byte[0]));
+        engine.endScope();
+
+        setQuery("?- true.");
+        assertEquals("Wrong number of solutions.", 1, countSolutions(machine));
+    }
+
+    /** Check that consulting a file stops at its end. */
+    public void testConsultFileStopsAtEnd() throws Exception
+    {
+        File file = File.createTempFile("consult", ".pl");
+
+        try
+        {
+            OutputStream out = new FileOutputStream(file);
+
+            try
+            {
+                out.write(PROGRAM.getBytes("UTF-8"));
+            }
+            finally
+            {
+                out.close();
+            }
+
+            engine.reset();
+            engine.consultFile(file);
+            engine.endScope();
+
+            setQuery("?- g(X).");
+            assertEquals("Wrong number of solutions.", 2, countSolutions(machine));
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+}
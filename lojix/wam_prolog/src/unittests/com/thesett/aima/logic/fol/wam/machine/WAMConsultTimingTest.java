@@ -0,0 +1,152 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * WAMConsultTimingTest checks that consulting many small scopes, or a large table of facts, takes time in proportion to
+ * the number of clauses consulted. Each is timed consulting some number of clauses, and then four times as many, and
+ * the second must not take much more than four times as long as the first. Consulting that slows down as more is
+ * consulted, so that the time taken grows with the square of the number of clauses, takes about sixteen times as long.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities
+ * <tr><td> Check that consulting many small scopes takes time in proportion to the number of scopes.
+ * <tr><td> Check that consulting a large table of facts takes time in proportion to the number of facts.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMConsultTimingTest extends WAMEngineTestBase
+{
+    /** The most that consulting four times as many clauses may be slower by. */
+    private static final double MAX_RATIO = 8.0;
+
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test.
+     */
+    public WAMConsultTimingTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Compiles all the tests defined in this class into a suite.
+     *
+     * @return A test suite.
+     */
+    public static Test suite()
+    {
+        return new TestSuite(WAMConsultTimingTest.class);
+    }
+
+    /** Check that consulting many small scopes takes time in proportion to the number of scopes. */
+    public void testManyScopesConsultInProportion() throws Exception
+    {
+        // Warm up, so that the first timing is not slowed by compiling the consulting code.
+        consultScopes(200);
+
+        assertInProportion(consultScopes(200), consultScopes(800));
+    }
+
+    /** Check that consulting a large table of facts takes time in proportion to the number of facts. */
+    public void testManyFactsConsultInProportion() throws Exception
+    {
+        // Warm up, so that the first timing is not slowed by compiling the consulting code.
+        consultFacts(2000);
+
+        assertInProportion(consultFacts(2000), consultFacts(8000));
+    }
+
+    /**
+     * Consults a number of scopes, each defining a small predicate, and checks that the last one can be called.
+     *
+     * @param  scopes The number of scopes to consult.
+     *
+     * @return The time taken to consult the scopes, in nanoseconds.
+     *
+     * @throws Exception If the scopes cannot be consulted or the query cannot be run.
+     */
+    private long consultScopes(int scopes) throws Exception
+    {
+        engine.reset();
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < scopes; i++)
+        {
+            addClause("p" + i + "(a, " + i + ").");
+            addClause("p" + i + "(b, " + i + ").");
+            addClause("p" + i + "(X, " + i + ") :- q(X).");
+            engine.endScope();
+        }
+
+        long time = System.nanoTime() - start;
+
+        setQuery("?- p" + (scopes - 1) + "(X, " + (scopes - 1) + ").");
+        assertEquals("Wrong number of solutions.", 2, countSolutions(machine));
+
+        return time;
+    }
+
+    /**
+     * Consults a table of facts in one scope, and checks that the last of them can be found.
+     *
+     * @param  facts The number of facts to consult.
+     *
+     * @return The time taken to consult the facts, in nanoseconds.
+     *
+     * @throws Exception If the facts cannot be consulted or the query cannot be run.
+     */
+    private long consultFacts(int facts) throws Exception
+    {
+        engine.reset();
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < facts; i++)
+        {
+            addClause("fact(" + i + ", n" + i + ").");
+        }
+
+        engine.endScope();
+
+        long time = System.nanoTime() - start;
+
+        setQuery("?- fact(" + (facts - 1) + ", X).");
+        assertEquals("Wrong number of solutions.", 1, countSolutions(machine));
+
+        return time;
+    }
+
+    /**
+     * Checks that consulting four times as many clauses did not take much more than four times as long.
+     *
+     * @param smaller The time taken to consult the smaller number of clauses.
+     * @param larger  The time taken to consult four times as many clauses.
+     */
+    private void assertInProportion(long smaller, long larger)
+    {
+        double ratio = (double) larger / smaller;
+
+        assertTrue("Consulting four times as many clauses took " + ratio + " times as long, which is over " +
+            MAX_RATIO + " times.", ratio < MAX_RATIO);
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import com.thesett.aima.logic.fol.Functor;
+import com.thesett.aima.logic.fol.IntLiteral;
+import com.thesett.aima.logic.fol.Term;
+import com.thesett.aima.logic.fol.Variable;
+
+/**
+ * WAMDirectCallTest checks that predicates can be called with arguments written straight onto the heap, and that long
+ * lists are written onto and decoded off the heap without running out of Java stack.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities
+ * <tr><td> Check that terms and Java values are written onto the heap correctly.
+ * <tr><td> Check that variables shared between arguments are the same heap variable.
+ * <tr><td> Check that long lists can be passed into and out of calls.
+ * <tr><td> Check that values that cannot be put on the heap are rejected.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMDirectCallTest extends WAMEngineTestBase
+{
+    /** The length of the long lists to test with. */
+    private static final int LONG_LIST = 100000;
+
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test.
+     */
+    public WAMDirectCallTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Compiles all the tests defined in this class into a suite.
+     *
+     * @return A test suite.
+     */
+    public static Test suite()
+    {
+        return new TestSuite(WAMDirectCallTest.class);
+    }
+
+    /** Check that terms and Java values of each kind are written onto the heap, and read back off it, unchanged. */
+    public void testTermsAndValuesRoundTrip() throws Exception
+    {
+        engine.reset();
+
+        addClause("id(X, X)");
+        engine.endScope();
+
+        Term b = new Functor(machine.internFunctorName("b", 0), null);
+        Term g = new Functor(machine.internFunctorName("g", 2), new Term[] { new IntLiteral(3), b });
+
+        machine.setCall("id", new Object[] { "a", 7, 123456789, 2.5, g }, newVariable("X"));
+
+        assertEquals("Wrong solution.",
+            "A1 = cons(a, cons(7, cons(123456789, cons(2.5, cons(g(3, b), nil))))), " +
+            "A2 = cons(a, cons(7, cons(123456789, cons(2.5, cons(g(3, b), nil)))))", solution());
+    }
+
+    /** Check that a variable used in more than one argument is the same variable on the heap. */
+    public void testSharedVariablesAreTheSame() throws Exception
+    {
+        engine.reset();
+
+        addClause("id(X, X)");
+        engine.endScope();
+
+        Variable y = newVariable("Y");
+        List<Object> left = new ArrayList<Object>();
+        left.add(y);
+        left.add(y);
+
+        List<Object> right = new ArrayList<Object>();
+        right.add(1);
+        right.add(newVariable("Z"));
+
+        machine.setCall("id", left, right);
+
+        assertEquals("Wrong solution.", "A1 = cons(1, cons(1, nil)), A2 = cons(1, cons(1, nil))", solution());
+    }
+
+    /** Check that a long list can be passed into a call, and a long list decoded out of one. */
+    public void testLongListsPassInAndOut() throws Exception
+    {
+        engine.reset();
+
+        addClause("len([], N, N)");
+        addClause("len([_|T], N0, N) :- N1 is N0 + 1, len(T, N1, N)");
+        addClause("id(X, X)");
+        engine.endScope();
+
+        List<Integer> list = new ArrayList<Integer>();
+
+        for (int i = 0; i < LONG_LIST; i++)
+        {
+            list.add(i);
+        }
+
+        machine.setCall("len", list, 0, newVariable("N"));
+
+        Term length = binding(machine.resolve(), "A3");
+        assertEquals("Wrong length.", LONG_LIST, ((IntLiteral) length).intValue());
+
+        machine.setCall("id", list, newVariable("L"));
+
+        Term decoded = binding(machine.resolve(), "A2");
+        int count = 0;
+
+        while (decoded.isCompound())
+        {
+            assertEquals("Wrong element.", count, ((IntLiteral) ((Functor) decoded).getArgument(0)).intValue());
+            decoded = ((Functor) decoded).getArgument(1);
+            count++;
+        }
+
+        assertEquals("Wrong length.", LONG_LIST, count);
+    }
+
+    /** Check that a value that cannot be put on the heap is rejected. */
+    public void testUnknownValueRejected() throws Exception
+    {
+        engine.reset();
+
+        addClause("id(X, X)");
+        engine.endScope();
+
+        try
+        {
+            machine.setCall("id", new Object(), newVariable("X"));
+            fail("A value that cannot be put on the heap should be rejected.");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Expected.
+        }
+    }
+
+    /**
+     * Creates a fresh variable.
+     *
+     * @param  name The name of the variable.
+     *
+     * @return A fresh variable.
+     */
+    private Variable newVariable(String name)
+    {
+        return new Variable(machine.internVariableName(name), null, false);
+    }
+
+    /**
+     * Finds the binding of a variable in a solution.
+     *
+     * @param  solution The variable bindings of the solution.
+     * @param  name     The name of the variable.
+     *
+     * @return The binding of the variable, or <tt>null</tt> if it is not in the solution.
+     */
+    private Term binding(Set<Variable> solution, String name)
+    {
+        for (Variable var : solution)
+        {
+            if (machine.getVariableName(var).equals(name))
+            {
+                return var.getValue();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Finds the first solution to the current call, and prints its variable bindings in order.
+     *
+     * @return The variable bindings of the first solution.
+     */
+    private String solution()
+    {
+        Set<Variable> solution = machine.resolve();
+        String result = "";
+
+        for (int i = 1; i <= solution.size(); i++)
+        {
+            String name = "A" + i;
+            result += ((i > 1) ? ", " : "") + name + " = " + binding(solution, name).toString(machine, true, false);
+        }
+
+        return result;
+    }
+}
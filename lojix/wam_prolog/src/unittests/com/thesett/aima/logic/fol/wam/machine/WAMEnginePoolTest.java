@@ -0,0 +1,141 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.thesett.aima.logic.fol.Variable;
+
+/**
+ * WAMEnginePoolTest checks that the engines of a pool can run queries over a shared program on many threads at once,
+ * and that the shared program cannot be changed.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities
+ * <tr><td> Check that queries run concurrently over a shared program find the right solutions.
+ * <tr><td> Check that a shared program cannot be added to.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMEnginePoolTest extends WAMEngineTestBase
+{
+    /** The number of engines and threads to test with. */
+    private static final int THREADS = 4;
+
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test.
+     */
+    public WAMEnginePoolTest(String name)
+    {
+        super(name);
+    }
+
+    /** Check that queries run on many threads at once over a shared program, each find their own solutions. */
+    public void testConcurrentQueriesOverSharedProgram() throws Exception
+    {
+        addClause("app([], L, L)");
+        addClause("app([X|T], L, [X|R]) :- app(T, L, R)");
+        addClause("nrev([], [])");
+        addClause("nrev([X|T], R) :- nrev(T, RT), app(RT, [X], R)");
+        engine.endScope();
+
+        final WAMEnginePool pool = new WAMEnginePool(machine, THREADS);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<String>> results = new ArrayList<Future<String>>();
+
+        for (int i = 0; i < (THREADS * 4); i++)
+        {
+            final int n = i;
+
+            results.add(executor.submit(new Callable<String>()
+                    {
+                        public String call() throws Exception
+                        {
+                            WAMEngine worker = pool.take();
+
+                            try
+                            {
+                                String result = null;
+
+                                for (int j = 0; j < 100; j++)
+                                {
+                                    setQuery(worker, "?- nrev([a, b, c" + n + ", d], X).");
+
+                                    Iterator<Set<Variable>> solutions = worker.iterator();
+                                    result = worker.printSolution(solutions.next()).trim();
+
+                                    if (solutions.hasNext())
+                                    {
+                                        return "More than one solution.";
+                                    }
+                                }
+
+                                return result;
+                            }
+                            finally
+                            {
+                                pool.give(worker);
+                            }
+                        }
+                    }));
+        }
+
+        executor.shutdown();
+
+        for (int i = 0; i < results.size(); i++)
+        {
+            assertEquals("Wrong solution.", "X = cons(d, cons(c" + i + ", cons(b, cons(a, nil))))",
+                results.get(i).get());
+        }
+    }
+
+    /** Check that clauses cannot be added to a program once it is shared. */
+    public void testSharedProgramCannotBeChanged() throws Exception
+    {
+        addClause("f(a)");
+        engine.endScope();
+
+        new WAMEnginePool(machine, 1);
+
+        try
+        {
+            addClause("g(b)");
+            engine.endScope();
+            fail("A shared program should not be changeable.");
+        }
+        catch (IllegalStateException e)
+        {
+            // Expected.
+        }
+    }
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        engine.reset();
+    }
+}
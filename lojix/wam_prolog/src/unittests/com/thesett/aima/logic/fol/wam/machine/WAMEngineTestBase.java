@@ -0,0 +1,187 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.NDC;
+
+import com.thesett.aima.logic.fol.Clause;
+import com.thesett.aima.logic.fol.LogicCompiler;
+import com.thesett.aima.logic.fol.Parser;
+import com.thesett.aima.logic.fol.interpreter.ResolutionEngine;
+import com.thesett.aima.logic.fol.isoprologparser.ClauseParser;
+import com.thesett.aima.logic.fol.isoprologparser.Token;
+import com.thesett.aima.logic.fol.isoprologparser.TokenSource;
+import com.thesett.aima.logic.fol.wam.compiler.WAMCompiledPredicate;
+import com.thesett.aima.logic.fol.wam.compiler.WAMCompiledQuery;
+import com.thesett.aima.logic.fol.wam.compiler.WAMCompiler;
+import com.thesett.common.parsing.SourceCodeException;
+import com.thesett.common.util.doublemaps.SymbolTableImpl;
+
+/**
+ * WAMEngineTestBase is a base for tests that load programs into a {@link WAMResolvingJavaMachine} and run queries
+ * against them, through a resolution engine. Each test is given a machine and engine of its own, and ways to add
+ * clauses, set queries and count solutions on them, or on other engines that the test creates.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Create a fresh machine and engine for each test.
+ * <tr><td> Create a resolution engine over a machine. <td> {@link WAMCompiler}, {@link ClauseParser}.
+ * <tr><td> Add clauses and set queries through an engine.
+ * <tr><td> Count the solutions to the current query of a machine. <td> {@link WAMSolutionCursor}.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public abstract class WAMEngineTestBase extends TestCase
+{
+    /** Holds the WAM machine to run the test through. */
+    protected WAMResolvingJavaMachine machine;
+
+    /** Holds the resolution engine to run the test through. */
+    protected ResolutionEngine<Clause, WAMCompiledPredicate, WAMCompiledQuery> engine;
+
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test.
+     */
+    public WAMEngineTestBase(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Creates the machine that a test is run against. Tests that need a specially configured machine override this.
+     *
+     * @return A new machine.
+     */
+    protected WAMResolvingJavaMachine createMachine()
+    {
+        return new WAMResolvingJavaMachine(new SymbolTableImpl<Integer, String, Object>());
+    }
+
+    /**
+     * Creates a resolution engine over a machine, compiling into the machine's symbol table.
+     *
+     * @param  machine The machine.
+     *
+     * @return The resolution engine.
+     */
+    protected static ResolutionEngine<Clause, WAMCompiledPredicate, WAMCompiledQuery> createEngine(
+        WAMResolvingJavaMachine machine)
+    {
+        LogicCompiler<Clause, WAMCompiledPredicate, WAMCompiledQuery> compiler =
+            new WAMCompiler(machine.symbolTable, machine);
+        Parser<Clause, Token> parser = new ClauseParser(machine);
+
+        return new WAMEngine(parser, machine, compiler, machine);
+    }
+
+    /**
+     * Counts the solutions to the current query of a machine.
+     *
+     * @param  machine The machine.
+     *
+     * @return The number of solutions.
+     */
+    protected static int countSolutions(WAMResolvingJavaMachine machine)
+    {
+        WAMSolutionCursor cursor = machine.cursor();
+        int count = 0;
+
+        while (cursor.next())
+        {
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Parses and sets the current query on a resolution engine.
+     *
+     * @param  engine      The engine.
+     * @param  queryString The query to set.
+     *
+     * @throws SourceCodeException If the query will not parse or compile.
+     */
+    protected static void setQuery(ResolutionEngine<Clause, WAMCompiledPredicate, WAMCompiledQuery> engine,
+        String queryString) throws SourceCodeException
+    {
+        engine.setTokenSource(TokenSource.getTokenSourceForString(queryString));
+
+        engine.compile(engine.parse());
+    }
+
+    /**
+     * Parses and adds a clause to a resolution engine.
+     *
+     * @param  engine   The engine.
+     * @param  termText The clause to add.
+     *
+     * @throws SourceCodeException If the clause will not parse or compile.
+     */
+    protected static void addClause(ResolutionEngine<Clause, WAMCompiledPredicate, WAMCompiledQuery> engine,
+        String termText) throws SourceCodeException
+    {
+        engine.setTokenSource(TokenSource.getTokenSourceForString(termText));
+
+        engine.compile(engine.parse());
+    }
+
+    /**
+     * Parses and sets the current query on the test's resolution engine.
+     *
+     * @param  queryString The query to set.
+     *
+     * @throws SourceCodeException If the query will not parse or compile.
+     */
+    protected void setQuery(String queryString) throws SourceCodeException
+    {
+        setQuery(engine, queryString);
+    }
+
+    /**
+     * Parses and adds a clause to the test's resolution engine.
+     *
+     * @param  termText The clause to add.
+     *
+     * @throws SourceCodeException If the clause will not parse or compile.
+     */
+    protected void addClause(String termText) throws SourceCodeException
+    {
+        addClause(engine, termText);
+    }
+
+    protected void setUp() throws Exception
+    {
+        NDC.push(getName());
+
+        machine = createMachine();
+        engine = createEngine(machine);
+    }
+
+    protected void tearDown() throws Exception
+    {
+        // The test runner holds on to every test until the run is over, so let go of the machine now.
+        machine = null;
+        engine = null;
+
+        NDC.pop();
+    }
+}
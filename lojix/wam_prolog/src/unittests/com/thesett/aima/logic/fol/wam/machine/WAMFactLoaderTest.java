@@ -0,0 +1,221 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import java.io.StringReader;
+import java.util.Arrays;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import com.thesett.aima.logic.fol.Clause;
+import com.thesett.aima.logic.fol.interpreter.ResolutionEngine;
+import com.thesett.aima.logic.fol.wam.compiler.WAMCallPoint;
+import com.thesett.aima.logic.fol.wam.compiler.WAMCompiledPredicate;
+import com.thesett.aima.logic.fol.wam.compiler.WAMCompiledQuery;
+import com.thesett.aima.logic.fol.wam.compiler.WAMFactLoader;
+import com.thesett.common.util.doublemaps.SymbolTableImpl;
+
+/**
+ * WAMFactLoaderTest checks that facts loaded in bulk are the same as when they are consulted from source.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities
+ * <tr><td> Check that loaded facts produce the same code as compiled facts.
+ * <tr><td> Check that facts loaded from separated values can be queried.
+ * <tr><td> Check that arguments that cannot be loaded are rejected.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMFactLoaderTest extends WAMEngineTestBase
+{
+    /** Holds facts covering the ways in which a predicate of facts may be indexed. */
+    private static final Object[][] FACTS =
+        {
+            { "colour", "red" },
+            { "colour", "green" },
+            { "colour", "blue" },
+            { "edge", "a", "b" },
+            { "edge", "a", "c" },
+            { "edge", "b", "c" },
+            { "edge", "c", "d" },
+            { "edge", "b", "e" },
+            { "edge", "d", "a" },
+            { "edge", "e", "f" },
+            { "edge", "a", "f" },
+            { "edge", "f", "g" },
+            { "weight", "a", 1 },
+            { "weight", 2, "b" },
+            { "weight", "c", 3.5 },
+            { "weight", 4, "d" },
+            { "weight", "e", 5 },
+            { "same", "x", 1 },
+            { "same", "x", 2 },
+            { "point", 1, 2 },
+            { "point", 2.5, 3 },
+            { "scale", 1.5, "a" },
+            { "scale", 1073741824, "b" },
+            { "scale", 2.5, "c" },
+            { "scale", 1.5, "d" },
+            { "scale", 1, "e" },
+            { "only", "one" },
+            { "flag" },
+        };
+
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test.
+     */
+    public WAMFactLoaderTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Compiles all the tests defined in this class into a suite.
+     *
+     * @return A test suite.
+     */
+    public static Test suite()
+    {
+        return new TestSuite(WAMFactLoaderTest.class);
+    }
+
+    /** Check that loading facts writes the same code into a machine as consulting them does. */
+    public void testLoadedCodeSameAsCompiled() throws Exception
+    {
+        WAMResolvingJavaMachine compiled = new WAMResolvingJavaMachine(new SymbolTableImpl<Integer, String, Object>());
+        ResolutionEngine<Clause, WAMCompiledPredicate, WAMCompiledQuery> engine = createEngine(compiled);
+        engine.reset();
+
+        for (Object[] fact : FACTS)
+        {
+            addClause(engine, toSource(fact));
+        }
+
+        engine.endScope();
+
+        WAMResolvingJavaMachine loaded = new WAMResolvingJavaMachine(new SymbolTableImpl<Integer, String, Object>());
+        createEngine(loaded).reset();
+
+        WAMFactLoader loader = new WAMFactLoader(loaded);
+
+        for (Object[] fact : FACTS)
+        {
+            loader.addFact((String) fact[0], Arrays.copyOfRange(fact, 1, fact.length));
+        }
+
+        loader.endLoad();
+
+        for (Object[] fact : FACTS)
+        {
+            int name = loaded.internFunctorName((String) fact[0], fact.length - 1);
+            WAMCallPoint expected = compiled.resolveCallPoint(name);
+            WAMCallPoint actual = loaded.resolveCallPoint(name);
+
+            assertEquals("Wrong entry point for " + fact[0] + ".", expected.entryPoint, actual.entryPoint);
+            assertEquals("Wrong code length for " + fact[0] + ".", expected.length, actual.length);
+            assertTrue("Wrong code for " + fact[0] + ".",
+                Arrays.equals(getCode(compiled, expected), getCode(loaded, actual)));
+        }
+    }
+
+    /** Check that facts loaded from tab separated values can be queried. */
+    public void testSeparatedValuesLoadOk() throws Exception
+    {
+        engine.reset();
+
+        StringBuilder rows = new StringBuilder();
+
+        for (int i = 0; i < 1000; i++)
+        {
+            rows.append("item").append(i).append('\t').append(i % 10).append('\t').append(i / 10.0).append('\n');
+        }
+
+        rows.append("\n\"a\tb\"\t-1\t\"last\"\n");
+
+        WAMFactLoader loader = new WAMFactLoader(machine);
+        assertEquals("Wrong number of facts loaded.", 1001,
+            loader.addFacts("row", new StringReader(rows.toString()), WAMFactLoader.TSV));
+        loader.endLoad();
+
+        setQuery(engine, "?- row(X, 3, Y).");
+        assertEquals("Wrong number of solutions.", 100, countSolutions(machine));
+
+        setQuery(engine, "?- row(item42, 2, 4.2).");
+        assertEquals("Wrong number of solutions.", 1, countSolutions(machine));
+
+        setQuery(engine, "?- row(X, Y, last), Y < 0.");
+        assertEquals("Wrong number of solutions.", 1, countSolutions(machine));
+    }
+
+    /** Check that an argument that is neither an atom nor a number that fits in the machine is rejected. */
+    public void testUnloadableArgumentFails() throws Exception
+    {
+        WAMFactLoader loader = new WAMFactLoader(machine);
+
+        try
+        {
+            loader.addFact("big", 1L << 40);
+            fail("An integer that does not fit in the machine should not load.");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Expected.
+        }
+    }
+
+    /**
+     * Writes out a fact as source code.
+     *
+     * @param  fact The name and arguments of the fact.
+     *
+     * @return The source code for the fact.
+     */
+    private String toSource(Object[] fact)
+    {
+        StringBuilder source = new StringBuilder((String) fact[0]);
+
+        for (int i = 1; i < fact.length; i++)
+        {
+            source.append((i == 1) ? "(" : ", ").append(fact[i]);
+        }
+
+        return source.append((fact.length > 1) ? ")" : "").toString();
+    }
+
+    /**
+     * Copies out the code of a predicate from a machine.
+     *
+     * @param  machine   The machine.
+     * @param  callPoint The call point of the predicate.
+     *
+     * @return The code of the predicate.
+     */
+    private byte[] getCode(WAMResolvingJavaMachine machine, WAMCallPoint callPoint)
+    {
+        byte[] code = new byte[callPoint.length];
+
+        for (int i = 0; i < code.length; i++)
+        {
+            code[i] = machine.codeBuffer.get(callPoint.entryPoint + i);
+        }
+
+        return code;
+    }
+}
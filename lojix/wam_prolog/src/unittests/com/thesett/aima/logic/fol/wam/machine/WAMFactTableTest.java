@@ -0,0 +1,188 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import java.io.File;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * WAMFactTableTest checks that tables of facts can be called as predicates.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities
+ * <tr><td> Check that rows are found on indexed and unindexed arguments.
+ * <tr><td> Check that choice points on tables are cut and backtracked over.
+ * <tr><td> Check that integers in tables unify as numbers.
+ * <tr><td> Check that values that cannot be held in a table are rejected.
+ * <tr><td> Check that a program with tables cannot be saved as an image.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMFactTableTest extends WAMEngineTestBase
+{
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test.
+     */
+    public WAMFactTableTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Compiles all the tests defined in this class into a suite.
+     *
+     * @return A test suite.
+     */
+    public static Test suite()
+    {
+        return new TestSuite(WAMFactTableTest.class);
+    }
+
+    /** Check that rows are found whichever of the arguments of a call to a table are bound. */
+    public void testLookupsOnAnyArgumentOk() throws Exception
+    {
+        engine.reset();
+        machine.addFactTable("edge", createEdges(machine));
+
+        setQuery(engine, "?- edge(X, Y).");
+        assertEquals("Wrong number of solutions.", 1006, countSolutions(machine));
+
+        setQuery(engine, "?- edge(a, X).");
+        assertEquals("Wrong number of solutions.", 3, countSolutions(machine));
+
+        setQuery(engine, "?- edge(X, c).");
+        assertEquals("Wrong number of solutions.", 2, countSolutions(machine));
+
+        setQuery(engine, "?- edge(b, d).");
+        assertEquals("Wrong number of solutions.", 1, countSolutions(machine));
+
+        setQuery(engine, "?- edge(X, X).");
+        assertEquals("Wrong number of solutions.", 1, countSolutions(machine));
+
+        setQuery(engine, "?- edge(z, X).");
+        assertEquals("Wrong number of solutions.", 0, countSolutions(machine));
+
+        setQuery(engine, "?- edge(f(a), X).");
+        assertEquals("Wrong number of solutions.", 0, countSolutions(machine));
+    }
+
+    /** Check that a choice point left on a table is cut, and backtracked into from clauses calling the table. */
+    public void testTableCalledFromClausesOk() throws Exception
+    {
+        engine.reset();
+        machine.addFactTable("edge", createEdges(machine));
+
+        addClause(engine, "first(X, Y) :- edge(X, Y), !, true.");
+        addClause(engine, "path(X, Z) :- edge(X, Y), edge(Y, Z).");
+        engine.endScope();
+
+        setQuery(engine, "?- first(a, Y).");
+        assertEquals("Wrong number of solutions.", 1, countSolutions(machine));
+
+        setQuery(engine, "?- path(a, Z).");
+        assertEquals("Wrong number of solutions.", 3, countSolutions(machine));
+    }
+
+    /** Check that integers held in a table unify with, and compare as, numbers. */
+    public void testIntegersOk() throws Exception
+    {
+        engine.reset();
+
+        WAMFactTable weights = new WAMFactTable(machine, 2, 0, 1);
+        weights.addRow("a", 1);
+        weights.addRow("b", -3);
+        weights.addRow("c", 2);
+        weights.addRow("d", -3);
+        machine.addFactTable("weight", weights);
+
+        setQuery(engine, "?- weight(X, W), W < 0.");
+        assertEquals("Wrong number of solutions.", 2, countSolutions(machine));
+
+        setQuery(engine, "?- weight(X, W), W > 0.");
+        assertEquals("Wrong number of solutions.", 2, countSolutions(machine));
+
+        setQuery(engine, "?- W is 1 + 1, weight(c, W).");
+        assertEquals("Wrong number of solutions.", 1, countSolutions(machine));
+    }
+
+    /** Check that a value that cannot be held in a constant cell is rejected. */
+    public void testUnholdableValueFails() throws Exception
+    {
+        WAMFactTable table = new WAMFactTable(machine, 1);
+
+        try
+        {
+            table.addRow(1.5);
+            fail("A float should not be added to a table.");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Expected.
+        }
+
+        assertEquals("No row should have been added.", 0, table.size());
+    }
+
+    /** Check that a program with a table of facts cannot be saved as an image, as the table would not be in it. */
+    public void testSaveImageWithTableFails() throws Exception
+    {
+        engine.reset();
+        machine.addFactTable("edge", createEdges(machine));
+
+        File file = File.createTempFile("facts", ".wam");
+        file.deleteOnExit();
+
+        try
+        {
+            machine.saveImage(file);
+            fail("A program with a table of facts should not be saved as an image.");
+        }
+        catch (IllegalStateException e)
+        {
+            // Expected.
+        }
+    }
+
+    /**
+     * Creates a table of edges, indexed on its first column, with enough rows for its index to grow.
+     *
+     * @param  machine The machine to intern the atoms of the table with.
+     *
+     * @return The table of edges.
+     */
+    private WAMFactTable createEdges(WAMResolvingJavaMachine machine)
+    {
+        WAMFactTable edges = new WAMFactTable(machine, 2, 0);
+        edges.addRow("a", "b");
+        edges.addRow("a", "c");
+        edges.addRow("b", "c");
+        edges.addRow("b", "d");
+        edges.addRow("a", "d");
+        edges.addRow("d", "d");
+
+        for (int i = 0; i < 1000; i++)
+        {
+            edges.addRow("n" + i, "n" + (i + 1));
+        }
+
+        return edges;
+    }
+}
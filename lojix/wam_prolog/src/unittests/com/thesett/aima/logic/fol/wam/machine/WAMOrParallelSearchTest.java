@@ -0,0 +1,295 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import com.thesett.aima.logic.fol.Variable;
+
+/**
+ * WAMOrParallelSearchTest checks that queries run OR-parallel over the engines of a pool find the same solutions as
+ * when run sequentially, in the same order when asked to keep it.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities
+ * <tr><td> Check that an ordered OR-parallel search finds the solutions of a sequential search, in the same order.
+ * <tr><td> Check that an unordered OR-parallel search finds the solutions of a sequential search.
+ * <tr><td> Check that cuts are respected by an OR-parallel search.
+ * <tr><td> Check that a search can be abandoned part way through, and the engines used again.
+ * <tr><td> Check that a search is held to the limits of its query, over all of the engines running it.
+ * <tr><td> Check that closing a pool stops its threads, and leaves its engines running queries sequentially.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMOrParallelSearchTest extends WAMEngineTestBase
+{
+    /** The number of engines in the pool. */
+    private static final int ENGINES = 4;
+
+    /** Holds the pool of engines sharing the program. */
+    private WAMEnginePool pool;
+
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test.
+     */
+    public WAMOrParallelSearchTest(String name)
+    {
+        super(name);
+    }
+
+    /** Check that an ordered OR-parallel search finds the solutions of a sequential search, in the same order. */
+    public void testOrderedSearchKeepsSequentialOrder() throws Exception
+    {
+        String query = "?- d(A), d(B), d(C), d(D).";
+
+        List<String> expected = solve(query, false, false);
+        List<String> actual = solve(query, true, true);
+
+        assertEquals("Wrong number of solutions.", 10000, expected.size());
+        assertEquals("Solutions not in sequential order.", expected, actual);
+    }
+
+    /** Check that an unordered OR-parallel search finds the solutions of a sequential search. */
+    public void testUnorderedSearchFindsAllSolutions() throws Exception
+    {
+        String query = "?- d(A), d(B), d(C), d(D).";
+
+        List<String> expected = solve(query, false, false);
+        List<String> actual = solve(query, true, false);
+
+        Collections.sort(expected);
+        Collections.sort(actual);
+
+        assertEquals("Wrong solutions.", expected, actual);
+    }
+
+    /** Check that cuts are respected by an OR-parallel search. */
+    public void testCutsAreRespected() throws Exception
+    {
+        String query = "?- d(A), first(B), d(C).";
+
+        List<String> expected = solve(query, false, false);
+        List<String> actual = solve(query, true, true);
+
+        assertEquals("Wrong number of solutions.", 100, expected.size());
+        assertEquals("Solutions not in sequential order.", expected, actual);
+    }
+
+    /** Check that a search can be abandoned part way through, and the engines used again. */
+    public void testAbandonedSearchReturnsEngines() throws Exception
+    {
+        WAMEngine root = pool.take();
+        ((WAMResolvingJavaMachine) root.getResolver()).setOrParallel(true, true);
+
+        setQuery(root, "?- d(A), d(B), d(C), d(D).");
+
+        Iterator<Set<Variable>> solutions = root.iterator();
+
+        for (int i = 0; i < 10; i++)
+        {
+            solutions.next();
+        }
+
+        setQuery(root, "?- d(A), d(B), d(C).");
+
+        int count = 0;
+
+        for (Iterator<Set<Variable>> i = root.iterator(); i.hasNext(); i.next())
+        {
+            count++;
+        }
+
+        assertEquals("Wrong number of solutions after abandoning a search.", 1000, count);
+
+        pool.give(root);
+    }
+
+    /** Check that a search is held to the limits of its query, over all of the engines running it. */
+    public void testLimitedSearchStopsAllEngines() throws Exception
+    {
+        WAMEngine root = pool.take();
+        WAMResolvingJavaMachine machine = (WAMResolvingJavaMachine) root.getResolver();
+        machine.setOrParallel(true, false);
+        machine.setMaxSteps(10000);
+
+        try
+        {
+            setQuery(root, "?- d(A), spin(A).");
+
+            try
+            {
+                Iterator<Set<Variable>> solutions = root.iterator();
+
+                while (solutions.hasNext())
+                {
+                    solutions.next();
+                }
+
+                fail("The search should have gone over the inference limit of its query.");
+            }
+            catch (WAMLimitException e)
+            {
+                assertEquals("Wrong limit.", WAMLimitException.INFERENCES, e.getLimit());
+            }
+
+            machine.setMaxSteps(0);
+            setQuery(root, "?- d(A), d(B).");
+
+            int count = 0;
+
+            for (Iterator<Set<Variable>> i = root.iterator(); i.hasNext(); i.next())
+            {
+                count++;
+            }
+
+            assertEquals("Wrong number of solutions after stopping a search.", 100, count);
+        }
+        finally
+        {
+            machine.setMaxSteps(0);
+            pool.give(root);
+        }
+    }
+
+    /** Check that closing a pool stops its threads, and leaves its engines running queries sequentially. */
+    public void testClosedPoolStopsItsThreads() throws Exception
+    {
+        Set<Thread> before = searchThreads();
+
+        solve("?- d(A), d(B).", true, false);
+
+        Set<Thread> started = searchThreads();
+        started.removeAll(before);
+        assertFalse("The search should have run on threads of the pool.", started.isEmpty());
+
+        pool.close();
+
+        for (Thread thread : started)
+        {
+            thread.join(10000);
+            assertFalse("The threads of a closed pool should stop.", thread.isAlive());
+        }
+
+        assertEquals("Wrong number of solutions on a closed pool.", 100, solve("?- d(A), d(B).", false, false).size());
+
+        try
+        {
+            solve("?- d(A), d(B).", true, false);
+            fail("A closed pool should not run OR-parallel searches.");
+        }
+        catch (IllegalStateException e)
+        {
+            // Expected.
+        }
+    }
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        engine.reset();
+
+        for (int i = 0; i < 10; i++)
+        {
+            addClause("d(" + i + ")");
+        }
+
+        addClause("first(X) :- d(X), !, true");
+        addClause("spin(X) :- spin(X)");
+        engine.endScope();
+
+        pool = new WAMEnginePool(machine, ENGINES);
+    }
+
+    protected void tearDown() throws Exception
+    {
+        pool.close();
+        pool = null;
+
+        super.tearDown();
+    }
+
+    /**
+     * Finds the threads that OR-parallel searches are running on.
+     *
+     * @return The live threads of OR-parallel searches.
+     */
+    private static Set<Thread> searchThreads()
+    {
+        Set<Thread> threads = new HashSet<Thread>();
+
+        for (Thread thread : Thread.getAllStackTraces().keySet())
+        {
+            if ("wam-or-parallel".equals(thread.getName()))
+            {
+                threads.add(thread);
+            }
+        }
+
+        return threads;
+    }
+
+    /**
+     * Runs a query on an engine from the pool, and collects its solutions.
+     *
+     * @param  queryString The query to run.
+     * @param  parallel    <tt>true</tt> to run the query OR-parallel.
+     * @param  ordered     <tt>true</tt> to keep the solutions in sequential order.
+     *
+     * @return The solutions, printed.
+     *
+     * @throws Exception If the query fails to compile, or the pool is interrupted.
+     */
+    private List<String> solve(String queryString, boolean parallel, boolean ordered) throws Exception
+    {
+        WAMEngine root = pool.take();
+
+        try
+        {
+            ((WAMResolvingJavaMachine) root.getResolver()).setOrParallel(parallel, ordered);
+            setQuery(root, queryString);
+
+            List<String> results = new ArrayList<String>();
+
+            for (Iterator<Set<Variable>> i = root.iterator(); i.hasNext();)
+            {
+                List<String> bindings = new ArrayList<String>();
+
+                for (Variable variable : i.next())
+                {
+                    bindings.add(root.printVariableBinding(variable));
+                }
+
+                Collections.sort(bindings);
+                results.add(bindings.toString());
+            }
+
+            return results;
+        }
+        finally
+        {
+            pool.give(root);
+        }
+    }
+}
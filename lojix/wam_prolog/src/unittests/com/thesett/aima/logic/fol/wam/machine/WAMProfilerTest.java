@@ -0,0 +1,187 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import java.io.StringWriter;
+import java.util.Iterator;
+import java.util.Set;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import com.thesett.aima.logic.fol.Variable;
+import com.thesett.common.parsing.SourceCodeException;
+
+/**
+ * WAMProfilerTest checks that the profiler counts the ports of predicates correctly, and samples the stacks of calls
+ * that they are run in.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities
+ * <tr><td> Check that calls, exits and inferences are counted for deterministic predicates.
+ * <tr><td> Check that redos and choice points are counted for non-deterministic predicates.
+ * <tr><td> Check that the sampled stacks are written in folded form, root first.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMProfilerTest extends WAMEngineTestBase
+{
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test.
+     */
+    public WAMProfilerTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Compiles all the tests defined in this class into a suite.
+     *
+     * @return A test suite.
+     */
+    public static Test suite()
+    {
+        return new TestSuite(WAMProfilerTest.class);
+    }
+
+    /** Check that the calls, exits and inferences of deterministic predicates are counted exactly. */
+    public void testDeterministicPortsCounted() throws Exception
+    {
+        WAMProfiler profiler =
+            profile("?- nrev([1, 2, 3, 4, 5, 6, 7, 8, 9, 10], L).", WAMProfiler.DEFAULT_SAMPLE_INTERVAL);
+
+        // nrev/2 is called once per element and once more on the empty list, and calls app/3 once per element, each
+        // of which calls itself once per element already reversed.
+        WAMPredicateProfile nrev = find(profiler, "nrev/2");
+        WAMPredicateProfile app = find(profiler, "app/3");
+
+        assertEquals("Wrong calls.", 11, nrev.calls);
+        assertEquals("Wrong inferences.", 20, nrev.inferences);
+        assertEquals("Wrong exits.", 1, nrev.exits);
+        assertEquals("Wrong calls.", 55, app.calls);
+        assertEquals("Wrong exits.", 10, app.exits);
+        assertEquals("Wrong redos.", 0, app.redos);
+        assertEquals("Wrong choice points.", 0, app.choicePoints);
+    }
+
+    /** Check that the redos and choice points of a non-deterministic predicate are counted. */
+    public void testNonDeterministicPortsCounted() throws Exception
+    {
+        WAMProfiler profiler = profile("?- mem(X, [a, b, c]).", WAMProfiler.DEFAULT_SAMPLE_INTERVAL);
+        WAMPredicateProfile mem = find(profiler, "mem/2");
+
+        assertEquals("Wrong calls.", 4, mem.calls);
+        assertEquals("Wrong redos.", 4, mem.redos);
+        assertEquals("Wrong exits.", 3, mem.exits);
+        assertEquals("Wrong choice points.", 4, mem.choicePoints);
+        assertEquals("Wrong exits leaving choice points.", 3, mem.choicePointsLeft);
+    }
+
+    /** Check that the sampled stacks are written in folded form, and that the report lists the predicates. */
+    public void testStacksAndReportWritten() throws Exception
+    {
+        WAMProfiler profiler = profile("?- nrev([1, 2, 3, 4, 5, 6, 7, 8, 9, 10], L).", 1);
+
+        StringWriter folded = new StringWriter();
+        profiler.writeFoldedStacks(folded);
+
+        // The last calls to app/3 give up the frames of their callers, so only stacks under nested calls to nrev/2
+        // show the caller.
+        for (String line : folded.toString().split("\n"))
+        {
+            assertTrue("Wrong stack: " + line, line.matches("(nrev/2;)*(app/3;)*(nrev/2|app/3) [0-9]+"));
+        }
+
+        assertTrue("The stacks should be listed root first.", folded.toString().contains("nrev/2;nrev/2;app/3"));
+
+        StringWriter report = new StringWriter();
+        profiler.writeReport(report);
+
+        assertTrue("The report should list nrev/2.", report.toString().contains("nrev/2"));
+        assertTrue("The report should list app/3.", report.toString().contains("app/3"));
+
+        WAMPredicateProfile nrev = find(profiler, "nrev/2");
+        assertTrue("The total time should include the self time.", nrev.totalTime >= nrev.selfTime);
+    }
+
+    /**
+     * Loads the test program, and runs a query to find all of its solutions whilst profiling it.
+     *
+     * @param  queryString    The query to run.
+     * @param  sampleInterval The number of calls between samples.
+     *
+     * @return The profiler holding the profile of the query.
+     *
+     * @throws SourceCodeException If the program or query will not parse or compile.
+     */
+    private WAMProfiler profile(String queryString, int sampleInterval) throws SourceCodeException
+    {
+        engine.reset();
+
+        addClause("app([], L, L).");
+        addClause("app([H|T], L, [H|R]) :- app(T, L, R).");
+        addClause("nrev([], []).");
+        addClause("nrev([H|T], R) :- nrev(T, RT), app(RT, [H], R).");
+        addClause("mem(X, [X|_]).");
+        addClause("mem(X, [_|T]) :- mem(X, T).");
+        engine.endScope();
+
+        setQuery(queryString);
+
+        WAMProfiler profiler = new WAMProfiler(machine, sampleInterval);
+        machine.setProfiler(profiler);
+
+        try
+        {
+            for (Iterator<Set<Variable>> solutions = engine.iterator(); solutions.hasNext();)
+            {
+                solutions.next();
+            }
+        }
+        finally
+        {
+            machine.setProfiler(null);
+        }
+
+        return profiler;
+    }
+
+    /**
+     * Finds the profile of a predicate.
+     *
+     * @param  profiler The profiler to look in.
+     * @param  name     The name of the predicate, in name/arity form.
+     *
+     * @return The profile of the predicate.
+     */
+    private WAMPredicateProfile find(WAMProfiler profiler, String name)
+    {
+        for (WAMPredicateProfile profile : profiler.getProfiles())
+        {
+            if (profile.name.equals(name))
+            {
+                return profile;
+            }
+        }
+
+        fail("There should be a profile for " + name + ".");
+
+        return null;
+    }
+}
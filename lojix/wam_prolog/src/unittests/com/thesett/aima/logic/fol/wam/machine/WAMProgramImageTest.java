@@ -0,0 +1,242 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import com.thesett.aima.attribute.impl.IdAttribute;
+import com.thesett.aima.logic.fol.Clause;
+import com.thesett.aima.logic.fol.interpreter.ResolutionEngine;
+import com.thesett.aima.logic.fol.wam.compiler.WAMCompiledPredicate;
+import com.thesett.aima.logic.fol.wam.compiler.WAMCompiledQuery;
+import com.thesett.common.parsing.SourceCodeException;
+import com.thesett.common.util.doublemaps.SymbolTableImpl;
+
+/**
+ * WAMProgramImageTest checks that a program saved to an image file by one machine can be loaded and run by another.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities
+ * <tr><td> Check that a loaded program runs as it did when saved.
+ * <tr><td> Check that code can be added to a loaded program, without changing the image.
+ * <tr><td> Check that a loaded program is relinked to the names of the machine loading it.
+ * <tr><td> Check that images that cannot be run are not loaded.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMProgramImageTest extends WAMEngineTestBase
+{
+    /** Holds the image file written by each test. */
+    private File file;
+
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test.
+     */
+    public WAMProgramImageTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Compiles all the tests defined in this class into a suite.
+     *
+     * @return A test suite.
+     */
+    public static Test suite()
+    {
+        return new TestSuite(WAMProgramImageTest.class);
+    }
+
+    /** Check that a program loaded from an image finds the same solutions as the machine that saved it. */
+    public void testLoadedProgramRunsOk() throws Exception
+    {
+        WAMResolvingJavaMachine saver = new WAMResolvingJavaMachine(new SymbolTableImpl<Integer, String, Object>());
+        ResolutionEngine<Clause, WAMCompiledPredicate, WAMCompiledQuery> saverEngine = createEngine(saver);
+        addProgram(saverEngine);
+
+        setQuery(saverEngine, "?- pick(X, Y).");
+        assertEquals("Wrong number of solutions before saving.", 6, countSolutions(saver));
+        saver.saveImage(file);
+
+        WAMResolvingJavaMachine loader = new WAMResolvingJavaMachine(new SymbolTableImpl<Integer, String, Object>());
+        ResolutionEngine<Clause, WAMCompiledPredicate, WAMCompiledQuery> loaderEngine = createEngine(loader);
+        loader.loadImage(file);
+
+        setQuery(loaderEngine, "?- pick(X, Y).");
+        assertEquals("Wrong number of solutions after loading.", 6, countSolutions(loader));
+
+        setQuery(loaderEngine, "?- pick(green, black), not(pick(black, green)).");
+        assertEquals("Wrong number of solutions after loading.", 1, countSolutions(loader));
+    }
+
+    /** Check that clauses can be added to a loaded program, and that the image file is not changed by doing so. */
+    public void testClausesAddedToLoadedProgramOk() throws Exception
+    {
+        WAMResolvingJavaMachine saver = new WAMResolvingJavaMachine(new SymbolTableImpl<Integer, String, Object>());
+        addProgram(createEngine(saver));
+        saver.saveImage(file);
+
+        long length = file.length();
+
+        WAMResolvingJavaMachine loader = new WAMResolvingJavaMachine(new SymbolTableImpl<Integer, String, Object>());
+        ResolutionEngine<Clause, WAMCompiledPredicate, WAMCompiledQuery> loaderEngine = createEngine(loader);
+        loader.loadImage(file);
+
+        addClause(loaderEngine, "colour(white)");
+        loaderEngine.endScope();
+
+        setQuery(loaderEngine, "?- pick(X, Y).");
+        assertEquals("Wrong number of solutions.", 2, countSolutions(loader));
+        assertEquals("The image file should not be changed.", length, file.length());
+
+        loader.loadImage(file);
+        setQuery(loaderEngine, "?- pick(X, Y).");
+        assertEquals("Wrong number of solutions after loading again.", 6, countSolutions(loader));
+    }
+
+    /**
+     * Check that a program loaded from an image runs, when the machine loading it interns the names in the image to
+     * other values than the machine that saved it, whether its calls are linked to entry addresses or by name.
+     */
+    public void testProgramLoadedUnderOtherNamesRunsOk() throws Exception
+    {
+        for (boolean byName : new boolean[] { false, true })
+        {
+            dropNames();
+
+            WAMResolvingJavaMachine saver =
+                new WAMResolvingJavaMachine(new SymbolTableImpl<Integer, String, Object>());
+            saver.setProcedureTable(byName);
+            addProgram(createEngine(saver));
+            saver.saveImage(file);
+
+            int colour = saver.internFunctorName("colour", 1);
+
+            // Start the names afresh, and take up the values they had with some unrelated ones.
+            dropNames();
+
+            WAMResolvingJavaMachine loader =
+                new WAMResolvingJavaMachine(new SymbolTableImpl<Integer, String, Object>());
+            loader.setProcedureTable(byName);
+
+            ResolutionEngine<Clause, WAMCompiledPredicate, WAMCompiledQuery> loaderEngine = createEngine(loader);
+
+            for (int i = 0; i < 10; i++)
+            {
+                loader.internFunctorName("unrelated" + i, i);
+            }
+
+            loader.loadImage(file);
+            assertTrue("The names should be interned to other values.",
+                loader.internFunctorName("colour", 1) != colour);
+
+            setQuery(loaderEngine, "?- pick(X, Y).");
+            assertEquals("Wrong number of solutions after loading.", 6, countSolutions(loader));
+
+            setQuery(loaderEngine, "?- colour(green), pick(green, black), not(pick(black, green)).");
+            assertEquals("Wrong number of solutions after loading.", 1, countSolutions(loader));
+        }
+    }
+
+    /** Check that an image linked by entry address is not loaded into a machine that links calls by name. */
+    public void testImageLinkedDifferentlyFailsToLoad() throws Exception
+    {
+        WAMResolvingJavaMachine saver = new WAMResolvingJavaMachine(new SymbolTableImpl<Integer, String, Object>());
+        addProgram(createEngine(saver));
+        saver.saveImage(file);
+
+        WAMResolvingJavaMachine loader = new WAMResolvingJavaMachine(new SymbolTableImpl<Integer, String, Object>());
+        loader.setProcedureTable(true);
+
+        try
+        {
+            loader.loadImage(file);
+            fail("An image linked by entry address should not load into a machine linking calls by name.");
+        }
+        catch (IllegalStateException e)
+        {
+            // Expected.
+        }
+    }
+
+    /** Check that a file that is not a program image is not loaded. */
+    public void testNonImageFailsToLoad() throws Exception
+    {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("colour(red).".getBytes("UTF-8"));
+        out.close();
+
+        WAMResolvingJavaMachine loader = new WAMResolvingJavaMachine(new SymbolTableImpl<Integer, String, Object>());
+
+        try
+        {
+            loader.loadImage(file);
+            fail("A file that is not a program image should not load.");
+        }
+        catch (IOException e)
+        {
+            // Expected.
+        }
+    }
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        file = File.createTempFile("wam", ".img");
+    }
+
+    protected void tearDown() throws Exception
+    {
+        file.delete();
+
+        super.tearDown();
+    }
+
+    /** Drops the names interned by the machines, so that the next machine created starts them afresh. */
+    private static void dropNames()
+    {
+        IdAttribute.getFactoryForClass("WAM_Functor_Namespace").dropAttributeClass();
+        IdAttribute.getFactoryForClass("WAM_Variable_Namespace").dropAttributeClass();
+    }
+
+    /**
+     * Loads the built-in library and a test program into an engine.
+     *
+     * @param  engine The engine.
+     *
+     * @throws SourceCodeException If the program will not parse or compile.
+     */
+    private void addProgram(ResolutionEngine<Clause, WAMCompiledPredicate, WAMCompiledQuery> engine)
+        throws SourceCodeException
+    {
+        engine.reset();
+
+        addClause(engine, "colour(red)");
+        addClause(engine, "colour(green)");
+        addClause(engine, "colour(blue)");
+        addClause(engine, "pick(X, Y) :- colour(X), member(Y, [X, black])");
+        engine.endScope();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import java.util.Iterator;
+import java.util.Set;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import com.thesett.aima.logic.fol.Variable;
+import com.thesett.common.parsing.SourceCodeException;
+
+/**
+ * WAMQueryLimitsTest checks that queries that go over their resource limits are stopped, and that the machine can run
+ * further queries once they have been.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities
+ * <tr><td> Check that the inference limit stops a query, but lets one within it run.
+ * <tr><td> Check that the heap and stack quotas stop queries.
+ * <tr><td> Check that the time limit stops a query that never ends.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMQueryLimitsTest extends WAMEngineTestBase
+{
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test.
+     */
+    public WAMQueryLimitsTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Compiles all the tests defined in this class into a suite.
+     *
+     * @return A test suite.
+     */
+    public static Test suite()
+    {
+        return new TestSuite(WAMQueryLimitsTest.class);
+    }
+
+    /** Check that a query that makes too many inferences is stopped, and that the machine runs the next one. */
+    public void testInferenceLimitStopsQuery() throws Exception
+    {
+        engine.reset();
+
+        addClause("count(z).");
+        addClause("count(s(X)) :- count(X).");
+        addClause("loop :- loop.");
+        engine.endScope();
+
+        machine.setMaxSteps(1000);
+
+        try
+        {
+            assertLimit(WAMLimitException.INFERENCES, "?- loop.");
+            assertEquals("Wrong number of solutions.", 1, countSolutions("?- count(s(s(s(z))))."));
+        }
+        finally
+        {
+            machine.setMaxSteps(0);
+        }
+    }
+
+    /** Check that queries that use too much heap or stack are stopped. */
+    public void testMemoryQuotasStopQueries() throws Exception
+    {
+        engine.reset();
+
+        addClause("grow(X) :- grow(f(X)).");
+        addClause("deep(X) :- deep(X), deep(X).");
+        engine.endScope();
+
+        WAMQueryLimits limits = new WAMQueryLimits();
+        limits.maxHeap = 1 << 12;
+        limits.maxStack = 1 << 12;
+
+        machine.setLimits(limits);
+
+        try
+        {
+            assertLimit(WAMLimitException.HEAP, "?- grow(a).");
+            assertLimit(WAMLimitException.STACK, "?- deep(a).");
+        }
+        finally
+        {
+            machine.setLimits(new WAMQueryLimits());
+        }
+    }
+
+    /** Check that a query that never ends is stopped once it has run out of time. */
+    public void testTimeLimitStopsQuery() throws Exception
+    {
+        engine.reset();
+
+        addClause("loop :- loop.");
+        engine.endScope();
+
+        WAMQueryLimits limits = new WAMQueryLimits();
+        limits.timeLimit = 100;
+
+        machine.setLimits(limits);
+
+        try
+        {
+            assertLimit(WAMLimitException.TIME, "?- loop.");
+        }
+        finally
+        {
+            machine.setLimits(new WAMQueryLimits());
+        }
+    }
+
+    /**
+     * Runs a query, checking that it is stopped by going over a limit.
+     *
+     * @param  limit       The name of the limit that the query should go over.
+     * @param  queryString The query to run.
+     *
+     * @throws SourceCodeException If the query will not parse or compile.
+     */
+    private void assertLimit(String limit, String queryString) throws SourceCodeException
+    {
+        try
+        {
+            countSolutions(queryString);
+            fail("The query should have gone over its " + limit + " limit.");
+        }
+        catch (WAMLimitException e)
+        {
+            assertEquals("Wrong limit.", limit, e.getLimit());
+        }
+    }
+
+    /**
+     * Runs a query to find all of its solutions.
+     *
+     * @param  queryString The query to run.
+     *
+     * @return The number of solutions.
+     *
+     * @throws SourceCodeException If the query will not parse or compile.
+     */
+    private int countSolutions(String queryString) throws SourceCodeException
+    {
+        setQuery(queryString);
+
+        int count = 0;
+
+        for (Iterator<Set<Variable>> solutions = engine.iterator(); solutions.hasNext();)
+        {
+            solutions.next();
+            count++;
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Set;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import com.thesett.aima.logic.fol.Variable;
+
+/**
+ * WAMResolvingJavaMachineCodeGCTest checks that the code of redefined predicates is freed and reused by a WAM byte code
+ * machine, that callers pick up the new definitions, and that old definitions are kept whilst they may still be run.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities
+ * <tr><td> Check that the code area does not grow as a predicate is redefined.
+ * <tr><td> Check that callers of a redefined predicate call its new definition.
+ * <tr><td> Check that a suspended query can still backtrack into an old definition.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMResolvingJavaMachineCodeGCTest extends WAMEngineTestBase
+{
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test.
+     */
+    public WAMResolvingJavaMachineCodeGCTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Compiles all the tests defined in this class into a suite.
+     *
+     * @return A test suite.
+     */
+    public static Test suite()
+    {
+        return new TestSuite(WAMResolvingJavaMachineCodeGCTest.class);
+    }
+
+    /** Check that redefining a predicate over and over again does not grow the code area. */
+    public void testRedefinedPredicateReusesCode() throws Exception
+    {
+        engine.reset();
+
+        addClause("f(a)");
+        engine.endScope();
+
+        setQuery("?- f(X).");
+        engine.iterator().next();
+
+        int end = machine.codeBuffer.position();
+
+        for (int i = 0; i < 1000; i++)
+        {
+            addClause("f(b)");
+            engine.endScope();
+
+            setQuery("?- f(X).");
+            assertEquals("Wrong binding.", "X = b", solutionText(engine.iterator().next()));
+        }
+
+        assertEquals("The code area should not grow as a predicate is redefined.", end,
+            machine.codeBuffer.position());
+    }
+
+    /** Check that the callers of a redefined predicate call its new definition. */
+    public void testCallerSeesRedefinition() throws Exception
+    {
+        engine.reset();
+
+        addClause("f(a)");
+        addClause("g(X) :- f(X)");
+        engine.endScope();
+
+        setQuery("?- g(X).");
+        assertEquals("Wrong binding.", "X = a", solutionText(engine.iterator().next()));
+
+        addClause("f(b, c)");
+        addClause("f(X) :- f(X, Y)");
+        engine.endScope();
+
+        setQuery("?- g(X).");
+        assertEquals("Wrong binding.", "X = b", solutionText(engine.iterator().next()));
+    }
+
+    /** Check that the old definition of a predicate is kept, whilst a suspended query may backtrack into it. */
+    public void testSuspendedQueryKeepsOldDefinition() throws Exception
+    {
+        engine.reset();
+
+        addClause("f(a)");
+        addClause("f(b)");
+        engine.endScope();
+
+        setQuery("?- f(X).");
+
+        Iterator<Set<Variable>> solutions = engine.iterator();
+        assertEquals("Wrong binding.", "X = a", solutionText(solutions.next()));
+
+        addClause("f(c)");
+        engine.endScope();
+
+        assertEquals("Wrong binding.", "X = b", solutionText(solutions.next()));
+        assertFalse("There should be no more solutions.", solutions.hasNext());
+    }
+
+    /** Check that a caller and its callees can be redefined together, hundreds of times over. */
+    public void testRepeatedHotReload() throws Exception
+    {
+        engine.reset();
+
+        for (int i = 0; i < 300; i++)
+        {
+            addClause("f(" + i + ")");
+            addClause("h(" + i + ")");
+            addClause("g(X) :- f(X), h(X)");
+            engine.endScope();
+
+            setQuery("?- g(X).");
+            assertEquals("Wrong binding.", "X = " + i, solutionText(engine.iterator().next()));
+        }
+    }
+
+    /**
+     * Prints a solution, with its variable bindings in order of the variable names.
+     *
+     * @param  solution The solution.
+     *
+     * @return The solution printed with one sorted binding per line.
+     */
+    private String solutionText(Set<Variable> solution)
+    {
+        String[] bindings = engine.printSolution(solution).trim().split("\n");
+        Arrays.sort(bindings);
+
+        StringBuilder result = new StringBuilder();
+
+        for (String binding : bindings)
+        {
+            result.append((result.length() > 0) ? "\n" : "").append(binding.trim());
+        }
+
+        return result.toString();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import com.thesett.common.util.doublemaps.SymbolTableImpl;
+
+/**
+ * WAMResolvingJavaMachineCompiledTest runs the resolution tests through a WAM byte code machine that compiles every
+ * predicate to Java byte code on its first call, in order to check that compiled code behaves exactly as the
+ * interpreter does.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Run all resolution tests through compiled code. <td> {@link WAMResolvingJavaMachineTest}.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMResolvingJavaMachineCompiledTest extends WAMEngineTestBase
+{
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test.
+     */
+    public WAMResolvingJavaMachineCompiledTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Compile all the tests for the default tests for resolvers into a suite, plus the tests defined in this class.
+     *
+     * @return A test suite.
+     */
+    public static Test suite()
+    {
+        // Build a new test suite
+        TestSuite suite = new TestSuite("WAMResolvingJavaMachine Compiled Code Tests");
+
+        WAMResolvingJavaMachine machine = new WAMResolvingJavaMachine(new SymbolTableImpl<Integer, String, Object>());
+
+        // Compile every predicate as soon as it is called.
+        machine.setCompilationThreshold(1);
+
+        WAMResolvingJavaMachineTest.addResolverTests(suite, createEngine(machine));
+
+        return suite;
+    }
+}
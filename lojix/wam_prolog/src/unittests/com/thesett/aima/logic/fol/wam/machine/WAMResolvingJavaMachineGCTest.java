@@ -0,0 +1,134 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import java.util.Iterator;
+import java.util.Set;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import com.thesett.aima.logic.fol.Variable;
+import com.thesett.common.util.doublemaps.SymbolTableImpl;
+
+/**
+ * WAMResolvingJavaMachineGCTest runs the resolution tests through a WAM byte code machine that garbage collects its
+ * heap whenever it can, in order to check that collection does not disturb any live data. It also checks that a long
+ * deterministic computation runs within a bounded heap.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Run all resolution tests with frequent garbage collection. <td> {@link WAMResolvingJavaMachineTest}.
+ * <tr><td> Check that a long deterministic computation runs within a bounded heap.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMResolvingJavaMachineGCTest extends WAMEngineTestBase
+{
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test.
+     */
+    public WAMResolvingJavaMachineGCTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Compile all the tests for the default tests for resolvers into a suite, plus the tests defined in this class.
+     *
+     * @return A test suite.
+     */
+    public static Test suite()
+    {
+        // Build a new test suite
+        TestSuite suite = new TestSuite("WAMResolvingJavaMachine Garbage Collection Tests");
+
+        WAMResolvingJavaMachineTest.addResolverTests(suite, createEngine(createCollectingMachine()));
+
+        // Add all the tests defined in this class.
+        suite.addTest(new WAMResolvingJavaMachineGCTest("testDeterministicLoopRunsInBoundedHeap"));
+
+        return suite;
+    }
+
+    /**
+     * Creates a machine that collects garbage as often as possible.
+     *
+     * @return A new machine.
+     */
+    private static WAMResolvingJavaMachine createCollectingMachine()
+    {
+        WAMResolvingJavaMachine machine = new WAMResolvingJavaMachine(new SymbolTableImpl<Integer, String, Object>());
+        machine.setGarbageCollectionThreshold(0);
+
+        return machine;
+    }
+
+    /** {@inheritDoc} */
+    protected WAMResolvingJavaMachine createMachine()
+    {
+        return createCollectingMachine();
+    }
+
+    /**
+     * Check that a deterministic loop, that creates far more garbage on each iteration than it keeps, finishes with no
+     * more on the heap than the garbage collection threshold allows, plus the data that it keeps.
+     */
+    public void testDeterministicLoopRunsInBoundedHeap() throws Exception
+    {
+        engine.reset();
+
+        addClause("nrev([], [])");
+        addClause("nrev([X|Rest], Ans) :- nrev(Rest, L), append(L, [X], Ans)");
+        addClause("loop([], R, R)");
+        addClause("loop([_|T], _, R) :- nrev([a1, a2, a3, a4, a5, a6, a7, a8, a9, a10, a11, a12, a13, a14, a15, a16, " +
+            "a17, a18, a19, a20], L), loop(T, L, R)");
+
+        engine.endScope();
+
+        StringBuilder query = new StringBuilder("?- loop([x");
+
+        for (int i = 1; i < 50; i++)
+        {
+            query.append(", x");
+        }
+
+        query.append("], [], [F|_]).");
+
+        setQuery(query.toString());
+
+        machine.setGarbageCollectionThreshold(10000);
+
+        try
+        {
+            Iterator<Set<Variable>> solutions = engine.iterator();
+            Set<Variable> solution = solutions.next();
+
+            assertEquals("Wrong binding for F.", "F = a20", engine.printSolution(solution).trim());
+
+            int heapInUse = machine.getInternalRegisters().hp - machine.getMemoryLayout().heapBase;
+            assertTrue("Heap in use, " + heapInUse + ", is not bounded by the garbage collection threshold.",
+                heapInUse < 20000);
+        }
+        finally
+        {
+            machine.setGarbageCollectionThreshold(0);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import java.util.Iterator;
+import java.util.Set;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import com.thesett.aima.logic.fol.Variable;
+import com.thesett.common.util.doublemaps.SymbolTableImpl;
+
+/**
+ * WAMResolvingJavaMachineGrowthTest runs the resolution tests through a WAM byte code machine that starts out with
+ * memory areas that are too small for them, in order to check that growing the areas does not disturb any live data.
+ * It also checks that running out of memory altogether raises a resource error, and leaves the machine usable.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Run all resolution tests with memory areas that must grow. <td> {@link WAMResolvingJavaMachineTest}.
+ * <tr><td> Check that running out of memory raises a resource error.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMResolvingJavaMachineGrowthTest extends WAMEngineTestBase
+{
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test.
+     */
+    public WAMResolvingJavaMachineGrowthTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Compile all the tests for the default tests for resolvers into a suite, plus the tests defined in this class.
+     *
+     * @return A test suite.
+     */
+    public static Test suite()
+    {
+        // Build a new test suite
+        TestSuite suite = new TestSuite("WAMResolvingJavaMachine Memory Growth Tests");
+
+        WAMResolvingJavaMachineTest.addResolverTests(suite, createEngine(createGrowingMachine()));
+
+        // Add all the tests defined in this class.
+        suite.addTest(new WAMResolvingJavaMachineGrowthTest("testHeapOverflowRaisesResourceError"));
+        suite.addTest(new WAMResolvingJavaMachineGrowthTest("testTrailGrowthKeepsTermsBeingBuilt"));
+
+        return suite;
+    }
+
+    /**
+     * Creates a machine that starts out with memory areas that are too small, and limits its heap to a size that is
+     * still large enough for all of the tests.
+     *
+     * @return A new machine.
+     */
+    private static WAMResolvingJavaMachine createGrowingMachine()
+    {
+        WAMMemorySizes sizes = new WAMMemorySizes();
+        sizes.heapSize = 1024;
+        sizes.maxHeapSize = 1 << 16;
+        sizes.stackSize = 1;
+        sizes.trailSize = 1;
+        sizes.pdlSize = 1;
+        sizes.codeSize = 16;
+
+        return new WAMResolvingJavaMachine(new SymbolTableImpl<Integer, String, Object>(), sizes);
+    }
+
+    /** {@inheritDoc} */
+    protected WAMResolvingJavaMachine createMachine()
+    {
+        return createGrowingMachine();
+    }
+
+    /**
+     * Check that a computation that keeps more data than the heap can hold raises a resource error naming the heap, and
+     * that the machine can still run queries afterwards.
+     */
+    public void testHeapOverflowRaisesResourceError() throws Exception
+    {
+        engine.reset();
+
+        addClause("grow(L) :- grow([a, b, c, d, e, f, g, h|L])");
+        addClause("f(x)");
+
+        engine.endScope();
+
+        setQuery("?- grow([]).");
+
+        try
+        {
+            engine.iterator().hasNext();
+            fail("A heap overflow should raise a resource error.");
+        }
+        catch (WAMResourceException e)
+        {
+            assertEquals("Wrong resource overflowed.", WAMResourceException.HEAP, e.getResource());
+        }
+
+        setQuery("?- f(X).");
+
+        Iterator<Set<Variable>> solutions = engine.iterator();
+        assertEquals("Wrong binding for X.", "X = x", engine.printSolution(solutions.next()).trim());
+    }
+
+    /**
+     * Check that growing the trail, part way through binding a variable to a structure or list cell that is being
+     * built, does not lose the cells of the term being built. Each clause leaves a choice point behind it, so that
+     * every binding made by get_struc or get_list is trailed.
+     */
+    public void testTrailGrowthKeepsTermsBeingBuilt() throws Exception
+    {
+        engine.reset();
+
+        addClause("mk(s(X), s(N)) :- mk(X, N)");
+        addClause("mk(z, z)");
+        addClause("ml([a|T], s(N)) :- ml(T, N)");
+        addClause("ml([], z)");
+
+        engine.endScope();
+
+        String number = "z";
+        String list = "nil";
+
+        for (int i = 0; i < 30; i++)
+        {
+            number = "s(" + number + ")";
+            list = "cons(a, " + list + ")";
+        }
+
+        setQuery("?- mk(P, " + number + ").");
+
+        Iterator<Set<Variable>> solutions = engine.iterator();
+        assertEquals("Wrong binding for P.", "P = " + number, engine.printSolution(solutions.next()).trim());
+        assertFalse("Too many solutions.", solutions.hasNext());
+
+        setQuery("?- ml(L, " + number + ").");
+
+        solutions = engine.iterator();
+        assertEquals("Wrong binding for L.", "L = " + list, engine.printSolution(solutions.next()).trim());
+        assertFalse("Too many solutions.", solutions.hasNext());
+    }
+}
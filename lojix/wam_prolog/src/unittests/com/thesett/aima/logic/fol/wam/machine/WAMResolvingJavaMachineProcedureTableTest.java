@@ -0,0 +1,104 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import com.thesett.common.util.doublemaps.SymbolTableImpl;
+
+/**
+ * WAMResolvingJavaMachineProcedureTableTest runs the resolution tests through a WAM byte code machine that links calls
+ * through its procedure table, and checks that predicates can be called before they are defined.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Run all resolution tests with calls through the procedure table. <td> {@link WAMResolvingJavaMachineTest}.
+ * <tr><td> Check that calls find predicates defined and redefined after them.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMResolvingJavaMachineProcedureTableTest extends WAMEngineTestBase
+{
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test.
+     */
+    public WAMResolvingJavaMachineProcedureTableTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Compile all the tests for the default tests for resolvers into a suite, plus the tests defined in this class.
+     *
+     * @return A test suite.
+     */
+    public static Test suite()
+    {
+        // Build a new test suite
+        TestSuite suite = new TestSuite(WAMResolvingJavaMachineProcedureTableTest.class);
+
+        WAMResolvingJavaMachineTest.addResolverTests(suite, createEngine(createTableLinkedMachine()));
+
+        return suite;
+    }
+
+    /**
+     * Creates a machine that links all calls through the procedure table.
+     *
+     * @return A new machine.
+     */
+    private static WAMResolvingJavaMachine createTableLinkedMachine()
+    {
+        WAMResolvingJavaMachine machine = new WAMResolvingJavaMachine(new SymbolTableImpl<Integer, String, Object>());
+        machine.setProcedureTable(true);
+
+        return machine;
+    }
+
+    /** {@inheritDoc} */
+    protected WAMResolvingJavaMachine createMachine()
+    {
+        return createTableLinkedMachine();
+    }
+
+    /** Check that a call to a predicate that is defined after its caller, finds the predicate. */
+    public void testCallBeforeDefinition() throws Exception
+    {
+        engine.reset();
+
+        addClause("g(X) :- f(X)");
+        engine.endScope();
+
+        setQuery("?- g(X).");
+        assertFalse("There should be no solution before f/1 is defined.", engine.iterator().hasNext());
+
+        addClause("f(a)");
+        engine.endScope();
+
+        setQuery("?- g(X).");
+        assertEquals("Wrong binding.", "X = a", engine.printSolution(engine.iterator().next()).trim());
+
+        addClause("f(b)");
+        engine.endScope();
+
+        setQuery("?- g(X).");
+        assertEquals("Wrong binding.", "X = b", engine.printSolution(engine.iterator().next()).trim());
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Set;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import com.thesett.aima.logic.fol.Variable;
+import com.thesett.aima.logic.fol.wam.compiler.WAMCompiledQuery;
+
+/**
+ * WAMResolvingJavaMachineQueryTest checks that running many queries through a WAM byte code machine does not use up its
+ * code area, and that queries of the same shape as earlier ones report their results against their own variables.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities
+ * <tr><td> Check that the code area does not grow as queries are run.
+ * <tr><td> Check that cached queries are renamed to the variables of new queries.
+ * <tr><td> Check that abandoning a query part way through its solutions does not disturb the next one.
+ * <tr><td> Check that cached queries are dropped when the engine is reset.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMResolvingJavaMachineQueryTest extends WAMEngineTestBase
+{
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test.
+     */
+    public WAMResolvingJavaMachineQueryTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Compiles all the tests defined in this class into a suite.
+     *
+     * @return A test suite.
+     */
+    public static Test suite()
+    {
+        return new TestSuite(WAMResolvingJavaMachineQueryTest.class);
+    }
+
+    /** Check that running the same queries over and over again does not grow the code area. */
+    public void testRepeatedQueriesDoNotGrowCodeArea() throws Exception
+    {
+        engine.reset();
+
+        addClause("f(x)");
+        addClause("g(y)");
+
+        engine.endScope();
+
+        setQuery("?- f(X), g(Y).");
+        engine.iterator().next();
+
+        int end = machine.codeBuffer.position();
+
+        for (int i = 0; i < 1000; i++)
+        {
+            setQuery(((i % 2) == 0) ? "?- g(X)." : "?- f(X), g(Y).");
+            engine.iterator().next();
+        }
+
+        assertEquals("The code area should not grow as queries are run.", end, machine.codeBuffer.position());
+    }
+
+    /** Check that a query of the same shape as an earlier one reports its results against its own variables. */
+    public void testRenamedQueryReportsOwnVariables() throws Exception
+    {
+        engine.reset();
+
+        addClause("f(x, y)");
+
+        engine.endScope();
+
+        setQuery("?- f(X, Y).");
+        assertEquals("Wrong bindings.", "X = x\nY = y", solutionText(engine.iterator().next()));
+
+        setQuery("?- f(B, A).");
+        assertEquals("Wrong bindings.", "A = y\nB = x", solutionText(engine.iterator().next()));
+
+        setQuery("?- f(X, _).");
+        assertEquals("Wrong bindings.", "X = x", solutionText(engine.iterator().next()));
+    }
+
+    /** Check that a query abandoned part way through its solutions does not leave solutions for the next one. */
+    public void testAbandonedQueryDoesNotDisturbNextQuery() throws Exception
+    {
+        engine.reset();
+
+        addClause("f(a)");
+        addClause("f(b)");
+        addClause("f(c)");
+        addClause("g(d)");
+
+        engine.endScope();
+
+        setQuery("?- f(X).");
+        engine.iterator().next();
+
+        setQuery("?- g(X).");
+
+        Iterator<Set<Variable>> solutions = engine.iterator();
+        assertEquals("Wrong binding.", "X = d", solutionText(solutions.next()));
+        assertFalse("There should be only one solution.", solutions.hasNext());
+    }
+
+    /** Check that queries compiled before the engine is reset are not reused after it. */
+    public void testResetDropsCachedQueries() throws Exception
+    {
+        engine.reset();
+
+        addClause("f(x)");
+
+        engine.endScope();
+
+        setQuery("?- f(X).");
+
+        WAMCompiledQuery query = machine.currentQuery;
+
+        setQuery("?- f(X).");
+        assertSame("The query should have been reused.", query, machine.currentQuery);
+
+        engine.reset();
+
+        addClause("f(y)");
+
+        engine.endScope();
+
+        setQuery("?- f(X).");
+        assertNotSame("The query should have been compiled again.", query, machine.currentQuery);
+        assertEquals("Wrong bindings.", "X = y", solutionText(engine.iterator().next()));
+    }
+
+    /**
+     * Prints a solution, with its variable bindings in order of the variable names.
+     *
+     * @param  solution The solution.
+     *
+     * @return The solution printed with one sorted binding per line.
+     */
+    private String solutionText(Set<Variable> solution)
+    {
+        String[] bindings = engine.printSolution(solution).trim().split("\n");
+        Arrays.sort(bindings);
+
+        StringBuilder result = new StringBuilder();
+
+        for (String binding : bindings)
+        {
+            result.append((result.length() > 0) ? "\n" : "").append(binding.trim());
+        }
+
+        return result.toString();
+    }
+}
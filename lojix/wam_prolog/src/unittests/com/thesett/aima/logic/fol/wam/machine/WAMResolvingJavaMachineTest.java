@@ -98,6 +98,29 @@ public class WAMResolvingJavaMachineTest extends TestCase
         /*SimpleMonitor monitor = new SimpleMonitor();
         machine.attachMonitor(monitor);*/
 
+        addResolverTests(suite, engine);
+
+        // String literals are not yet compiled into the WAM as constants that can be told apart, so this test is known
+        // to fail. It is run here, in the suite that the build excludes, rather than along with the resolver tests
+        // that are re-run against other machine configurations.
+        suite.addTest(new UnifyAndNonUnifyResolverUnitTestBase<Clause, WAMCompiledPredicate, WAMCompiledQuery>(
+                "testNonEqualStringsFailToUnify", engine));
+
+        // Add all the tests defined in this class.
+
+        return suite;
+    }
+
+    /**
+     * Adds all of the default tests for resolvers to a suite, run against a resolution engine. Only tests that are
+     * expected to pass are added, as this is shared with the suites that the build runs.
+     *
+     * @param suite  The test suite to add to.
+     * @param engine The resolution engine to run the tests against.
+     */
+    protected static void addResolverTests(TestSuite suite,
+        ResolutionEngine<Clause, WAMCompiledPredicate, WAMCompiledQuery> engine)
+    {
         // Add all tests defined in the BasicUnificationTestBase class
         suite.addTest(new BasicUnificationUnitTestBase<Clause, WAMCompiledPredicate, WAMCompiledQuery>(
                 "testAtomsUnifyOk", engine));
@@ -241,6 +264,8 @@ public class WAMResolvingJavaMachineTest extends TestCase
                 "testBodyVariableBindsOk", engine));
         suite.addTest(new BasicResolverUnitTestBase<Clause, WAMCompiledPredicate, WAMCompiledQuery>(
                 "testVariablesUnboundOnBacktrackingMemberOk", engine));
+        suite.addTest(new BasicResolverUnitTestBase<Clause, WAMCompiledPredicate, WAMCompiledQuery>(
+                "testFailedUnificationLeavesNoBindingsOk", engine));
 
         // Add all tests defined in the ConjunctionResolverUnitTestBase class.
         suite.addTest(new ConjunctionResolverUnitTestBase<Clause, WAMCompiledPredicate, WAMCompiledQuery>(
@@ -311,6 +336,28 @@ public class WAMResolvingJavaMachineTest extends TestCase
                 "testInstantiatingClausesSeveralTimesWithSameVariableDoesNotConflictVariableBindings", engine));
         suite.addTest(new BacktrackingResolverUnitTestBase<Clause, WAMCompiledPredicate, WAMCompiledQuery>(
                 "testInstantiatingClausesSeveralTimesWithDifferentVariableAllowsIndependentBindings", engine));
+        suite.addTest(new BacktrackingResolverUnitTestBase<Clause, WAMCompiledPredicate, WAMCompiledQuery>(
+                "testFirstArgumentConstantSelectsMatchingClausesInOrder", engine));
+        suite.addTest(new BacktrackingResolverUnitTestBase<Clause, WAMCompiledPredicate, WAMCompiledQuery>(
+                "testFirstArgumentFunctorSelectsMatchingClausesInOrder", engine));
+        suite.addTest(new BacktrackingResolverUnitTestBase<Clause, WAMCompiledPredicate, WAMCompiledQuery>(
+                "testFirstArgumentVariableClausesSelectedInOrder", engine));
+        suite.addTest(new BacktrackingResolverUnitTestBase<Clause, WAMCompiledPredicate, WAMCompiledQuery>(
+                "testFirstArgumentWithNoMatchingClausesFails", engine));
+        suite.addTest(new BacktrackingResolverUnitTestBase<Clause, WAMCompiledPredicate, WAMCompiledQuery>(
+                "testFirstArgumentIntegerSelectsMatchingClausesInOrder", engine));
+        suite.addTest(new BacktrackingResolverUnitTestBase<Clause, WAMCompiledPredicate, WAMCompiledQuery>(
+                "testFirstArgumentFloatSelectsMatchingClausesInOrder", engine));
+        suite.addTest(new BacktrackingResolverUnitTestBase<Clause, WAMCompiledPredicate, WAMCompiledQuery>(
+                "testFirstArgumentVariableClausesBetweenOthersSelectedInOrder", engine));
+        suite.addTest(new BacktrackingResolverUnitTestBase<Clause, WAMCompiledPredicate, WAMCompiledQuery>(
+                "testSecondArgumentSelectsMatchingClausesInOrder", engine));
+        suite.addTest(new BacktrackingResolverUnitTestBase<Clause, WAMCompiledPredicate, WAMCompiledQuery>(
+                "testSecondArgumentNumberSelectsMatchingClausesInOrder", engine));
+        suite.addTest(new BacktrackingResolverUnitTestBase<Clause, WAMCompiledPredicate, WAMCompiledQuery>(
+                "testSecondArgumentRepeatedCallsSelectMatchingClauses", engine));
+        suite.addTest(new BacktrackingResolverUnitTestBase<Clause, WAMCompiledPredicate, WAMCompiledQuery>(
+                "testBacktrackingIntoEarlierCallKeepsLiveVariables", engine));
 
         // Add all tests defined in the ListResolverUnitTestBase class.
         suite.addTest(new ListResolverUnitTestBase<Clause, WAMCompiledPredicate, WAMCompiledQuery>("testNilRecognized",
@@ -385,6 +432,10 @@ public class WAMResolvingJavaMachineTest extends TestCase
                 "testNeckCutPreventsBacktrackingOk", engine));
         suite.addTest(new CutResolverUnitTestBase<Clause, WAMCompiledPredicate, WAMCompiledQuery>(
                 "testDeepCutPreventsBacktrackingOk", engine));
+        suite.addTest(new CutResolverUnitTestBase<Clause, WAMCompiledPredicate, WAMCompiledQuery>(
+                "testNeckCutEndingClauseOk", engine));
+        suite.addTest(new CutResolverUnitTestBase<Clause, WAMCompiledPredicate, WAMCompiledQuery>(
+                "testDeepCutEndingClauseOk", engine));
 
         // Add all tests defined in the CallAndNotResolverUnitTestBase class.
         suite.addTest(new CallAndNotResolverUnitTestBase<Clause, WAMCompiledPredicate, WAMCompiledQuery>(
@@ -481,12 +532,6 @@ public class WAMResolvingJavaMachineTest extends TestCase
                 "testNonEqualNumbersFailToUnify", engine));
         suite.addTest(new UnifyAndNonUnifyResolverUnitTestBase<Clause, WAMCompiledPredicate, WAMCompiledQuery>(
                 "testEqualStringsUnifyOk", engine));
-        suite.addTest(new UnifyAndNonUnifyResolverUnitTestBase<Clause, WAMCompiledPredicate, WAMCompiledQuery>(
-                "testNonEqualStringsFailToUnify", engine));
-
-        // Add all the tests defined in this class.
-
-        return suite;
     }
 
     protected void setUp()
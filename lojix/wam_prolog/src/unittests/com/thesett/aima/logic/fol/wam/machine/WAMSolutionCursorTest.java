@@ -0,0 +1,151 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * WAMSolutionCursorTest checks that a solution cursor steps through all of the solutions to a query, and reads the
+ * bindings of its variables off the heap correctly.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities
+ * <tr><td> Check that all solutions are stepped through.
+ * <tr><td> Check that each kind of term is read correctly.
+ * <tr><td> Check that terms are decoded in full on request.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMSolutionCursorTest extends WAMEngineTestBase
+{
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test.
+     */
+    public WAMSolutionCursorTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Compiles all the tests defined in this class into a suite.
+     *
+     * @return A test suite.
+     */
+    public static Test suite()
+    {
+        return new TestSuite(WAMSolutionCursorTest.class);
+    }
+
+    /** Check that the cursor steps through every solution, and then stops. */
+    public void testCursorStepsThroughAllSolutions() throws Exception
+    {
+        engine.reset();
+
+        for (int i = 0; i < 100; i++)
+        {
+            addClause("n(" + i + ")");
+        }
+
+        engine.endScope();
+
+        setQuery("?- n(X).");
+
+        WAMSolutionCursor cursor = machine.cursor();
+        int sum = 0;
+        int count = 0;
+
+        assertEquals("Wrong number of variables.", 1, cursor.getNumVariables());
+        assertEquals("Wrong variable name.", "X", cursor.getVariableName(0));
+
+        while (cursor.next())
+        {
+            sum += cursor.intValue(cursor.binding(0));
+            count++;
+        }
+
+        assertEquals("Wrong number of solutions.", 100, count);
+        assertEquals("Wrong solutions.", 4950, sum);
+        assertFalse("There should be no more solutions.", cursor.next());
+    }
+
+    /** Check that each kind of term is read correctly off the heap. */
+    public void testCursorReadsEachKindOfTerm() throws Exception
+    {
+        engine.reset();
+
+        addClause("f(a, 7, 123456789, 2.5, g(b, Y), [x, y], _)");
+        engine.endScope();
+
+        setQuery("?- f(A, B, C, D, E, F, G).");
+
+        WAMSolutionCursor cursor = machine.cursor();
+        assertTrue("There should be a solution.", cursor.next());
+
+        int[] terms = new int[7];
+
+        for (int i = 0; i < cursor.getNumVariables(); i++)
+        {
+            terms[cursor.getVariableName(i).charAt(0) - 'A'] = cursor.binding(i);
+        }
+
+        assertEquals("Wrong kind.", WAMSolutionCursor.ATOM, cursor.kind(terms[0]));
+        assertEquals("Wrong name.", "a", cursor.name(terms[0]));
+
+        assertEquals("Wrong kind.", WAMSolutionCursor.INT, cursor.kind(terms[1]));
+        assertEquals("Wrong value.", 7, cursor.intValue(terms[1]));
+        assertEquals("Wrong value.", 123456789, cursor.intValue(terms[2]));
+
+        assertEquals("Wrong kind.", WAMSolutionCursor.FLOAT, cursor.kind(terms[3]));
+        assertEquals("Wrong value.", 2.5, cursor.floatValue(terms[3]));
+
+        assertEquals("Wrong kind.", WAMSolutionCursor.STRUCT, cursor.kind(terms[4]));
+        assertEquals("Wrong name.", "g", cursor.name(terms[4]));
+        assertEquals("Wrong arity.", 2, cursor.arity(terms[4]));
+        assertEquals("Wrong name.", "b", cursor.name(cursor.argument(terms[4], 0)));
+        assertEquals("Wrong kind.", WAMSolutionCursor.VAR, cursor.kind(cursor.argument(terms[4], 1)));
+
+        int list = terms[5];
+
+        assertEquals("Wrong kind.", WAMSolutionCursor.LIST, cursor.kind(list));
+        assertEquals("Wrong head.", "x", cursor.name(cursor.argument(list, 0)));
+        list = cursor.argument(list, 1);
+        assertEquals("Wrong head.", "y", cursor.name(cursor.argument(list, 0)));
+        assertEquals("Wrong tail.", "nil", cursor.name(cursor.argument(list, 1)));
+
+        assertEquals("Wrong kind.", WAMSolutionCursor.VAR, cursor.kind(terms[6]));
+    }
+
+    /** Check that a term is decoded in full on request. */
+    public void testCursorDecodesTerm() throws Exception
+    {
+        engine.reset();
+
+        addClause("f(g(a, [1, 2]))");
+        engine.endScope();
+
+        setQuery("?- f(X).");
+
+        WAMSolutionCursor cursor = machine.cursor();
+        assertTrue("There should be a solution.", cursor.next());
+
+        assertEquals("Wrong term.", "g(a, cons(1, cons(2, nil)))",
+            cursor.decode(cursor.binding(0)).toString(machine, false, true));
+    }
+}
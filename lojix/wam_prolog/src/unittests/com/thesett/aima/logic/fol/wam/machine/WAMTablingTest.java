@@ -0,0 +1,163 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.aima.logic.fol.wam.machine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import com.thesett.aima.logic.fol.Variable;
+import com.thesett.common.parsing.SourceCodeException;
+
+/**
+ * WAMTablingTest checks that calls to predicates declared tabled are evaluated through tables of their answers, so
+ * that left recursive predicates terminate, and find each of their answers only once.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities
+ * <tr><td> Check that left recursion over a cyclic graph terminates with all of its answers.
+ * <tr><td> Check that mutually recursive tabled predicates are completed together.
+ * <tr><td> Check that completed tables answer later calls.
+ * <tr><td> Check that badly formed table directives are reported.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class WAMTablingTest extends WAMEngineTestBase
+{
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test.
+     */
+    public WAMTablingTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Compiles all the tests defined in this class into a suite.
+     *
+     * @return A test suite.
+     */
+    public static Test suite()
+    {
+        return new TestSuite(WAMTablingTest.class);
+    }
+
+    /** Check that a left recursive path over a cyclic graph terminates, and finds each reachable node once. */
+    public void testLeftRecursionOverCycleTerminates() throws Exception
+    {
+        engine.reset();
+
+        addClause("edge(a, b).");
+        addClause("edge(b, c).");
+        addClause("edge(c, a).");
+        addClause("edge(c, d).");
+        addClause(":- table path/2.");
+        addClause("path(X, Y) :- path(X, Z), edge(Z, Y).");
+        addClause("path(X, Y) :- edge(X, Y).");
+
+        engine.endScope();
+
+        assertEquals("Wrong answers.", "[Y = a, Y = b, Y = c, Y = d]", answers("?- path(a, Y)."));
+        assertEquals("Wrong answers.", "[]", answers("?- path(d, Y)."));
+    }
+
+    /** Check that mutually recursive tabled predicates find all of their answers. */
+    public void testMutualRecursionIsCompletedTogether() throws Exception
+    {
+        engine.reset();
+
+        addClause("succ(z, s(z)).");
+        addClause("succ(s(z), s(s(z))).");
+        addClause("succ(s(s(z)), s(s(s(z)))).");
+        addClause(":- table even/1, odd/1.");
+        addClause("even(z).");
+        addClause("even(X) :- odd(Y), succ(Y, X).");
+        addClause("odd(X) :- even(Y), succ(Y, X).");
+
+        engine.endScope();
+
+        assertEquals("Wrong answers.", "[X = s(s(z)), X = z]", answers("?- even(X)."));
+        assertEquals("Wrong answers.", "[X = s(s(s(z))), X = s(z)]", answers("?- odd(X)."));
+    }
+
+    /** Check that a table completed by one query, answers the same call made by the next. */
+    public void testCompletedTableAnswersLaterCalls() throws Exception
+    {
+        engine.reset();
+
+        addClause("link(a, b).");
+        addClause(":- table reach/2.");
+        addClause("reach(X, Y) :- reach(Y, X).");
+        addClause("reach(X, Y) :- link(X, Y).");
+
+        engine.endScope();
+
+        for (int i = 0; i < 3; i++)
+        {
+            assertEquals("Wrong answers.", "[Y = b]", answers("?- reach(a, Y)."));
+            assertEquals("Wrong answers.", "[Y = a]", answers("?- reach(b, Y)."));
+        }
+    }
+
+    /** Check that a table directive that does not consist of predicate indicators is reported. */
+    public void testBadTableDirectiveIsReported() throws Exception
+    {
+        engine.reset();
+
+        try
+        {
+            addClause(":- table path.");
+            fail("A table directive without a predicate indicator should not compile.");
+        }
+        catch (SourceCodeException e)
+        {
+            // Expected.
+        }
+    }
+
+    /**
+     * Runs a query to find all of its solutions.
+     *
+     * @param  queryString The query to run.
+     *
+     * @return The solutions, printed and sorted.
+     *
+     * @throws SourceCodeException If the query will not parse or compile.
+     */
+    private String answers(String queryString) throws SourceCodeException
+    {
+        setQuery(queryString);
+
+        List<String> results = new ArrayList<String>();
+
+        for (Iterator<Set<Variable>> solutions = engine.iterator(); solutions.hasNext();)
+        {
+            results.add(engine.printSolution(solutions.next()).trim());
+        }
+
+        Collections.sort(results);
+
+        return results.toString();
+    }
+}